@@ -5,6 +5,8 @@ import lombok.extern.slf4j.Slf4j;
 import net.sf.aspect4log.aspect.LogAspect;
 import org.galatea.starter.domain.SettlementMission;
 import org.galatea.starter.service.IAgreementTransformer;
+import org.galatea.starter.utils.VirtualThreads;
+import org.galatea.starter.utils.http.RateLimitedClient;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.EnableCaching;
@@ -15,6 +17,7 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.EnableAspectJAutoProxy;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 @Slf4j
 @Configuration
@@ -66,6 +69,54 @@ public class AppConfig {
     return cmfb;
   }
 
+  /**
+   * Bounded pool for calls to IEX, so that a request for many symbols can't open an unbounded
+   * number of connections.
+   *
+   * @param threads the most calls to IEX that run at once.
+   * @param virtualThreads whether the pool's threads are virtual. The bound still applies.
+   */
+  @Bean
+  public ThreadPoolTaskExecutor iexExecutor(@Value("${iex.executor.threads}") final int threads,
+      @Value("${virtual-threads.enabled:false}") final boolean virtualThreads) {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(threads);
+    executor.setMaxPoolSize(threads);
+    executor.setThreadNamePrefix("iex-");
+    // Requests made for a background caller, e.g. the backfill, stay in the background
+    executor.setTaskDecorator(RateLimitedClient::withCurrentPriority);
+    if (virtualThreads) {
+      executor.setThreadFactory(VirtualThreads.newThreadFactory("iex-"));
+    }
+    return executor;
+  }
+
+  /**
+   * Pool that the async IEX endpoints wait on IEX from, so that the Jetty thread that took the
+   * request is free to take others meanwhile. Kept apart from iexExecutor so that a flood of async
+   * requests can't starve the fan-out of multi-symbol requests. Once its queue is full, requests
+   * are rejected rather than queued without bound.
+   *
+   * @param threads the most async requests waiting on IEX at once.
+   * @param queueCapacity the most async requests waiting for a thread.
+   * @param virtualThreads whether the pool's threads are virtual. The bounds still apply.
+   */
+  @Bean
+  public ThreadPoolTaskExecutor iexIoExecutor(@Value("${iex.async.threads}") final int threads,
+      @Value("${iex.async.queue-capacity}") final int queueCapacity,
+      @Value("${virtual-threads.enabled:false}") final boolean virtualThreads) {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(threads);
+    executor.setMaxPoolSize(threads);
+    executor.setQueueCapacity(queueCapacity);
+    executor.setThreadNamePrefix("iex-io-");
+    executor.setTaskDecorator(RateLimitedClient::withCurrentPriority);
+    if (virtualThreads) {
+      executor.setThreadFactory(VirtualThreads.newThreadFactory("iex-io-"));
+    }
+    return executor;
+  }
+
   /**
    * Set the Feign log level for interfaces annotated with @FeignClient.
    *
@@ -0,0 +1,110 @@
+package org.galatea.starter;
+
+import feign.Request;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.galatea.starter.utils.TokenBucket;
+import org.galatea.starter.utils.http.RateLimitedClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * HTTP transport shared by the IEX Feign clients. Feign's default client opens a new
+ * HttpURLConnection per request, so under load most of the latency goes into connecting (and the
+ * TLS handshake). This pools connections per route instead, evicts the ones that sit idle and
+ * asks for gzipped responses.
+ *
+ * <p>Every request also takes a permit from one token bucket, so that the clients together stay
+ * within the IEX token's quota; see {@link RateLimitedClient}. Each client is built on these in
+ * its own Feign context by {@link IexFeignClientConfig}, with a circuit breaker of its own.
+ */
+@Slf4j
+@Configuration
+public class FeignConfig {
+
+  @Value("${iex.http.max-connections}")
+  private int maxConnections;
+
+  @Value("${iex.http.max-connections-per-route}")
+  private int maxConnectionsPerRoute;
+
+  @Value("${iex.http.idle-timeout-millis}")
+  private long idleTimeoutMillis;
+
+  @Value("${iex.http.connect-timeout-millis}")
+  private int connectTimeoutMillis;
+
+  @Value("${iex.http.read-timeout-millis}")
+  private int readTimeoutMillis;
+
+  @Value("${iex.http.gzip}")
+  private boolean gzip;
+
+  @Value("${iex.rate-limit.permits-per-second}")
+  private double permitsPerSecond;
+
+  @Value("${iex.rate-limit.burst}")
+  private int burst;
+
+  /**
+   * The connection pool. Connections are checked before being reused if they have been idle for
+   * a while, since the server may have closed them.
+   */
+  @Bean(destroyMethod = "close")
+  public PoolingHttpClientConnectionManager iexConnectionManager() {
+    PoolingHttpClientConnectionManager connectionManager =
+        new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(maxConnections);
+    connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+    connectionManager.setValidateAfterInactivity(1000);
+    return connectionManager;
+  }
+
+  /**
+   * Pooled Apache HTTP client. A background thread closes connections that have been idle for
+   * longer than the idle timeout or that the server marked as expired.
+   */
+  @Bean(destroyMethod = "close")
+  public CloseableHttpClient iexHttpClient(
+      final PoolingHttpClientConnectionManager iexConnectionManager) {
+    HttpClientBuilder builder = HttpClientBuilder.create()
+        .setConnectionManager(iexConnectionManager)
+        .setDefaultRequestConfig(RequestConfig.custom()
+            .setConnectTimeout(connectTimeoutMillis)
+            .setSocketTimeout(readTimeoutMillis)
+            .build())
+        .evictExpiredConnections()
+        .evictIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+    // Compression is on by default: the client sends Accept-Encoding and inflates the response
+    if (!gzip) {
+      builder.disableContentCompression();
+    }
+    log.info("IEX HTTP client pools {} connections ({} per route), gzip {}", maxConnections,
+        maxConnectionsPerRoute, gzip ? "on" : "off");
+    return builder.build();
+  }
+
+  /**
+   * The quota shared by every IEX request, published as iex.rate-limit.* metrics.
+   */
+  @Bean
+  public TokenBucket iexTokenBucket(final MeterRegistry meterRegistry) {
+    log.info("IEX requests limited to {} per second, bursts of {}", permitsPerSecond, burst);
+    return new TokenBucket(meterRegistry, "iex.rate-limit", permitsPerSecond, burst);
+  }
+
+  /**
+   * Connect and read timeouts for every Feign client. Feign applies these per request, so they
+   * override the client defaults above.
+   */
+  @Bean
+  public Request.Options feignRequestOptions() {
+    return new Request.Options(connectTimeoutMillis, readTimeoutMillis);
+  }
+}
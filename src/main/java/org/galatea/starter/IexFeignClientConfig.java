@@ -0,0 +1,62 @@
+package org.galatea.starter;
+
+import feign.Client;
+import feign.httpclient.ApacheHttpClient;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.galatea.starter.utils.CircuitBreaker;
+import org.galatea.starter.utils.TokenBucket;
+import org.galatea.starter.utils.http.CircuitBreakingClient;
+import org.galatea.starter.utils.http.RateLimitedClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+
+/**
+ * Feign configuration of each IEX client, e.g. {@code @FeignClient(configuration =
+ * IexFeignClientConfig.class)}. Spring Cloud creates these beans once per client, in the client's
+ * own context, so every client gets a circuit breaker of its own: one host failing doesn't stop
+ * calls to the other. The pooled HTTP client and the token bucket are shared; see
+ * {@link FeignConfig}.
+ *
+ * <p>Not a @Configuration, so that component scanning doesn't also register these beans in the
+ * application context, where every client would share them.
+ */
+public class IexFeignClientConfig {
+
+  @Value("${feign.client.name}")
+  private String clientName;
+
+  @Value("${iex.rate-limit.interactive-timeout-millis}")
+  private long interactiveTimeoutMillis;
+
+  @Value("${iex.rate-limit.background-timeout-millis}")
+  private long backgroundTimeoutMillis;
+
+  @Value("${iex.circuit-breaker.failure-threshold}")
+  private int failureThreshold;
+
+  @Value("${iex.circuit-breaker.open-millis}")
+  private long openMillis;
+
+  /**
+   * Whether this client's host is answering, published as iex.circuit.* metrics tagged with the
+   * client's name.
+   */
+  @Bean
+  public CircuitBreaker iexCircuitBreaker(final MeterRegistry meterRegistry) {
+    return new CircuitBreaker(meterRegistry, "iex.circuit", Tags.of("client", clientName),
+        failureThreshold, openMillis);
+  }
+
+  /**
+   * Makes the client use the pooled HTTP client, within the shared quota. The circuit breaker goes
+   * outside of the rate limiter so that refused calls don't spend permits.
+   */
+  @Bean
+  public Client feignClient(final CloseableHttpClient iexHttpClient,
+      final TokenBucket iexTokenBucket, final CircuitBreaker iexCircuitBreaker) {
+    return new CircuitBreakingClient(new RateLimitedClient(new ApacheHttpClient(iexHttpClient),
+        iexTokenBucket, interactiveTimeoutMillis, backgroundTimeoutMillis), iexCircuitBreaker);
+  }
+}
@@ -4,7 +4,10 @@ import java.util.function.BiConsumer;
 import javax.jms.ConnectionFactory;
 import javax.jms.Message;
 import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.utils.VirtualThreads;
+import org.galatea.starter.utils.jms.BatchJmsListenerContainerFactory;
 import org.galatea.starter.utils.jms.FuseJmsListenerContainerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.jms.DefaultJmsListenerContainerFactoryConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -47,13 +50,16 @@ public class JmsConfig implements JmsListenerConfigurer {
    *
    * @param queueConnectionFactory injected by spring
    * @param configurer injected by spring
+   * @param virtualThreads whether each listener consumer runs on a virtual thread rather than a
+   *     platform thread of its own.
    * @return the factory.
    */
   @Bean
   public JmsListenerContainerFactory<DefaultMessageListenerContainer> jmsListenerContainerFactory(
       final ConnectionFactory queueConnectionFactory,
       final DefaultJmsListenerContainerFactoryConfigurer configurer,
-      final BiConsumer<Message, Exception> failedMessageConsumer) {
+      final BiConsumer<Message, Exception> failedMessageConsumer,
+      @Value("${virtual-threads.enabled:false}") final boolean virtualThreads) {
 
     FuseJmsListenerContainerFactory listenerFactory =
         new FuseJmsListenerContainerFactory(failedMessageConsumer);
@@ -64,11 +70,42 @@ public class JmsConfig implements JmsListenerConfigurer {
     // http://docs.spring.io/spring-framework/docs/current/javadoc-api/org/springframework/
     // jms/listener/DefaultMessageListenerContainer.html
     configurer.configure(listenerFactory, queueConnectionFactory);
+    if (virtualThreads) {
+      listenerFactory.setTaskExecutor(VirtualThreads.newThreadPerTaskExecutor("jms-"));
+    }
 
     // TODO: override any defaults in the listener factory before we return the object
     return listenerFactory;
   }
 
+  /**
+   * Listener container factory for endpoints that handle messages in batches; see
+   * BatchMessageListenerContainer. Sessions are transacted, so that each batch is acknowledged as
+   * a unit when it is committed.
+   *
+   * @param maxBatchSize the most messages delivered at once.
+   * @param maxWaitMillis how long to wait after the first message of a batch for the rest.
+   * @return the factory.
+   */
+  @Bean
+  public BatchJmsListenerContainerFactory batchJmsListenerContainerFactory(
+      final ConnectionFactory queueConnectionFactory,
+      final DefaultJmsListenerContainerFactoryConfigurer configurer,
+      final BiConsumer<Message, Exception> failedMessageConsumer,
+      @Value("${jms.batch.max-messages}") final int maxBatchSize,
+      @Value("${jms.batch.max-wait-millis}") final long maxWaitMillis,
+      @Value("${virtual-threads.enabled:false}") final boolean virtualThreads) {
+
+    BatchJmsListenerContainerFactory listenerFactory =
+        new BatchJmsListenerContainerFactory(failedMessageConsumer, maxBatchSize, maxWaitMillis);
+    configurer.configure(listenerFactory, queueConnectionFactory);
+    listenerFactory.setSessionTransacted(true);
+    if (virtualThreads) {
+      listenerFactory.setTaskExecutor(VirtualThreads.newThreadPerTaskExecutor("jms-batch-"));
+    }
+    return listenerFactory;
+  }
+
   /**
    * For JSON messages we want to use the spring messaging converter instead of the spring jms
    * converter. The spring jms converter expects the type of object to deserialize the json to being
@@ -2,12 +2,16 @@ package org.galatea.starter;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Sets;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
 import lombok.extern.slf4j.Slf4j;
 import org.galatea.starter.utils.FuseHttpTraceRepository;
 import org.galatea.starter.utils.http.converter.SettlementMissionCsvConverter;
 import org.galatea.starter.utils.http.converter.SettlementMissionXlsxConverter;
 import org.galatea.starter.utils.rest.FuseHttpTraceFilter;
+import org.galatea.starter.utils.rest.PathAsyncTimeoutInterceptor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.actuate.trace.http.HttpExchangeTracer;
 import org.springframework.boot.actuate.trace.http.Include;
 import org.springframework.boot.actuate.web.trace.servlet.HttpTraceFilter;
@@ -15,9 +19,11 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.MediaType;
 import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.StringHttpMessageConverter;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.http.converter.protobuf.ProtobufHttpMessageConverter;
 import org.springframework.http.converter.xml.Jaxb2RootElementHttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.ContentNegotiationConfigurer;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
@@ -33,15 +39,37 @@ public class MvcConfig implements WebMvcConfigurer {
   public static final MediaType APPLICATION_EXCEL = new MediaType("application", "vnd.ms-excel");
   public static final String APPLICATION_EXCEL_VALUE = "application/vnd.ms-excel";
 
+  /* Newline delimited JSON, one JSON value per line */
+  public static final MediaType APPLICATION_NDJSON = new MediaType("application", "x-ndjson");
+  public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+  @Value("${mvc.async-request-timeout-millis}")
+  private long asyncRequestTimeoutMillis;
+
+  @Value("${mvc.settleMissionsBulkPath}")
+  private String settleMissionsBulkPath;
+
+  @Value("${settlement.bulk.timeout-millis}")
+  private long bulkTimeoutMillis;
+
   /**
    * This is used to trace web requests and store that trace info.
    *
+   * @param untracedPaths path prefixes to skip. Streamed responses must be skipped, since tracing
+   *     buffers the whole response body.
+   * @param streamedMediaTypes media types of responses that are still traced, but are written
+   *     straight through instead of having their body buffered, e.g. exports of any size.
    * @return the trace filter
    */
   @Bean
-  public HttpTraceFilter httpTraceFilter() {
+  public HttpTraceFilter httpTraceFilter(
+      @Value("${mvc.untracedPaths:/trace}") final String[] untracedPaths,
+      @Value("${mvc.streamedMediaTypes:}") final String[] streamedMediaTypes) {
+    List<MediaType> streamed = MediaType.parseMediaTypes(Arrays.asList(streamedMediaTypes));
     return new FuseHttpTraceFilter(fuseHttpTraceRepository(), httpExchangeTracer(),
-        path -> path.startsWith("/trace"));
+        path -> Arrays.stream(untracedPaths).anyMatch(path::startsWith),
+        contentType -> streamed.stream()
+            .anyMatch(mediaType -> mediaType.includes(MediaType.parseMediaType(contentType))));
   }
 
   /**
@@ -81,6 +109,15 @@ public class MvcConfig implements WebMvcConfigurer {
 
   }
 
+  @Override
+  public void configureAsyncSupport(final AsyncSupportConfigurer configurer) {
+    // Async requests, e.g. streamed responses, time out after the default; bulk uploads are read
+    // for as long as the client is sending, so they have their own, much longer, timeout
+    configurer.setDefaultTimeout(asyncRequestTimeoutMillis);
+    configurer.registerCallableInterceptors(new PathAsyncTimeoutInterceptor(
+        path -> path.startsWith(settleMissionsBulkPath), bulkTimeoutMillis));
+  }
+
   @Override
   public void configureMessageConverters(final List<HttpMessageConverter<?>> converters) {
     // The Protobuf converter MUST be added first, otherwise Jackson will try and handle our
@@ -90,6 +127,9 @@ public class MvcConfig implements WebMvcConfigurer {
     converters.add(new Jaxb2RootElementHttpMessageConverter()); // XML
     converters.add(new SettlementMissionCsvConverter());
     converters.add(new SettlementMissionXlsxConverter());
+    // Plain text, which SseEmitter writes each event's framing with. Last, so that Strings
+    // returned for JSON are still written by Jackson
+    converters.add(new StringHttpMessageConverter(StandardCharsets.UTF_8));
   }
 
 }
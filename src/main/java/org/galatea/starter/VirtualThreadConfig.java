@@ -0,0 +1,42 @@
+package org.galatea.starter;
+
+import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.utils.VirtualThreads;
+import org.galatea.starter.utils.rest.VirtualThreadPool;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.jetty.JettyServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Opt-in virtual thread mode, turned on with virtual-threads.enabled on JDK 21 or later. Jetty
+ * then handles each request on its own virtual thread instead of one from its fixed pool of
+ * platform threads. The IEX executors (see AppConfig) and the JMS listener containers (see
+ * JmsConfig) switch to virtual threads under the same property.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "virtual-threads.enabled", havingValue = "true")
+public class VirtualThreadConfig {
+
+  /**
+   * Fail on start up, rather than run on platform threads, if virtual threads were asked for on a
+   * JDK that doesn't have them.
+   */
+  public VirtualThreadConfig() {
+    if (!VirtualThreads.isAvailable()) {
+      throw new IllegalStateException("virtual-threads.enabled is set, but JDK "
+          + System.getProperty("java.version") + " has no virtual threads; use JDK 21 or later");
+    }
+    log.info("Running requests, IEX calls and JMS listeners on virtual threads");
+  }
+
+  /**
+   * Gives Jetty a thread pool that starts a virtual thread per job.
+   */
+  @Bean
+  public WebServerFactoryCustomizer<JettyServletWebServerFactory> virtualThreadJettyCustomizer() {
+    return factory -> factory.setThreadPool(new VirtualThreadPool("jetty-"));
+  }
+}
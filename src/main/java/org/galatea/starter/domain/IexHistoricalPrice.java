@@ -1,12 +1,18 @@
 package org.galatea.starter.domain;
 
+import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.time.LocalDate;
+import java.util.Locale;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Table;
 import javax.xml.bind.annotation.XmlRootElement;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
@@ -14,6 +20,10 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.NonNull;
+import org.galatea.starter.utils.persistence.PooledSequenceGenerator;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
 
 /* For builder since we explicitly want to make the all args ctor private */
 @AllArgsConstructor(access = AccessLevel.PRIVATE)
@@ -21,12 +31,19 @@ import lombok.NonNull;
 @Builder
 @Data
 @Entity
+// Every lookup is by symbol and a date or date range, so the composite index serves all of them.
+// It is unique because IEX only publishes one daily bar per symbol and date.
+@Table(indexes = @Index(name = "ux_iex_historical_price_symbol_date",
+    columnList = "symbol, date", unique = true))
 @XmlRootElement(name = "iexHistoricalPrice")
 public class IexHistoricalPrice {
 
   @Id
   @JsonIgnore
-  @GeneratedValue(strategy = GenerationType.AUTO)
+  @GeneratedValue(generator = "iex_historical_price_seq")
+  @GenericGenerator(name = "iex_historical_price_seq", strategy = PooledSequenceGenerator.STRATEGY,
+      parameters = @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM,
+          value = "iex_historical_price_seq"))
   protected Long id;
 
   @NonNull
@@ -41,6 +58,7 @@ public class IexHistoricalPrice {
   @NonNull
   protected BigDecimal open;
 
+  /* Always stored in upper case so that lookups can use the index instead of UPPER() scans */
   @NonNull
   protected String symbol;
 
@@ -48,5 +66,15 @@ public class IexHistoricalPrice {
   protected BigInteger volume;
 
   @NonNull
-  protected String date;
-}
\ No newline at end of file
+  @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd")
+  protected LocalDate date;
+
+  /**
+   * Normalize the symbol to upper case before it is written to the database.
+   */
+  @PrePersist
+  @PreUpdate
+  protected void normalizeSymbol() {
+    symbol = symbol.toUpperCase(Locale.ROOT);
+  }
+}
@@ -0,0 +1,18 @@
+package org.galatea.starter.domain;
+
+import java.time.LocalDate;
+import lombok.Value;
+
+/**
+ * What the database holds for one symbol's historical prices: how many days, and the last one.
+ * Enough to tell whether a copy of the prices held elsewhere, e.g. in a snapshot, still matches.
+ */
+@Value
+public class IexHistoricalPriceSummary {
+
+  private String symbol;
+
+  private Long days;
+
+  private LocalDate lastDate;
+}
@@ -1,14 +1,18 @@
 package org.galatea.starter.domain;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import java.math.BigDecimal;
 import lombok.Builder;
 import lombok.Data;
 
 @Data
-@Builder
+@Builder(toBuilder = true)
 public class IexLastTradedPrice {
   private String symbol;
   private BigDecimal price;
   private Integer size;
   private long time;
+  /* true when served from the cache because IEX couldn't be reached; left out otherwise */
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private Boolean stale;
 }
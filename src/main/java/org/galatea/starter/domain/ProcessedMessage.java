@@ -0,0 +1,49 @@
+package org.galatea.starter.domain;
+
+import java.time.Instant;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+import org.springframework.data.domain.Persistable;
+
+/**
+ * A queue message that has been handled, recorded in the same transaction as its results so that
+ * a redelivery of the message can be recognised and skipped.
+ */
+@AllArgsConstructor
+@NoArgsConstructor(access = AccessLevel.PRIVATE) // For spring
+@Data
+@Entity
+// Old records are purged by time
+@Table(indexes = @Index(name = "ix_processed_message_processed_at", columnList = "processed_at"))
+public class ProcessedMessage implements Persistable<String> {
+
+  /* The JMS message id, which a redelivered message keeps */
+  @Id
+  @NonNull
+  protected String messageId;
+
+  @NonNull
+  @Column(name = "processed_at")
+  protected Instant processedAt;
+
+  @Override
+  public String getId() {
+    return messageId;
+  }
+
+  /**
+   * Records are only ever inserted, so saving one never needs to look for an existing row first.
+   */
+  @Override
+  public boolean isNew() {
+    return true;
+  }
+}
@@ -0,0 +1,21 @@
+package org.galatea.starter.domain.rpsy;
+
+import java.time.Instant;
+import org.galatea.starter.domain.ProcessedMessage;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+
+public interface IProcessedMessageRpsy extends CrudRepository<ProcessedMessage, String> {
+
+  /**
+   * Deletes the records of messages processed before the given time, in one statement rather than
+   * loading each one to delete it. Must be called in a transaction.
+   * @param before records older than this are deleted
+   * @return the number of records deleted
+   */
+  @Modifying
+  @Query("delete from ProcessedMessage m where m.processedAt < :before")
+  int deleteProcessedBefore(@Param("before") Instant before);
+}
@@ -1,5 +1,6 @@
 package org.galatea.starter.domain.rpsy;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import org.galatea.starter.domain.SettlementMission;
@@ -7,13 +8,19 @@ import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.data.repository.CrudRepository;
 
-public interface ISettlementMissionRpsy extends CrudRepository<SettlementMission, Long> {
+public interface ISettlementMissionRpsy extends CrudRepository<SettlementMission, Long>,
+    SettlementMissionExportRpsy {
 
   /**
    * Retrieves all entities with the given depot.
    */
   List<SettlementMission> findByDepot(String depot);
 
+  /**
+   * Counts the entities with any of the given ids.
+   */
+  long countByIdIn(Collection<Long> ids);
+
   @Override
   @Cacheable(cacheNames = "missions", sync = true)
   Optional<SettlementMission> findById(Long id);
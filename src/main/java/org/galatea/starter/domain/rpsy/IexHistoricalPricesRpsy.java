@@ -1,26 +1,74 @@
 package org.galatea.starter.domain.rpsy;
 
+import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import org.galatea.starter.domain.IexHistoricalPrice;
+import org.galatea.starter.domain.IexHistoricalPriceSummary;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 
-public interface IexHistoricalPricesRpsy extends CrudRepository<IexHistoricalPrice, Long> {
+/**
+ * Symbols are stored in upper case (see IexHistoricalPrice), so callers must upper case the symbol
+ * they pass in. Matching exactly lets every finder use the (symbol, date) index. Prices from the
+ * cloud API should be written with upsertAll rather than saveAll, so that overlapping fetches
+ * can't insert the same bar twice.
+ */
+public interface IexHistoricalPricesRpsy extends CrudRepository<IexHistoricalPrice, Long>,
+    IexHistoricalPricesUpsertRpsy {
 
   /**
-   * Retrieves all entities with the given symbol.
-   * @param symbol the symbol to find in the DB
+   * Retrieves all entities with the given symbol, oldest first.
+   * @param symbol the upper case symbol to find in the DB
    * @return List of entities with that symbol
    */
-  List<IexHistoricalPrice> findBySymbolIgnoreCase(String symbol);
+  List<IexHistoricalPrice> findBySymbolOrderByDate(String symbol);
+
+  /**
+   * Retrieves all entities for any of the given symbols in one query, grouped by symbol and
+   * oldest first within each symbol.
+   * @param symbols the upper case symbols to find in the DB
+   * @return List of entities with any of those symbols
+   */
+  List<IexHistoricalPrice> findBySymbolInOrderBySymbolAscDateAsc(Collection<String> symbols);
 
   /**
    * Retrieves all entities with the given symbol and date.
-   * @param symbol the symbol of the entity
+   * @param symbol the upper case symbol of the entity
    * @param date the date of the entity
    * @return List of entities with that symbol and date
    */
-  List<IexHistoricalPrice> findBySymbolIgnoreCaseAndDate(String symbol, String date);
+  List<IexHistoricalPrice> findBySymbolAndDate(String symbol, LocalDate date);
+
+  /**
+   * Retrieves all entities with the given symbol whose date falls between the two bounds.
+   * @param symbol the upper case symbol of the entity
+   * @param from the first date to include
+   * @param to the last date to include
+   * @return List of entities in the range, oldest first
+   */
+  List<IexHistoricalPrice> findBySymbolAndDateBetweenOrderByDate(String symbol, LocalDate from,
+      LocalDate to);
+
+  /**
+   * Checks whether any entity with the given symbol exists, without loading them.
+   * @param symbol the upper case symbol to find in the DB
+   * @return true if at least one entity has that symbol
+   */
+  boolean existsBySymbol(String symbol);
+
+  /**
+   * Summarizes the entities of each of the given symbols in one grouped query.
+   * @param symbols the upper case symbols to summarize
+   * @return one summary per symbol that has any entities
+   */
+  @Query("select new org.galatea.starter.domain.IexHistoricalPriceSummary("
+      + "p.symbol, count(p), max(p.date)) from IexHistoricalPrice p"
+      + " where p.symbol in :symbols group by p.symbol")
+  List<IexHistoricalPriceSummary> summarizeBySymbolIn(
+      @Param("symbols") Collection<String> symbols);
 
 
   @Override
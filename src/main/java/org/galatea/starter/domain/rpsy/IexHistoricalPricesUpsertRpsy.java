@@ -0,0 +1,29 @@
+package org.galatea.starter.domain.rpsy;
+
+import java.util.List;
+import org.galatea.starter.domain.IexHistoricalPrice;
+
+/**
+ * Set-based writes for historical prices that don't go through the JPA persistence context. Mixed
+ * into IexHistoricalPricesRpsy and implemented with plain JDBC in
+ * IexHistoricalPricesUpsertRpsyImpl.
+ */
+public interface IexHistoricalPricesUpsertRpsy {
+
+  /**
+   * Inserts each price, or overwrites the stored bar for the same symbol and date if there is one,
+   * so that writing overlapping cloud responses never creates duplicates. Prices are sent in JDBC
+   * batches, one round trip per batch.
+   * @param prices the prices to write. Symbols are upper cased before they are written.
+   * @return the number of prices written.
+   */
+  int upsertAll(List<IexHistoricalPrice> prices);
+
+  /**
+   * One-off clean up for tables written before the (symbol, date) index was unique. Upper cases
+   * every symbol, keeps the oldest row for each symbol and date, deletes the rest and then creates
+   * the unique index if it is missing.
+   * @return the number of duplicate rows deleted.
+   */
+  int deleteDuplicates();
+}
@@ -0,0 +1,84 @@
+package org.galatea.starter.domain.rpsy;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.util.List;
+import java.util.Locale;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.domain.IexHistoricalPrice;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * H2 implementation of IexHistoricalPricesUpsertRpsy. Spring Data picks this class up by name and
+ * mixes it into IexHistoricalPricesRpsy.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class IexHistoricalPricesUpsertRpsyImpl implements IexHistoricalPricesUpsertRpsy {
+
+  /*
+   * H2 matches on KEY(symbol, date) and updates the row if one matches, otherwise inserts it. The
+   * id is only drawn from the sequence Hibernate uses for new rows, so updates keep their id. Each
+   * draw reserves a whole block of the pooled sequence for one row, which leaves gaps in the ids
+   * but never hands out one Hibernate could also use.
+   */
+  private static final String UPSERT = "MERGE INTO iex_historical_price"
+      + " (id, symbol, date, open, high, low, close, volume) KEY (symbol, date) VALUES ("
+      + "COALESCE((SELECT id FROM iex_historical_price WHERE symbol = ? AND date = ?),"
+      + " NEXT VALUE FOR iex_historical_price_seq), ?, ?, ?, ?, ?, ?, ?)";
+
+  private static final String DELETE_DUPLICATES = "DELETE FROM iex_historical_price p"
+      + " WHERE EXISTS (SELECT 1 FROM iex_historical_price q"
+      + " WHERE UPPER(q.symbol) = UPPER(p.symbol) AND q.date = p.date AND q.id < p.id)";
+
+  private static final String UPPER_CASE_SYMBOLS = "UPDATE iex_historical_price"
+      + " SET symbol = UPPER(symbol) WHERE symbol <> UPPER(symbol)";
+
+  private static final String CREATE_UNIQUE_INDEX =
+      "CREATE UNIQUE INDEX IF NOT EXISTS ux_iex_historical_price_symbol_date"
+      + " ON iex_historical_price (symbol, date)";
+
+  @NonNull
+  private final JdbcTemplate jdbcTemplate;
+
+  @Value("${iex.historical-prices.upsert-batch-size:500}")
+  private int batchSize;
+
+  @Override
+  @Transactional
+  public int upsertAll(final List<IexHistoricalPrice> prices) {
+    if (prices.isEmpty()) {
+      return 0;
+    }
+    jdbcTemplate.batchUpdate(UPSERT, prices, batchSize, (statement, price) -> {
+      String symbol = price.getSymbol().toUpperCase(Locale.ROOT);
+      Date date = Date.valueOf(price.getDate());
+      statement.setString(1, symbol);
+      statement.setDate(2, date);
+      statement.setString(3, symbol);
+      statement.setDate(4, date);
+      statement.setBigDecimal(5, price.getOpen());
+      statement.setBigDecimal(6, price.getHigh());
+      statement.setBigDecimal(7, price.getLow());
+      statement.setBigDecimal(8, price.getClose());
+      statement.setBigDecimal(9, new BigDecimal(price.getVolume()));
+    });
+    log.info("Upserted {} historical prices in batches of {}", prices.size(), batchSize);
+    return prices.size();
+  }
+
+  @Override
+  @Transactional
+  public int deleteDuplicates() {
+    int deleted = jdbcTemplate.update(DELETE_DUPLICATES);
+    int upperCased = jdbcTemplate.update(UPPER_CASE_SYMBOLS);
+    jdbcTemplate.execute(CREATE_UNIQUE_INDEX);
+    log.info("Deleted {} duplicate historical prices and upper cased {} symbols", deleted,
+        upperCased);
+    return deleted;
+  }
+}
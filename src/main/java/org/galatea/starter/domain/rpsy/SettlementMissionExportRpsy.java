@@ -0,0 +1,31 @@
+package org.galatea.starter.domain.rpsy;
+
+import java.util.Collection;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import org.galatea.starter.domain.SettlementMission;
+
+/**
+ * Reads for exporting many missions without holding them all in memory. Mixed into
+ * ISettlementMissionRpsy and implemented with JPA queries in SettlementMissionExportRpsyImpl.
+ */
+public interface SettlementMissionExportRpsy {
+
+  /**
+   * Hands each mission with one of the given ids to the consumer, in id order. The missions are
+   * queried a page at a time and detached once the page has been handed over, so only one page is
+   * held in memory however many ids there are. Ids that aren't found are skipped.
+   * @param ids the ids of the missions to read. Duplicates are read once.
+   * @param consumer given each mission in turn.
+   */
+  void forEachById(Collection<Long> ids, Consumer<SettlementMission> consumer);
+
+  /**
+   * Streams the missions with any of the given ids, in id order. The stream is lazy: a page of
+   * missions is queried when the stream reaches it, and the previous page is detached first, so
+   * only one page is held in memory however many ids there are. Ids that aren't found are skipped.
+   * @param ids the ids of the missions to read. Duplicates are read once.
+   * @return a stream to be consumed once, by the thread that asked for it.
+   */
+  Stream<SettlementMission> streamById(Collection<Long> ids);
+}
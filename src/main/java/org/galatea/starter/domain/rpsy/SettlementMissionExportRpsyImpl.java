@@ -0,0 +1,58 @@
+package org.galatea.starter.domain.rpsy;
+
+import com.google.common.collect.Lists;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.persistence.EntityManager;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.domain.SettlementMission;
+import org.hibernate.jpa.QueryHints;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * JPA implementation of SettlementMissionExportRpsy. Spring Data picks this class up by name and
+ * mixes it into ISettlementMissionRpsy.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class SettlementMissionExportRpsyImpl implements SettlementMissionExportRpsy {
+
+  private static final String FIND_PAGE =
+      "SELECT m FROM SettlementMission m WHERE m.id IN :ids ORDER BY m.id";
+
+  @NonNull
+  private final EntityManager entityManager;
+
+  @Value("${settlement.export.page-size:50}")
+  private int pageSize;
+
+  @Override
+  public void forEachById(final Collection<Long> ids, final Consumer<SettlementMission> consumer) {
+    streamById(ids).forEach(consumer);
+  }
+
+  /*
+   * Not transactional, so that a slow consumer doesn't hold a connection between pages. When the
+   * request has an open entity manager, clearing it before each page is what lets the last go.
+   */
+  @Override
+  public Stream<SettlementMission> streamById(final Collection<Long> ids) {
+    List<Long> sortedIds = ids.stream().distinct().sorted().collect(Collectors.toList());
+    log.info("Streaming {} missions in pages of {}", sortedIds.size(), pageSize);
+    return Lists.partition(sortedIds, pageSize).stream()
+        .flatMap(page -> {
+          entityManager.clear();
+          return entityManager.createQuery(FIND_PAGE, SettlementMission.class)
+              .setParameter("ids", page)
+              .setHint(QueryHints.HINT_FETCH_SIZE, pageSize)
+              .setHint(QueryHints.HINT_READONLY, true)
+              .getResultList()
+              .stream();
+        });
+  }
+}
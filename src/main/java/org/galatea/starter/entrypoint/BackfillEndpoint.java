@@ -0,0 +1,42 @@
+package org.galatea.starter.entrypoint;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import org.galatea.starter.service.HistoricalPriceBackfill;
+import org.galatea.starter.service.HistoricalPriceBackfill.BackfillStatus;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * Actuator endpoint at /actuator/backfill. A GET reports the progress of the watchlist backfill
+ * and how many trading days each watched symbol is behind; a POST starts a run straight away.
+ */
+@RequiredArgsConstructor
+@Component
+@Endpoint(id = "backfill")
+public class BackfillEndpoint {
+
+  @NonNull
+  private final HistoricalPriceBackfill historicalPriceBackfill;
+
+  /**
+   * Get the progress of the current or last run and the lag of each watched symbol.
+   */
+  @ReadOperation
+  public BackfillStatus status() {
+    return historicalPriceBackfill.getStatus();
+  }
+
+  /**
+   * Start a run in the background, unless one is already running.
+   *
+   * @return the status, with running set if a run is now going.
+   */
+  @WriteOperation
+  public BackfillStatus start() {
+    historicalPriceBackfill.start();
+    return historicalPriceBackfill.getStatus();
+  }
+}
@@ -1,9 +1,13 @@
 package org.galatea.starter.entrypoint;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import lombok.AccessLevel;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
@@ -37,6 +41,62 @@ public abstract class BaseSettlementRestController extends BaseRestController {
         .collect(Collectors.toSet());
   }
 
+  /**
+   * Invokes the settlement service to spawn missions for agreements read one at a time, a chunk at
+   * a time. Each chunk is validated and saved in its own transaction, and the paths of its missions
+   * are written out before the next chunk is read, so only one chunk is held in memory however
+   * many agreements there are. If a chunk can't be read or fails, the chunks before it stay saved.
+   * A failure in the first chunk is thrown, as nothing has been written yet; a later one is handed
+   * to the error writer instead, as the response has already started, and ends the upload.
+   *
+   * @param reader gives the next agreement, or null once there are none left.
+   * @param writer is given the paths of each chunk's missions.
+   * @param errorWriter is given the failure that ended the upload after the first chunk.
+   * @return the number of agreements settled.
+   */
+  protected long settleAgreementsInChunks(final AgreementReader reader, final int chunkSize,
+      final String getMissionPath, final MissionPathWriter writer,
+      final SettlementErrorWriter errorWriter) throws IOException {
+    long settled = 0;
+    while (true) {
+      List<TradeAgreement> chunk;
+      Set<String> missionPaths;
+      try {
+        chunk = readChunk(reader, chunkSize);
+        if (chunk.isEmpty()) {
+          break;
+        }
+        missionPaths = settleAgreementInternal(chunk, getMissionPath);
+      } catch (IOException | RuntimeException err) {
+        if (settled == 0) {
+          throw err;
+        }
+        log.warn("Bulk upload failed after settling {} agreements", settled, err);
+        errorWriter.write(err.getMessage() == null ? err.getClass().getSimpleName()
+            : err.getMessage(), settled);
+        return settled;
+      }
+      // Written outside the try, so a client that has gone away isn't sent an error record
+      writer.write(missionPaths);
+      settled += chunk.size();
+    }
+    log.info("Settled {} agreements in chunks of up to {}", settled, chunkSize);
+    return settled;
+  }
+
+  private static List<TradeAgreement> readChunk(final AgreementReader reader,
+      final int chunkSize) throws IOException {
+    List<TradeAgreement> chunk = new ArrayList<>(chunkSize);
+    while (chunk.size() < chunkSize) {
+      TradeAgreement agreement = reader.read();
+      if (agreement == null) {
+        break;
+      }
+      chunk.add(agreement);
+    }
+    return chunk;
+  }
+
   /**
    * Retrieves settlement missions from the settlement service.
    */
@@ -53,6 +113,29 @@ public abstract class BaseSettlementRestController extends BaseRestController {
     return settlementService.findMissions(ids);
   }
 
+  /**
+   * Checks with the settlement service that every one of the settlement missions exists.
+   */
+  protected boolean missionsExistInternal(final List<Long> ids) {
+    return settlementService.missionsExist(ids);
+  }
+
+  /**
+   * Hands settlement missions from the settlement service to the consumer one at a time, without
+   * holding them all in memory.
+   */
+  protected void forEachMissionInternal(final List<Long> ids,
+      final Consumer<SettlementMission> consumer) {
+    settlementService.forEachMission(ids, consumer);
+  }
+
+  /**
+   * Streams settlement missions from the settlement service, read as the stream is consumed.
+   */
+  protected Stream<SettlementMission> streamMissionsInternal(final List<Long> ids) {
+    return settlementService.streamMissions(ids);
+  }
+
   /**
    * Updates settlement mission, if it exists.
    */
@@ -71,4 +154,40 @@ public abstract class BaseSettlementRestController extends BaseRestController {
   protected void deleteMissionInternal(final Long id) {
     settlementService.deleteMission(id);
   }
+
+  /**
+   * Reads the agreements of a bulk upload one at a time.
+   */
+  @FunctionalInterface
+  protected interface AgreementReader {
+
+    /**
+     * Returns the next agreement, or null if there are none left.
+     */
+    TradeAgreement read() throws IOException;
+  }
+
+  /**
+   * Writes the paths of the missions spawned for each chunk of a bulk upload.
+   */
+  @FunctionalInterface
+  protected interface MissionPathWriter {
+
+    /**
+     * Writes the paths of one chunk's missions.
+     */
+    void write(Set<String> missionPaths) throws IOException;
+  }
+
+  /**
+   * Writes the failure that ended a bulk upload after some of its chunks were settled.
+   */
+  @FunctionalInterface
+  protected interface SettlementErrorWriter {
+
+    /**
+     * Writes why the upload ended and how many of its agreements were settled before it did.
+     */
+    void write(String error, long settled) throws IOException;
+  }
 }
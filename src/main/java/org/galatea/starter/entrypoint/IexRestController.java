@@ -1,21 +1,43 @@
 package org.galatea.starter.entrypoint;
 
-import java.text.ParseException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import javax.validation.constraints.Min;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.sf.aspect4log.Log;
 import net.sf.aspect4log.Log.Level;
+import org.galatea.starter.MvcConfig;
 import org.galatea.starter.domain.IexHistoricalPrice;
+import org.galatea.starter.domain.IexIndicatorValue;
 import org.galatea.starter.domain.IexLastTradedPrice;
 import org.galatea.starter.domain.IexSymbol;
+import org.galatea.starter.entrypoint.exception.EntityNotFoundException;
+import org.galatea.starter.service.HistoricalPriceResult;
+import org.galatea.starter.service.HistoricalPriceSeries;
+import org.galatea.starter.service.HistoricalPricesBatchListener;
+import org.galatea.starter.service.IexAsyncService;
 import org.galatea.starter.service.IexService;
+import org.galatea.starter.service.Indicator;
+import org.galatea.starter.service.LastTradedPriceListener;
+import org.galatea.starter.service.LastTradedPriceStream;
+import org.galatea.starter.service.LastTradedPriceStream.Subscription;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @Slf4j
 @Log(enterLevel = Level.INFO, exitLevel = Level.INFO)
@@ -24,17 +46,64 @@ import org.springframework.web.bind.annotation.RestController;
 @RequiredArgsConstructor
 public class IexRestController {
 
+  /* RFC 7234 warning for a response served from cache because the origin can't be reached */
+  private static final String STALE_WARNING = "110 - \"Response is Stale\"";
+
   @NonNull
   private IexService iexService;
 
+  @NonNull
+  private ObjectMapper objectMapper;
+
+  @NonNull
+  private LastTradedPriceStream lastTradedPriceStream;
+
+  @NonNull
+  private IexAsyncService iexAsyncService;
+
+  @Value("${iex.last-traded-price.stream.timeout-millis}")
+  private long streamTimeoutMillis;
+
   /**
-   * Exposes an endpoint to get all of the symbols available on IEX.
+   * Exposes an endpoint to get all of the symbols available on IEX. The response carries an ETag,
+   * so a client that sends it back in If-None-Match gets a 304 without the body until the symbols
+   * change.
    *
    * @return a list of all IexStockSymbols.
    */
   @GetMapping(value = "${mvc.iex.getAllSymbolsPath}", produces = {MediaType.APPLICATION_JSON_VALUE})
-  public List<IexSymbol> getAllStockSymbols() {
-    return iexService.getAllSymbols();
+  public ResponseEntity<List<IexSymbol>> getAllStockSymbols() {
+    // Spring answers a matching If-None-Match with 304 itself once the ETag is set
+    return ResponseEntity.ok()
+        .eTag(iexService.getAllSymbolsVersion())
+        .body(iexService.getAllSymbols());
+  }
+
+  /**
+   * Look up one of the symbols available on IEX.
+   *
+   * @param symbol the symbol to look up.
+   * @return the symbol.
+   */
+  @GetMapping(value = "${mvc.iex.getSymbolPath}", produces = {MediaType.APPLICATION_JSON_VALUE})
+  public IexSymbol getStockSymbol(@RequestParam(value = "symbol") final String symbol) {
+    return iexService.getSymbol(symbol)
+        .orElseThrow(() -> new EntityNotFoundException(IexSymbol.class, symbol));
+  }
+
+  /**
+   * Find the symbols available on IEX whose symbol or company name starts with the given prefix,
+   * e.g. for typeahead. Symbol matches come first.
+   *
+   * @param prefix the start of a symbol or a company name.
+   * @param limit the most symbols to return.
+   * @return a list of matching IexStockSymbols.
+   */
+  @GetMapping(value = "${mvc.iex.searchSymbolsPath}", produces = {
+      MediaType.APPLICATION_JSON_VALUE})
+  public List<IexSymbol> searchStockSymbols(@RequestParam(value = "prefix") final String prefix,
+      @RequestParam(value = "limit", defaultValue = "10") final int limit) {
+    return iexService.searchSymbols(prefix, limit);
   }
 
   /**
@@ -50,21 +119,243 @@ public class IexRestController {
     return iexService.getLastTradedPriceForSymbols(symbols);
   }
 
+  /**
+   * Stream the last traded prices of the symbols passed in as server-sent events. Each "prices"
+   * event holds a JSON array of the prices that changed since the previous event; the first one
+   * holds the latest known prices. The stream is closed after the configured timeout, and
+   * clients are expected to reconnect.
+   *
+   * @param symbols list of symbols to stream the last traded price of.
+   * @return the event stream.
+   */
+  @GetMapping(value = "${mvc.iex.streamLastTradedPricePath}", produces = {
+      MediaType.TEXT_EVENT_STREAM_VALUE})
+  public SseEmitter streamLastTradedPrice(
+      @RequestParam(value = "symbols") final List<String> symbols) {
+    SseEmitter emitter = new SseEmitter(streamTimeoutMillis);
+    Subscription subscription = lastTradedPriceStream.subscribe(symbols,
+        new LastTradedPriceListener() {
+          @Override
+          public void onPrices(final List<IexLastTradedPrice> prices) throws IOException {
+            emitter.send(
+                SseEmitter.event().name("prices").data(prices, MediaType.APPLICATION_JSON));
+          }
+
+          @Override
+          public void onDropped() {
+            emitter.complete();
+          }
+        });
+    emitter.onCompletion(subscription::cancel);
+    emitter.onTimeout(subscription::cancel);
+    emitter.onError(err -> subscription.cancel());
+    return emitter;
+  }
+
   /**
    * Get the historical prices endpoint for the symbol passed in.
    *
    * @param symbol symbol to get the historical prices for.
    * @param range range of dates to get the historical prices for (1m, 2m, 5y, etc).
    * @param date optional date to get historical prices for a symbol on the specified date.
-   * @return a List of IexHistoricalPrice objects for the given symbol and range.
+   * @return a List of IexHistoricalPrice objects for the given symbol and range. While IEX is
+   *     unavailable it holds only the stored days and carries a stale Warning header.
    */
   @GetMapping(value = "${mvc.iex.getHistoricalPricesPath}", produces = {
       MediaType.APPLICATION_JSON_VALUE})
-  public List<IexHistoricalPrice> getHistoricalPrice(
+  public ResponseEntity<List<IexHistoricalPrice>> getHistoricalPrice(
       @RequestParam(value = "symbol") final String symbol, @RequestParam(value = "range")
-        final String range, @RequestParam(value = "date", required = false) final String date)
-      throws ParseException {
-    return iexService.getAllHistoricalPrices(symbol, range, date);
+        final String range, @RequestParam(value = "date", required = false) final String date) {
+    HistoricalPriceResult prices = iexService.getHistoricalPriceResult(symbol, range, date);
+    return withStaleWarning(ResponseEntity.ok(), prices.isStale()).body(prices.getPrices());
+  }
+
+  /**
+   * Get a technical indicator for the symbol passed in, computed from its daily bars.
+   *
+   * @param symbol symbol to get the indicator for.
+   * @param indicator one of SMA, EMA, VWAP or VOLATILITY.
+   * @param window number of daily bars each value is computed over.
+   * @param range range of dates to get values for (1m, 2m, 5y, etc).
+   * @return the value at each date in the range that has one.
+   */
+  @GetMapping(value = "${mvc.iex.getIndicatorPath}", produces = {
+      MediaType.APPLICATION_JSON_VALUE})
+  public List<IexIndicatorValue> getIndicator(
+      @RequestParam(value = "symbol") final String symbol,
+      @RequestParam(value = "indicator") final Indicator indicator,
+      @RequestParam(value = "window") @Min(Indicator.MIN_WINDOW) final int window,
+      @RequestParam(value = "range") final String range) {
+    return iexService.getIndicator(symbol, indicator, window, range);
+  }
+
+  /**
+   * The last traded price endpoint, answered asynchronously: the request thread is released while
+   * IEX is called, and the response is written once the prices arrive.
+   *
+   * @param symbols list of symbols to get last traded price for.
+   * @return the IexLastTradedPrice objects for the given symbols, once they are found.
+   */
+  @GetMapping(value = "${mvc.iex.getLastTradedPriceAsyncPath}", produces = {
+      MediaType.APPLICATION_JSON_VALUE})
+  public CompletableFuture<List<IexLastTradedPrice>> getLastTradedPriceAsync(
+      @RequestParam(value = "symbols") final List<String> symbols) {
+    return iexAsyncService.getLastTradedPriceForSymbols(symbols);
   }
 
+  /**
+   * The historical prices endpoint, answered asynchronously: the request thread is released while
+   * missing prices are fetched from IEX.
+   *
+   * @param symbol symbol to get the historical prices for.
+   * @param range range of dates to get the historical prices for (1m, 2m, 5y, etc).
+   * @param date optional date to get historical prices for a symbol on the specified date.
+   * @return the IexHistoricalPrice objects for the given symbol and range, once they are found.
+   */
+  @GetMapping(value = "${mvc.iex.getHistoricalPricesAsyncPath}", produces = {
+      MediaType.APPLICATION_JSON_VALUE})
+  public CompletableFuture<ResponseEntity<List<IexHistoricalPrice>>> getHistoricalPriceAsync(
+      @RequestParam(value = "symbol") final String symbol, @RequestParam(value = "range")
+        final String range, @RequestParam(value = "date", required = false) final String date) {
+    return iexAsyncService.getHistoricalPriceResult(symbol, range, date).thenApply(prices ->
+        withStaleWarning(ResponseEntity.ok(), prices.isStale()).body(prices.getPrices()));
+  }
+
+  /**
+   * The indicator endpoint, answered asynchronously: the request thread is released while missing
+   * prices are fetched from IEX.
+   *
+   * @param symbol symbol to get the indicator for.
+   * @param indicator one of SMA, EMA, VWAP or VOLATILITY.
+   * @param window number of daily bars each value is computed over.
+   * @param range range of dates to get values for (1m, 2m, 5y, etc).
+   * @return the value at each date in the range that has one, once they are computed.
+   */
+  @GetMapping(value = "${mvc.iex.getIndicatorAsyncPath}", produces = {
+      MediaType.APPLICATION_JSON_VALUE})
+  public CompletableFuture<List<IexIndicatorValue>> getIndicatorAsync(
+      @RequestParam(value = "symbol") final String symbol,
+      @RequestParam(value = "indicator") final Indicator indicator,
+      @RequestParam(value = "window") @Min(Indicator.MIN_WINDOW) final int window,
+      @RequestParam(value = "range") final String range) {
+    return iexAsyncService.getIndicator(symbol, indicator, window, range);
+  }
+
+  /**
+   * Get the same historical prices as the historical prices endpoint, but written out bar by bar
+   * straight from the cached series as they are serialized, rather than built into a list of
+   * entities first. Meant for long ranges such as 5y or max, where the list would be large.
+   *
+   * @param symbol symbol to get the historical prices for.
+   * @param range range of dates to get the historical prices for (1m, 2m, 5y, etc).
+   * @param date optional date to get historical prices for a symbol on the specified date.
+   * @return a streamed JSON array of historical prices, oldest first. While IEX is unavailable it
+   *     holds only the stored days and carries a stale Warning header.
+   */
+  @GetMapping(value = "${mvc.iex.getHistoricalPricesStreamPath}")
+  public ResponseEntity<StreamingResponseBody> streamHistoricalPrice(
+      @RequestParam(value = "symbol") final String symbol, @RequestParam(value = "range")
+        final String range, @RequestParam(value = "date", required = false) final String date) {
+    // Fetch anything missing now, so that IEX errors are reported before the response starts
+    HistoricalPriceSeries.Window window = iexService.getHistoricalPriceWindow(symbol, range, date);
+    StreamingResponseBody body = outputStream -> {
+      JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+      generator.writeStartArray();
+      window.forEach((epochDay, open, high, low, close, volume) -> {
+        // Same fields in the same order as IexHistoricalPrice
+        generator.writeStartObject();
+        generator.writeNumberField("close", HistoricalPriceSeries.fromFixed(close));
+        generator.writeNumberField("high", HistoricalPriceSeries.fromFixed(high));
+        generator.writeNumberField("low", HistoricalPriceSeries.fromFixed(low));
+        generator.writeNumberField("open", HistoricalPriceSeries.fromFixed(open));
+        generator.writeStringField("symbol", window.getSymbol());
+        generator.writeNumberField("volume", volume);
+        generator.writeStringField("date", LocalDate.ofEpochDay(epochDay).toString());
+        generator.writeEndObject();
+      });
+      generator.writeEndArray();
+      generator.flush();
+    };
+    return withStaleWarning(ResponseEntity.ok(), window.isStale())
+        .contentType(MediaType.APPLICATION_JSON).body(body);
+  }
+
+  /**
+   * Get the historical prices for several symbols over the same range. The response is streamed
+   * as newline delimited JSON, one line per symbol in the order the symbols complete: either
+   * {"symbol": ..., "prices": [...]} or {"symbol": ..., "error": ...} if the symbol's prices
+   * couldn't be found before the batch deadline. Prices served from what is stored while IEX is
+   * unavailable add "stale": true to their line.
+   *
+   * @param symbols symbols to get the historical prices for.
+   * @param range range of dates to get the historical prices for (1m, 2m, 5y, etc).
+   * @return a streamed body with one line per symbol.
+   */
+  @GetMapping(value = "${mvc.iex.getHistoricalPricesBatchPath}")
+  public ResponseEntity<StreamingResponseBody> getHistoricalPrices(
+      @RequestParam(value = "symbols") final List<String> symbols,
+      @RequestParam(value = "range") final String range) {
+    StreamingResponseBody body = outputStream -> {
+      JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+      generator.setRootValueSeparator(null);
+      iexService.getAllHistoricalPrices(symbols, range, new NdjsonBatchWriter(generator));
+      generator.flush();
+    };
+    return ResponseEntity.ok().contentType(MvcConfig.APPLICATION_NDJSON).body(body);
+  }
+
+  /*
+   * Stale answers were served from what is stored, without the days that couldn't be fetched.
+   */
+  private static ResponseEntity.BodyBuilder withStaleWarning(
+      final ResponseEntity.BodyBuilder builder, final boolean stale) {
+    if (stale) {
+      builder.header(HttpHeaders.WARNING, STALE_WARNING);
+    }
+    return builder;
+  }
+
+  /**
+   * Writes each symbol's result as one line as soon as it arrives, and flushes it so that the
+   * client doesn't wait for the slowest symbol.
+   */
+  @RequiredArgsConstructor
+  private static class NdjsonBatchWriter implements HistoricalPricesBatchListener {
+
+    @NonNull
+    private final JsonGenerator generator;
+
+    @Override
+    public void onPrices(final String symbol, final HistoricalPriceResult prices) {
+      try {
+        generator.writeStartObject();
+        generator.writeStringField("symbol", symbol);
+        generator.writeObjectField("prices", prices.getPrices());
+        if (prices.isStale()) {
+          generator.writeBooleanField("stale", true);
+        }
+        endLine();
+      } catch (IOException err) {
+        throw new UncheckedIOException(err);
+      }
+    }
+
+    @Override
+    public void onFailure(final String symbol, final String reason) {
+      try {
+        generator.writeStartObject();
+        generator.writeStringField("symbol", symbol);
+        generator.writeStringField("error", reason);
+        endLine();
+      } catch (IOException err) {
+        throw new UncheckedIOException(err);
+      }
+    }
+
+    private void endLine() throws IOException {
+      generator.writeEndObject();
+      generator.writeRaw('\n');
+      generator.flush();
+    }
+  }
 }
@@ -4,6 +4,9 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import javax.validation.ConstraintViolationException;
 import lombok.extern.slf4j.Slf4j;
 import org.galatea.starter.entrypoint.exception.EntityNotFoundException;
+import org.galatea.starter.utils.exception.CircuitOpenException;
+import org.galatea.starter.utils.exception.RateLimitExceededException;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.dao.DataAccessException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -73,6 +76,32 @@ public class RestExceptionHandler {
     return buildResponseEntity(error);
   }
 
+  @ExceptionHandler(RateLimitExceededException.class)
+  protected ResponseEntity<Object> handleRateLimitExceeded(
+      final RateLimitExceededException exception) {
+    log.debug("Upstream quota exhausted", exception);
+
+    ApiError error = new ApiError(HttpStatus.TOO_MANY_REQUESTS, exception.getMessage());
+    return buildResponseEntity(error);
+  }
+
+  @ExceptionHandler(CircuitOpenException.class)
+  protected ResponseEntity<Object> handleCircuitOpen(final CircuitOpenException exception) {
+    log.debug("Upstream unavailable and nothing cached", exception);
+
+    ApiError error = new ApiError(HttpStatus.SERVICE_UNAVAILABLE, exception.getMessage());
+    return buildResponseEntity(error);
+  }
+
+  @ExceptionHandler(TaskRejectedException.class)
+  protected ResponseEntity<Object> handleTaskRejected(final TaskRejectedException exception) {
+    log.warn("Too many requests waiting on IEX", exception);
+
+    ApiError error = new ApiError(HttpStatus.SERVICE_UNAVAILABLE,
+        "Too many requests in progress, please retry shortly.");
+    return buildResponseEntity(error);
+  }
+
   private ResponseEntity<Object> buildResponseEntity(final ApiError apiError) {
     return new ResponseEntity<>(apiError, apiError.getStatus());
   }
@@ -1,21 +1,51 @@
 package org.galatea.starter.entrypoint;
 
-import java.util.Arrays;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.function.Function;
+import javax.jms.JMSException;
+import javax.jms.Message;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.domain.ProcessedMessage;
 import org.galatea.starter.domain.TradeAgreement;
+import org.galatea.starter.domain.rpsy.IProcessedMessageRpsy;
 import org.galatea.starter.entrypoint.messagecontracts.TradeAgreementMessage;
 import org.galatea.starter.service.SettlementService;
+import org.galatea.starter.utils.jms.BatchJmsListenerContainerFactory;
+import org.galatea.starter.utils.jms.BatchMessageListener;
 import org.galatea.starter.utils.translation.ITranslator;
-import org.springframework.jms.annotation.JmsListener;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jms.annotation.JmsListenerConfigurer;
+import org.springframework.jms.config.JmsListenerEndpointRegistrar;
+import org.springframework.jms.config.SimpleJmsListenerEndpoint;
+import org.springframework.jms.support.JmsUtils;
+import org.springframework.jms.support.converter.MessageConversionException;
+import org.springframework.jms.support.converter.MessagingMessageConverter;
+import org.springframework.messaging.converter.MessageConverter;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
 
+/**
+ * Settles the trade agreements put on the agreement queues. Messages are consumed in batches (see
+ * jms.batch), and every agreement in a batch is settled with one call to the settlement service,
+ * so that a batch costs one transaction rather than one per agreement.
+ *
+ * <p>The database transaction commits before the JMS session does, so a message can be delivered
+ * again after its missions were saved: if the rest of its batch is rolled back once it has been
+ * split to isolate a failure, or if the process dies between the two commits. The id of each
+ * message is recorded in the same transaction as its missions, and messages that were already
+ * recorded are skipped. Records are kept for jms.processed-message-retention-millis.
+ */
 @RequiredArgsConstructor
 @Slf4j
 @Component
-public class SettlementJmsListener {
+public class SettlementJmsListener implements JmsListenerConfigurer {
 
   @NonNull
   protected SettlementService settlementService;
@@ -26,31 +56,145 @@ public class SettlementJmsListener {
   @NonNull
   protected ITranslator<TradeAgreementMessage, TradeAgreement> tradeAgreementMessageTranslator;
 
+  @NonNull
+  protected MessageConverter jacksonJmsMessageConverter;
+
+  @NonNull
+  protected IProcessedMessageRpsy processedMessageRpsy;
+
+  @NonNull
+  protected TransactionTemplate transactionTemplate;
+
+  @NonNull
+  protected BatchJmsListenerContainerFactory batchJmsListenerContainerFactory;
+
+  @Value("${jms.agreement-queue-json}")
+  protected String jsonQueueName;
+
+  @Value("${jms.agreement-queue-proto}")
+  protected String protoQueueName;
+
+  @Value("${jms.listener-concurrency}")
+  protected String concurrency;
+
+  @Value("${jms.processed-message-retention-millis}")
+  protected long processedMessageRetentionMillis;
+
+  /* Takes the body out of a JMS message, for the message converters to read */
+  private final MessagingMessageConverter jmsMessageConverter = new MessagingMessageConverter();
+
   /**
-   * Spawns Missions for any TradeAgreements pulled off the jms queue in JSON format.
+   * Registers the batch consumers of the JSON and protobuf agreement queues.
    */
-  @JmsListener(destination = "${jms.agreement-queue-json}",
-      concurrency = "${jms.listener-concurrency}")
-  public void settleAgreementJson(final TradeAgreementMessage agreementMessage) {
-    log.info("Handling agreements {}", agreementMessage);
+  @Override
+  public void configureJmsListeners(final JmsListenerEndpointRegistrar registrar) {
+    registrar.registerEndpoint(endpoint("settleAgreementsJson", jsonQueueName,
+        this::settleAgreementsJson), batchJmsListenerContainerFactory);
+    registrar.registerEndpoint(endpoint("settleAgreementsProto", protoQueueName,
+        this::settleAgreementsProto), batchJmsListenerContainerFactory);
+  }
 
-    TradeAgreement agreement = tradeAgreementMessageTranslator.translate(agreementMessage);
-    Set<Long> missionIds = settlementService.spawnMissions(Arrays.asList(agreement));
-    log.info("Created missions {}", missionIds);
+  /**
+   * Spawns Missions for a batch of TradeAgreements pulled off the jms queue in JSON format.
+   */
+  public void settleAgreementsJson(final List<Message> messages) {
+    settle(messages, message -> {
+      Object agreementMessage = jacksonJmsMessageConverter.fromMessage(
+          toMessagingMessage(message), TradeAgreementMessage.class);
+      if (agreementMessage == null) {
+        throw new MessageConversionException("Message " + message + " isn't a JSON agreement");
+      }
+      return tradeAgreementMessageTranslator.translate((TradeAgreementMessage) agreementMessage);
+    });
   }
 
   /**
-   * Spawns missions for any TradeAgreements pulled off the jms queue in protobuf format.
+   * Spawns missions for a batch of TradeAgreements pulled off the jms queue in protobuf format.
+   */
+  public void settleAgreementsProto(final List<Message> messages) {
+    settle(messages, message -> {
+      Object body = toMessagingMessage(message).getPayload();
+      if (!(body instanceof byte[])) {
+        throw new MessageConversionException("Message " + message + " isn't a bytes message");
+      }
+      return tradeAgreementProtoTranslator.translate((byte[]) body);
+    });
+  }
+
+  private org.springframework.messaging.Message<?> toMessagingMessage(final Message message) {
+    try {
+      return (org.springframework.messaging.Message<?>) jmsMessageConverter.fromMessage(message);
+    } catch (JMSException err) {
+      throw JmsUtils.convertJmsAccessException(err);
+    }
+  }
+
+  private void settle(final List<Message> messages,
+      final Function<Message, TradeAgreement> translator) {
+    log.info("Received {} messages. Translating.", messages.size());
+    List<String> messageIds = new ArrayList<>(messages.size());
+    List<TradeAgreement> agreements = new ArrayList<>(messages.size());
+    for (Message message : messages) {
+      messageIds.add(messageId(message));
+      agreements.add(translator.apply(message));
+    }
+
+    transactionTemplate.execute(status -> {
+      settleOnce(messageIds, agreements);
+      return null;
+    });
+  }
+
+  /*
+   * Must be called in a transaction, so that the messages are recorded along with their missions.
    */
-  @JmsListener(destination = "${jms.agreement-queue-proto}",
-      concurrency = "${jms.listener-concurrency}")
-  public void settleAgreementProto(final byte[] message) {
-    log.info("Received message. Translating.");
-    TradeAgreement agreement = tradeAgreementProtoTranslator.translate(message);
+  private void settleOnce(final List<String> messageIds, final List<TradeAgreement> agreements) {
+    Instant now = Instant.now();
+    processedMessageRpsy.deleteProcessedBefore(
+        now.minus(Duration.ofMillis(processedMessageRetentionMillis)));
+    Set<String> processedIds = new HashSet<>();
+    processedMessageRpsy.findAllById(messageIds)
+        .forEach(processed -> processedIds.add(processed.getMessageId()));
+
+    List<ProcessedMessage> newMessages = new ArrayList<>(messageIds.size());
+    List<TradeAgreement> newAgreements = new ArrayList<>(agreements.size());
+    for (int i = 0; i < messageIds.size(); i++) {
+      String messageId = messageIds.get(i);
+      if (messageId == null || !processedIds.contains(messageId)) {
+        if (messageId != null) {
+          newMessages.add(new ProcessedMessage(messageId, now));
+        }
+        newAgreements.add(agreements.get(i));
+      }
+    }
+    if (!processedIds.isEmpty()) {
+      log.info("Skipping {} messages that were already settled", processedIds.size());
+    }
+    if (newAgreements.isEmpty()) {
+      return;
+    }
+    log.debug("Handling agreements {}", newAgreements);
 
-    log.info("Handling agreement {}", agreement);
+    processedMessageRpsy.saveAll(newMessages);
+    Set<Long> missionIds = settlementService.spawnMissions(newAgreements);
+    log.info("Created {} missions", missionIds.size());
+  }
+
+  private static String messageId(final Message message) {
+    try {
+      return message.getJMSMessageID();
+    } catch (JMSException err) {
+      throw JmsUtils.convertJmsAccessException(err);
+    }
+  }
 
-    Set<Long> missionIds = settlementService.spawnMissions(Arrays.asList(agreement));
-    log.info("Created missions {}", missionIds);
+  private SimpleJmsListenerEndpoint endpoint(final String id, final String destination,
+      final BatchMessageListener listener) {
+    SimpleJmsListenerEndpoint endpoint = new SimpleJmsListenerEndpoint();
+    endpoint.setId(id);
+    endpoint.setDestination(destination);
+    endpoint.setConcurrency(concurrency);
+    endpoint.setMessageListener(listener);
+    return endpoint;
   }
 }
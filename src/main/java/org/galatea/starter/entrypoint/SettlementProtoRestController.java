@@ -1,8 +1,17 @@
 package org.galatea.starter.entrypoint;
 
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
+import javax.servlet.http.HttpServletRequest;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import net.sf.aspect4log.Log;
@@ -11,12 +20,16 @@ import org.galatea.starter.domain.SettlementMission;
 import org.galatea.starter.domain.TradeAgreement;
 import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.SettlementMissionProtoMessage;
 import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.SettlementResponseProtoMessage;
+import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.TradeAgreementProtoMessage;
 import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.TradeAgreementProtoMessages;
 import org.galatea.starter.service.SettlementService;
 import org.galatea.starter.utils.translation.ITranslator;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.server.ServletServerHttpRequest;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -24,6 +37,7 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 /**
  * REST controller that mimics the behavior of SettlementRestController but accepts and returns only
@@ -43,12 +57,18 @@ public class SettlementProtoRestController extends BaseSettlementRestController
   @NonNull
   private ITranslator<TradeAgreementProtoMessages, List<TradeAgreement>> tradeAgreementTranslator;
 
+  @NonNull
+  private ITranslator<TradeAgreementProtoMessage, TradeAgreement> tradeAgreementProtoTranslator;
+
   @Value("${mvc.settleMissionPath}")
   private String settleMissionPath;
 
   @Value("${mvc.getMissionPath}")
   private String getMissionPath;
 
+  @Value("${settlement.bulk.chunk-size}")
+  private int bulkChunkSize;
+
   /**
    * Initializes a new instance of this class with the required arguments that will be autowired by
    * spring boot. This constructor was manually added because of the base class that has no default
@@ -57,10 +77,13 @@ public class SettlementProtoRestController extends BaseSettlementRestController
   public SettlementProtoRestController(final SettlementService settlementService,
       final ITranslator<TradeAgreementProtoMessages, List<TradeAgreement>> tradeAgreementTranslator,
       final ITranslator<SettlementMission, SettlementMissionProtoMessage>
-          settlementMissionTranslator) {
+          settlementMissionTranslator,
+      final ITranslator<TradeAgreementProtoMessage, TradeAgreement>
+          tradeAgreementProtoTranslator) {
     super(settlementService);
     this.settlementMissionTranslator = settlementMissionTranslator;
     this.tradeAgreementTranslator = tradeAgreementTranslator;
+    this.tradeAgreementProtoTranslator = tradeAgreementProtoTranslator;
   }
 
   /**
@@ -81,6 +104,41 @@ public class SettlementProtoRestController extends BaseSettlementRestController
         .build();
   }
 
+  /**
+   * Spawn settlement missions from an upload of any size of length delimited trade agreement
+   * messages, as written by writeDelimitedTo. The agreements are read as they arrive and settled
+   * in chunks, and the response is a stream of length delimited settlement response messages, one
+   * per chunk, each written as soon as the chunk is saved. An agreement that can't be parsed or
+   * fails validation ends the upload; the chunks before it stay settled. If it is in the first
+   * chunk the upload is rejected with an error status, otherwise the last message has no mission
+   * paths but an error and the number of agreements at the start of the upload that were settled.
+   */
+  // The request body is read by the streamed response, so it is never held in memory whole
+  @PostMapping(value = "${mvc.settleMissionsBulkPath}", consumes = APPLICATION_X_PROTOBUF)
+  public ResponseEntity<StreamingResponseBody> settleAgreementsBulk(
+      final HttpServletRequest request,
+      @RequestParam(value = "requestId", required = false) final String requestId) {
+    // if an external request id was provided, grab it
+    processRequestId(requestId);
+
+    ServletServerHttpRequest inputMessage = new ServletServerHttpRequest(request);
+    StreamingResponseBody body = outputStream -> {
+      InputStream in = inputMessage.getBody();
+      try {
+        settleAgreementsInChunks(() -> readAgreement(in), bulkChunkSize, getMissionPath,
+            missionPaths -> writeDelimited(SettlementResponseProtoMessage.newBuilder()
+                .addAllSpawnedMissionPaths(missionPaths).build(), outputStream),
+            (error, settled) -> writeDelimited(SettlementResponseProtoMessage.newBuilder()
+                .setError(error).setSettled(settled).build(), outputStream));
+      } catch (InvalidProtocolBufferException err) {
+        throw new HttpMessageNotReadableException("Malformed agreement in bulk upload", err,
+            inputMessage);
+      }
+    };
+    return ResponseEntity.ok().contentType(MediaType.parseMediaType(APPLICATION_X_PROTOBUF))
+        .body(body);
+  }
+
   /**
    * Retrieves existing settlement mission messages.
    */
@@ -103,4 +161,59 @@ public class SettlementProtoRestController extends BaseSettlementRestController
     // could add a test for the not-found case in order to meet coverage requirements
     return new ResponseEntity<>(null, HttpStatus.NOT_FOUND);
   }
+
+  /**
+   * Retrieves existing settlement mission messages as a stream of length delimited messages, as
+   * read by parseDelimitedFrom, in id order. The missions are read from the database a page at a
+   * time and written out as they are read, so any number can be exported without building a list
+   * of them. Tracing writes this media type straight through rather than buffering the stream.
+   */
+  @GetMapping(value = "${mvc.getMissionsPath}", produces = APPLICATION_X_PROTOBUF)
+  public ResponseEntity<StreamingResponseBody> getMissions(
+      // @RequestParam to take a comma-separated list of ids from the url (ex: http://url?ids=1,2,3)
+      @RequestParam(value = "ids") final String ids,
+      @RequestParam(value = "requestId", required = false) final String requestId) {
+    // if an external request id was provided, grab it
+    processRequestId(requestId);
+
+    List<Long> idLongs = Arrays.stream(ids.split(","))
+        .map(Long::parseLong)
+        .collect(Collectors.toList());
+    // Checked before the response starts, as there is no protobuf error body to send (see above)
+    if (!missionsExistInternal(idLongs)) {
+      return new ResponseEntity<>(null, HttpStatus.NOT_FOUND);
+    }
+
+    StreamingResponseBody body = outputStream -> {
+      // One stream and buffer for every message, where writeDelimitedTo would make one per message
+      CodedOutputStream codedOutput = CodedOutputStream.newInstance(outputStream);
+      try {
+        forEachMissionInternal(idLongs, mission -> {
+          SettlementMissionProtoMessage message = settlementMissionTranslator.translate(mission);
+          try {
+            codedOutput.writeUInt32NoTag(message.getSerializedSize());
+            message.writeTo(codedOutput);
+          } catch (IOException err) {
+            throw new UncheckedIOException(err);
+          }
+        });
+      } catch (UncheckedIOException err) {
+        throw err.getCause();
+      }
+      codedOutput.flush();
+    };
+    return ResponseEntity.ok().contentType(MediaType.parseMediaType(APPLICATION_X_PROTOBUF))
+        .body(body);
+  }
+
+  private TradeAgreement readAgreement(final InputStream in) throws IOException {
+    TradeAgreementProtoMessage message = TradeAgreementProtoMessage.parseDelimitedFrom(in);
+    return message == null ? null : tradeAgreementProtoTranslator.translate(message);
+  }
+
+  private static void writeDelimited(final SettlementResponseProtoMessage message,
+      final OutputStream out) throws IOException {
+    message.writeDelimitedTo(out);
+    out.flush();
+  }
 }
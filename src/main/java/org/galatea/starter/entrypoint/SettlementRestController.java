@@ -1,10 +1,16 @@
 package org.galatea.starter.entrypoint;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
+import javax.servlet.http.HttpServletRequest;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import net.sf.aspect4log.Log;
@@ -15,13 +21,18 @@ import org.galatea.starter.domain.TradeAgreement;
 import org.galatea.starter.entrypoint.exception.EntityNotFoundException;
 import org.galatea.starter.entrypoint.messagecontracts.SettlementMissionList;
 import org.galatea.starter.entrypoint.messagecontracts.SettlementMissionMessage;
+import org.galatea.starter.entrypoint.messagecontracts.SettlementMissionStream;
 import org.galatea.starter.entrypoint.messagecontracts.SettlementResponseMessage;
+import org.galatea.starter.entrypoint.messagecontracts.TradeAgreementMessage;
 import org.galatea.starter.entrypoint.messagecontracts.TradeAgreementMessages;
 import org.galatea.starter.service.SettlementService;
 import org.galatea.starter.utils.translation.ITranslator;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.server.ServletServerHttpRequest;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -31,6 +42,7 @@ import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 /**
  * REST Controller that generates and listens to http endpoints which allow the caller to create
@@ -51,12 +63,21 @@ public class SettlementRestController extends BaseSettlementRestController {
   @NonNull
   ITranslator<TradeAgreementMessages, List<TradeAgreement>> tradeAgreementTranslator;
 
+  @NonNull
+  ITranslator<TradeAgreementMessage, TradeAgreement> tradeAgreementMessageTranslator;
+
+  @NonNull
+  ObjectMapper objectMapper;
+
   @Value("${mvc.settleMissionPath}")
   private String settleMissionPath;
 
   @Value("${mvc.getMissionPath}")
   private String getMissionPath;
 
+  @Value("${settlement.bulk.chunk-size}")
+  private int bulkChunkSize;
+
   /**
    * Initializes a new instance of this class with the required arguments that will be autowired by
    * spring boot. This constructor was manually added because of the base class that has no default
@@ -66,11 +87,15 @@ public class SettlementRestController extends BaseSettlementRestController {
       final ITranslator<TradeAgreementMessages, List<TradeAgreement>> tradeAgreementTranslator,
       final ITranslator<SettlementMission, SettlementMissionMessage> settlementMissionTranslator,
       final ITranslator<SettlementMissionMessage, SettlementMission>
-          settlementMissionMsgTranslator) {
+          settlementMissionMsgTranslator,
+      final ITranslator<TradeAgreementMessage, TradeAgreement> tradeAgreementMessageTranslator,
+      final ObjectMapper objectMapper) {
     super(settlementService);
     this.tradeAgreementTranslator = tradeAgreementTranslator;
     this.settlementMissionTranslator = settlementMissionTranslator;
     this.settlementMissionMsgTranslator = settlementMissionMsgTranslator;
+    this.tradeAgreementMessageTranslator = tradeAgreementMessageTranslator;
+    this.objectMapper = objectMapper;
   }
 
   /**
@@ -95,6 +120,54 @@ public class SettlementRestController extends BaseSettlementRestController {
     return SettlementResponseMessage.builder().spawnedMissions(missionPaths).build();
   }
 
+  /**
+   * Generate Missions from a newline delimited JSON upload of TradeAgreements of any size. The
+   * agreements are read as they arrive and settled in chunks, and the response is streamed as
+   * newline delimited JSON with one {"spawnedMissions": [...]} line per chunk, written as soon as
+   * the chunk is saved. An agreement that can't be parsed or fails validation ends the upload;
+   * the chunks before it stay settled. If it is in the first chunk the upload is rejected with an
+   * error status, otherwise the last line is {"error": ..., "settled": n}, where n is the number of
+   * agreements at the start of the upload that were settled.
+   */
+  // The request body is read by the streamed response, so it is never held in memory whole. There
+  // is no produces, so that an error before the first line can still be rendered as JSON.
+  @PostMapping(value = "${mvc.settleMissionsBulkPath}",
+      consumes = MvcConfig.APPLICATION_NDJSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> settleAgreementsBulk(
+      final HttpServletRequest request,
+      @RequestParam(value = "requestId", required = false) final String requestId) {
+
+    // if an external request id was provided, grab it
+    processRequestId(requestId);
+
+    ServletServerHttpRequest inputMessage = new ServletServerHttpRequest(request);
+    StreamingResponseBody body = outputStream -> {
+      JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+      generator.setRootValueSeparator(null);
+      try {
+        MappingIterator<TradeAgreementMessage> messages = objectMapper
+            .readerFor(TradeAgreementMessage.class).readValues(inputMessage.getBody());
+        settleAgreementsInChunks(() -> messages.hasNextValue()
+                ? tradeAgreementMessageTranslator.translate(messages.nextValue()) : null,
+            bulkChunkSize, getMissionPath, missionPaths -> {
+              generator.writeObject(SettlementResponseMessage.builder()
+                  .spawnedMissions(missionPaths).build());
+              endLine(generator);
+            }, (error, settled) -> {
+              generator.writeStartObject();
+              generator.writeStringField("error", error);
+              generator.writeNumberField("settled", settled);
+              generator.writeEndObject();
+              endLine(generator);
+            });
+      } catch (JsonProcessingException err) {
+        throw new HttpMessageNotReadableException("Malformed agreement in bulk upload", err,
+            inputMessage);
+      }
+    };
+    return ResponseEntity.ok().contentType(MvcConfig.APPLICATION_NDJSON).body(body);
+  }
+
   /**
    * Retrieve a previously generated Mission.
    */
@@ -125,9 +198,7 @@ public class SettlementRestController extends BaseSettlementRestController {
   // @GetMapping to link http GET requests to this method
   @GetMapping(value = "${mvc.getMissionsPath}", produces = {
       MediaType.APPLICATION_JSON_VALUE,
-      MediaType.APPLICATION_XML_VALUE,
-      MvcConfig.TEXT_CSV_VALUE,
-      MvcConfig.APPLICATION_EXCEL_VALUE})
+      MediaType.APPLICATION_XML_VALUE})
   public SettlementMissionList getMissions(
       // @RequestParam to take a comma-separated list of ids from the url (ex: http://url?ids=1,2,3)
       @RequestParam(value = "ids") final String ids,
@@ -145,6 +216,34 @@ public class SettlementRestController extends BaseSettlementRestController {
     return new SettlementMissionList(missions);
   }
 
+  /**
+   * Retrieve multiple previously generated Missions as CSV or XLSX. The missions are read from the
+   * database a page at a time as the rows are written, so any number of them can be exported.
+   * Tracing writes these media types straight through rather than buffering the whole export.
+   */
+  @GetMapping(value = "${mvc.getMissionsPath}", produces = {
+      MvcConfig.TEXT_CSV_VALUE,
+      MvcConfig.APPLICATION_EXCEL_VALUE})
+  public SettlementMissionStream exportMissions(
+      // @RequestParam to take a comma-separated list of ids from the url (ex: http://url?ids=1,2,3)
+      @RequestParam(value = "ids") final String ids,
+      // @RequestParam to take a parameter from the url (ex: http://url?requestId=3123)
+      @RequestParam(value = "requestId", required = false) final String requestId) {
+
+    // if an external request id was provided, grab it
+    processRequestId(requestId);
+
+    List<Long> idLongs = Arrays.stream(ids.split(","))
+        .map(Long::parseLong)
+        .collect(Collectors.toList());
+    // Checked up front, as once the first row is written the status can no longer change
+    if (!missionsExistInternal(idLongs)) {
+      throw new EntityNotFoundException(SettlementMission.class, idLongs);
+    }
+
+    return new SettlementMissionStream(streamMissionsInternal(idLongs));
+  }
+
   /**
    * Update an existing mission given an ID.
    */
@@ -196,4 +295,8 @@ public class SettlementRestController extends BaseSettlementRestController {
     }
   }
 
+  private static void endLine(final JsonGenerator generator) throws IOException {
+    generator.writeRaw('\n');
+    generator.flush();
+  }
 }
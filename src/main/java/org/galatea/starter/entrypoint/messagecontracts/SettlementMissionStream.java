@@ -0,0 +1,22 @@
+package org.galatea.starter.entrypoint.messagecontracts;
+
+import java.util.stream.Stream;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.galatea.starter.domain.SettlementMission;
+
+/**
+ * Wrapper for missions that are read from the database while the response is being written, for
+ * the HttpMessageConverter implementations that write one row at a time. Unlike
+ * SettlementMissionList, the missions are never all in memory at once, so any number can be
+ * exported.
+ *
+ * <p>The stream can only be written once, and must be written on the request thread. The
+ * converter that writes it closes it.
+ */
+@AllArgsConstructor
+@Getter
+public class SettlementMissionStream {
+
+  protected Stream<SettlementMission> settlementMissions;
+}
@@ -0,0 +1,319 @@
+package org.galatea.starter.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.utils.TokenBucket;
+import org.galatea.starter.utils.TokenBucket.Priority;
+import org.galatea.starter.utils.exception.RateLimitExceededException;
+import org.galatea.starter.utils.http.RateLimitedClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.scheduling.support.CronTrigger;
+import org.springframework.stereotype.Component;
+
+/**
+ * Fetches the missing history of a watchlist of symbols ahead of the trading day, so that the
+ * first request for one of them doesn't wait on IEX Cloud. A run is scheduled overnight, after the
+ * previous session's bars are published, and again shortly before the market opens.
+ *
+ * <p>Symbols are backfilled on a bounded pool, and every cloud call first takes a permit from a
+ * rate limiter, so that a run spends the IEX token's quota at a steady rate rather than in a
+ * burst. Symbols whose range is already stored cost no permit. The calls are made as background
+ * requests, so they also give way to interactive requests under the shared IEX quota.
+ *
+ * <p>Progress and lag, the trading days between each symbol's newest stored bar and the last
+ * completed session, are reported by {@link #getStatus()} and as iex.backfill.* metrics. Each
+ * symbol's newest bar is noted as a run backfills it, so reporting lag doesn't read the store; a
+ * symbol's lag is reported once a run has reached it.
+ */
+@Slf4j
+@Component
+public class HistoricalPriceBackfill {
+
+  private final IexService iexService;
+
+  private final HistoricalPriceCache historicalPriceCache;
+
+  private final List<String> watchlist;
+
+  private final String range;
+
+  private final ZoneId zone;
+
+  private final TokenBucket rateLimiter;
+
+  private final ThreadPoolTaskScheduler scheduler;
+
+  private final ExecutorService workers;
+
+  private final AtomicBoolean running = new AtomicBoolean();
+
+  private final AtomicInteger pending = new AtomicInteger();
+
+  private final AtomicInteger completed = new AtomicInteger();
+
+  private final AtomicInteger failed = new AtomicInteger();
+
+  /* newest stored bar of each watched symbol, if any, as of when a run last backfilled it */
+  private final ConcurrentMap<String, Optional<LocalDate>> newestBars = new ConcurrentHashMap<>();
+
+  private final Counter fetches;
+
+  private final Counter failures;
+
+  private volatile String trigger;
+
+  private volatile Instant lastStarted;
+
+  private volatile Instant lastFinished;
+
+  /**
+   * Create the backfill and schedule its runs. Nothing is scheduled if the watchlist is empty.
+   */
+  public HistoricalPriceBackfill(@NonNull final IexService iexService,
+      @NonNull final HistoricalPriceCache historicalPriceCache,
+      @Value("${iex.backfill.watchlist:}") final String[] watchlist,
+      @Value("${iex.backfill.range}") final String range,
+      @Value("${iex.backfill.nightly-cron}") final String nightlyCron,
+      @Value("${iex.backfill.pre-open-cron}") final String preOpenCron,
+      @Value("${iex.backfill.zone}") final String zone,
+      @Value("${iex.backfill.threads}") final int threads,
+      @Value("${iex.backfill.permits-per-second}") final double permitsPerSecond,
+      @NonNull final MeterRegistry meterRegistry) {
+    this.iexService = iexService;
+    this.historicalPriceCache = historicalPriceCache;
+    this.watchlist = Collections.unmodifiableList(new ArrayList<>(Arrays.stream(watchlist)
+        .map(String::trim)
+        .filter(symbol -> !symbol.isEmpty())
+        .map(symbol -> symbol.toUpperCase(Locale.ROOT))
+        .collect(Collectors.toCollection(LinkedHashSet::new))));
+    this.range = range;
+    this.zone = ZoneId.of(zone);
+    // Only this backfill's workers draw on it, and a permit at a time
+    this.rateLimiter = new TokenBucket(meterRegistry, "iex.backfill.rate", permitsPerSecond, 1);
+    this.workers = Executors.newFixedThreadPool(threads,
+        new CustomizableThreadFactory("iex-backfill-"));
+    this.fetches = meterRegistry.counter("iex.backfill.fetches", "result", "success");
+    this.failures = meterRegistry.counter("iex.backfill.fetches", "result", "failure");
+    meterRegistry.gauge("iex.backfill.pending", pending);
+    meterRegistry.gauge("iex.backfill.max-lag-days", this, HistoricalPriceBackfill::getMaxLagDays);
+
+    this.scheduler = new ThreadPoolTaskScheduler();
+    scheduler.setThreadNamePrefix("iex-backfill-scheduler-");
+    scheduler.initialize();
+    if (!this.watchlist.isEmpty()) {
+      TimeZone timeZone = TimeZone.getTimeZone(zone);
+      scheduler.schedule(() -> run("nightly"), new CronTrigger(nightlyCron, timeZone));
+      scheduler.schedule(() -> run("pre-open"), new CronTrigger(preOpenCron, timeZone));
+      log.info("Scheduled backfills of {} watched symbols at '{}' and '{}' {}",
+          this.watchlist.size(), nightlyCron, preOpenCron, zone);
+    }
+  }
+
+  /**
+   * Start a run now, in the background, unless one is already running.
+   *
+   * @return true if a run was started.
+   */
+  public boolean start() {
+    if (running.get()) {
+      return false;
+    }
+    scheduler.execute(() -> run("manual"));
+    return true;
+  }
+
+  /**
+   * Backfill every watched symbol and wait for them all. Does nothing if a run is already going.
+   * Failures are logged and counted, and don't stop the rest of the run.
+   *
+   * @param runTrigger what started the run, for the status.
+   */
+  public void run(final String runTrigger) {
+    if (!running.compareAndSet(false, true)) {
+      log.info("Skipping the {} backfill, the {} backfill is still running", runTrigger, trigger);
+      return;
+    }
+    try {
+      trigger = runTrigger;
+      lastStarted = Instant.now();
+      pending.set(watchlist.size());
+      completed.set(0);
+      failed.set(0);
+      log.info("Starting the {} backfill of {} symbols", runTrigger, watchlist.size());
+
+      CompletableFuture.allOf(watchlist.stream()
+          .map(symbol -> CompletableFuture.runAsync(() -> backfill(symbol), workers))
+          .toArray(CompletableFuture[]::new))
+          .join();
+
+      lastFinished = Instant.now();
+      log.info("Finished the {} backfill: {} symbols done, {} failed, max lag {} days",
+          runTrigger, completed.get(), failed.get(), getMaxLagDays());
+    } catch (RuntimeException err) {
+      // Runs on the scheduler thread, and must not throw: that would stop the schedule
+      log.warn("The {} backfill failed", runTrigger, err);
+    } finally {
+      running.set(false);
+    }
+  }
+
+  /**
+   * Get the progress of the current or last run, and how far behind each watched symbol is.
+   */
+  public BackfillStatus getStatus() {
+    Map<String, Integer> lagDays = getLagDays();
+    return BackfillStatus.builder()
+        .running(running.get())
+        .trigger(trigger)
+        .lastStarted(lastStarted)
+        .lastFinished(lastFinished)
+        .symbols(watchlist.size())
+        .pending(pending.get())
+        .completed(completed.get())
+        .failed(failed.get())
+        .maxLagDays(lagDays.values().stream().mapToInt(Integer::intValue).max().orElse(0))
+        .lagDays(lagDays)
+        .build();
+  }
+
+  /**
+   * Stop the schedule and abandon any run in progress.
+   */
+  @PreDestroy
+  public void shutdown() {
+    scheduler.shutdown();
+    workers.shutdownNow();
+  }
+
+  private void backfill(final String symbol) {
+    try {
+      if (!iexService.isHistoryStored(symbol, range)) {
+        acquirePermit();
+        RateLimitedClient.callAs(Priority.BACKGROUND,
+            () -> iexService.getHistoricalPriceWindow(symbol, range, null));
+        fetches.increment();
+      }
+      completed.incrementAndGet();
+    } catch (RuntimeException err) {
+      log.warn("Couldn't backfill {}", symbol, err);
+      failures.increment();
+      failed.incrementAndGet();
+    } finally {
+      noteNewestBar(symbol);
+      pending.decrementAndGet();
+    }
+  }
+
+  /*
+   * Workers queue here for their turn, which comes within a second or two at the configured rate.
+   */
+  private void acquirePermit() {
+    try {
+      if (!rateLimiter.tryAcquire(Priority.BACKGROUND, 1, TimeUnit.HOURS)) {
+        throw new RateLimitExceededException("No backfill permit within an hour");
+      }
+    } catch (InterruptedException err) {
+      Thread.currentThread().interrupt();
+      throw new RateLimitExceededException("Interrupted waiting for a backfill permit");
+    }
+  }
+
+  private void noteNewestBar(final String symbol) {
+    try {
+      HistoricalPriceSeries series = historicalPriceCache.getSeries(symbol);
+      newestBars.put(symbol, series.size() == 0 ? Optional.empty()
+          : Optional.of(LocalDate.ofEpochDay(series.epochDayAt(series.size() - 1))));
+    } catch (RuntimeException err) {
+      log.warn("Couldn't read the newest bar of {}", symbol, err);
+    }
+  }
+
+  private int getMaxLagDays() {
+    return getLagDays().values().stream().mapToInt(Integer::intValue).max().orElse(0);
+  }
+
+  /*
+   * Trading days between each symbol's newest stored bar and the last completed session in the
+   * exchange's zone. A symbol with nothing stored lags by a year. Holidays count as lag, so one day
+   * of lag right after a holiday is expected. Symbols no run has reached yet are left out.
+   */
+  private Map<String, Integer> getLagDays() {
+    LocalDate today = LocalDate.now(zone);
+    LocalDate lastSession = today.minusDays(1);
+    Map<String, Integer> lagDays = new LinkedHashMap<>();
+    for (String symbol : watchlist) {
+      Optional<LocalDate> newestBar = newestBars.get(symbol);
+      if (newestBar == null) {
+        continue;
+      }
+      LocalDate from = newestBar.map(day -> day.plusDays(1)).orElse(today.minusYears(1));
+      int lag = 0;
+      for (LocalDate day = from; !day.isAfter(lastSession); day = day.plusDays(1)) {
+        if (TradingDayGapFinder.isTradingDay(day)) {
+          lag++;
+        }
+      }
+      lagDays.put(symbol, lag);
+    }
+    return lagDays;
+  }
+
+  /**
+   * Progress of the current or last backfill run.
+   */
+  @Data
+  @Builder
+  public static class BackfillStatus {
+
+    private boolean running;
+
+    /* nightly, pre-open or manual; null before the first run */
+    private String trigger;
+
+    private Instant lastStarted;
+
+    private Instant lastFinished;
+
+    private int symbols;
+
+    private int pending;
+
+    private int completed;
+
+    private int failed;
+
+    private int maxLagDays;
+
+    /* per watched symbol, in watchlist order */
+    private Map<String, Integer> lagDays;
+  }
+}
@@ -0,0 +1,229 @@
+package org.galatea.starter.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.domain.IexHistoricalPrice;
+import org.galatea.starter.domain.rpsy.IexHistoricalPricesRpsy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps a {@link HistoricalPriceSeries} per symbol in front of the historical prices repository.
+ * A symbol's series is loaded from the database the first time it is asked for, and whole symbols
+ * are evicted least-recently-used first once the configured memory budget is exceeded.
+ *
+ * <p>Series are immutable, so readers never block on writers: an update builds a new series and
+ * swaps it in. Series are loaded outside the lock, so prices may be added to a symbol while it is
+ * being loaded; the load is then repeated, so that it can't cache a series missing those prices.
+ */
+@Slf4j
+@Component
+public class HistoricalPriceCache {
+
+  private final IexHistoricalPricesRpsy historicalPricesRpsy;
+
+  private final long maxBytes;
+
+  /* access-ordered, so iteration starts at the least recently used symbol */
+  private final LinkedHashMap<String, HistoricalPriceSeries> seriesBySymbol =
+      new LinkedHashMap<>(16, 0.75f, true);
+
+  private long currentBytes;
+
+  /* Guarded by this. How many times prices were added to each symbol while it wasn't cached */
+  private final Map<String, Long> uncachedAdds = new HashMap<>();
+
+  /**
+   * Create a cache that loads from the given repository and holds at most maxBytes of bars.
+   */
+  public HistoricalPriceCache(final IexHistoricalPricesRpsy historicalPricesRpsy,
+      @Value("${iex.historical-cache.max-bytes}") final long maxBytes) {
+    this.historicalPricesRpsy = historicalPricesRpsy;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Get every stored bar for the symbol, loading them from the database if the symbol isn't
+   * cached yet. Symbols with no stored bars give an empty series.
+   *
+   * @param symbol the upper case symbol.
+   */
+  public HistoricalPriceSeries getSeries(final String symbol) {
+    while (true) {
+      long adds;
+      synchronized (this) {
+        HistoricalPriceSeries series = seriesBySymbol.get(symbol);
+        if (series != null) {
+          return series;
+        }
+        adds = uncachedAdds.getOrDefault(symbol, 0L);
+      }
+
+      // Load outside the lock so a slow query for one symbol doesn't hold up every other symbol
+      HistoricalPriceSeries loaded =
+          HistoricalPriceSeries.of(symbol, historicalPricesRpsy.findBySymbolOrderByDate(symbol));
+      Optional<HistoricalPriceSeries> cached = putIfUnchanged(loaded, adds);
+      if (cached.isPresent()) {
+        log.info("Loaded {} historical prices for {} into the cache", loaded.size(), symbol);
+        return cached.get();
+      }
+      log.debug("Prices were added to {} while it was loading, loading it again", symbol);
+    }
+  }
+
+  /**
+   * Get the series for each of the symbols. Symbols that aren't cached yet are all loaded from
+   * the database with one query.
+   *
+   * @param symbols the upper case symbols.
+   * @return the series for every symbol, in the order the symbols were given.
+   */
+  public Map<String, HistoricalPriceSeries> getSeries(final Collection<String> symbols) {
+    Map<String, HistoricalPriceSeries> found = new HashMap<>();
+    Map<String, Long> missing = new LinkedHashMap<>();
+    synchronized (this) {
+      for (String symbol : symbols) {
+        HistoricalPriceSeries series = seriesBySymbol.get(symbol);
+        if (series != null) {
+          found.put(symbol, series);
+        } else {
+          missing.put(symbol, uncachedAdds.getOrDefault(symbol, 0L));
+        }
+      }
+    }
+
+    if (!missing.isEmpty()) {
+      Map<String, List<IexHistoricalPrice>> pricesBySymbol = historicalPricesRpsy
+          .findBySymbolInOrderBySymbolAscDateAsc(new ArrayList<>(missing.keySet())).stream()
+          .collect(Collectors.groupingBy(IexHistoricalPrice::getSymbol));
+      log.info("Loaded historical prices for {} symbols into the cache", missing.size());
+      missing.forEach((symbol, adds) -> {
+        HistoricalPriceSeries loaded = HistoricalPriceSeries.of(symbol,
+            pricesBySymbol.getOrDefault(symbol, Collections.emptyList()));
+        // If it was loaded too early, load it again on its own
+        found.put(symbol, putIfUnchanged(loaded, adds).orElseGet(() -> getSeries(symbol)));
+      });
+    }
+
+    Map<String, HistoricalPriceSeries> ordered = new LinkedHashMap<>();
+    symbols.forEach(symbol -> ordered.put(symbol, found.get(symbol)));
+    return ordered;
+  }
+
+  /**
+   * Add newly stored prices to the symbol's series. Does nothing if the symbol isn't cached,
+   * since it will be loaded with these prices on its next use, except to make any load of it
+   * already under way load again.
+   *
+   * @param symbol the upper case symbol.
+   * @param prices prices that have been written to the database.
+   * @return the symbol's series with the prices added, or empty if the symbol isn't cached.
+   */
+  public Optional<HistoricalPriceSeries> addPrices(final String symbol,
+      final Collection<IexHistoricalPrice> prices) {
+    synchronized (this) {
+      HistoricalPriceSeries series = seriesBySymbol.get(symbol);
+      if (series == null && !prices.isEmpty()) {
+        uncachedAdds.merge(symbol, 1L, Long::sum);
+      }
+      if (series == null || prices.isEmpty()) {
+        return Optional.ofNullable(series);
+      }
+      HistoricalPriceSeries merged = series.merge(prices);
+      put(merged);
+      return Optional.of(merged);
+    }
+  }
+
+  /**
+   * Get every cached series, least recently used first.
+   */
+  public synchronized List<HistoricalPriceSeries> getCachedSeries() {
+    return new ArrayList<>(seriesBySymbol.values());
+  }
+
+  /**
+   * Add a series that was loaded from somewhere other than the repository, e.g. a snapshot, unless
+   * its symbol is already cached. Series restored later count as more recently used.
+   */
+  public void restore(final HistoricalPriceSeries series) {
+    putIfAbsent(series);
+  }
+
+  /**
+   * Approximate number of bytes currently held by the cache.
+   */
+  public synchronized long getCurrentBytes() {
+    return currentBytes;
+  }
+
+  /*
+   * Cache a series loaded from the database, unless prices were added to the symbol since the
+   * given count of additions was read: the load may have missed them, so gives empty. Another
+   * thread may have loaded or updated the symbol meanwhile; its series is at least as fresh as
+   * ours, so it is kept and returned.
+   */
+  private synchronized Optional<HistoricalPriceSeries> putIfUnchanged(
+      final HistoricalPriceSeries loaded, final long adds) {
+    HistoricalPriceSeries existing = seriesBySymbol.get(loaded.getSymbol());
+    if (existing != null) {
+      return Optional.of(existing);
+    }
+    if (uncachedAdds.getOrDefault(loaded.getSymbol(), 0L) != adds) {
+      return Optional.empty();
+    }
+    put(loaded);
+    return Optional.of(loaded);
+  }
+
+  /*
+   * Another thread may have loaded or updated the symbol meanwhile. Its series is at least as
+   * fresh as ours, so keep it.
+   */
+  private synchronized HistoricalPriceSeries putIfAbsent(final HistoricalPriceSeries loaded) {
+    HistoricalPriceSeries existing = seriesBySymbol.get(loaded.getSymbol());
+    if (existing != null) {
+      return existing;
+    }
+    put(loaded);
+    return loaded;
+  }
+
+  /*
+   * Must be called while holding the lock.
+   */
+  private void put(final HistoricalPriceSeries series) {
+    HistoricalPriceSeries previous = seriesBySymbol.put(series.getSymbol(), series);
+    if (previous != null) {
+      currentBytes -= previous.sizeInBytes();
+    }
+    currentBytes += series.sizeInBytes();
+    evictIfOverBudget(series.getSymbol());
+  }
+
+  /*
+   * Must be called while holding the lock. Never evicts the symbol that was just put, even if it
+   * is bigger than the whole budget, so that the caller can still use it.
+   */
+  private void evictIfOverBudget(final String keep) {
+    Iterator<Map.Entry<String, HistoricalPriceSeries>> eldest =
+        seriesBySymbol.entrySet().iterator();
+    while (currentBytes > maxBytes && eldest.hasNext()) {
+      Map.Entry<String, HistoricalPriceSeries> entry = eldest.next();
+      if (!entry.getKey().equals(keep)) {
+        currentBytes -= entry.getValue().sizeInBytes();
+        eldest.remove();
+        log.info("Evicted historical prices for {} from the cache", entry.getKey());
+      }
+    }
+  }
+}
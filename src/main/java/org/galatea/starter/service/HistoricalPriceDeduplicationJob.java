@@ -0,0 +1,32 @@
+package org.galatea.starter.service;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.domain.rpsy.IexHistoricalPricesRpsy;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * One-off job that removes the duplicate historical prices written before prices were upserted,
+ * and then adds the unique (symbol, date) index. Start the application once with
+ * iex.historical-prices.deduplicate-on-startup=true to run it.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "iex.historical-prices.deduplicate-on-startup", havingValue = "true")
+@RequiredArgsConstructor
+public class HistoricalPriceDeduplicationJob implements ApplicationRunner {
+
+  @NonNull
+  private IexHistoricalPricesRpsy historicalPricesRpsy;
+
+  @Override
+  public void run(final ApplicationArguments args) {
+    log.info("Removing duplicate historical prices");
+    int deleted = historicalPricesRpsy.deleteDuplicates();
+    log.info("Removed {} duplicate historical prices", deleted);
+  }
+}
@@ -0,0 +1,24 @@
+package org.galatea.starter.service;
+
+import java.util.List;
+import lombok.Value;
+import org.galatea.starter.domain.IexHistoricalPrice;
+
+/**
+ * Historical prices for a symbol, along with whether they are stale: missing days couldn't be
+ * fetched because IEX was unavailable, so only the stored days were served.
+ */
+@Value
+public class HistoricalPriceResult {
+
+  private List<IexHistoricalPrice> prices;
+
+  private boolean stale;
+
+  /**
+   * Prices that hold every day that was requested and could be found.
+   */
+  public static HistoricalPriceResult fresh(final List<IexHistoricalPrice> prices) {
+    return new HistoricalPriceResult(prices, false);
+  }
+}
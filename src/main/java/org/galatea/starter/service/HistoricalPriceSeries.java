@@ -0,0 +1,441 @@
+package org.galatea.starter.service;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.Getter;
+import org.galatea.starter.domain.IexHistoricalPrice;
+
+/**
+ * An immutable, columnar copy of every daily bar stored for one symbol. Dates are kept as epoch
+ * days and prices as fixed-point longs with {@link #PRICE_SCALE} decimals, so a series costs
+ * {@link #BYTES_PER_BAR} bytes per bar instead of one entity with five boxed numbers.
+ *
+ * <p>Bars are sorted by date, so any date range is found with two binary searches.
+ *
+ * <p>Every series gets its own version, and remembers the lineage of series it was built from by
+ * only appending bars, so that values computed from one series can tell whether they still hold
+ * for another (see {@link IndicatorSeries#extend}).
+ */
+public final class HistoricalPriceSeries {
+
+  /**
+   * Number of decimal places kept for prices. IEX quotes to at most four.
+   */
+  public static final int PRICE_SCALE = 4;
+
+  /**
+   * One int for the date and five longs for the prices and volume.
+   */
+  public static final int BYTES_PER_BAR = Integer.BYTES + 5 * Long.BYTES;
+
+  /* Hands out series versions, so that no two series share one */
+  private static final AtomicLong VERSIONS = new AtomicLong();
+
+  @Getter
+  private final String symbol;
+
+  private final int[] epochDays;
+  private final long[] open;
+  private final long[] high;
+  private final long[] low;
+  private final long[] close;
+  private final long[] volume;
+
+  /* Unique to this series, even if another one holds the same bars */
+  private final long version;
+
+  /* The version of the oldest series this one was built from by only appending bars */
+  private final long lineage;
+
+  private HistoricalPriceSeries(final String symbol, final int size, final long lineage) {
+    this.symbol = symbol;
+    this.version = VERSIONS.incrementAndGet();
+    this.lineage = lineage == 0 ? version : lineage;
+    this.epochDays = new int[size];
+    this.open = new long[size];
+    this.high = new long[size];
+    this.low = new long[size];
+    this.close = new long[size];
+    this.volume = new long[size];
+  }
+
+  /**
+   * Build a series from prices that all belong to the given symbol. The prices don't need to be
+   * sorted; if two prices share a date the last one wins.
+   */
+  public static HistoricalPriceSeries of(final String symbol,
+      final Collection<IexHistoricalPrice> prices) {
+    TreeMap<LocalDate, IexHistoricalPrice> byDate = new TreeMap<>();
+    prices.forEach(price -> byDate.put(price.getDate(), price));
+
+    HistoricalPriceSeries series = new HistoricalPriceSeries(symbol, byDate.size(), 0);
+    int i = 0;
+    for (IexHistoricalPrice price : byDate.values()) {
+      series.set(i++, price);
+    }
+    return series;
+  }
+
+  /**
+   * Return a new series holding the bars of this one plus the given prices, merged column by
+   * column. A price for a date this series already has replaces the existing bar. If every price
+   * is either after this series' last bar or the same as the bar it replaces, the new series
+   * shares this one's lineage.
+   */
+  public HistoricalPriceSeries merge(final Collection<IexHistoricalPrice> prices) {
+    HistoricalPriceSeries added = of(symbol, prices);
+    int replaced = 0;
+    boolean appendsOnly = size() > 0;
+    for (int j = 0; j < added.size(); j++) {
+      int i = Arrays.binarySearch(epochDays, added.epochDays[j]);
+      if (i >= 0) {
+        replaced++;
+        appendsOnly &= sameBar(i, added, j);
+      } else {
+        appendsOnly &= -i - 1 == size();
+      }
+    }
+
+    // Walk both series' columns in date order, taking the added bar where both have a date
+    HistoricalPriceSeries merged = new HistoricalPriceSeries(symbol,
+        size() + added.size() - replaced, appendsOnly ? lineage : 0);
+    int i = 0;
+    int j = 0;
+    for (int k = 0; k < merged.size(); k++) {
+      if (j == added.size() || (i < size() && epochDays[i] < added.epochDays[j])) {
+        merged.copyBar(k, this, i);
+        i++;
+      } else {
+        if (i < size() && epochDays[i] == added.epochDays[j]) {
+          i++;
+        }
+        merged.copyBar(k, added, j);
+        j++;
+      }
+    }
+    return merged;
+  }
+
+  /**
+   * The version of this series, which no other series shares.
+   */
+  long getVersion() {
+    return version;
+  }
+
+  /**
+   * Return true if the other series was built from this one, or this one from the other, only by
+   * appending bars, so that the shorter one's bars are the start of the longer one's.
+   */
+  boolean sharesLineage(final HistoricalPriceSeries other) {
+    return other.lineage == lineage;
+  }
+
+  /**
+   * Number of bars in the series.
+   */
+  public int size() {
+    return epochDays.length;
+  }
+
+  /**
+   * Approximate heap used by the series' arrays.
+   */
+  public long sizeInBytes() {
+    return (long) size() * BYTES_PER_BAR;
+  }
+
+  /**
+   * Index of the first bar on or after the given date, or {@link #size()} if there is none.
+   */
+  public int fromIndex(final LocalDate from) {
+    int idx = Arrays.binarySearch(epochDays, (int) from.toEpochDay());
+    return idx >= 0 ? idx : -idx - 1;
+  }
+
+  /**
+   * Index one past the last bar on or before the given date.
+   */
+  public int toIndex(final LocalDate to) {
+    int idx = Arrays.binarySearch(epochDays, (int) to.toEpochDay());
+    return idx >= 0 ? idx + 1 : -idx - 1;
+  }
+
+  /**
+   * Return true if the series has a bar for the given date.
+   */
+  public boolean contains(final LocalDate date) {
+    return Arrays.binarySearch(epochDays, (int) date.toEpochDay()) >= 0;
+  }
+
+  /**
+   * Return the bars between the two dates (inclusive) as entities, oldest first.
+   */
+  public List<IexHistoricalPrice> getPrices(final LocalDate from, final LocalDate to) {
+    return toPrices(fromIndex(from), toIndex(to));
+  }
+
+  /**
+   * Build entities for the bars in [fromIdx, toIdx), oldest first.
+   */
+  public List<IexHistoricalPrice> toPrices(final int fromIdx, final int toIdx) {
+    List<IexHistoricalPrice> prices = new ArrayList<>(Math.max(0, toIdx - fromIdx));
+    for (int i = fromIdx; i < toIdx; i++) {
+      prices.add(IexHistoricalPrice.builder()
+          .symbol(symbol)
+          .date(LocalDate.ofEpochDay(epochDays[i]))
+          .open(fromFixed(open[i]))
+          .high(fromFixed(high[i]))
+          .low(fromFixed(low[i]))
+          .close(fromFixed(close[i]))
+          .volume(BigInteger.valueOf(volume[i]))
+          .build());
+    }
+    return prices;
+  }
+
+  /*
+   * Single bar accessors for code in this package that walks the columns directly, like
+   * IndicatorSeries.
+   */
+  int epochDayAt(final int i) {
+    return epochDays[i];
+  }
+
+  long highAt(final int i) {
+    return high[i];
+  }
+
+  long lowAt(final int i) {
+    return low[i];
+  }
+
+  long closeAt(final int i) {
+    return close[i];
+  }
+
+  long volumeAt(final int i) {
+    return volume[i];
+  }
+
+  /**
+   * Return a view of the bars between the two dates (inclusive), which can be walked without
+   * building an entity per bar.
+   */
+  public Window window(final LocalDate from, final LocalDate to) {
+    return new Window(this, fromIndex(from), Math.max(fromIndex(from), toIndex(to)));
+  }
+
+  /**
+   * Return a view of every bar in the series.
+   */
+  public Window window() {
+    return new Window(this, 0, size());
+  }
+
+  /**
+   * Number of bytes {@link #writeTo} writes for this series.
+   */
+  public int serializedSize() {
+    return Short.BYTES + symbol.getBytes(StandardCharsets.UTF_8).length + Integer.BYTES
+        + size() * BYTES_PER_BAR;
+  }
+
+  /**
+   * Write the series in a compact binary form: the symbol and the number of bars, followed by
+   * each column in turn.
+   */
+  public void writeTo(final DataOutput out) throws IOException {
+    byte[] symbolBytes = symbol.getBytes(StandardCharsets.UTF_8);
+    out.writeShort(symbolBytes.length);
+    out.write(symbolBytes);
+    out.writeInt(size());
+    for (int epochDay : epochDays) {
+      out.writeInt(epochDay);
+    }
+    for (long[] column : new long[][]{open, high, low, close, volume}) {
+      for (long value : column) {
+        out.writeLong(value);
+      }
+    }
+  }
+
+  /**
+   * Read a series written by {@link #writeTo}, starting at the buffer's position. The columns are
+   * copied out in bulk, so this is fast on a memory-mapped buffer.
+   */
+  public static HistoricalPriceSeries readFrom(final ByteBuffer buffer) {
+    byte[] symbolBytes = new byte[buffer.getShort()];
+    buffer.get(symbolBytes);
+    HistoricalPriceSeries series =
+        new HistoricalPriceSeries(new String(symbolBytes, StandardCharsets.UTF_8), buffer.getInt(),
+            0);
+    buffer.asIntBuffer().get(series.epochDays);
+    buffer.position(buffer.position() + series.size() * Integer.BYTES);
+    for (long[] column : new long[][]{series.open, series.high, series.low, series.close,
+        series.volume}) {
+      buffer.asLongBuffer().get(column);
+      buffer.position(buffer.position() + column.length * Long.BYTES);
+    }
+    return series;
+  }
+
+  private boolean sameBar(final int i, final HistoricalPriceSeries other, final int j) {
+    return open[i] == other.open[j] && high[i] == other.high[j] && low[i] == other.low[j]
+        && close[i] == other.close[j] && volume[i] == other.volume[j];
+  }
+
+  private void copyBar(final int i, final HistoricalPriceSeries from, final int j) {
+    epochDays[i] = from.epochDays[j];
+    open[i] = from.open[j];
+    high[i] = from.high[j];
+    low[i] = from.low[j];
+    close[i] = from.close[j];
+    volume[i] = from.volume[j];
+  }
+
+  private void set(final int i, final IexHistoricalPrice price) {
+    epochDays[i] = (int) price.getDate().toEpochDay();
+    open[i] = toFixed(price.getOpen());
+    high[i] = toFixed(price.getHigh());
+    low[i] = toFixed(price.getLow());
+    close[i] = toFixed(price.getClose());
+    volume[i] = price.getVolume().longValueExact();
+  }
+
+  /**
+   * Convert a price to a long with {@link #PRICE_SCALE} implied decimals.
+   */
+  public static long toFixed(final BigDecimal price) {
+    return price.setScale(PRICE_SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+  }
+
+  /**
+   * Convert a fixed-point long back to a price, without the padding zeros.
+   */
+  public static BigDecimal fromFixed(final long fixed) {
+    BigDecimal price = BigDecimal.valueOf(fixed, PRICE_SCALE).stripTrailingZeros();
+    // stripTrailingZeros turns 50.0 into 5E+1, which Jackson would write in scientific notation
+    return price.scale() < 0 ? price.setScale(0) : price;
+  }
+
+  /**
+   * Receives one bar at a time as primitives: the date as an epoch day and the prices as
+   * fixed-point longs with {@link #PRICE_SCALE} decimals.
+   */
+  @FunctionalInterface
+  public interface BarConsumer {
+
+    /**
+     * Called once per bar, oldest first.
+     */
+    void accept(int epochDay, long open, long high, long low, long close, long volume)
+        throws IOException;
+  }
+
+  /**
+   * A contiguous run of bars in one series. It holds on to the series it came from, so it stays
+   * the same even if the cache swaps in a newer series for the symbol.
+   */
+  public static final class Window {
+
+    private final HistoricalPriceSeries series;
+
+    private final int fromIdx;
+
+    private final int toIdx;
+
+    private final boolean stale;
+
+    private Window(final HistoricalPriceSeries series, final int fromIdx, final int toIdx) {
+      this(series, fromIdx, toIdx, false);
+    }
+
+    private Window(final HistoricalPriceSeries series, final int fromIdx, final int toIdx,
+        final boolean stale) {
+      this.series = series;
+      this.fromIdx = fromIdx;
+      this.toIdx = toIdx;
+      this.stale = stale;
+    }
+
+    /**
+     * The same bars, marked as stale because the days missing from them couldn't be fetched.
+     */
+    public Window asStale() {
+      return new Window(series, fromIdx, toIdx, true);
+    }
+
+    /**
+     * Whether days missing from the window couldn't be fetched, so that it holds only the stored
+     * ones.
+     */
+    public boolean isStale() {
+      return stale;
+    }
+
+    /**
+     * The symbol the bars belong to.
+     */
+    public String getSymbol() {
+      return series.symbol;
+    }
+
+    /**
+     * The series the window is over.
+     */
+    public HistoricalPriceSeries getSeries() {
+      return series;
+    }
+
+    /**
+     * Index in the series of the first bar in the window.
+     */
+    public int getFromIndex() {
+      return fromIdx;
+    }
+
+    /**
+     * Index in the series one past the last bar in the window.
+     */
+    public int getToIndex() {
+      return toIdx;
+    }
+
+    /**
+     * Number of bars in the window.
+     */
+    public int size() {
+      return toIdx - fromIdx;
+    }
+
+    /**
+     * Hand each bar in the window to the consumer, oldest first.
+     */
+    public void forEach(final BarConsumer consumer) throws IOException {
+      for (int i = fromIdx; i < toIdx; i++) {
+        consumer.accept(series.epochDays[i], series.open[i], series.high[i], series.low[i],
+            series.close[i], series.volume[i]);
+      }
+    }
+
+    /**
+     * Build entities for the bars in the window, oldest first.
+     */
+    public List<IexHistoricalPrice> toPrices() {
+      return series.toPrices(fromIdx, toIdx);
+    }
+  }
+}
@@ -0,0 +1,25 @@
+package org.galatea.starter.service;
+
+/**
+ * Receives the results of a multi-symbol historical price request one symbol at a time, as each
+ * symbol completes. Every method is called on the thread that made the request.
+ */
+public interface HistoricalPricesBatchListener {
+
+  /**
+   * Called once for every symbol whose prices were found.
+   *
+   * @param symbol the upper case symbol.
+   * @param prices the prices in the requested range, oldest first, and whether they are stale.
+   */
+  void onPrices(String symbol, HistoricalPriceResult prices);
+
+  /**
+   * Called once for every symbol whose prices couldn't be found, either because the fetch failed
+   * or because the batch deadline passed first.
+   *
+   * @param symbol the upper case symbol.
+   * @param reason why there are no prices for the symbol.
+   */
+  void onFailure(String symbol, String reason);
+}
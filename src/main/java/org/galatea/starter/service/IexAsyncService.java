@@ -0,0 +1,93 @@
+package org.galatea.starter.service;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+import lombok.NonNull;
+import org.galatea.starter.domain.IexIndicatorValue;
+import org.galatea.starter.domain.IexLastTradedPrice;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+/**
+ * Non-blocking variants of the {@link IexService} calls that may wait on IEX. Each returns
+ * straight away with a future, and the call runs on the iexIoExecutor, so that a controller
+ * handing the future back to Spring MVC frees its request thread while IEX is being waited on.
+ *
+ * <p>Answers that are already stored don't need IEX, and are completed on the calling thread
+ * rather than paying for a hand off.
+ */
+@Service
+public class IexAsyncService {
+
+  private final IexService iexService;
+
+  private final Executor iexIoExecutor;
+
+  /**
+   * Create the service.
+   */
+  public IexAsyncService(@NonNull final IexService iexService,
+      @NonNull @Qualifier("iexIoExecutor") final Executor iexIoExecutor) {
+    this.iexService = iexService;
+    this.iexIoExecutor = iexIoExecutor;
+  }
+
+  /**
+   * Get the last traded price for each symbol, as IexService.getLastTradedPriceForSymbols does.
+   *
+   * @param symbols the list of symbols to get a last traded price for.
+   * @return the prices, once they have been found.
+   */
+  public CompletableFuture<List<IexLastTradedPrice>> getLastTradedPriceForSymbols(
+      final List<String> symbols) {
+    return supply(() -> iexService.getLastTradedPriceForSymbols(symbols));
+  }
+
+  /**
+   * Get historical prices for a symbol, as IexService.getHistoricalPriceResult does.
+   *
+   * @param symbol a symbol to get historical prices for.
+   * @param range the time period of prices to retrieve.
+   * @param date optional specific date.
+   * @return the prices and whether they are stale, once any missing ones have been fetched.
+   */
+  public CompletableFuture<HistoricalPriceResult> getHistoricalPriceResult(final String symbol,
+      final String range, final String date) {
+    Supplier<HistoricalPriceResult> call =
+        () -> iexService.getHistoricalPriceResult(symbol, range, date);
+    return iexService.isHistoryStored(symbol, range) ? completeNow(call) : supply(call);
+  }
+
+  /**
+   * Get a technical indicator for a symbol, as IexService.getIndicator does.
+   *
+   * @param symbol a symbol to get the indicator for.
+   * @param indicator the indicator to compute.
+   * @param window the number of daily bars each value is computed over.
+   * @param range the time period of values to retrieve.
+   * @return the values, once any missing prices have been fetched.
+   */
+  public CompletableFuture<List<IexIndicatorValue>> getIndicator(final String symbol,
+      final Indicator indicator, final int window, final String range) {
+    Supplier<List<IexIndicatorValue>> call =
+        () -> iexService.getIndicator(symbol, indicator, window, range);
+    return iexService.isHistoryStored(symbol, range) ? completeNow(call) : supply(call);
+  }
+
+  private <T> CompletableFuture<T> supply(final Supplier<T> call) {
+    // Throws TaskRejectedException, before anything is started, if the executor is saturated
+    return CompletableFuture.supplyAsync(call, iexIoExecutor);
+  }
+
+  private static <T> CompletableFuture<T> completeNow(final Supplier<T> call) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    try {
+      result.complete(call.get());
+    } catch (RuntimeException err) {
+      result.completeExceptionally(err);
+    }
+    return result;
+  }
+}
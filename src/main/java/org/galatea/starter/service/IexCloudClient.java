@@ -2,6 +2,7 @@ package org.galatea.starter.service;
 
 import java.util.Date;
 import java.util.List;
+import org.galatea.starter.IexFeignClientConfig;
 import org.galatea.starter.domain.IexHistoricalPrice;
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -11,7 +12,8 @@ import org.springframework.web.bind.annotation.PathVariable;
  * A Feign Declarative REST Client to access endpoints from the Cloud IEX API to get market
  * data. See https://iexcloud.io/docs/api/#historical-prices
  */
-@FeignClient(name = "IEXCloud", url = "${spring.rest.iexCloudBasePath}")
+@FeignClient(name = "IEXCloud", url = "${spring.rest.iexCloudBasePath}",
+    configuration = IexFeignClientConfig.class)
 public interface IexCloudClient {
 
   /**
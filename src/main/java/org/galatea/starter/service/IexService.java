@@ -1,22 +1,49 @@
 package org.galatea.starter.service;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import com.google.common.collect.ImmutableMap;
+import feign.FeignException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Date;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import lombok.NonNull;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.galatea.starter.domain.IexHistoricalPrice;
+import org.galatea.starter.domain.IexIndicatorValue;
 import org.galatea.starter.domain.IexLastTradedPrice;
 import org.galatea.starter.domain.IexSymbol;
 import org.galatea.starter.domain.rpsy.IexHistoricalPricesRpsy;
-import org.springframework.format.datetime.DateFormatter;
+import org.galatea.starter.service.TradingDayGapFinder.Gap;
+import org.galatea.starter.utils.SingleFlight;
+import org.galatea.starter.utils.TokenBucket.Priority;
+import org.galatea.starter.utils.exception.CircuitOpenException;
+import org.galatea.starter.utils.exception.RateLimitExceededException;
+import org.galatea.starter.utils.http.CircuitBreakingClient;
+import org.galatea.starter.utils.http.RateLimitedClient;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
 
@@ -25,36 +52,171 @@ import org.springframework.util.CollectionUtils;
  */
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class IexService {
 
-  @NonNull
-  private IexClient iexClient;
+  /**
+   * IEX Cloud chart ranges, smallest first, mapped to the number of calendar days each one is
+   * guaranteed to reach back. Used to request no more history than is needed to fill a gap.
+   */
+  private static final Map<String, Integer> CLOUD_RANGE_DAYS =
+      ImmutableMap.<String, Integer>builder()
+      .put("5d", 5)
+      .put("1m", 28)
+      .put("3m", 89)
+      .put("6m", 181)
+      .put("1y", 365)
+      .put("2y", 730)
+      .put("5y", 1826)
+      .build();
+
+  /* IEX Cloud expects an empty date path segment when a whole range is requested */
+  private static final String NO_DATE = "";
+
+  private final IexClient iexClient;
 
   /**
    * For Historical Prices Endpoint.
    */
-  @NonNull
-  private IexCloudClient iexCloudClient;
+  private final IexCloudClient iexCloudClient;
 
   /**
    * Data store for historical prices retrieved in the past.
    */
-  @NonNull
-  private IexHistoricalPricesRpsy historicalPricesRpsy;
+  private final IexHistoricalPricesRpsy historicalPricesRpsy;
+
+  /**
+   * In-memory copy of the stored historical prices, kept in sync with every save below.
+   */
+  private final HistoricalPriceCache historicalPriceCache;
+
+  /**
+   * In-process copy of the symbol directory.
+   */
+  private final SymbolDirectory symbolDirectory;
+
+  /**
+   * Indicators computed over the cached historical prices, carried forward as prices are added.
+   */
+  private final IndicatorEngine indicatorEngine;
+
+  /**
+   * Short-lived copy of recent last traded prices.
+   */
+  private final LastTradedPriceCache lastTradedPriceCache;
+
+  /**
+   * Combines the cache misses of concurrent last traded price requests into one call to IEX.
+   */
+  private final LastTradedPriceBatcher lastTradedPriceBatcher;
+
+  /**
+   * Coalesces concurrent identical cloud fetches, keyed by symbol, range and date, so that a
+   * popular symbol is fetched and saved once rather than once per request.
+   */
+  private final SingleFlight<String, List<IexHistoricalPrice>> cloudFetches;
+
+  /**
+   * Bounded pool that multi-symbol requests fan their cloud fetches out on.
+   */
+  private final Executor iexExecutor;
 
+  /**
+   * How long a multi-symbol request waits for all of its symbols before giving up on the rest.
+   */
+  private final Duration batchDeadline;
 
   /**
-   * Get all stock symbols from IEX.
+   * Symbols whose missing prices are being fetched in the background after serving stale ones.
+   */
+  private final Set<String> revalidating = ConcurrentHashMap.newKeySet();
+
+  /**
+   * The last day each symbol's most recent cloud fetch covered, so that a missing day at the end
+   * of the window that the fetch came back without isn't fetched again on every request.
+   */
+  private final ConcurrentMap<String, CheckedDay> checkedThrough = new ConcurrentHashMap<>();
+
+  /**
+   * How long a missing day at the end of the window is taken as a holiday or an unpublished bar
+   * before it's fetched again.
+   */
+  private final long recheckNanos;
+
+  private final Counter staleServes;
+
+  /**
+   * Create the service. Cloud fetch counts are published as the iex.cloud.fetches metric, and
+   * historical prices served without the missing days, because the cloud couldn't be reached, as
+   * iex.stale-serves tagged data=historical-prices.
+   */
+  public IexService(@NonNull final IexClient iexClient,
+      @NonNull final IexCloudClient iexCloudClient,
+      @NonNull final IexHistoricalPricesRpsy historicalPricesRpsy,
+      @NonNull final HistoricalPriceCache historicalPriceCache,
+      @NonNull final SymbolDirectory symbolDirectory,
+      @NonNull final IndicatorEngine indicatorEngine,
+      @NonNull final LastTradedPriceCache lastTradedPriceCache,
+      @NonNull final LastTradedPriceBatcher lastTradedPriceBatcher,
+      @NonNull final MeterRegistry meterRegistry,
+      @NonNull @Qualifier("iexExecutor") final Executor iexExecutor,
+      @Value("${iex.batch.deadline-millis}") final long batchDeadlineMillis,
+      @Value("${iex.historical-prices.recheck-millis}") final long recheckMillis) {
+    this.iexClient = iexClient;
+    this.iexCloudClient = iexCloudClient;
+    this.historicalPricesRpsy = historicalPricesRpsy;
+    this.historicalPriceCache = historicalPriceCache;
+    this.symbolDirectory = symbolDirectory;
+    this.indicatorEngine = indicatorEngine;
+    this.lastTradedPriceCache = lastTradedPriceCache;
+    this.lastTradedPriceBatcher = lastTradedPriceBatcher;
+    this.cloudFetches = new SingleFlight<>(meterRegistry, "iex.cloud.fetches");
+    this.iexExecutor = iexExecutor;
+    this.batchDeadline = Duration.ofMillis(batchDeadlineMillis);
+    this.recheckNanos = TimeUnit.MILLISECONDS.toNanos(recheckMillis);
+    this.staleServes = meterRegistry.counter("iex.stale-serves", "data", "historical-prices");
+  }
+
+  /**
+   * Get all stock symbols from IEX. They are served from the symbol directory, which is refreshed
+   * from IEX every iex.symbols.refresh-millis.
    *
    * @return a list of all Stock Symbols from IEX.
    */
   public List<IexSymbol> getAllSymbols() {
-    return iexClient.getAllSymbols();
+    return symbolDirectory.getAll();
+  }
+
+  /**
+   * Get a tag that changes whenever the list returned by getAllSymbols does.
+   */
+  public String getAllSymbolsVersion() {
+    return symbolDirectory.getVersion();
   }
 
   /**
-   * Get the last traded price for each Symbol that is passed in.
+   * Look up one stock symbol.
+   *
+   * @param symbol the symbol to look up. Case doesn't matter.
+   * @return the symbol, or empty if IEX doesn't list it.
+   */
+  public Optional<IexSymbol> getSymbol(final String symbol) {
+    return symbolDirectory.find(symbol);
+  }
+
+  /**
+   * Find the stock symbols whose symbol or company name starts with the given prefix.
+   *
+   * @param prefix the start of a symbol or a company name. Case doesn't matter.
+   * @param limit the most symbols to return.
+   * @return symbol matches first, then company name matches.
+   */
+  public List<IexSymbol> searchSymbols(final String prefix, final int limit) {
+    return symbolDirectory.search(prefix, limit);
+  }
+
+  /**
+   * Get the last traded price for each Symbol that is passed in. Prices fetched within the last
+   * iex.last-traded-price.ttl-millis are served from the cache.
    *
    * @param symbols the list of symbols to get a last traded price for.
    * @return a list of last traded price objects for each Symbol that is passed in.
@@ -63,7 +225,8 @@ public class IexService {
     if (CollectionUtils.isEmpty(symbols)) {
       return Collections.emptyList();
     } else {
-      return iexClient.getLastTradedPriceForSymbols(symbols.toArray(new String[0]));
+      // Only the symbols without a fresh cached price go to IEX, batched with other requests'
+      return lastTradedPriceCache.getAll(symbols, lastTradedPriceBatcher::fetch);
     }
   }
 
@@ -105,30 +268,12 @@ public class IexService {
   }
 
   /**
-   * Formats date string of type "YYYYMMDD" to "YYYY-MM-DD".
+   * Parses a date string of type "YYYYMMDD", the format IEX Cloud uses for its date parameter.
    * @param date string formatted as "YYYYMMDD".
-   * @return string of date in form "YYYY-MM-DD".
-   */
-  private String dateFormat(final String date) throws ParseException {
-    // This is the expected format of the input date in the U.S.
-    DateFormat inputFormatter = new SimpleDateFormat("yyyyMMdd");
-    Date inputDate = inputFormatter.parse(date);
-
-    DateFormat outputFormatter = new SimpleDateFormat("yyyy-MM-dd");
-    String outDate = outputFormatter.format(inputDate);
-    return outDate;
-    //return date.substring(0,4) + "-" + date.substring(4,6) + "-" + date.substring(6);
-  }
-
-  /**
-   * Gets the past date.
-   * @param i amount of days that passed.
-   * @return the date in the past.
+   * @return the parsed date.
    */
-  private LocalDate newDate(final int i) {
-    LocalDate today = LocalDate.now();
-    LocalDate dayCheck = today.minusDays(i);
-    return dayCheck;
+  private LocalDate parseRequestDate(final String date) {
+    return LocalDate.parse(date, DateTimeFormatter.BASIC_ISO_DATE);
   }
 
   /**
@@ -160,47 +305,210 @@ public class IexService {
   }
 
   /**
-   * Updates the historical prices repository with new calls to the cloud API.
+   * Calculates the amount of days wanted for a range such as "1m" or "5y".
+   * @param range the range requested.
+   * @return the number of days to check for prices, 0 for "max" and -1 for "date".
+   */
+  private int getAmountOfDays(final String range) {
+    return getTotalNumberOfDays(getAlphabeticChars(range), getIntFromString(range));
+  }
+
+  /**
+   * Picks the smallest IEX Cloud range that still reaches back to the given date. Falls back to
+   * the range the caller asked for if no smaller standard range covers it.
+   * @param oldestMissing the oldest date that has to be included in the response.
+   * @param requestedRange the range the caller asked for.
+   * @param requestedDays the number of days covered by the requested range.
+   * @return the range to send to IEX Cloud.
+   */
+  private String getCoveringRange(final LocalDate oldestMissing, final String requestedRange,
+      final int requestedDays) {
+    long daysBack = ChronoUnit.DAYS.between(oldestMissing, LocalDate.now());
+    for (Map.Entry<String, Integer> cloudRange : CLOUD_RANGE_DAYS.entrySet()) {
+      if (cloudRange.getValue() >= daysBack && cloudRange.getValue() < requestedDays) {
+        return cloudRange.getKey();
+      }
+    }
+    return requestedRange;
+  }
+
+  /**
+   * Updates the historical prices repository with new calls to the cloud API. Concurrent calls
+   * for the same symbol, range and date share one cloud call and one save. Calls with different
+   * priorities aren't shared, so an interactive caller never waits on a background call that is
+   * queued behind the rate limit.
    * @param symbol the symbol to look up.
    * @param range the amount of days to check.
    * @param date optional date to check for one day.
-   * @return updated list of prices that were added to the repository.
+   * @return every price returned by the cloud API. The list is shared between coalesced callers
+   *     and can't be modified.
    */
-  private ArrayList<IexHistoricalPrice> updateHistoricalDB(final String symbol, final String range,
+  private List<IexHistoricalPrice> updateHistoricalDB(final String symbol, final String range,
       final String date) {
-    ArrayList<IexHistoricalPrice> newHistoricalPrices = new ArrayList();
-    newHistoricalPrices.addAll(iexCloudClient.getAllHistoricalPrices(symbol, range, date));
-    historicalPricesRpsy.saveAll(newHistoricalPrices);
-    return newHistoricalPrices;
+    String key = symbol + "/" + range + "/" + date + "/" + RateLimitedClient.currentPriority();
+    return cloudFetches.execute(key, () -> {
+      List<IexHistoricalPrice> newHistoricalPrices =
+          iexCloudClient.getAllHistoricalPrices(symbol, range, date);
+      // Upserting makes overlapping fetches harmless: bars we already have are overwritten with
+      // the same values instead of being inserted again
+      historicalPricesRpsy.upsertAll(newHistoricalPrices);
+      historicalPriceCache.addPrices(symbol, newHistoricalPrices)
+          .ifPresent(indicatorEngine::update);
+      return Collections.unmodifiableList(newHistoricalPrices);
+    });
   }
 
   /**
-   * Finds all of the historical prices requested from cloud and database.
+   * Finds all of the historical prices requested from cloud and database. Slices what is already
+   * stored for the window out of the cached series, works out which trading days are missing, and
+   * fills all of them with at most one call to the cloud API.
    * @param symbol the symbol requested.
+   * @param series the cached series for the symbol.
    * @param range the range of days requested.
    * @param amtDays the total amount of days from the range.
-   * @param finalHistoricalPrices array list of historical prices.
-   * @return updated list of all historical prices requested.
-   */
-  private ArrayList<IexHistoricalPrice> findHistoricalPrices(final String symbol,
-      final String range, final int amtDays,
-      final ArrayList<IexHistoricalPrice> finalHistoricalPrices) {
-    for (int i = amtDays; i >= 1; i--) {
-      LocalDate dayCheck = newDate(i);
-      DateTimeFormatter formatter = DateTimeFormatter.ofPattern("YYYYMMdd");
-      String dateFind = formatter.format(dayCheck);
-      String dateString = dayCheck.toString();
-
-      if (historicalPricesRpsy.findBySymbolIgnoreCaseAndDate(symbol, dateString).isEmpty()) {
-        List<IexHistoricalPrice> newHistoricalPrices = updateHistoricalDB(symbol, range, dateFind);
-        finalHistoricalPrices.addAll(newHistoricalPrices);
-      } else {
-        log.info("Getting Historical Prices from Database");
-        finalHistoricalPrices.addAll(historicalPricesRpsy
-            .findBySymbolIgnoreCaseAndDate(symbol, dateString));
+   * @return all historical prices in the window, oldest first, and whether they are stale.
+   */
+  private HistoricalPriceResult findHistoricalPrices(final String symbol,
+      final HistoricalPriceSeries series, final String range, final int amtDays) {
+    LocalDate today = LocalDate.now();
+    LocalDate from = today.minusDays(amtDays);
+    LocalDate to = today.minusDays(1);
+
+    List<IexHistoricalPrice> storedPrices = series.getPrices(from, to);
+    HistoricalPriceResult fetched = fillGapsOrServeStale(symbol, series, range, amtDays);
+    List<IexHistoricalPrice> fetchedPrices = fetched.getPrices();
+    if (fetchedPrices.isEmpty()) {
+      log.info("Getting {} Historical Prices for {} from cache", storedPrices.size(), symbol);
+      return new HistoricalPriceResult(storedPrices, fetched.isStale());
+    }
+
+    // Everything the cloud returned that we didn't have is saved, but only the bars inside the
+    // window are added to this response
+    List<IexHistoricalPrice> newPrices = fetchedPrices.stream()
+        .filter(price -> !price.getDate().isBefore(from) && !price.getDate().isAfter(to)
+            && !series.contains(price.getDate()))
+        .collect(Collectors.toList());
+
+    List<IexHistoricalPrice> finalHistoricalPrices = new ArrayList<>(storedPrices);
+    finalHistoricalPrices.addAll(newPrices);
+    finalHistoricalPrices.sort(Comparator.comparing(IexHistoricalPrice::getDate));
+    return HistoricalPriceResult.fresh(finalHistoricalPrices);
+  }
+
+  /**
+   * Keeps the prices from the last amtDays, up to and including yesterday, in their order.
+   * @param prices the prices to filter.
+   * @param amtDays the total amount of days from the range.
+   * @return the prices inside the window.
+   */
+  private static List<IexHistoricalPrice> inWindow(final List<IexHistoricalPrice> prices,
+      final int amtDays) {
+    LocalDate from = LocalDate.now().minusDays(amtDays);
+    LocalDate to = LocalDate.now().minusDays(1);
+    return prices.stream()
+        .filter(price -> !price.getDate().isBefore(from) && !price.getDate().isAfter(to))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Fetches the trading days in the last amtDays that the series is missing, with at most one call
+   * to the cloud API.
+   * @param symbol the symbol requested.
+   * @param series the cached series for the symbol.
+   * @param range the range of days requested.
+   * @param amtDays the total amount of days from the range.
+   * @return every price the cloud returned, or an empty list if nothing needed fetching.
+   */
+  private List<IexHistoricalPrice> fillGaps(final String symbol,
+      final HistoricalPriceSeries series, final String range, final int amtDays) {
+    LocalDate to = LocalDate.now().minusDays(1);
+    List<Gap> gaps =
+        TradingDayGapFinder.findGaps(series::contains, LocalDate.now().minusDays(amtDays), to);
+    if (!needsFetch(symbol, gaps, to)) {
+      return Collections.emptyList();
+    }
+
+    String cloudRange = getCoveringRange(gaps.get(0).getStart(), range, amtDays);
+    log.info("Filling {} gap(s) for {} with one cloud call for range {}", gaps.size(), symbol,
+        cloudRange);
+    List<IexHistoricalPrice> prices = updateHistoricalDB(symbol, cloudRange, NO_DATE);
+    checkedThrough.put(symbol, new CheckedDay(to, System.nanoTime()));
+    return prices;
+  }
+
+  /**
+   * Decides whether a symbol's gaps are worth a call to the cloud API, tolerating a short gap at
+   * the end of the window that a fetch in the last recheck interval already came back without.
+   * @param symbol the symbol requested.
+   * @param gaps the gaps found in the window.
+   * @param to the last date of the window (inclusive).
+   * @return true if at least one gap should be fetched.
+   */
+  private boolean needsFetch(final String symbol, final List<Gap> gaps, final LocalDate to) {
+    CheckedDay checked = checkedThrough.get(symbol);
+    LocalDate checkedDay = checked != null && System.nanoTime() - checked.atNanos < recheckNanos
+        ? checked.day : null;
+    return TradingDayGapFinder.needsFetch(gaps, to, checkedDay);
+  }
+
+  /**
+   * Fills the series' gaps as fillGaps does. If the cloud can't be reached, e.g. while its circuit
+   * breaker is open, the request is answered with the days that are stored and the gaps are
+   * filled in the background instead, so the next request finds them. Any other error, e.g. a
+   * 404 for an unknown symbol or a bug in handling the response, is thrown rather than hidden
+   * behind stale data; see CircuitBreakingClient.isOutage.
+   * @param symbol the symbol requested.
+   * @param series the cached series for the symbol, which must not be empty.
+   * @param range the range of days requested.
+   * @param amtDays the total amount of days from the range.
+   * @return every price the cloud returned, or no prices and stale if the cloud couldn't be
+   *     reached.
+   */
+  private HistoricalPriceResult fillGapsOrServeStale(final String symbol,
+      final HistoricalPriceSeries series, final String range, final int amtDays) {
+    try {
+      return HistoricalPriceResult.fresh(fillGaps(symbol, series, range, amtDays));
+    } catch (CircuitOpenException | RateLimitExceededException | FeignException err) {
+      if (!CircuitBreakingClient.isOutage(err)
+          || RateLimitedClient.currentPriority() == Priority.BACKGROUND) {
+        // Nobody is waiting on a background fetch, e.g. the backfill, and it needs the failure
+        throw err;
       }
+      log.warn("Couldn't fill the gaps for {}, serving the {} stored days: {}", symbol,
+          series.size(), err.getMessage());
+      staleServes.increment();
+      if (revalidating.add(symbol)) {
+        iexExecutor.execute(() -> {
+          try {
+            // Nobody is waiting on it, so it mustn't hold up interactive requests
+            RateLimitedClient.callAs(Priority.BACKGROUND, () ->
+                fillGaps(symbol, historicalPriceCache.getSeries(symbol), range, amtDays));
+          } catch (RuntimeException revalidateErr) {
+            log.debug("Revalidating historical prices for {} failed", symbol, revalidateErr);
+          } finally {
+            revalidating.remove(symbol);
+          }
+        });
+      }
+      return new HistoricalPriceResult(Collections.emptyList(), true);
     }
-    return finalHistoricalPrices;
+  }
+
+  /**
+   * Checks whether a request for the last amtDays can be answered from the series alone, without
+   * a call to the cloud API.
+   * @param series the cached series for the symbol.
+   * @param amtDays the total amount of days from the range.
+   * @return true if every trading day in the window that needs fetching is stored.
+   */
+  private boolean isStored(final HistoricalPriceSeries series, final int amtDays) {
+    if (series.size() == 0 || amtDays <= 0) {
+      return false;
+    }
+    LocalDate to = LocalDate.now().minusDays(1);
+    List<Gap> gaps =
+        TradingDayGapFinder.findGaps(series::contains, LocalDate.now().minusDays(amtDays), to);
+    return !needsFetch(series.getSymbol(), gaps, to);
   }
 
   /**
@@ -208,17 +516,16 @@ public class IexService {
    * @param symbol the symbol requested.
    * @param range "date".
    * @param date the date requested.
+   * @param series the cached series for the symbol.
    * @param finalHistoricalPrices list of current historical prices.
    * @return updated list of historical prices.
-   * @throws ParseException if date cannot be parsed.
-   */
-  private ArrayList<IexHistoricalPrice> getPricesByDate(final String symbol, final String range,
-      final String date, final ArrayList<IexHistoricalPrice> finalHistoricalPrices)
-      throws ParseException {
-    String rpsyDate = dateFormat(date);
-    finalHistoricalPrices.addAll(historicalPricesRpsy
-        .findBySymbolIgnoreCaseAndDate(symbol, rpsyDate));
-    if (finalHistoricalPrices.isEmpty() || finalHistoricalPrices.size() == 0) {
+   */
+  private List<IexHistoricalPrice> getPricesByDate(final String symbol, final String range,
+      final String date, final HistoricalPriceSeries series,
+      final List<IexHistoricalPrice> finalHistoricalPrices) {
+    LocalDate rpsyDate = parseRequestDate(date);
+    finalHistoricalPrices.addAll(series.getPrices(rpsyDate, rpsyDate));
+    if (finalHistoricalPrices.isEmpty()) {
       log.info("getting one date from cloud");
       List<IexHistoricalPrice> newHistoricalPrices = updateHistoricalDB(symbol, range, date);
       finalHistoricalPrices.addAll(newHistoricalPrices);
@@ -232,33 +539,210 @@ public class IexService {
    * @param range the time period of prices to retrieve.
    * @param date optional specific date.
    * @return a list of historical prices for the symbol passed in.
-   * @throws ParseException if date cannot be parsed.
    */
   public List<IexHistoricalPrice> getAllHistoricalPrices(final String symbol, final String range,
-      final String date) throws ParseException {
+      final String date) {
+    return getHistoricalPriceResult(symbol, range, date).getPrices();
+  }
 
-    ArrayList<IexHistoricalPrice> finalHistoricalPrices = new ArrayList<IexHistoricalPrice>();
+  /**
+   * Get historical prices for several symbols over the same range. Symbols that are fully stored
+   * are answered straight away; the rest are fetched from the cloud in parallel on the IEX
+   * executor. Results are handed to the listener on the calling thread as each symbol completes.
+   * Symbols that haven't completed when the batch deadline passes are reported as failures.
+   * @param symbols the symbols to get historical prices for. Duplicates are ignored.
+   * @param range the time period of prices to retrieve. "date" is not supported.
+   * @param listener receives the result for each symbol.
+   */
+  public void getAllHistoricalPrices(final Collection<String> symbols, final String range,
+      final HistoricalPricesBatchListener listener) {
+    Set<String> distinctSymbols = symbols.stream()
+        .map(symbol -> symbol.toUpperCase(Locale.ROOT))
+        .collect(Collectors.toCollection(LinkedHashSet::new));
+    int amtDays = getAmountOfDays(range);
+    if (amtDays == -1) {
+      distinctSymbols.forEach(symbol -> listener.onFailure(symbol,
+          "A date is required for range " + range + ", so it can only be requested per symbol"));
+      return;
+    }
+
+    // One query for every symbol that isn't cached yet
+    Map<String, HistoricalPriceSeries> seriesBySymbol =
+        historicalPriceCache.getSeries(distinctSymbols);
+    CompletionService<HistoricalPriceResult> fetches = new ExecutorCompletionService<>(iexExecutor);
+    Map<Future<HistoricalPriceResult>, String> pending = new HashMap<>();
+    seriesBySymbol.forEach((symbol, series) -> {
+      if (isStored(series, amtDays)) {
+        listener.onPrices(symbol, findHistoricalPrices(symbol, series, range, amtDays));
+      } else {
+        pending.put(fetches.submit(() -> getHistoricalPrices(symbol, series, range, NO_DATE)),
+            symbol);
+      }
+    });
+    log.info("Answered {} of {} symbols from cache, fetching the rest", seriesBySymbol.size()
+        - pending.size(), seriesBySymbol.size());
 
-    if (historicalPricesRpsy.count() == 0
-        || historicalPricesRpsy.findBySymbolIgnoreCase(symbol).isEmpty()) {
+    long deadline = System.nanoTime() + batchDeadline.toNanos();
+    try {
+      while (!pending.isEmpty()) {
+        Future<HistoricalPriceResult> done =
+            fetches.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        if (done == null) {
+          break;
+        }
+        String symbol = pending.remove(done);
+        try {
+          listener.onPrices(symbol, done.get());
+        } catch (ExecutionException err) {
+          log.warn("Failed to get historical prices for {}", symbol, err.getCause());
+          listener.onFailure(symbol, "Failed to get prices: " + err.getCause().getMessage());
+        }
+      }
+    } catch (InterruptedException err) {
+      Thread.currentThread().interrupt();
+    } finally {
+      // Fetches that already started are left to finish so that their prices are still stored
+      pending.keySet().forEach(future -> future.cancel(false));
+    }
+
+    if (!pending.isEmpty()) {
+      log.warn("Batch deadline of {} passed with {} symbols outstanding", batchDeadline,
+          pending.size());
+      pending.values().forEach(symbol -> listener.onFailure(symbol,
+          "Deadline of " + batchDeadline.toMillis() + "ms passed before the prices were found"));
+    }
+  }
+
+  /**
+   * Get all historical prices for a symbol and range, as getAllHistoricalPrices does, along with
+   * whether they are stale because IEX couldn't be reached to fill in the missing days.
+   * @param symbol a symbol to get historical prices for.
+   * @param range the time period of prices to retrieve.
+   * @param date optional specific date.
+   * @return the historical prices for the symbol passed in, and whether they are stale.
+   */
+  public HistoricalPriceResult getHistoricalPriceResult(final String symbol, final String range,
+      final String date) {
+    // Symbols are stored in upper case so that lookups can use the (symbol, date) index. A missing
+    // date is sent to the cloud as an empty one, as the controller's date= would be
+    return getAllHistoricalPricesInternal(symbol.toUpperCase(Locale.ROOT), range,
+        date == null ? NO_DATE : date);
+  }
+
+  /**
+   * Get the historical prices for a symbol and range as a window over the cached series, so that
+   * they can be streamed out bar by bar instead of being built into a list. Missing prices are
+   * fetched from the cloud first, exactly as for getAllHistoricalPrices.
+   * @param symbol a symbol to get historical prices for.
+   * @param range the time period of prices to retrieve.
+   * @param date optional specific date, required when range is "date".
+   * @return the prices in the requested range, oldest first. The window is stale if IEX couldn't
+   *     be reached to fill in the missing days.
+   */
+  public HistoricalPriceSeries.Window getHistoricalPriceWindow(final String symbol,
+      final String range, final String date) {
+    String upperSymbol = symbol.toUpperCase(Locale.ROOT);
+    HistoricalPriceSeries series = historicalPriceCache.getSeries(upperSymbol);
+    int amtDays = getAmountOfDays(range);
+    if (amtDays == -1) {
+      if (date == null) {
+        return HistoricalPriceSeries.of(upperSymbol, Collections.emptyList()).window();
+      }
+      LocalDate day = parseRequestDate(date);
+      if (!series.contains(day)) {
+        updateHistoricalDB(upperSymbol, range, date);
+      }
+      return historicalPriceCache.getSeries(upperSymbol).window(day, day);
+    } else if (amtDays == 0) {
+      updateHistoricalDB(upperSymbol, range, NO_DATE);
+      return historicalPriceCache.getSeries(upperSymbol).window();
+    }
+    boolean stale = false;
+    if (series.size() == 0) {
+      updateHistoricalDB(upperSymbol, range, NO_DATE);
+    } else {
+      stale = fillGapsOrServeStale(upperSymbol, series, range, amtDays).isStale();
+    }
+    // Fetched prices were merged into the cache, which hands out a new series for the symbol
+    HistoricalPriceSeries.Window window = historicalPriceCache.getSeries(upperSymbol)
+        .window(LocalDate.now().minusDays(amtDays), LocalDate.now().minusDays(1));
+    return stale ? window.asStale() : window;
+  }
+
+  /**
+   * Check whether the prices for a symbol and range are all stored, so that getting them won't
+   * call the cloud API. Ranges that always go to the cloud, like "max", are never stored.
+   * @param symbol the symbol to check.
+   * @param range the time period of prices to check.
+   * @return true if every trading day in the range that needs fetching is stored.
+   */
+  public boolean isHistoryStored(final String symbol, final String range) {
+    return isStored(historicalPriceCache.getSeries(symbol.toUpperCase(Locale.ROOT)),
+        getAmountOfDays(range));
+  }
+
+  /**
+   * Get a technical indicator for a symbol over a range. The indicator is computed over every
+   * stored bar for the symbol, so the first values in the range look back past its start where
+   * those bars are stored. Missing prices are fetched from the cloud first, exactly as for
+   * getAllHistoricalPrices.
+   * @param symbol a symbol to get the indicator for.
+   * @param indicator the indicator.
+   * @param window the number of bars each value is computed over.
+   * @param range the time period to return values for.
+   * @return the value at each bar in the range that has one, oldest first.
+   */
+  public List<IexIndicatorValue> getIndicator(final String symbol, final Indicator indicator,
+      final int window, final String range) {
+    HistoricalPriceSeries.Window bars = getHistoricalPriceWindow(symbol, range, null);
+    return indicatorEngine.get(bars.getSeries(), indicator, window)
+        .getValues(bars.getFromIndex(), bars.getToIndex());
+  }
+
+  private HistoricalPriceResult getAllHistoricalPricesInternal(final String symbol,
+      final String range, final String date) {
+    return getHistoricalPrices(symbol, historicalPriceCache.getSeries(symbol), range, date);
+  }
+
+  private HistoricalPriceResult getHistoricalPrices(final String symbol,
+      final HistoricalPriceSeries series, final String range, final String date) {
+    if (series.size() == 0) {
       log.info("call thinks there is no symbol in rpsy");
-      return updateHistoricalDB(symbol, range, date);
+      List<IexHistoricalPrice> fetched = updateHistoricalDB(symbol, range, date);
+      int amtDays = getAmountOfDays(range);
+      // Sliced to the same window as the requests that find the prices stored
+      return HistoricalPriceResult.fresh(
+          amtDays > 0 ? inWindow(fetched, amtDays) : fetched);
     } else {
       log.info("symbol in rpsy, do everything else");
-      int rangeLength = getIntFromString(range);
-      String rangeType = getAlphabeticChars(range);
-      int amtDays = getTotalNumberOfDays(rangeType, rangeLength);
+      int amtDays = getAmountOfDays(range);
       if (amtDays == 0) {
-        finalHistoricalPrices = updateHistoricalDB(symbol, range, date);
+        return HistoricalPriceResult.fresh(updateHistoricalDB(symbol, range, date));
       } else if (amtDays == -1) {
-        if (date == null) {
-          return Collections.emptyList();
+        if (date == null || date.isEmpty()) {
+          return HistoricalPriceResult.fresh(Collections.emptyList());
         }
-        finalHistoricalPrices = getPricesByDate(symbol, range, date, finalHistoricalPrices);
+        return HistoricalPriceResult.fresh(
+            getPricesByDate(symbol, range, date, series, new ArrayList<>()));
       } else if (amtDays > 0) {
-        finalHistoricalPrices = findHistoricalPrices(symbol, range, amtDays, finalHistoricalPrices);
+        return findHistoricalPrices(symbol, series, range, amtDays);
       }
-      return finalHistoricalPrices;
+      return HistoricalPriceResult.fresh(Collections.emptyList());
+    }
+  }
+
+  /**
+   * The last day a cloud fetch for a symbol covered, and when the fetch was made.
+   */
+  private static class CheckedDay {
+
+    private final LocalDate day;
+
+    private final long atNanos;
+
+    private CheckedDay(final LocalDate day, final long atNanos) {
+      this.day = day;
+      this.atNanos = atNanos;
     }
   }
 }
@@ -0,0 +1,36 @@
+package org.galatea.starter.service;
+
+/**
+ * Technical indicators that can be computed over a symbol's daily bars. Each one is computed over
+ * a rolling window of a given number of bars, at least {@link #MIN_WINDOW}.
+ */
+public enum Indicator {
+
+  /**
+   * Simple moving average of the close.
+   */
+  SMA,
+
+  /**
+   * Exponential moving average of the close, with a smoothing factor of 2 / (window + 1). It is
+   * seeded with the simple moving average of the first window.
+   */
+  EMA,
+
+  /**
+   * Volume weighted average of the typical price, (high + low + close) / 3.
+   */
+  VWAP,
+
+  /**
+   * Sample standard deviation of the daily close-to-close log returns, annualized over 252
+   * trading days.
+   */
+  VOLATILITY;
+
+  /**
+   * The smallest window any indicator is computed over. A volatility needs at least two returns,
+   * and a one bar average is just the bar itself.
+   */
+  public static final int MIN_WINDOW = 2;
+}
@@ -0,0 +1,146 @@
+package org.galatea.starter.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.EqualsAndHashCode;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Computes technical indicators over the cached historical price series, and keeps the results
+ * per (symbol, indicator, window) so that repeated requests don't recompute them. When new bars
+ * are appended to a symbol's series its cached indicators are carried forward over just the new
+ * bars rather than computed again from the start.
+ *
+ * <p>At most iex.indicators.max-entries results are kept, least recently used first out. Lookups
+ * are counted in the iex.indicators.cache metric, tagged with whether the result was a hit, was
+ * extended over new bars, or had to be computed.
+ */
+@Slf4j
+@Component
+public class IndicatorEngine {
+
+  private final int maxEntries;
+
+  /* access-ordered, so iteration starts at the least recently used entry */
+  private final LinkedHashMap<Key, IndicatorSeries> cached = new LinkedHashMap<>(16, 0.75f, true);
+
+  private final Counter hits;
+
+  private final Counter extensions;
+
+  private final Counter misses;
+
+  /**
+   * Create the engine. Nothing is computed until it is asked for.
+   */
+  public IndicatorEngine(@Value("${iex.indicators.max-entries}") final int maxEntries,
+      @NonNull final MeterRegistry meterRegistry) {
+    this.maxEntries = maxEntries;
+    this.hits = meterRegistry.counter("iex.indicators.cache", "result", "hit");
+    this.extensions = meterRegistry.counter("iex.indicators.cache", "result", "extend");
+    this.misses = meterRegistry.counter("iex.indicators.cache", "result", "miss");
+  }
+
+  /**
+   * Get the indicator over every bar of the series, from the cache if it has been computed for
+   * this series or an earlier version of it.
+   *
+   * @param series the symbol's current series.
+   * @param indicator the indicator.
+   * @param window the number of bars each value is computed over.
+   */
+  public IndicatorSeries get(final HistoricalPriceSeries series, final Indicator indicator,
+      final int window) {
+    Key key = new Key(series.getSymbol(), indicator, window);
+    IndicatorSeries found;
+    synchronized (this) {
+      found = cached.get(key);
+    }
+    if (found != null && found.isFor(series)) {
+      hits.increment();
+      return found;
+    }
+
+    // Computed outside the lock; two requests racing on the same key just compute it twice
+    IndicatorSeries computed = found == null ? null : found.extend(series);
+    if (computed != null) {
+      extensions.increment();
+    } else {
+      computed = IndicatorSeries.compute(series, indicator, window);
+      misses.increment();
+    }
+    put(key, computed);
+    return computed;
+  }
+
+  /**
+   * Carry every cached indicator for the series' symbol forward to the new series. Indicators
+   * that can't be extended, because bars were added in the middle rather than at the end, are
+   * dropped and computed again on their next use.
+   *
+   * @param series the symbol's series after new bars were added.
+   */
+  public void update(final HistoricalPriceSeries series) {
+    List<Map.Entry<Key, IndicatorSeries>> forSymbol = new ArrayList<>();
+    synchronized (this) {
+      cached.entrySet().stream()
+          .filter(entry -> entry.getKey().symbol.equals(series.getSymbol()))
+          .forEach(entry -> forSymbol.add(new AbstractMap.SimpleEntry<>(entry)));
+    }
+
+    for (Map.Entry<Key, IndicatorSeries> entry : forSymbol) {
+      IndicatorSeries extended = entry.getValue().extend(series);
+      synchronized (this) {
+        // Only replace what we extended; a request may have moved it on in the meantime
+        if (cached.get(entry.getKey()) == entry.getValue()) {
+          if (extended == null) {
+            cached.remove(entry.getKey());
+          } else {
+            cached.put(entry.getKey(), extended);
+          }
+        }
+      }
+      if (extended != null && extended != entry.getValue()) {
+        extensions.increment();
+      }
+    }
+  }
+
+  /**
+   * Number of indicators currently cached.
+   */
+  public synchronized int size() {
+    return cached.size();
+  }
+
+  private synchronized void put(final Key key, final IndicatorSeries computed) {
+    cached.put(key, computed);
+    while (cached.size() > maxEntries) {
+      Key eldest = cached.keySet().iterator().next();
+      cached.remove(eldest);
+      log.debug("Evicted {} from the indicator cache", eldest);
+    }
+  }
+
+  @EqualsAndHashCode
+  @RequiredArgsConstructor
+  @ToString
+  private static class Key {
+
+    private final String symbol;
+
+    private final Indicator indicator;
+
+    private final int window;
+  }
+}
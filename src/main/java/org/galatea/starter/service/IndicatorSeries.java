@@ -0,0 +1,258 @@
+package org.galatea.starter.service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import lombok.Getter;
+import org.galatea.starter.domain.IexIndicatorValue;
+
+/**
+ * One indicator computed over every bar of a {@link HistoricalPriceSeries}, with a value per bar.
+ * Bars before the first full window have no value.
+ *
+ * <p>Values are computed in a single pass over the series' columns, keeping running sums rather
+ * than re-reading the window at every bar. Those sums are kept with the values, so when bars are
+ * appended to the series only the new bars need computing; see {@link #extend}.
+ */
+public final class IndicatorSeries {
+
+  /* A price of 1 in the series' fixed-point representation */
+  private static final double FIXED_ONE = Math.pow(10, HistoricalPriceSeries.PRICE_SCALE);
+
+  private static final double TRADING_DAYS_PER_YEAR = 252;
+
+  @Getter
+  private final Indicator indicator;
+
+  @Getter
+  private final int window;
+
+  /* The series the values were computed from, which gives them their dates */
+  private final HistoricalPriceSeries series;
+
+  /* One per bar in the series, NaN where there is no value */
+  private final double[] values;
+
+  /* The running sums as of the last bar, to carry on from when bars are appended */
+  private final RunningSums sums;
+
+  private IndicatorSeries(final Indicator indicator, final int window,
+      final HistoricalPriceSeries series, final double[] values, final RunningSums sums) {
+    this.indicator = indicator;
+    this.window = window;
+    this.series = series;
+    this.values = values;
+    this.sums = sums;
+  }
+
+  /**
+   * Compute the indicator over every bar of the series.
+   *
+   * @param series the bars to compute the indicator over.
+   * @param indicator the indicator.
+   * @param window the number of bars each value is computed over.
+   */
+  public static IndicatorSeries compute(final HistoricalPriceSeries series,
+      final Indicator indicator, final int window) {
+    if (window < Indicator.MIN_WINDOW) {
+      throw new IllegalArgumentException("Indicators need a window of at least "
+          + Indicator.MIN_WINDOW);
+    }
+    double[] values = new double[series.size()];
+    RunningSums sums = new RunningSums();
+    run(series, indicator, window, 0, values, sums);
+    return new IndicatorSeries(indicator, window, series, values, sums);
+  }
+
+  /**
+   * Return the indicator for a newer series of the same symbol. If the newer series is this one's
+   * bars with more appended, only the appended bars are computed; otherwise, e.g. if a gap was
+   * filled or a bar changed in the middle, null is returned and the caller has to compute it
+   * afresh.
+   */
+  public IndicatorSeries extend(final HistoricalPriceSeries newer) {
+    int size = series.size();
+    if (isFor(newer)) {
+      return this;
+    } else if (size == 0) {
+      return compute(newer, indicator, window);
+    } else if (newer.size() <= size || !series.sharesLineage(newer)) {
+      return null;
+    }
+    double[] extended = Arrays.copyOf(values, newer.size());
+    RunningSums extendedSums = sums.copy();
+    run(newer, indicator, window, size, extended, extendedSums);
+    return new IndicatorSeries(indicator, window, newer, extended, extendedSums);
+  }
+
+  /**
+   * Return true if these values are for the given series. Series are compared by version, so an
+   * upsert anywhere in the series, not just at its end, is never mistaken for the same bars.
+   */
+  public boolean isFor(final HistoricalPriceSeries other) {
+    return other.getVersion() == series.getVersion();
+  }
+
+  /**
+   * The symbol the indicator is for.
+   */
+  public String getSymbol() {
+    return series.getSymbol();
+  }
+
+  /**
+   * Number of bars, including those without a value.
+   */
+  public int size() {
+    return values.length;
+  }
+
+  /**
+   * The value at the given bar, or NaN if there isn't one.
+   */
+  public double getValue(final int i) {
+    return values[i];
+  }
+
+  /**
+   * Get the values of the bars in [fromIdx, toIdx), oldest first. Bars without a value are left
+   * out.
+   */
+  public List<IexIndicatorValue> getValues(final int fromIdx, final int toIdx) {
+    List<IexIndicatorValue> found = new ArrayList<>(Math.max(0, toIdx - fromIdx));
+    for (int i = fromIdx; i < toIdx; i++) {
+      if (!Double.isNaN(values[i])) {
+        found.add(IexIndicatorValue.builder()
+            .date(LocalDate.ofEpochDay(series.epochDayAt(i)))
+            .value(values[i])
+            .build());
+      }
+    }
+    return found;
+  }
+
+  /*
+   * Compute the values of bars [from, series.size()), carrying on from the given sums.
+   */
+  private static void run(final HistoricalPriceSeries series, final Indicator indicator,
+      final int window, final int from, final double[] values, final RunningSums sums) {
+    switch (indicator) {
+      case SMA:
+        sma(series, window, from, values, sums);
+        break;
+      case EMA:
+        ema(series, window, from, values, sums);
+        break;
+      case VWAP:
+        vwap(series, window, from, values, sums);
+        break;
+      case VOLATILITY:
+        volatility(series, window, from, values, sums);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown indicator " + indicator);
+    }
+  }
+
+  private static void sma(final HistoricalPriceSeries series, final int window, final int from,
+      final double[] values, final RunningSums sums) {
+    for (int i = from; i < values.length; i++) {
+      // Fixed-point closes add up exactly, so the sum doesn't drift however long it runs
+      sums.closes += series.closeAt(i);
+      if (i >= window) {
+        sums.closes -= series.closeAt(i - window);
+      }
+      values[i] = i >= window - 1 ? sums.closes / (window * FIXED_ONE) : Double.NaN;
+    }
+  }
+
+  private static void ema(final HistoricalPriceSeries series, final int window, final int from,
+      final double[] values, final RunningSums sums) {
+    double alpha = 2.0 / (window + 1);
+    for (int i = from; i < values.length; i++) {
+      long close = series.closeAt(i);
+      if (i < window) {
+        sums.closes += close;
+        if (i == window - 1) {
+          sums.average = (double) sums.closes / window;
+        }
+      } else {
+        sums.average += alpha * (close - sums.average);
+      }
+      values[i] = i >= window - 1 ? sums.average / FIXED_ONE : Double.NaN;
+    }
+  }
+
+  private static void vwap(final HistoricalPriceSeries series, final int window, final int from,
+      final double[] values, final RunningSums sums) {
+    for (int i = from; i < values.length; i++) {
+      sums.sum += typicalPrice(series, i) * series.volumeAt(i);
+      sums.volumes += series.volumeAt(i);
+      if (i >= window) {
+        sums.sum -= typicalPrice(series, i - window) * series.volumeAt(i - window);
+        sums.volumes -= series.volumeAt(i - window);
+      }
+      values[i] = i >= window - 1 && sums.volumes > 0
+          ? sums.sum / sums.volumes / FIXED_ONE : Double.NaN;
+    }
+  }
+
+  private static void volatility(final HistoricalPriceSeries series, final int window,
+      final int from, final double[] values, final RunningSums sums) {
+    // The window is over returns, and the first bar has none
+    for (int i = Math.max(from, 1); i < values.length; i++) {
+      double logReturn = logReturn(series, i);
+      sums.sum += logReturn;
+      sums.sumOfSquares += logReturn * logReturn;
+      if (i > window) {
+        double dropped = logReturn(series, i - window);
+        sums.sum -= dropped;
+        sums.sumOfSquares -= dropped * dropped;
+      }
+      if (i >= window) {
+        double variance = (sums.sumOfSquares - sums.sum * sums.sum / window) / (window - 1);
+        values[i] = Math.sqrt(Math.max(variance, 0) * TRADING_DAYS_PER_YEAR);
+      } else {
+        values[i] = Double.NaN;
+      }
+    }
+    if (from == 0 && values.length > 0) {
+      values[0] = Double.NaN;
+    }
+  }
+
+  private static double typicalPrice(final HistoricalPriceSeries series, final int i) {
+    return (series.highAt(i) + series.lowAt(i) + series.closeAt(i)) / 3.0;
+  }
+
+  private static double logReturn(final HistoricalPriceSeries series, final int i) {
+    return Math.log((double) series.closeAt(i) / series.closeAt(i - 1));
+  }
+
+  /*
+   * Whichever sums the indicator keeps. Only ever changed by the pass that owns them.
+   */
+  private static final class RunningSums {
+
+    private long closes;
+
+    private long volumes;
+
+    private double average;
+
+    private double sum;
+
+    private double sumOfSquares;
+
+    RunningSums copy() {
+      RunningSums copy = new RunningSums();
+      copy.closes = closes;
+      copy.volumes = volumes;
+      copy.average = average;
+      copy.sum = sum;
+      copy.sumOfSquares = sumOfSquares;
+      return copy;
+    }
+  }
+}
@@ -0,0 +1,200 @@
+package org.galatea.starter.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.domain.IexLastTradedPrice;
+import org.galatea.starter.utils.TokenBucket.Priority;
+import org.galatea.starter.utils.http.RateLimitedClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Combines the last traded price calls of concurrent callers into one call to IEX. The first
+ * caller to arrive opens a batch and waits for the window; everyone who arrives in the meantime
+ * adds their symbols to it. The batch is then sent as one /tops/last call for the union of the
+ * symbols, and each caller gets back the prices of its own symbols.
+ *
+ * <p>A batch is sent early, by the caller that fills it, once it holds the configured maximum
+ * number of symbols. A window of 0 turns batching off and passes every call straight through.
+ *
+ * <p>Callers only share a batch with callers of the same {@link RateLimitedClient#currentPriority()
+ * priority}, and it is sent at that priority, so an interactive caller never waits on a background
+ * permit and a background caller never spends an interactive one.
+ *
+ * <p>The number of symbols per call is published in the iex.last-traded-price.batch.symbols metric.
+ */
+@Slf4j
+@Component
+public class LastTradedPriceBatcher {
+
+  private final IexClient iexClient;
+
+  private final long windowNanos;
+
+  private final int maxSymbols;
+
+  private final DistributionSummary batchSymbols;
+
+  /* The batch that callers of each priority are currently joining, absent until one opens it */
+  private final Map<Priority, Batch> open = new EnumMap<>(Priority.class);
+
+  /**
+   * Create a batcher that waits windowMillis for more callers, unless maxSymbols are reached
+   * first.
+   */
+  public LastTradedPriceBatcher(@NonNull final IexClient iexClient,
+      @Value("${iex.last-traded-price.batch.window-millis}") final long windowMillis,
+      @Value("${iex.last-traded-price.batch.max-symbols}") final int maxSymbols,
+      @NonNull final MeterRegistry meterRegistry) {
+    this.iexClient = iexClient;
+    this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    this.maxSymbols = maxSymbols;
+    this.batchSymbols = meterRegistry.summary("iex.last-traded-price.batch.symbols");
+  }
+
+  /**
+   * Get the last traded prices of the given upper case symbols, sharing the call to IEX with any
+   * other callers in the same window.
+   *
+   * @param symbols the upper case symbols to get prices for.
+   * @return the prices IEX returned for those symbols, in the order the symbols were given.
+   */
+  public List<IexLastTradedPrice> fetch(final List<String> symbols) {
+    if (windowNanos <= 0) {
+      batchSymbols.record(symbols.size());
+      return iexClient.getLastTradedPriceForSymbols(symbols.toArray(new String[0]));
+    }
+
+    // Whoever takes a batch out of open sends it, so every batch is sent exactly once
+    Priority priority = RateLimitedClient.currentPriority();
+    Batch overflowing = null;
+    Batch mine;
+    boolean leader = false;
+    boolean full = false;
+    synchronized (this) {
+      mine = open.get(priority);
+      if (mine != null && !mine.fits(symbols, maxSymbols)) {
+        // Send the open batch now rather than let it grow past what one call may ask for
+        overflowing = mine;
+        mine = null;
+      }
+      if (mine == null) {
+        mine = new Batch(priority);
+        open.put(priority, mine);
+        leader = true;
+      }
+      mine.symbols.addAll(symbols);
+      if (mine.symbols.size() >= maxSymbols) {
+        open.remove(priority);
+        full = true;
+      }
+    }
+    // The calls to IEX are made outside of the lock so they don't hold up the next batch
+    if (overflowing != null) {
+      send(overflowing);
+    }
+    if (full) {
+      send(mine);
+    } else if (leader) {
+      awaitWindow(mine);
+    }
+    return mine.getPrices(symbols);
+  }
+
+  /*
+   * Called by the caller that opened the batch: wait for the window to pass, then send the batch
+   * unless a caller that filled it up has already done so.
+   */
+  private void awaitWindow(final Batch batch) {
+    try {
+      batch.prices.get(windowNanos, TimeUnit.NANOSECONDS);
+      return;
+    } catch (TimeoutException err) {
+      log.trace("Batch window passed, sending the batch");
+    } catch (InterruptedException err) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException err) {
+      return;
+    }
+    synchronized (this) {
+      if (!open.remove(batch.priority, batch)) {
+        return;
+      }
+    }
+    send(batch);
+  }
+
+  private void send(final Batch batch) {
+    batchSymbols.record(batch.symbols.size());
+    try {
+      Map<String, IexLastTradedPrice> prices = new HashMap<>();
+      for (IexLastTradedPrice price : RateLimitedClient.callAs(batch.priority,
+          () -> iexClient.getLastTradedPriceForSymbols(batch.symbols.toArray(new String[0])))) {
+        prices.put(price.getSymbol().toUpperCase(Locale.ROOT), price);
+      }
+      batch.prices.complete(prices);
+    } catch (RuntimeException | Error err) {
+      batch.prices.completeExceptionally(err);
+    }
+  }
+
+  /*
+   * The union of the symbols of every caller in a batch and, once the call has been made, their
+   * prices by symbol.
+   */
+  @RequiredArgsConstructor
+  private static class Batch {
+
+    /* The priority of every caller in the batch, which the call is made with */
+    private final Priority priority;
+
+    private final Set<String> symbols = new LinkedHashSet<>();
+
+    private final CompletableFuture<Map<String, IexLastTradedPrice>> prices =
+        new CompletableFuture<>();
+
+    boolean fits(final List<String> more, final int maxSymbols) {
+      return symbols.size() + more.stream().filter(symbol -> !symbols.contains(symbol)).count()
+          <= maxSymbols;
+    }
+
+    List<IexLastTradedPrice> getPrices(final List<String> wanted) {
+      Map<String, IexLastTradedPrice> all;
+      try {
+        all = prices.join();
+      } catch (CompletionException err) {
+        // Rethrow what the call to IEX threw rather than the wrapper
+        if (err.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) err.getCause();
+        } else if (err.getCause() instanceof Error) {
+          throw (Error) err.getCause();
+        }
+        throw err;
+      }
+      List<IexLastTradedPrice> result = new ArrayList<>(wanted.size());
+      for (String symbol : wanted) {
+        IexLastTradedPrice price = all.get(symbol);
+        if (price != null) {
+          result.add(price);
+        }
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,217 @@
+package org.galatea.starter.service;
+
+import feign.FeignException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import javax.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.domain.IexLastTradedPrice;
+import org.galatea.starter.utils.TokenBucket.Priority;
+import org.galatea.starter.utils.exception.CircuitOpenException;
+import org.galatea.starter.utils.exception.RateLimitExceededException;
+import org.galatea.starter.utils.http.CircuitBreakingClient;
+import org.galatea.starter.utils.http.RateLimitedClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps each symbol's last traded price for a short, configurable time, so that many dashboards
+ * asking for the same tickers within the same moment cost one call to IEX instead of one each.
+ *
+ * <p>If IEX can't be reached, e.g. while its circuit breaker is open, the last price fetched for
+ * each symbol is served however old it is, flagged as stale, and the symbols are fetched again in
+ * the background so that the next caller gets fresh prices as soon as IEX is back. Any other
+ * failure is thrown to the caller.
+ *
+ * <p>Hits and misses are counted per symbol in the iex.last-traded-price.cache metric, tagged
+ * result=hit or result=miss. Stale prices served are counted in iex.stale-serves, tagged
+ * data=last-traded-price.
+ */
+@Slf4j
+@Component
+public class LastTradedPriceCache {
+
+  private final ConcurrentMap<String, CachedPrice> pricesBySymbol = new ConcurrentHashMap<>();
+
+  private final long ttlNanos;
+
+  private final Counter hits;
+
+  private final Counter misses;
+
+  private final Counter staleServes;
+
+  /* Symbols being fetched in the background after a failed load */
+  private final Set<String> revalidating = ConcurrentHashMap.newKeySet();
+
+  private final ExecutorService revalidator;
+
+  /**
+   * Create a cache whose prices are served for ttlMillis after they were fetched.
+   */
+  public LastTradedPriceCache(@Value("${iex.last-traded-price.ttl-millis}") final long ttlMillis,
+      final MeterRegistry meterRegistry) {
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    this.hits = meterRegistry.counter("iex.last-traded-price.cache", "result", "hit");
+    this.misses = meterRegistry.counter("iex.last-traded-price.cache", "result", "miss");
+    this.staleServes = meterRegistry.counter("iex.stale-serves", "data", "last-traded-price");
+    this.revalidator = Executors.newSingleThreadExecutor(
+        new CustomizableThreadFactory("iex-revalidate-"));
+  }
+
+  /**
+   * Get the last traded price of each symbol. Symbols with a fresh cached price are answered from
+   * the cache; all of the others are passed to the loader in one call.
+   *
+   * @param symbols the symbols requested. Case doesn't matter and duplicates are ignored.
+   * @param loader fetches the prices of the upper case symbols it is given. Symbols it returns no
+   *     price for are left out of the result.
+   * @return one price per symbol, in the order the symbols were requested. If the loader fails
+   *     because IEX is out (see CircuitBreakingClient.isOutage), symbols that were ever loaded get
+   *     their last price, flagged as stale.
+   * @throws RuntimeException what the loader threw, if it failed for any other reason or none of
+   *     the symbols it was given have ever been loaded.
+   */
+  public List<IexLastTradedPrice> getAll(final List<String> symbols,
+      final Function<List<String>, List<IexLastTradedPrice>> loader) {
+    Set<String> requested = new LinkedHashSet<>();
+    symbols.forEach(symbol -> requested.add(symbol.toUpperCase(Locale.ROOT)));
+
+    long now = System.nanoTime();
+    Map<String, IexLastTradedPrice> found = new HashMap<>();
+    List<String> missing = new ArrayList<>();
+    for (String symbol : requested) {
+      CachedPrice cached = pricesBySymbol.get(symbol);
+      if (cached != null && now - cached.fetchedAt < ttlNanos) {
+        found.put(symbol, cached.price);
+      } else {
+        missing.add(symbol);
+      }
+    }
+    hits.increment(found.size());
+    misses.increment(missing.size());
+
+    if (!missing.isEmpty()) {
+      log.debug("Fetching last traded prices for {} of {} symbols", missing.size(),
+          requested.size());
+      try {
+        found.putAll(load(missing, loader));
+      } catch (CircuitOpenException | RateLimitExceededException | FeignException err) {
+        if (!CircuitBreakingClient.isOutage(err)) {
+          throw err;
+        }
+        found.putAll(getStale(missing, err));
+        revalidate(missing, loader);
+      }
+    }
+
+    List<IexLastTradedPrice> prices = new ArrayList<>(requested.size());
+    for (String symbol : requested) {
+      IexLastTradedPrice price = found.get(symbol);
+      if (price != null) {
+        prices.add(price);
+      }
+    }
+    return prices;
+  }
+
+  /**
+   * Stop fetching in the background.
+   */
+  @PreDestroy
+  public void shutdown() {
+    revalidator.shutdownNow();
+  }
+
+  private Map<String, IexLastTradedPrice> load(final List<String> symbols,
+      final Function<List<String>, List<IexLastTradedPrice>> loader) {
+    long fetchedAt = System.nanoTime();
+    Map<String, IexLastTradedPrice> loaded = new HashMap<>();
+    for (IexLastTradedPrice price : loader.apply(symbols)) {
+      String symbol = price.getSymbol().toUpperCase(Locale.ROOT);
+      pricesBySymbol.put(symbol, new CachedPrice(price, fetchedAt));
+      loaded.put(symbol, price);
+    }
+    return loaded;
+  }
+
+  /*
+   * The last price of each symbol that has one, flagged as stale, or the load failure if none do.
+   */
+  private Map<String, IexLastTradedPrice> getStale(final List<String> symbols,
+      final RuntimeException loadFailure) {
+    Map<String, IexLastTradedPrice> stale = new HashMap<>();
+    for (String symbol : symbols) {
+      CachedPrice cached = pricesBySymbol.get(symbol);
+      if (cached != null) {
+        stale.put(symbol, cached.price.toBuilder().stale(true).build());
+      }
+    }
+    if (stale.isEmpty()) {
+      throw loadFailure;
+    }
+    log.info("Serving stale last traded prices for {} of {} symbols: {}", stale.size(),
+        symbols.size(), loadFailure.getMessage());
+    staleServes.increment(stale.size());
+    return stale;
+  }
+
+  /*
+   * Fetch the symbols again off the caller's thread. Symbols already being fetched are skipped, so
+   * a burst of callers during an outage costs one background call.
+   */
+  private void revalidate(final List<String> symbols,
+      final Function<List<String>, List<IexLastTradedPrice>> loader) {
+    List<String> claimed = new ArrayList<>();
+    for (String symbol : symbols) {
+      if (revalidating.add(symbol)) {
+        claimed.add(symbol);
+      }
+    }
+    if (claimed.isEmpty()) {
+      return;
+    }
+    try {
+      revalidator.execute(() -> {
+        try {
+          // Nobody is waiting on it, so it mustn't hold up interactive requests
+          RateLimitedClient.callAs(Priority.BACKGROUND, () -> load(claimed, loader));
+          log.info("Revalidated last traded prices for {} symbols", claimed.size());
+        } catch (RuntimeException err) {
+          log.debug("Revalidating last traded prices failed", err);
+        } finally {
+          revalidating.removeAll(claimed);
+        }
+      });
+    } catch (RejectedExecutionException err) {
+      revalidating.removeAll(claimed);
+    }
+  }
+
+  /*
+   * A price and when it was fetched, in System.nanoTime().
+   */
+  @RequiredArgsConstructor
+  private static class CachedPrice {
+
+    private final IexLastTradedPrice price;
+
+    private final long fetchedAt;
+  }
+}
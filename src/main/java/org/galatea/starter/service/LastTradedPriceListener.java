@@ -0,0 +1,28 @@
+package org.galatea.starter.service;
+
+import java.io.IOException;
+import java.util.List;
+import org.galatea.starter.domain.IexLastTradedPrice;
+
+/**
+ * Receives the last traded prices of a stream subscription as they change. Calls for one
+ * subscription are never made concurrently, but may be made on different threads.
+ */
+public interface LastTradedPriceListener {
+
+  /**
+   * Called with the prices of the subscribed symbols that changed since they were last sent.
+   *
+   * @param prices at most one price per symbol, the newest one.
+   * @throws IOException if the prices couldn't be delivered; the subscription is then cancelled.
+   */
+  void onPrices(List<IexLastTradedPrice> prices) throws IOException;
+
+  /**
+   * Called if the stream drops the subscription without a write failing, e.g. because too many
+   * subscribers are waiting to be sent to. No more prices are sent, so the subscriber should close
+   * its connection for the client to reconnect.
+   */
+  default void onDropped() {
+  }
+}
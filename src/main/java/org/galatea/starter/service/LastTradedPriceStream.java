@@ -0,0 +1,321 @@
+package org.galatea.starter.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.PreDestroy;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.domain.IexLastTradedPrice;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Pushes last traded prices to subscribers as they change. Once per poll interval the union of
+ * every subscriber's symbols is fetched in one request, and each subscriber is sent only the
+ * prices of its symbols that differ from the previous poll.
+ *
+ * <p>Prices are written to subscribers on a pool of iex.last-traded-price.stream.sender-threads
+ * threads, never on the polling thread, with at most one thread per subscriber and only while it
+ * is being written to, so a slow subscriber never holds up the others. A subscriber that is slower
+ * than the updates doesn't build up a backlog: it holds at most one unsent price per symbol, and a
+ * newer price replaces the stale one. Replaced prices are counted in the
+ * iex.last-traded-price.stream.dropped metric. A write that takes longer than
+ * iex.last-traded-price.stream.send-timeout-millis is interrupted and the subscription cancelled,
+ * counted in iex.last-traded-price.stream.timeouts.
+ *
+ * <p>Subscribers with prices to send wait for a sender thread in a queue of
+ * iex.last-traded-price.stream.sender-queue-capacity. Once it is full, further subscribers are
+ * dropped rather than queued without bound, counted in iex.last-traded-price.stream.rejected.
+ */
+@Slf4j
+@Component
+public class LastTradedPriceStream {
+
+  private final IexService iexService;
+
+  private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+  /* The prices from the previous poll, to tell which ones changed */
+  private final Map<String, IexLastTradedPrice> lastPrices = new ConcurrentHashMap<>();
+
+  private final ScheduledExecutorService poller;
+
+  private final ThreadPoolExecutor senders;
+
+  /* Times writes out; apart from the poller, which can be blocked on IEX for a whole poll */
+  private final ScheduledExecutorService sendTimer;
+
+  private final long sendTimeoutMillis;
+
+  /* Held while prices are offered to subscribers, so that a new subscriber's first prices are
+   * never older than those a poll offers it */
+  private final Object offerLock = new Object();
+
+  private final Counter dropped;
+
+  private final Counter timeouts;
+
+  private final Counter rejected;
+
+  /**
+   * Create the stream and start polling. Polls are skipped while nobody is subscribed.
+   *
+   * @param senderThreads the most subscribers being written to at once.
+   * @param senderQueueCapacity the most subscribers waiting for a sender thread.
+   */
+  public LastTradedPriceStream(@NonNull final IexService iexService,
+      @Value("${iex.last-traded-price.stream.poll-interval-millis}") final long pollIntervalMillis,
+      @Value("${iex.last-traded-price.stream.send-timeout-millis}") final long sendTimeoutMillis,
+      @Value("${iex.last-traded-price.stream.sender-threads}") final int senderThreads,
+      @Value("${iex.last-traded-price.stream.sender-queue-capacity}")
+      final int senderQueueCapacity,
+      @NonNull final MeterRegistry meterRegistry) {
+    this.iexService = iexService;
+    this.senders = new ThreadPoolExecutor(senderThreads, senderThreads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(senderQueueCapacity),
+        new CustomizableThreadFactory("iex-stream-send-"));
+    // Only a burst of subscribers needs them all
+    senders.allowCoreThreadTimeOut(true);
+    this.sendTimer = Executors.newSingleThreadScheduledExecutor(
+        new CustomizableThreadFactory("iex-stream-timeout-"));
+    this.sendTimeoutMillis = sendTimeoutMillis;
+    this.poller = Executors.newSingleThreadScheduledExecutor(
+        new CustomizableThreadFactory("iex-stream-poll-"));
+    this.dropped = meterRegistry.counter("iex.last-traded-price.stream.dropped");
+    this.timeouts = meterRegistry.counter("iex.last-traded-price.stream.timeouts");
+    this.rejected = meterRegistry.counter("iex.last-traded-price.stream.rejected");
+    meterRegistry.gaugeCollectionSize("iex.last-traded-price.stream.subscribers", Tags.empty(),
+        subscriptions);
+    poller.scheduleWithFixedDelay(this::poll, pollIntervalMillis, pollIntervalMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Subscribe to the prices of the given symbols. The latest known prices of the symbols are sent
+   * straight away, then every change after that.
+   *
+   * @param symbols the symbols to get prices for. Case doesn't matter.
+   * @param listener receives the prices until the subscription is cancelled.
+   * @return the subscription, to be cancelled once the subscriber has gone.
+   */
+  public Subscription subscribe(final Collection<String> symbols,
+      final LastTradedPriceListener listener) {
+    Set<String> upperSymbols = new LinkedHashSet<>();
+    symbols.forEach(symbol -> upperSymbols.add(symbol.toUpperCase(Locale.ROOT)));
+    Subscription subscription = new Subscription(upperSymbols, listener);
+    synchronized (offerLock) {
+      // A poll either offered its prices before this, and they are the known ones, or offers
+      // them after, replacing these
+      subscriptions.add(subscription);
+      List<IexLastTradedPrice> known = new ArrayList<>();
+      for (String symbol : upperSymbols) {
+        IexLastTradedPrice price = lastPrices.get(symbol);
+        if (price != null) {
+          known.add(price);
+        }
+      }
+      subscription.offer(known);
+    }
+    log.debug("Subscribed to {}, {} subscribers", upperSymbols, subscriptions.size());
+    return subscription;
+  }
+
+  /**
+   * Number of open subscriptions.
+   */
+  public int getSubscriberCount() {
+    return subscriptions.size();
+  }
+
+  /**
+   * Stop polling and sending.
+   */
+  @PreDestroy
+  public void shutdown() {
+    poller.shutdownNow();
+    senders.shutdownNow();
+    sendTimer.shutdownNow();
+  }
+
+  /*
+   * Fetch the prices of every subscribed symbol and pass the changed ones on. Runs on the poller
+   * thread, and must not throw: that would stop the schedule.
+   */
+  void poll() {
+    try {
+      Set<String> union = new HashSet<>();
+      subscriptions.forEach(subscription -> union.addAll(subscription.symbols));
+      lastPrices.keySet().retainAll(union);
+      if (union.isEmpty()) {
+        return;
+      }
+
+      List<IexLastTradedPrice> polled =
+          iexService.getLastTradedPriceForSymbols(new ArrayList<>(union));
+      synchronized (offerLock) {
+        List<IexLastTradedPrice> changed = new ArrayList<>();
+        for (IexLastTradedPrice price : polled) {
+          IexLastTradedPrice previous =
+              lastPrices.put(price.getSymbol().toUpperCase(Locale.ROOT), price);
+          if (!price.equals(previous)) {
+            changed.add(price);
+          }
+        }
+        if (!changed.isEmpty()) {
+          subscriptions.forEach(subscription -> subscription.offer(changed));
+        }
+      }
+    } catch (RuntimeException err) {
+      log.warn("Polling last traded prices for the stream failed", err);
+    }
+  }
+
+  /**
+   * One subscriber's symbols and the prices waiting to be sent to it.
+   */
+  public final class Subscription {
+
+    private final Set<String> symbols;
+
+    private final LastTradedPriceListener listener;
+
+    /* At most one unsent price per symbol; guarded by itself */
+    private final Map<String, IexLastTradedPrice> pending = new LinkedHashMap<>();
+
+    /* Whether a sender is already draining pending, so at most one is */
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    /* The thread writing to the subscriber while a write is in progress, else null; guarded by
+     * pending, like sends */
+    private Thread sender;
+
+    /* Counts writes, so that a timeout only interrupts the write it was set for */
+    private long sends;
+
+    private volatile boolean cancelled;
+
+    private Subscription(final Set<String> symbols, final LastTradedPriceListener listener) {
+      this.symbols = Collections.unmodifiableSet(symbols);
+      this.listener = listener;
+    }
+
+    /**
+     * Stop sending prices to this subscriber.
+     */
+    public void cancel() {
+      cancelled = true;
+      if (subscriptions.remove(this)) {
+        log.debug("Unsubscribed from {}, {} subscribers", symbols, subscriptions.size());
+      }
+    }
+
+    private void offer(final List<IexLastTradedPrice> prices) {
+      boolean added = false;
+      synchronized (pending) {
+        for (IexLastTradedPrice price : prices) {
+          String symbol = price.getSymbol().toUpperCase(Locale.ROOT);
+          if (symbols.contains(symbol)) {
+            if (pending.put(symbol, price) != null) {
+              dropped.increment();
+            }
+            added = true;
+          }
+        }
+      }
+      if (added && draining.compareAndSet(false, true)) {
+        try {
+          senders.execute(this::drain);
+        } catch (RejectedExecutionException err) {
+          reject();
+        }
+      }
+    }
+
+    /*
+     * Every sender thread is busy and the queue is full, or the stream is shutting down. The
+     * subscriber is dropped rather than queued without bound, and told so that it can close its
+     * connection.
+     */
+    private void reject() {
+      cancel();
+      if (!senders.isShutdown()) {
+        log.debug("No sender thread for a subscriber of {}, dropping it", symbols);
+        rejected.increment();
+        listener.onDropped();
+      }
+    }
+
+    private void drain() {
+      while (true) {
+        List<IexLastTradedPrice> prices;
+        long send;
+        synchronized (pending) {
+          if (pending.isEmpty() || cancelled) {
+            // Cleared under the lock, so an offer either sees it set or is drained here
+            draining.set(false);
+            return;
+          }
+          prices = new ArrayList<>(pending.values());
+          pending.clear();
+          sender = Thread.currentThread();
+          send = ++sends;
+        }
+        ScheduledFuture<?> timeout =
+            sendTimer.schedule(() -> timeOut(send), sendTimeoutMillis, TimeUnit.MILLISECONDS);
+        try {
+          listener.onPrices(prices);
+        } catch (IOException | RuntimeException err) {
+          log.debug("Couldn't send last traded prices to a subscriber of {}", symbols, err);
+          cancel();
+        } finally {
+          timeout.cancel(false);
+          synchronized (pending) {
+            sender = null;
+          }
+          // A timeout may have interrupted the write just as it finished
+          Thread.interrupted();
+        }
+      }
+    }
+
+    /*
+     * Runs on the send timer once a write has taken sendTimeoutMillis. If that write is still
+     * in progress, the subscriber is dropped and the write interrupted, which makes Jetty's
+     * blocking write fail.
+     */
+    private void timeOut(final long send) {
+      synchronized (pending) {
+        if (sender == null || sends != send) {
+          return;
+        }
+        log.debug("Sending last traded prices to a subscriber of {} took over {}ms", symbols,
+            sendTimeoutMillis);
+        timeouts.increment();
+        cancel();
+        sender.interrupt();
+      }
+    }
+  }
+}
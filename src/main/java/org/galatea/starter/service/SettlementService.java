@@ -2,11 +2,14 @@ package org.galatea.starter.service;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 import javax.validation.Valid;
 import lombok.NonNull;
@@ -89,6 +92,41 @@ public class SettlementService {
     return retrievedMissions;
   }
 
+  /**
+   * Hand each of the missions with the given IDs to the consumer in ID order, without holding them
+   * all in memory: they are read from the database a page at a time. Missing IDs are skipped, so
+   * check them first with missionsExist.
+   *
+   * @param ids IDs of the missions to retrieve
+   * @param consumer given each mission in turn
+   */
+  public void forEachMission(final Collection<Long> ids,
+      final Consumer<SettlementMission> consumer) {
+    log.info("Retrieving {} settlement missions a page at a time", ids.size());
+    missionrpsy.forEachById(ids, consumer);
+  }
+
+  /**
+   * Stream the missions with the given IDs in ID order, reading them from the database a page at a
+   * time as the stream is consumed. Missing IDs are skipped, so check them first with
+   * missionsExist.
+   *
+   * @param ids IDs of the missions to retrieve
+   */
+  public Stream<SettlementMission> streamMissions(final Collection<Long> ids) {
+    log.info("Streaming {} settlement missions", ids.size());
+    return missionrpsy.streamById(ids);
+  }
+
+  /**
+   * Return true if a mission exists for every one of the given IDs.
+   *
+   * @param ids identifiers of the missions
+   */
+  public boolean missionsExist(final Collection<Long> ids) {
+    return missionrpsy.countByIdIn(ids) == new HashSet<>(ids).size();
+  }
+
   /**
    * Update the mission with the given ID.
    *
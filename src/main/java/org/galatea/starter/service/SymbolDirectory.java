@@ -0,0 +1,231 @@
+package org.galatea.starter.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.domain.IexSymbol;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-process copy of the IEX symbol directory. It is loaded from IEX on first use and refreshed
+ * in the background every iex.symbols.refresh-millis; if a refresh fails the previous copy is
+ * kept.
+ *
+ * <p>The directory is held as sorted arrays of upper case symbols and lower case names, so a point
+ * lookup or a prefix search is a binary search followed by a short scan. Strings that repeat across
+ * symbols, like the type, are interned.
+ */
+@Slf4j
+@Component
+public class SymbolDirectory {
+
+  private final IexClient iexClient;
+
+  private final ScheduledExecutorService refresher;
+
+  private volatile Snapshot snapshot;
+
+  /**
+   * Create the directory and schedule its refreshes. Nothing is loaded until first use.
+   */
+  public SymbolDirectory(@NonNull final IexClient iexClient,
+      @Value("${iex.symbols.refresh-millis}") final long refreshMillis) {
+    this.iexClient = iexClient;
+    this.refresher = Executors.newSingleThreadScheduledExecutor(
+        new CustomizableThreadFactory("iex-symbols-"));
+    refresher.scheduleWithFixedDelay(this::scheduledRefresh, refreshMillis, refreshMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Get every symbol, in the order IEX lists them.
+   */
+  public List<IexSymbol> getAll() {
+    return getSnapshot().symbols;
+  }
+
+  /**
+   * Get a tag that changes whenever the list returned by getAll does, for use as an HTTP ETag.
+   */
+  public String getVersion() {
+    return getSnapshot().version;
+  }
+
+  /**
+   * Look up one symbol.
+   *
+   * @param symbol the symbol. Case doesn't matter.
+   * @return the symbol, or empty if IEX doesn't list it.
+   */
+  public Optional<IexSymbol> find(final String symbol) {
+    Snapshot current = getSnapshot();
+    int index = Arrays.binarySearch(current.symbolKeys, symbol.toUpperCase(Locale.ROOT));
+    return index < 0 ? Optional.empty() : Optional.of(current.bySymbol[index]);
+  }
+
+  /**
+   * Find the symbols whose symbol or name starts with the given prefix, e.g. for typeahead.
+   *
+   * @param prefix the start of a symbol or a company name. Case doesn't matter.
+   * @param limit the most symbols to return.
+   * @return symbol matches in symbol order, followed by name matches in name order.
+   */
+  public List<IexSymbol> search(final String prefix, final int limit) {
+    Snapshot current = getSnapshot();
+    Set<IexSymbol> found = new LinkedHashSet<>();
+
+    String symbolPrefix = prefix.toUpperCase(Locale.ROOT);
+    for (int i = lowerBound(current.symbolKeys, symbolPrefix);
+        i < current.symbolKeys.length && found.size() < limit
+            && current.symbolKeys[i].startsWith(symbolPrefix); i++) {
+      found.add(current.bySymbol[i]);
+    }
+
+    String namePrefix = prefix.toLowerCase(Locale.ROOT);
+    for (int i = lowerBound(current.nameKeys, namePrefix);
+        i < current.nameKeys.length && found.size() < limit
+            && current.nameKeys[i].startsWith(namePrefix); i++) {
+      found.add(current.byName[i]);
+    }
+    return new ArrayList<>(found);
+  }
+
+  /**
+   * Return true if the directory has been loaded, so that getAll won't call IEX.
+   */
+  public boolean isLoaded() {
+    return snapshot != null;
+  }
+
+  /**
+   * Use symbols loaded from somewhere other than IEX, e.g. a snapshot, unless the directory has
+   * already been loaded. They are replaced by the next scheduled refresh.
+   */
+  public synchronized void restore(final List<IexSymbol> symbols) {
+    if (snapshot == null) {
+      snapshot = new Snapshot(symbols);
+    }
+  }
+
+  /**
+   * Load the directory from IEX now, replacing the current copy.
+   */
+  public void refresh() {
+    List<IexSymbol> symbols = iexClient.getAllSymbols();
+    snapshot = new Snapshot(symbols);
+    log.info("Loaded {} symbols into the symbol directory", symbols.size());
+  }
+
+  /**
+   * Stop the scheduled refreshes.
+   */
+  @PreDestroy
+  public void shutdown() {
+    refresher.shutdownNow();
+  }
+
+  private Snapshot getSnapshot() {
+    Snapshot current = snapshot;
+    if (current == null) {
+      synchronized (this) {
+        if (snapshot == null) {
+          refresh();
+        }
+        current = snapshot;
+      }
+    }
+    return current;
+  }
+
+  /*
+   * Runs on the refresher thread, and must not throw: that would stop the schedule. Directories
+   * that were never used aren't loaded.
+   */
+  private void scheduledRefresh() {
+    if (snapshot == null) {
+      return;
+    }
+    try {
+      refresh();
+    } catch (RuntimeException err) {
+      log.warn("Refreshing the symbol directory failed, keeping the previous copy", err);
+    }
+  }
+
+  /*
+   * Index of the first key that is not less than the given one.
+   */
+  private static int lowerBound(final String[] keys, final String key) {
+    int index = Arrays.binarySearch(keys, key);
+    return index < 0 ? -index - 1 : index;
+  }
+
+  /*
+   * One immutable copy of the directory, swapped in whole on refresh.
+   */
+  private static class Snapshot {
+
+    private final List<IexSymbol> symbols;
+
+    private final String version;
+
+    private final String[] symbolKeys;
+
+    private final IexSymbol[] bySymbol;
+
+    private final String[] nameKeys;
+
+    private final IexSymbol[] byName;
+
+    Snapshot(final List<IexSymbol> loaded) {
+      List<IexSymbol> interned = new ArrayList<>(loaded.size());
+      for (IexSymbol symbol : loaded) {
+        if (symbol.getSymbol() != null) {
+          interned.add(intern(symbol));
+        }
+      }
+      this.symbols = Collections.unmodifiableList(interned);
+      this.version = Integer.toHexString(interned.hashCode()) + "-" + interned.size();
+
+      this.bySymbol = interned.stream()
+          .sorted(Comparator.comparing(symbol -> symbol.getSymbol().toUpperCase(Locale.ROOT)))
+          .toArray(IexSymbol[]::new);
+      this.symbolKeys = Arrays.stream(bySymbol)
+          .map(symbol -> symbol.getSymbol().toUpperCase(Locale.ROOT))
+          .toArray(String[]::new);
+
+      this.byName = interned.stream()
+          .filter(symbol -> symbol.getName() != null)
+          .sorted(Comparator.comparing(symbol -> symbol.getName().toLowerCase(Locale.ROOT)))
+          .toArray(IexSymbol[]::new);
+      this.nameKeys = Arrays.stream(byName)
+          .map(symbol -> symbol.getName().toLowerCase(Locale.ROOT))
+          .toArray(String[]::new);
+    }
+
+    private static IexSymbol intern(final IexSymbol symbol) {
+      return IexSymbol.builder()
+          .symbol(symbol.getSymbol().intern())
+          .name(symbol.getName() == null ? null : symbol.getName().intern())
+          .date(symbol.getDate())
+          .isEnabled(symbol.isEnabled())
+          .type(symbol.getType() == null ? null : symbol.getType().intern())
+          .iexId(symbol.getIexId())
+          .build();
+    }
+  }
+}
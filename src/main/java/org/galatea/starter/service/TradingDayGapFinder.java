@@ -0,0 +1,146 @@
+package org.galatea.starter.service;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+import lombok.Value;
+
+/**
+ * Works out which trading days in a date window are missing from the historical price store, so
+ * that the missing days can be requested from IEX Cloud in as few calls as possible.
+ *
+ * <p>Only weekdays are treated as trading days. Exchange holidays can't be told apart from
+ * missing data without a holiday calendar, so short interior gaps are tolerated, as are short
+ * gaps at the end of the window once a fetch has come back without them (see
+ * {@link #needsFetch(List, LocalDate, LocalDate)}).
+ */
+public class TradingDayGapFinder {
+
+  /**
+   * The longest run of missing weekdays that we assume is an exchange holiday (e.g. Thanksgiving
+   * Thursday and Friday) rather than data we never fetched.
+   */
+  static final int MAX_HOLIDAY_RUN = 2;
+
+  private TradingDayGapFinder() {}
+
+  /**
+   * Find every run of consecutive trading days in [from, to] that has no stored price.
+   *
+   * @param storedDates the dates that already have a price in the store.
+   * @param from the first date of the window (inclusive).
+   * @param to the last date of the window (inclusive).
+   * @return the missing intervals, oldest first. Empty if nothing is missing.
+   */
+  public static List<Gap> findGaps(final Collection<LocalDate> storedDates, final LocalDate from,
+      final LocalDate to) {
+    return findGaps(storedDates::contains, from, to);
+  }
+
+  /**
+   * Find every run of consecutive trading days in [from, to] that has no stored price.
+   *
+   * @param isStored tells whether a date already has a price in the store.
+   * @param from the first date of the window (inclusive).
+   * @param to the last date of the window (inclusive).
+   * @return the missing intervals, oldest first. Empty if nothing is missing.
+   */
+  public static List<Gap> findGaps(final Predicate<LocalDate> isStored, final LocalDate from,
+      final LocalDate to) {
+    List<Gap> gaps = new ArrayList<>();
+    LocalDate gapStart = null;
+    LocalDate gapEnd = null;
+    int gapDays = 0;
+
+    for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+      if (!isTradingDay(day)) {
+        continue;
+      }
+      if (isStored.test(day)) {
+        if (gapStart != null) {
+          gaps.add(new Gap(gapStart, gapEnd, gapDays));
+          gapStart = null;
+          gapDays = 0;
+        }
+      } else {
+        if (gapStart == null) {
+          gapStart = day;
+        }
+        gapEnd = day;
+        gapDays++;
+      }
+    }
+
+    if (gapStart != null) {
+      gaps.add(new Gap(gapStart, gapEnd, gapDays));
+    }
+    return gaps;
+  }
+
+  /**
+   * Decide whether the gaps found in a window are worth a call to IEX Cloud. A gap is worth
+   * fetching if it runs up to the end of the window (new bars we haven't seen yet) or if it's
+   * longer than a holiday could explain.
+   *
+   * @param gaps the gaps returned by {@link #findGaps(Collection, LocalDate, LocalDate)}.
+   * @param to the last date of the window that was searched (inclusive).
+   * @return true if at least one gap should be fetched.
+   */
+  public static boolean needsFetch(final List<Gap> gaps, final LocalDate to) {
+    return needsFetch(gaps, to, null);
+  }
+
+  /**
+   * Decide whether the gaps found in a window are worth a call to IEX Cloud, as
+   * {@link #needsFetch(List, LocalDate)} does, except that a gap at the end of the window that a
+   * recent fetch already came back without (a holiday, or a bar IEX hasn't published yet) is
+   * tolerated like an interior one.
+   *
+   * @param gaps the gaps returned by {@link #findGaps(Collection, LocalDate, LocalDate)}.
+   * @param to the last date of the window that was searched (inclusive).
+   * @param checkedThrough the last date a recent fetch covered, or null if there wasn't one.
+   * @return true if at least one gap should be fetched.
+   */
+  public static boolean needsFetch(final List<Gap> gaps, final LocalDate to,
+      final LocalDate checkedThrough) {
+    LocalDate lastTradingDay = lastTradingDayOnOrBefore(to);
+    return gaps.stream().anyMatch(gap -> gap.getTradingDays() > MAX_HOLIDAY_RUN
+        || (gap.getEnd().equals(lastTradingDay)
+            && (checkedThrough == null || gap.getEnd().isAfter(checkedThrough))));
+  }
+
+  /**
+   * Return true if the exchange could have traded on the given date.
+   */
+  public static boolean isTradingDay(final LocalDate date) {
+    DayOfWeek dayOfWeek = date.getDayOfWeek();
+    return dayOfWeek != DayOfWeek.SATURDAY && dayOfWeek != DayOfWeek.SUNDAY;
+  }
+
+  private static LocalDate lastTradingDayOnOrBefore(final LocalDate date) {
+    LocalDate day = date;
+    while (!isTradingDay(day)) {
+      day = day.minusDays(1);
+    }
+    return day;
+  }
+
+  /**
+   * A run of consecutive trading days with no stored price.
+   */
+  @Value
+  public static class Gap {
+
+    /* first missing trading day (inclusive) */
+    private LocalDate start;
+
+    /* last missing trading day (inclusive) */
+    private LocalDate end;
+
+    /* number of trading days between start and end */
+    private int tradingDays;
+  }
+}
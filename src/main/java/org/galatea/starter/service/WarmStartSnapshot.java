@@ -0,0 +1,428 @@
+package org.galatea.starter.service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import javax.annotation.PreDestroy;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.domain.IexHistoricalPriceSummary;
+import org.galatea.starter.domain.IexSymbol;
+import org.galatea.starter.domain.rpsy.IexHistoricalPricesRpsy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Saves the symbol directory and the historical price cache to local disk, and loads them back on
+ * start up so that a restarted instance can serve without first going to IEX. Snapshots are
+ * written every iex.snapshot.write-interval-millis and on shutdown.
+ *
+ * <p>Each of the two files has a header with a magic number, a format version, the time it was
+ * written and a CRC32 of the rest of the file. A file that is from another format version, older
+ * than iex.snapshot.max-age-millis or fails its checksum is deleted rather than loaded, and is
+ * written afresh by the next snapshot. On start up both files are memory-mapped and read at the
+ * same time, and the historical series are decoded in parallel.
+ *
+ * <p>A cached historical price series is only restored if the database still holds the same
+ * prices for its symbol: as many days, up to the same last day. The cache must never hold prices
+ * the database doesn't, e.g. after a fresh in-memory database was started, nor miss prices
+ * written after the snapshot. Series that don't match are loaded from the database when asked
+ * for, as without a snapshot.
+ *
+ * <p>Until the snapshot has been loaded this reports itself OUT_OF_SERVICE in /actuator/health,
+ * so load balancers can hold traffic back until the instance is warm.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "iex.snapshot.enabled", havingValue = "true")
+public class WarmStartSnapshot implements ApplicationRunner, HealthIndicator {
+
+  /**
+   * Bump whenever the layout of either file changes, so old files are discarded.
+   */
+  public static final int FORMAT_VERSION = 1;
+
+  static final String SYMBOLS_FILE = "symbols.snapshot";
+
+  static final String HISTORICAL_PRICES_FILE = "historical-prices.snapshot";
+
+  private static final int SYMBOLS_MAGIC = 0x46535359;
+
+  private static final int HISTORICAL_PRICES_MAGIC = 0x46534850;
+
+  /* magic, format version, written at millis, payload length, payload CRC32 */
+  private static final int HEADER_BYTES = 2 * Integer.BYTES + 3 * Long.BYTES;
+
+  private final SymbolDirectory symbolDirectory;
+
+  private final HistoricalPriceCache historicalPriceCache;
+
+  private final IexHistoricalPricesRpsy historicalPricesRpsy;
+
+  private final Path directory;
+
+  private final long writeIntervalMillis;
+
+  private final long maxAgeMillis;
+
+  private final ScheduledExecutorService writer;
+
+  /* Set once loaded; until then writing would overwrite a good snapshot with empty caches */
+  private volatile boolean loaded;
+
+  private volatile Health health = Health.outOfService().withDetail("snapshot", "loading").build();
+
+  /**
+   * Create the snapshot. Nothing is read or written until the application has started.
+   */
+  public WarmStartSnapshot(@NonNull final SymbolDirectory symbolDirectory,
+      @NonNull final HistoricalPriceCache historicalPriceCache,
+      @NonNull final IexHistoricalPricesRpsy historicalPricesRpsy,
+      @Value("${iex.snapshot.directory}") final String directory,
+      @Value("${iex.snapshot.write-interval-millis}") final long writeIntervalMillis,
+      @Value("${iex.snapshot.max-age-millis}") final long maxAgeMillis) {
+    this.symbolDirectory = symbolDirectory;
+    this.historicalPriceCache = historicalPriceCache;
+    this.historicalPricesRpsy = historicalPricesRpsy;
+    this.directory = Paths.get(directory);
+    this.writeIntervalMillis = writeIntervalMillis;
+    this.maxAgeMillis = maxAgeMillis;
+    this.writer = Executors.newSingleThreadScheduledExecutor(
+        new CustomizableThreadFactory("iex-snapshot-"));
+  }
+
+  /**
+   * Load the snapshot, report ready, and start writing snapshots periodically.
+   */
+  @Override
+  public void run(final ApplicationArguments args) {
+    load();
+    writer.scheduleWithFixedDelay(this::scheduledWrite, writeIntervalMillis, writeIntervalMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public Health health() {
+    return health;
+  }
+
+  /**
+   * Stop the periodic writes and write one last snapshot, if the application got as far as loading
+   * one.
+   */
+  @PreDestroy
+  public void shutdown() {
+    writer.shutdownNow();
+    if (!loaded) {
+      return;
+    }
+    try {
+      write();
+    } catch (IOException err) {
+      log.warn("Couldn't write the snapshot on shutdown", err);
+    }
+  }
+
+  /**
+   * Load whichever snapshot files are present and valid into the symbol directory and the
+   * historical price cache, then report ready. Historical price series that don't match the
+   * database are skipped.
+   */
+  public void load() {
+    // Final so it can stay ahead of everything the load time covers
+    final long start = System.nanoTime();
+    CompletableFuture<List<IexSymbol>> symbols =
+        CompletableFuture.supplyAsync(() -> read(SYMBOLS_FILE, SYMBOLS_MAGIC, this::readSymbols));
+    List<HistoricalPriceSeries> series =
+        read(HISTORICAL_PRICES_FILE, HISTORICAL_PRICES_MAGIC, this::readHistoricalPrices);
+    if (series != null) {
+      series = matchingDatabase(series);
+    }
+
+    List<IexSymbol> loadedSymbols = symbols.join();
+    if (loadedSymbols != null) {
+      symbolDirectory.restore(loadedSymbols);
+    }
+    if (series != null) {
+      // Least recently used first, as they were written, so the budget keeps the hottest
+      series.forEach(historicalPriceCache::restore);
+    }
+
+    long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    int symbolCount = loadedSymbols == null ? 0 : loadedSymbols.size();
+    int seriesCount = series == null ? 0 : series.size();
+    log.info("Loaded {} symbols and {} historical price series from the snapshot in {}ms",
+        symbolCount, seriesCount, millis);
+    loaded = true;
+    health = Health.up()
+        .withDetail("symbols", symbolCount)
+        .withDetail("historicalPriceSeries", seriesCount)
+        .withDetail("loadMillis", millis)
+        .build();
+  }
+
+  /*
+   * The series that hold as many days as the database does for their symbol, up to the same last
+   * day, checked with one grouped query.
+   */
+  private List<HistoricalPriceSeries> matchingDatabase(final List<HistoricalPriceSeries> series) {
+    if (series.isEmpty()) {
+      return series;
+    }
+    Map<String, IexHistoricalPriceSummary> stored = historicalPricesRpsy
+        .summarizeBySymbolIn(series.stream()
+            .map(HistoricalPriceSeries::getSymbol)
+            .collect(Collectors.toList()))
+        .stream()
+        .collect(Collectors.toMap(IexHistoricalPriceSummary::getSymbol, Function.identity()));
+    List<HistoricalPriceSeries> matching = series.stream()
+        .filter(one -> matches(one, stored.get(one.getSymbol())))
+        .collect(Collectors.toList());
+    if (matching.size() < series.size()) {
+      log.info("Not restoring {} of {} cached historical price series, the database holds other"
+          + " prices for them", series.size() - matching.size(), series.size());
+    }
+    return matching;
+  }
+
+  private static boolean matches(final HistoricalPriceSeries series,
+      final IexHistoricalPriceSummary stored) {
+    // Snapshots only hold series with prices
+    return stored != null
+        && stored.getDays() == series.size()
+        && stored.getLastDate().toEpochDay() == series.epochDayAt(series.size() - 1);
+  }
+
+  /**
+   * Write the loaded symbol directory and the cached historical prices to disk. Each file is
+   * written next to its final name and moved into place, so readers never see half a file.
+   */
+  public synchronized void write() throws IOException {
+    Files.createDirectories(directory);
+    if (symbolDirectory.isLoaded()) {
+      List<IexSymbol> symbols = symbolDirectory.getAll();
+      write(SYMBOLS_FILE, SYMBOLS_MAGIC, out -> writeSymbols(symbols, out));
+    }
+    List<HistoricalPriceSeries> series = historicalPriceCache.getCachedSeries().stream()
+        .filter(one -> one.size() > 0)
+        .collect(Collectors.toList());
+    write(HISTORICAL_PRICES_FILE, HISTORICAL_PRICES_MAGIC,
+        out -> writeHistoricalPrices(series, out));
+  }
+
+  private void write(final String fileName, final int magic, final PayloadWriter payload)
+      throws IOException {
+    Path target = directory.resolve(fileName);
+    Path temp = directory.resolve(fileName + ".tmp");
+    try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      // The header needs the payload's length and checksum, so it is filled in afterwards. The
+      // stream isn't closed, that would close the channel before the header is written
+      channel.position(HEADER_BYTES);
+      CRC32 crc = new CRC32();
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          new CheckedOutputStream(Channels.newOutputStream(channel), crc), 1 << 16));
+      payload.write(out);
+      out.flush();
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      header.putInt(magic)
+          .putInt(FORMAT_VERSION)
+          .putLong(System.currentTimeMillis())
+          .putLong(out.size())
+          .putLong(crc.getValue())
+          .flip();
+      channel.write(header, 0);
+      channel.force(true);
+    }
+    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /*
+   * Runs on the writer thread, and must not throw: that would stop the schedule.
+   */
+  private void scheduledWrite() {
+    try {
+      write();
+    } catch (IOException | RuntimeException err) {
+      log.warn("Couldn't write the snapshot", err);
+    }
+  }
+
+  /*
+   * Map the file and check its header and checksum before handing the payload to the reader.
+   * Returns null if there is no usable file; an unusable one is deleted.
+   */
+  private <T> T read(final String fileName, final int magic, final PayloadReader<T> reader) {
+    Path file = directory.resolve(fileName);
+    if (!Files.isRegularFile(file)) {
+      log.info("No snapshot at {}", file);
+      return null;
+    }
+    try {
+      MappedByteBuffer mapped;
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+      String problem = checkHeader(mapped, magic);
+      if (problem == null) {
+        return reader.read(mapped.position(HEADER_BYTES).slice());
+      }
+      log.warn("Discarding the snapshot at {}: {}", file, problem);
+    } catch (IOException | RuntimeException err) {
+      log.warn("Discarding the snapshot at {}: it couldn't be read", file, err);
+    }
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException err) {
+      log.warn("Couldn't delete the snapshot at {}", file, err);
+    }
+    return null;
+  }
+
+  private String checkHeader(final ByteBuffer buffer, final int magic) {
+    if (buffer.remaining() < HEADER_BYTES || buffer.getInt(0) != magic) {
+      return "not a snapshot file";
+    }
+    int version = buffer.getInt(Integer.BYTES);
+    if (version != FORMAT_VERSION) {
+      return "format version " + version + " instead of " + FORMAT_VERSION;
+    }
+    long writtenAt = buffer.getLong(2 * Integer.BYTES);
+    if (System.currentTimeMillis() - writtenAt > maxAgeMillis) {
+      return "written at " + new Date(writtenAt) + ", which is too long ago";
+    }
+    long length = buffer.getLong(2 * Integer.BYTES + Long.BYTES);
+    if (length != buffer.capacity() - HEADER_BYTES) {
+      return "truncated";
+    }
+    CRC32 crc = new CRC32();
+    crc.update(buffer.duplicate().position(HEADER_BYTES));
+    if (crc.getValue() != buffer.getLong(2 * Integer.BYTES + 2 * Long.BYTES)) {
+      return "checksum mismatch";
+    }
+    return null;
+  }
+
+  private void writeSymbols(final List<IexSymbol> symbols, final DataOutputStream out)
+      throws IOException {
+    out.writeInt(symbols.size());
+    for (IexSymbol symbol : symbols) {
+      writeString(symbol.getSymbol(), out);
+      writeString(symbol.getName(), out);
+      out.writeLong(symbol.getDate() == null ? Long.MIN_VALUE : symbol.getDate().getTime());
+      out.writeBoolean(symbol.isEnabled());
+      writeString(symbol.getType(), out);
+      writeString(symbol.getIexId(), out);
+    }
+  }
+
+  private List<IexSymbol> readSymbols(final ByteBuffer buffer) {
+    int count = buffer.getInt();
+    List<IexSymbol> symbols = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      String symbol = readString(buffer);
+      String name = readString(buffer);
+      long date = buffer.getLong();
+      symbols.add(IexSymbol.builder()
+          .symbol(symbol)
+          .name(name)
+          .date(date == Long.MIN_VALUE ? null : new Date(date))
+          .isEnabled(buffer.get() != 0)
+          .type(readString(buffer))
+          .iexId(readString(buffer))
+          .build());
+    }
+    return symbols;
+  }
+
+  /*
+   * The number of series, then the offset of each one from the start of the payload, then the
+   * series themselves, so they can be decoded independently.
+   */
+  private void writeHistoricalPrices(final List<HistoricalPriceSeries> series,
+      final DataOutputStream out) throws IOException {
+    out.writeInt(series.size());
+    long offset = Integer.BYTES + (long) series.size() * Long.BYTES;
+    for (HistoricalPriceSeries one : series) {
+      out.writeLong(offset);
+      offset += one.serializedSize();
+    }
+    for (HistoricalPriceSeries one : series) {
+      one.writeTo(out);
+    }
+  }
+
+  private List<HistoricalPriceSeries> readHistoricalPrices(final ByteBuffer buffer) {
+    int count = buffer.getInt();
+    long[] offsets = new long[count];
+    buffer.asLongBuffer().get(offsets);
+    return IntStream.range(0, count).parallel()
+        .mapToObj(i -> HistoricalPriceSeries.readFrom(
+            buffer.duplicate().position(Math.toIntExact(offsets[i]))))
+        .collect(Collectors.toList());
+  }
+
+  private static void writeString(final String value, final DataOutputStream out)
+      throws IOException {
+    if (value == null) {
+      out.writeShort(-1);
+    } else {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      out.writeShort(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static String readString(final ByteBuffer buffer) {
+    short length = buffer.getShort();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  @FunctionalInterface
+  private interface PayloadWriter {
+
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  @FunctionalInterface
+  private interface PayloadReader<T> {
+
+    T read(ByteBuffer payload);
+  }
+}
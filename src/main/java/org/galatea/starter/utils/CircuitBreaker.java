@@ -0,0 +1,187 @@
+package org.galatea.starter.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A circuit breaker for calls to an upstream service. After a run of consecutive failures the
+ * circuit opens, and calls are refused straight away instead of each waiting on a service that is
+ * down. Once the open period has passed, a single trial call is let through: if it succeeds the
+ * circuit closes, and if it fails the circuit opens again for another period.
+ *
+ * <p>Callers ask {@link #tryAcquire()} before each call and report how it went with
+ * {@link #onSuccess()}, {@link #onFailure()} or, for a call that was never made,
+ * {@link #onCancelled()}.
+ *
+ * <p>Publishes {@code <name>.transitions} tagged with the state moved to, and the gauge
+ * {@code <name>.state}: 0 closed, 1 open, 2 half open. Both carry any tags the breaker was created
+ * with, so that breakers sharing a name are told apart.
+ */
+@Slf4j
+public class CircuitBreaker {
+
+  /**
+   * Whether calls are let through.
+   */
+  public enum State {
+
+    /**
+     * Calls are let through.
+     */
+    CLOSED,
+
+    /**
+     * Calls are refused until the open period has passed.
+     */
+    OPEN,
+
+    /**
+     * One trial call is let through to find out whether the service is back.
+     */
+    HALF_OPEN
+  }
+
+  private final String name;
+
+  private final Tags tags;
+
+  /* The name and tags, for logging */
+  private final String label;
+
+  private final int failureThreshold;
+
+  private final long openNanos;
+
+  private final Map<State, Counter> transitions = new EnumMap<>(State.class);
+
+  /* Guarded by this */
+  private State state = State.CLOSED;
+
+  /* Guarded by this */
+  private int consecutiveFailures;
+
+  /* Guarded by this */
+  private long openedAtNanos;
+
+  /* Guarded by this */
+  private boolean trialInFlight;
+
+  /**
+   * Create a closed circuit whose metrics are registered under the given name.
+   *
+   * @param failureThreshold consecutive failures that open the circuit.
+   * @param openMillis how long the circuit stays open before a trial call is let through.
+   */
+  public CircuitBreaker(final MeterRegistry meterRegistry, final String name,
+      final int failureThreshold, final long openMillis) {
+    this(meterRegistry, name, Tags.empty(), failureThreshold, openMillis);
+  }
+
+  /**
+   * Create a closed circuit whose metrics are registered under the given name and tags.
+   *
+   * @param failureThreshold consecutive failures that open the circuit.
+   * @param openMillis how long the circuit stays open before a trial call is let through.
+   */
+  public CircuitBreaker(final MeterRegistry meterRegistry, final String name,
+      final Iterable<Tag> tags, final int failureThreshold, final long openMillis) {
+    if (failureThreshold < 1) {
+      throw new IllegalArgumentException("A circuit breaker needs a positive failure threshold");
+    }
+    this.name = name;
+    this.tags = Tags.of(tags);
+    this.label = this.tags.iterator().hasNext() ? this.tags.stream()
+        .map(tag -> tag.getKey() + "=" + tag.getValue())
+        .collect(Collectors.joining(",", name + "{", "}")) : name;
+    this.failureThreshold = failureThreshold;
+    this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    for (State to : State.values()) {
+      transitions.put(to, meterRegistry.counter(name + ".transitions",
+          this.tags.and("to", to.name().toLowerCase(Locale.ROOT))));
+    }
+    meterRegistry.gauge(name + ".state", this.tags, this,
+        breaker -> breaker.getState().ordinal());
+  }
+
+  /**
+   * Ask to make a call.
+   *
+   * @return true if the call may be made, in which case its outcome must be reported.
+   */
+  public synchronized boolean tryAcquire() {
+    switch (state) {
+      case CLOSED:
+        return true;
+      case OPEN:
+        if (System.nanoTime() - openedAtNanos < openNanos) {
+          return false;
+        }
+        moveTo(State.HALF_OPEN);
+        trialInFlight = true;
+        return true;
+      case HALF_OPEN:
+        if (trialInFlight) {
+          return false;
+        }
+        trialInFlight = true;
+        return true;
+      default:
+        throw new IllegalStateException("Unknown circuit state " + state);
+    }
+  }
+
+  /**
+   * Report a call that succeeded. Closes the circuit if it wasn't already.
+   */
+  public synchronized void onSuccess() {
+    consecutiveFailures = 0;
+    trialInFlight = false;
+    if (state != State.CLOSED) {
+      moveTo(State.CLOSED);
+    }
+  }
+
+  /**
+   * Report a call that failed. Opens the circuit if the trial call failed or the failure
+   * threshold has been reached.
+   */
+  public synchronized void onFailure() {
+    consecutiveFailures++;
+    trialInFlight = false;
+    if (state == State.HALF_OPEN
+        || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+      openedAtNanos = System.nanoTime();
+      moveTo(State.OPEN);
+    }
+  }
+
+  /**
+   * Report a call that was let through but never made, so says nothing about the service.
+   */
+  public synchronized void onCancelled() {
+    trialInFlight = false;
+  }
+
+  /**
+   * Get the current state. An open circuit whose period has passed stays open until the next
+   * call asks to be let through.
+   */
+  public synchronized State getState() {
+    return state;
+  }
+
+  private void moveTo(final State to) {
+    log.info("{} circuit moved from {} to {} after {} consecutive failures", label, state, to,
+        consecutiveFailures);
+    state = to;
+    transitions.get(to).increment();
+  }
+}
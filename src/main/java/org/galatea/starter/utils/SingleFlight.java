@@ -0,0 +1,99 @@
+package org.galatea.starter.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Makes sure that at most one call per key is in flight at a time. The first caller for a key
+ * runs the call on its own thread; everyone who asks for the same key while it is running waits
+ * for and shares that caller's result (or exception) instead of issuing the call again.
+ *
+ * <p>Results are not kept once the call completes, so this is not a cache: the next caller after
+ * completion issues a new call.
+ *
+ * <p>Counts issued and coalesced calls in the counter {@code <name>} tagged with
+ * {@code call=issued} and {@code call=coalesced}.
+ *
+ * @param <K> the key identifying identical calls.
+ * @param <V> the result of a call.
+ */
+@Slf4j
+public class SingleFlight<K, V> {
+
+  private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+  private final Counter issued;
+
+  private final Counter coalesced;
+
+  /**
+   * Create a single flight group whose counters are registered under the given name.
+   */
+  public SingleFlight(final MeterRegistry meterRegistry, final String name) {
+    this.issued = meterRegistry.counter(name, "call", "issued");
+    this.coalesced = meterRegistry.counter(name, "call", "coalesced");
+  }
+
+  /**
+   * Run the call for the key, or wait for the identical call that is already running.
+   *
+   * @param key identifies the call.
+   * @param call the call to run if none is in flight for the key.
+   * @return the result of the call, shared with every caller that was coalesced into it.
+   */
+  public V execute(final K key, final Supplier<V> call) {
+    CompletableFuture<V> mine = new CompletableFuture<>();
+    CompletableFuture<V> running = inFlight.putIfAbsent(key, mine);
+    if (running != null) {
+      coalesced.increment();
+      log.debug("Waiting for in-flight call for {}", key);
+      return await(running);
+    }
+
+    issued.increment();
+    try {
+      V result = call.get();
+      mine.complete(result);
+      return result;
+    } catch (RuntimeException | Error err) {
+      mine.completeExceptionally(err);
+      throw err;
+    } finally {
+      inFlight.remove(key, mine);
+    }
+  }
+
+  /**
+   * Number of calls that were actually run.
+   */
+  public long getIssuedCount() {
+    return (long) issued.count();
+  }
+
+  /**
+   * Number of calls that waited for another caller's result instead of running.
+   */
+  public long getCoalescedCount() {
+    return (long) coalesced.count();
+  }
+
+  private V await(final CompletableFuture<V> running) {
+    try {
+      return running.join();
+    } catch (CompletionException err) {
+      // Rethrow what the issuing caller saw rather than the wrapper
+      if (err.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) err.getCause();
+      } else if (err.getCause() instanceof Error) {
+        throw (Error) err.getCause();
+      }
+      throw err;
+    }
+  }
+}
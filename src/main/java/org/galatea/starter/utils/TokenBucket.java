@@ -0,0 +1,154 @@
+package org.galatea.starter.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A token bucket rate limiter. Permits are added at a steady rate up to a burst size, and a caller
+ * that finds the bucket empty queues for the next permit, up to a timeout.
+ *
+ * <p>Callers have a {@link Priority}. While an interactive caller is queued, background callers
+ * don't get permits, so a bulk job slows down instead of making users wait.
+ *
+ * <p>Publishes {@code <name>.permits} tagged with the priority and {@code result=used} or
+ * {@code result=rejected}, and the gauge {@code <name>.queued} tagged with the priority.
+ */
+@Slf4j
+public class TokenBucket {
+
+  /**
+   * Who a permit is for.
+   */
+  public enum Priority {
+
+    /**
+     * Someone is waiting on the result, e.g. a REST request.
+     */
+    INTERACTIVE,
+
+    /**
+     * Nobody is waiting on the result, e.g. a scheduled backfill.
+     */
+    BACKGROUND
+  }
+
+  private final String name;
+
+  private final double permitsPerNano;
+
+  private final double burst;
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final Condition permitAdded = lock.newCondition();
+
+  private final Map<Priority, AtomicInteger> queued = new EnumMap<>(Priority.class);
+
+  private final Map<Priority, Counter> used = new EnumMap<>(Priority.class);
+
+  private final Map<Priority, Counter> rejected = new EnumMap<>(Priority.class);
+
+  /* Guarded by lock */
+  private double permits;
+
+  /* Guarded by lock */
+  private long refilledAtNanos;
+
+  /**
+   * Create a full bucket whose metrics are registered under the given name.
+   *
+   * @param permitsPerSecond the steady rate permits are added at.
+   * @param burst the most permits the bucket holds, i.e. the most that can be taken at once
+   *     after a quiet spell.
+   */
+  public TokenBucket(final MeterRegistry meterRegistry, final String name,
+      final double permitsPerSecond, final int burst) {
+    if (permitsPerSecond <= 0 || burst < 1) {
+      throw new IllegalArgumentException("A token bucket needs a positive rate and burst");
+    }
+    this.name = name;
+    this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+    this.burst = burst;
+    this.permits = burst;
+    this.refilledAtNanos = System.nanoTime();
+    for (Priority priority : Priority.values()) {
+      String tag = priority.name().toLowerCase(Locale.ROOT);
+      queued.put(priority, meterRegistry.gauge(name + ".queued",
+          Tags.of("priority", tag), new AtomicInteger()));
+      used.put(priority, meterRegistry.counter(name + ".permits", "priority", tag,
+          "result", "used"));
+      rejected.put(priority, meterRegistry.counter(name + ".permits", "priority", tag,
+          "result", "rejected"));
+    }
+  }
+
+  /**
+   * Take a permit, waiting for one if the bucket is empty.
+   *
+   * @param priority who the permit is for.
+   * @param timeout the longest to wait for a permit.
+   * @return true if a permit was taken, false if none became free within the timeout.
+   */
+  public boolean tryAcquire(final Priority priority, final long timeout, final TimeUnit unit)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    AtomicInteger waiting = queued.get(priority);
+    lock.lock();
+    waiting.incrementAndGet();
+    try {
+      while (true) {
+        long now = System.nanoTime();
+        refill(now);
+        if (permits >= 1 && mayTake(priority)) {
+          permits--;
+          used.get(priority).increment();
+          if (permits >= 1) {
+            // Someone of the other priority may be able to go now
+            permitAdded.signalAll();
+          }
+          return true;
+        }
+
+        long remaining = deadline - now;
+        if (remaining <= 0) {
+          rejected.get(priority).increment();
+          log.debug("No {} permit for a {} call within the timeout", name, priority);
+          return false;
+        }
+        long untilNextPermit = permits >= 1 ? remaining
+            : (long) Math.ceil((1 - permits) / permitsPerNano);
+        permitAdded.awaitNanos(Math.min(remaining, Math.max(untilNextPermit, 1)));
+      }
+    } finally {
+      waiting.decrementAndGet();
+      // A background caller may have been held back only by this one
+      permitAdded.signalAll();
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Number of callers waiting for a permit with the given priority.
+   */
+  public int getQueued(final Priority priority) {
+    return queued.get(priority).get();
+  }
+
+  private boolean mayTake(final Priority priority) {
+    return priority == Priority.INTERACTIVE || queued.get(Priority.INTERACTIVE).get() == 0;
+  }
+
+  private void refill(final long now) {
+    permits = Math.min(burst, permits + (now - refilledAtNanos) * permitsPerNano);
+    refilledAtNanos = now;
+  }
+}
@@ -0,0 +1,87 @@
+package org.galatea.starter.utils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads, on JDKs that have them (21 and later). The project builds for Java 11, so the
+ * JDK's API is reached reflectively; on an older JDK {@link #isAvailable()} is false and the other
+ * methods throw.
+ */
+public class VirtualThreads {
+
+  /* Thread.ofVirtual(), Thread.Builder.name(String, long) and Thread.Builder.factory() */
+  private static final Method OF_VIRTUAL;
+
+  private static final Method NAME;
+
+  private static final Method FACTORY;
+
+  /* Executors.newThreadPerTaskExecutor(ThreadFactory) */
+  private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+  static {
+    Method ofVirtual = null;
+    Method name = null;
+    Method factory = null;
+    Method newThreadPerTaskExecutor = null;
+    try {
+      ofVirtual = Thread.class.getMethod("ofVirtual");
+      Class<?> builder = Class.forName("java.lang.Thread$Builder");
+      name = builder.getMethod("name", String.class, long.class);
+      factory = builder.getMethod("factory");
+      newThreadPerTaskExecutor =
+          Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+    } catch (ReflectiveOperationException err) {
+      ofVirtual = null;
+    }
+    OF_VIRTUAL = ofVirtual;
+    NAME = name;
+    FACTORY = factory;
+    NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+  }
+
+  private VirtualThreads() {}
+
+  /**
+   * Return true if this JDK has virtual threads.
+   */
+  public static boolean isAvailable() {
+    return OF_VIRTUAL != null;
+  }
+
+  /**
+   * Get a factory of virtual threads named with the given prefix and a counter.
+   *
+   * @throws IllegalStateException if this JDK doesn't have virtual threads.
+   */
+  public static ThreadFactory newThreadFactory(final String namePrefix) {
+    if (!isAvailable()) {
+      throw new IllegalStateException("Virtual threads need JDK 21 or later, this is "
+          + System.getProperty("java.version"));
+    }
+    try {
+      Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), namePrefix, 0L);
+      return (ThreadFactory) FACTORY.invoke(builder);
+    } catch (IllegalAccessException | InvocationTargetException err) {
+      throw new IllegalStateException("Couldn't create a virtual thread factory", err);
+    }
+  }
+
+  /**
+   * Get an executor that runs every task on a new virtual thread named with the given prefix.
+   *
+   * @throws IllegalStateException if this JDK doesn't have virtual threads.
+   */
+  public static ExecutorService newThreadPerTaskExecutor(final String namePrefix) {
+    ThreadFactory threadFactory = newThreadFactory(namePrefix);
+    try {
+      return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, threadFactory);
+    } catch (IllegalAccessException | InvocationTargetException err) {
+      throw new IllegalStateException("Couldn't create a virtual thread executor", err);
+    }
+  }
+}
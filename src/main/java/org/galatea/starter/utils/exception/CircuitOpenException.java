@@ -0,0 +1,16 @@
+package org.galatea.starter.utils.exception;
+
+/**
+ * Thrown instead of calling an upstream service whose circuit breaker is open.
+ */
+public class CircuitOpenException extends RuntimeException {
+
+  /**
+   * Exception indicating a call was refused because the service is considered down.
+   *
+   * @param message exception message
+   */
+  public CircuitOpenException(final String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,16 @@
+package org.galatea.starter.utils.exception;
+
+/**
+ * Thrown when a call to an upstream service couldn't get a permit from its rate limiter in time.
+ */
+public class RateLimitExceededException extends RuntimeException {
+
+  /**
+   * Exception indicating a call was rejected rather than sent over the rate limit.
+   *
+   * @param message exception message
+   */
+  public RateLimitExceededException(final String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,78 @@
+package org.galatea.starter.utils.http;
+
+import feign.Client;
+import feign.FeignException;
+import feign.Request;
+import feign.Response;
+import feign.RetryableException;
+import java.io.IOException;
+import lombok.NonNull;
+import org.galatea.starter.utils.CircuitBreaker;
+import org.galatea.starter.utils.exception.CircuitOpenException;
+import org.galatea.starter.utils.exception.RateLimitExceededException;
+
+/**
+ * A Feign client that passes requests through a {@link CircuitBreaker}. While the circuit is open
+ * requests fail straight away with a {@link CircuitOpenException} instead of waiting out the
+ * timeouts of a service that is down.
+ *
+ * <p>Connection errors, timeouts and 5xx or 429 responses count as failures. Requests refused by
+ * a client side rate limiter were never sent, so don't count either way.
+ */
+public class CircuitBreakingClient implements Client {
+
+  private final Client delegate;
+
+  private final CircuitBreaker circuitBreaker;
+
+  /**
+   * Wrap a client.
+   */
+  public CircuitBreakingClient(@NonNull final Client delegate,
+      @NonNull final CircuitBreaker circuitBreaker) {
+    this.delegate = delegate;
+    this.circuitBreaker = circuitBreaker;
+  }
+
+  @Override
+  public Response execute(final Request request, final Request.Options options)
+      throws IOException {
+    if (!circuitBreaker.tryAcquire()) {
+      throw new CircuitOpenException("Upstream is unavailable, not calling " + request.url());
+    }
+    Response response;
+    try {
+      response = delegate.execute(request, options);
+    } catch (RateLimitExceededException err) {
+      circuitBreaker.onCancelled();
+      throw err;
+    } catch (IOException | RuntimeException err) {
+      circuitBreaker.onFailure();
+      throw err;
+    }
+    if (isFailure(response.status())) {
+      circuitBreaker.onFailure();
+    } else {
+      circuitBreaker.onSuccess();
+    }
+    return response;
+  }
+
+  /**
+   * Check whether an error from a Feign client means the upstream service is out rather than that
+   * the request was wrong: the circuit is open, the client side rate limiter refused the request,
+   * the request couldn't be sent or timed out, or the service answered with a 5xx or 429. Other
+   * errors, e.g. a 404 for an unknown symbol or a 401 for a bad token, are the caller's to handle.
+   */
+  public static boolean isOutage(final RuntimeException err) {
+    if (err instanceof CircuitOpenException || err instanceof RateLimitExceededException
+        || err instanceof RetryableException) {
+      return true;
+    }
+    return err instanceof FeignException && isFailure(((FeignException) err).status());
+  }
+
+  private static boolean isFailure(final int status) {
+    return status >= 500 || status == 429;
+  }
+}
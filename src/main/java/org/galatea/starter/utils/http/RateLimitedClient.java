@@ -0,0 +1,105 @@
+package org.galatea.starter.utils.http;
+
+import feign.Client;
+import feign.Request;
+import feign.Response;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import lombok.NonNull;
+import org.galatea.starter.utils.TokenBucket;
+import org.galatea.starter.utils.TokenBucket.Priority;
+import org.galatea.starter.utils.exception.RateLimitExceededException;
+
+/**
+ * A Feign client that takes a permit from a {@link TokenBucket} before every request, so that all
+ * the Feign clients sharing it stay within one upstream quota.
+ *
+ * <p>Requests are interactive unless made inside {@link #callAs(Priority, Supplier)}. The priority
+ * belongs to the thread, so executors that make requests on behalf of their callers must carry it
+ * over with {@link #withCurrentPriority(Runnable)}. A request that can't get a permit within its
+ * priority's timeout fails with a {@link RateLimitExceededException} and is never sent.
+ */
+public class RateLimitedClient implements Client {
+
+  private static final ThreadLocal<Priority> PRIORITY =
+      ThreadLocal.withInitial(() -> Priority.INTERACTIVE);
+
+  private final Client delegate;
+
+  private final TokenBucket tokenBucket;
+
+  private final long interactiveTimeoutMillis;
+
+  private final long backgroundTimeoutMillis;
+
+  /**
+   * Wrap a client.
+   *
+   * @param interactiveTimeoutMillis how long an interactive request queues for a permit.
+   * @param backgroundTimeoutMillis how long a background request queues for a permit.
+   */
+  public RateLimitedClient(@NonNull final Client delegate, @NonNull final TokenBucket tokenBucket,
+      final long interactiveTimeoutMillis, final long backgroundTimeoutMillis) {
+    this.delegate = delegate;
+    this.tokenBucket = tokenBucket;
+    this.interactiveTimeoutMillis = interactiveTimeoutMillis;
+    this.backgroundTimeoutMillis = backgroundTimeoutMillis;
+  }
+
+  /**
+   * Make the requests inside the call with the given priority.
+   *
+   * @return the call's result.
+   */
+  public static <T> T callAs(final Priority priority, final Supplier<T> call) {
+    Priority previous = PRIORITY.get();
+    PRIORITY.set(priority);
+    try {
+      return call.get();
+    } finally {
+      PRIORITY.set(previous);
+    }
+  }
+
+  /**
+   * Wrap a task so that the requests it makes have the priority of the thread wrapping it, rather
+   * than that of whichever thread runs it. Can be used as an executor's TaskDecorator.
+   *
+   * @return the wrapped task.
+   */
+  public static Runnable withCurrentPriority(final Runnable task) {
+    Priority priority = PRIORITY.get();
+    return () -> callAs(priority, () -> {
+      task.run();
+      return null;
+    });
+  }
+
+  /**
+   * Get the priority requests made by this thread have right now.
+   */
+  public static Priority currentPriority() {
+    return PRIORITY.get();
+  }
+
+  @Override
+  public Response execute(final Request request, final Request.Options options)
+      throws IOException {
+    Priority priority = PRIORITY.get();
+    long timeoutMillis = priority == Priority.INTERACTIVE ? interactiveTimeoutMillis
+        : backgroundTimeoutMillis;
+    boolean permitted;
+    try {
+      permitted = tokenBucket.tryAcquire(priority, timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException err) {
+      Thread.currentThread().interrupt();
+      throw new RateLimitExceededException("Interrupted waiting to call " + request.url());
+    }
+    if (!permitted) {
+      throw new RateLimitExceededException("Upstream rate limit reached, no permit to call "
+          + request.url() + " within " + timeoutMillis + "ms");
+    }
+    return delegate.execute(request, options);
+  }
+}
@@ -1,14 +1,32 @@
 package org.galatea.starter.utils.http.converter;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.dataformat.csv.CsvMapper;
 import com.fasterxml.jackson.dataformat.csv.CsvSchema;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class CsvSerializer {
 
+  // Building the mapper and introspecting a class for its schema are by far the most expensive
+  // parts of writing a small document, and both are thread safe once built, so they are shared
+  private static final CsvMapper MAPPER = new CsvMapper();
+
+  private static final Map<Class<?>, ObjectWriter> WRITERS = new ConcurrentHashMap<>();
+
+  static {
+    MAPPER.disable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY);
+  }
+
   private CsvSerializer() {}
 
   /**
@@ -27,15 +45,45 @@ public class CsvSerializer {
    */
   public static <T> String serializeToCsv(final Iterable<T> rows, final Class<T> clazz)
       throws IOException {
-    // Note that Jackson CSV doesn't work on objects with fields that hold complex objects
-    // See https://github.com/FasterXML/jackson-dataformat-csv/issues/9
-    CsvMapper mapper = new CsvMapper();
-    mapper.disable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY);
-    // Jackson CSV uses the property names for the header row by default. To have a custom header
-    // for one or more columns, see
-    // https://stackoverflow.com/questions/40221223/jackson-dataformat-csv-are-custom-column-names-possible
-    CsvSchema schema = mapper.schemaFor(clazz).withHeader();
-    return mapper.writer(schema).writeValueAsString(rows);
+    return writerFor(clazz).writeValueAsString(rows);
     // See CsvWriterTest for examples of Jackson CSV behavior
   }
+
+  /**
+   * Write the given objects to the given stream as a CSV document, one row at a time as they are
+   * iterated, so that the document is never held in memory. The same document as serializeToCsv
+   * is written.
+   *
+   * @param rows the objects that should be written as rows, in order
+   * @param clazz the class that is the type of the row data
+   * @param out the stream to write to. It is flushed at the end, but not closed.
+   * @param <T> the type of the row data
+   */
+  public static <T> void writeCsv(final Iterator<T> rows, final Class<T> clazz,
+      final OutputStream out) throws IOException {
+    try (SequenceWriter writer = writerFor(clazz).writeValues(out)) {
+      while (rows.hasNext()) {
+        writer.write(rows.next());
+      }
+    }
+  }
+
+  /*
+   * The writer for a class, with its schema, built the first time the class is written.
+   */
+  private static ObjectWriter writerFor(final Class<?> clazz) {
+    return WRITERS.computeIfAbsent(clazz, type -> {
+      log.info("Building the CSV schema for {}", type.getSimpleName());
+      // Note that Jackson CSV doesn't work on objects with fields that hold complex objects
+      // See https://github.com/FasterXML/jackson-dataformat-csv/issues/9
+      // Jackson CSV uses the property names for the header row by default. To have a custom header
+      // for one or more columns, see
+      // https://stackoverflow.com/questions/40221223/jackson-dataformat-csv-are-custom-column-names-possible
+      CsvSchema schema = MAPPER.schemaFor(type).withHeader();
+      return MAPPER.writer(schema)
+          // The caller owns the stream, and flushing every row would send one packet per row
+          .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+          .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    });
+  }
 }
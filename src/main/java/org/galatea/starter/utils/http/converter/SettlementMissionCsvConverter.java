@@ -1,11 +1,12 @@
 package org.galatea.starter.utils.http.converter;
 
 import java.io.IOException;
+import java.util.stream.Stream;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.Charsets;
 import org.galatea.starter.MvcConfig;
 import org.galatea.starter.domain.SettlementMission;
 import org.galatea.starter.entrypoint.messagecontracts.SettlementMissionList;
+import org.galatea.starter.entrypoint.messagecontracts.SettlementMissionStream;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpInputMessage;
 import org.springframework.http.HttpOutputMessage;
@@ -13,12 +14,13 @@ import org.springframework.http.MediaType;
 import org.springframework.http.converter.AbstractHttpMessageConverter;
 
 /**
- * Custom HttpMessageConverter implementation to automatically convert a SettlementMissionList to an
- * CSV document when returning the SettlementMissionList in an HTTP response.
+ * Custom HttpMessageConverter implementation to automatically convert a SettlementMissionList or a
+ * SettlementMissionStream to an CSV document when returning it in an HTTP response. Rows are
+ * written straight to the response body as they are serialized, so a SettlementMissionStream of
+ * any size is written in constant memory.
  */
 @Slf4j
-public class SettlementMissionCsvConverter
-    extends AbstractHttpMessageConverter<SettlementMissionList> {
+public class SettlementMissionCsvConverter extends AbstractHttpMessageConverter<Object> {
 
   /**
    * Construct a SettlementMissionCsvConverter that supports a CSV MediaType.
@@ -38,25 +40,31 @@ public class SettlementMissionCsvConverter
     // Use .isAssignableFrom() instead of .equals() if this converter can support subclasses
     // Be careful using .isAssignableFrom(), because new subclasses may be added in the future that
     // aren't supported by the conversion logic in this converter
-    return SettlementMissionList.class.equals(clazz);
+    return SettlementMissionList.class.equals(clazz)
+        || SettlementMissionStream.class.equals(clazz);
   }
 
   @Override
-  protected SettlementMissionList readInternal(
-      final Class<? extends SettlementMissionList> clazz,
-      final HttpInputMessage inputMessage) throws IOException {
+  protected Object readInternal(final Class<?> clazz, final HttpInputMessage inputMessage)
+      throws IOException {
     throw new UnsupportedOperationException(
-        "Reading CSV to SettlementMissionList is not supported");
+        "Reading CSV to " + clazz.getSimpleName() + " is not supported");
   }
 
   @Override
-  protected void writeInternal(final SettlementMissionList settlementMissionList,
-      final HttpOutputMessage outputMessage) throws IOException {
-    log.info("Converting SettlementMissionList to CSV for HTTP response");
-    outputMessage.getBody().write(CsvSerializer.serializeToCsv(
-        settlementMissionList.getSettlementMissions(), SettlementMission.class)
-        .getBytes(Charsets.UTF_8));
-    log.info("Converted SettlementMissionList to CSV");
+  protected void writeInternal(final Object missions, final HttpOutputMessage outputMessage)
+      throws IOException {
+    log.info("Converting {} to CSV for HTTP response", missions.getClass().getSimpleName());
+    if (missions instanceof SettlementMissionStream) {
+      try (Stream<SettlementMission> rows =
+          ((SettlementMissionStream) missions).getSettlementMissions()) {
+        CsvSerializer.writeCsv(rows.iterator(), SettlementMission.class, outputMessage.getBody());
+      }
+    } else {
+      CsvSerializer.writeCsv(((SettlementMissionList) missions).getSettlementMissions().iterator(),
+          SettlementMission.class, outputMessage.getBody());
+    }
+    log.info("Converted {} to CSV", missions.getClass().getSimpleName());
   }
 
   /**
@@ -66,7 +74,7 @@ public class SettlementMissionCsvConverter
   // needed when modifying headers
   @Override
   protected void addDefaultHeaders(final HttpHeaders headers,
-      final SettlementMissionList messages,
+      final Object messages,
       final MediaType contentType) throws IOException {
     super.addDefaultHeaders(headers, messages, contentType);
     // Adding this header tells the browser to automatically download the response body
@@ -1,10 +1,12 @@
 package org.galatea.starter.utils.http.converter;
 
 import java.io.IOException;
+import java.util.stream.Stream;
 import lombok.extern.slf4j.Slf4j;
 import org.galatea.starter.MvcConfig;
 import org.galatea.starter.domain.SettlementMission;
 import org.galatea.starter.entrypoint.messagecontracts.SettlementMissionList;
+import org.galatea.starter.entrypoint.messagecontracts.SettlementMissionStream;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpInputMessage;
 import org.springframework.http.HttpOutputMessage;
@@ -12,13 +14,13 @@ import org.springframework.http.MediaType;
 import org.springframework.http.converter.AbstractHttpMessageConverter;
 
 /**
- * Custom HttpMessageConverter implementation to automatically convert a SettlementMissionList to an
- * XLSX spreadsheet when returning the SettlementMissionList in an HTTP response.
+ * Custom HttpMessageConverter implementation to automatically convert a SettlementMissionList or a
+ * SettlementMissionStream to an XLSX spreadsheet when returning it in an HTTP response. The
+ * spreadsheet is written straight to the response body, holding only a window of rows in memory.
  */
 // See comments throughout SettlementMissionCsvConverter
 @Slf4j
-public class SettlementMissionXlsxConverter
-    extends AbstractHttpMessageConverter<SettlementMissionList> {
+public class SettlementMissionXlsxConverter extends AbstractHttpMessageConverter<Object> {
 
   /**
    * Construct a SettlementMissionXlsxConverter that supports an Excel MediaType.
@@ -29,24 +31,32 @@ public class SettlementMissionXlsxConverter
 
   @Override
   protected boolean supports(final Class<?> clazz) {
-    return SettlementMissionList.class.equals(clazz);
+    return SettlementMissionList.class.equals(clazz)
+        || SettlementMissionStream.class.equals(clazz);
   }
 
   @Override
-  protected SettlementMissionList readInternal(
-      final Class<? extends SettlementMissionList> clazz,
-      final HttpInputMessage inputMessage) throws IOException {
+  protected Object readInternal(final Class<?> clazz, final HttpInputMessage inputMessage)
+      throws IOException {
     throw new UnsupportedOperationException(
-        "Reading XLSX to SettlementMissionList is not supported");
+        "Reading XLSX to " + clazz.getSimpleName() + " is not supported");
   }
 
   @Override
-  protected void writeInternal(final SettlementMissionList settlementMissionList,
-      final HttpOutputMessage outputMessage) throws IOException {
-    log.info("Converting SettlementMissionList to XLSX for HTTP response");
-    outputMessage.getBody().write(XlsxSerializer.serializeToXlsx(
-        settlementMissionList.getSettlementMissions(), SettlementMission.class));
-    log.info("Converted SettlementMissionList to XLSX");
+  protected void writeInternal(final Object missions, final HttpOutputMessage outputMessage)
+      throws IOException {
+    log.info("Converting {} to XLSX for HTTP response", missions.getClass().getSimpleName());
+    if (missions instanceof SettlementMissionStream) {
+      try (Stream<SettlementMission> rows =
+          ((SettlementMissionStream) missions).getSettlementMissions()) {
+        XlsxSerializer.writeXlsx(rows.iterator(), SettlementMission.class, outputMessage.getBody());
+      }
+    } else {
+      XlsxSerializer.writeXlsx(
+          ((SettlementMissionList) missions).getSettlementMissions().iterator(),
+          SettlementMission.class, outputMessage.getBody());
+    }
+    log.info("Converted {} to XLSX", missions.getClass().getSimpleName());
   }
 
   /**
@@ -54,7 +64,7 @@ public class SettlementMissionXlsxConverter
    */
   @Override
   protected void addDefaultHeaders(final HttpHeaders headers,
-      final SettlementMissionList messages,
+      final Object messages,
       final MediaType contentType) throws IOException {
     super.addDefaultHeaders(headers, messages, contentType);
     headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=SettlementMissions.xlsx");
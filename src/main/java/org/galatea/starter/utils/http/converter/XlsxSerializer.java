@@ -4,32 +4,55 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.AllArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.reflect.FieldUtils;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 
 @Slf4j
 // See XlsxSerializerTest for example output
 public class XlsxSerializer {
 
+  /**
+   * Rows kept in memory while writing; older rows are flushed to a temporary file.
+   */
+  public static final int ROW_WINDOW = 100;
+
+  private static final int DOUBLE_MANTISSA_BITS = 53;
+
+  private static final long MAX_EXACT_LONG = 1L << DOUBLE_MANTISSA_BITS;
+
+  private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+  // Resolving a class's fields, headers and accessors once, rather than reflecting per cell
+  private static final Map<Class<?>, List<Column>> COLUMNS = new ConcurrentHashMap<>();
+
   private XlsxSerializer() {}
 
   /**
    * Serialize the given objects to an XLSX spreadsheet.
    *
    * <p>Doesn't do any special handling of nested complex objects or collections in the given
-   * row objects - each field in the row object is basically toString()'ed and put in a cell.
+   * row objects - numbers that a double holds exactly are put in numeric cells, and any other
+   * field in the row object is basically toString()'ed and put in a cell.
    *
    * @param rows the row data that the spreadsheet should hold
    * @param clazz the class that is the type of the row data
@@ -38,17 +61,76 @@ public class XlsxSerializer {
    */
   public static <T> byte[] serializeToXlsx(final Iterable<T> rows, final Class<T> clazz)
       throws IOException {
+    try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+      writeXlsx(rows.iterator(), clazz, baos);
+      return baos.toByteArray();
+    } catch (IOException e) {
+      log.error("Unable to write spreadsheet to bytes", e);
+      throw e;
+    }
+  }
+
+  /**
+   * Write the given objects to the given stream as an XLSX spreadsheet, the same spreadsheet as
+   * serializeToXlsx. Only the last {@value #ROW_WINDOW} rows are held in memory: older rows are
+   * flushed to a compressed temporary file as the objects are iterated, and the spreadsheet is
+   * zipped from it into the stream once the last row is added.
+   *
+   * @param rows the objects that should be written as rows, in order
+   * @param clazz the class that is the type of the row data
+   * @param out the stream to write to. It is not closed.
+   * @param <T> the type of the row data
+   */
+  public static <T> void writeXlsx(final Iterator<T> rows, final Class<T> clazz,
+      final OutputStream out) throws IOException {
     // XSSF is used for xlsx-format spreadsheets, HSSF is used for xls-format
-    // SXSSF is the streaming version of XSSF, and is useful for working with large spreadsheets
-    try (Workbook wb = new XSSFWorkbook()) {
+    // SXSSF is the streaming version of XSSF, which can only add rows at the end of a sheet
+    SXSSFWorkbook wb = new SXSSFWorkbook(ROW_WINDOW);
+    wb.setCompressTempFiles(true);
+    try {
       Sheet sheet = wb.createSheet(clazz.getSimpleName());
-      List<Field> fieldsToSerialize = getFieldsToSerialize(clazz);
-      populateHeaderRow(sheet, getHeaderValues(fieldsToSerialize));
-      populateDataRows(sheet, fieldsToSerialize, rows);
-      return writeSpreadsheetToBytes(wb);
+      List<Column> columns = getColumns(clazz);
+      populateHeaderRow(sheet, columns);
+      populateDataRows(sheet, columns, rows);
+      wb.write(out);
+    } finally {
+      // Closing the workbook leaves the flushed rows on disk
+      wb.dispose();
+      wb.close();
     }
   }
 
+  /*
+   * The columns for a class, resolved the first time the class is written.
+   */
+  private static List<Column> getColumns(final Class<?> clazz) {
+    return COLUMNS.computeIfAbsent(clazz, type -> {
+      log.info("Resolving the XLSX columns of {}", type.getSimpleName());
+      List<Field> fields = getFieldsToSerialize(type);
+      List<String> headers = getHeaderValues(fields);
+      List<Column> columns = new ArrayList<>();
+      for (int col = 0; col < fields.size(); col++) {
+        columns.add(new Column(headers.get(col), getAccessor(fields.get(col))));
+      }
+      return columns;
+    });
+  }
+
+  /*
+   * Get a handle that reads the given field of a row, typed to take and return Object so that it
+   * can be invoked exactly whatever the field's type.
+   */
+  @SneakyThrows(IllegalAccessException.class)
+  private static MethodHandle getAccessor(final Field field) {
+    field.setAccessible(true);
+    MethodHandle getter = MethodHandles.lookup().unreflectGetter(field);
+    if (Modifier.isStatic(field.getModifiers())) {
+      // A static getter takes no row, so it is given one to ignore
+      getter = MethodHandles.dropArguments(getter, 0, Object.class);
+    }
+    return getter.asType(GETTER_TYPE);
+  }
+
   /*
    * Get a list of all fields in the given class, including inherited and private fields, but
    * excluding any @JsonIgnore'd fields.
@@ -112,32 +194,65 @@ public class XlsxSerializer {
   /*
    * Populate the first row of the given sheet using the given list of header values.
    */
-  private static void populateHeaderRow(final Sheet sheet, final List<String> headers) {
+  private static void populateHeaderRow(final Sheet sheet, final List<Column> columns) {
     Row headerRow = sheet.createRow(0);
-    for (int col = 0; col < headers.size(); col++) {
+    for (int col = 0; col < columns.size(); col++) {
       Cell headerCell = headerRow.createCell(col);
-      headerCell.setCellValue(headers.get(col));
+      headerCell.setCellValue(columns.get(col).header);
     }
   }
 
   /*
    * Populate the rows of the given sheet using the given row data.
    */
-  @SneakyThrows(IllegalAccessException.class)
-  private static <T> void populateDataRows(final Sheet sheet, final List<Field> fieldsToSerialize,
-      final Iterable<T> rows) {
+  private static <T> void populateDataRows(final Sheet sheet, final List<Column> columns,
+      final Iterator<T> rows) {
     int rowIndex = 1; // header is row 0
-    for (T row : rows) {
+    while (rows.hasNext()) {
+      Object row = rows.next();
       Row dataRow = sheet.createRow(rowIndex);
       rowIndex++;
-      for (int col = 0; col < fieldsToSerialize.size(); col++) {
+      for (int col = 0; col < columns.size(); col++) {
         Cell dataCell = dataRow.createCell(col);
-        Object cellObject = FieldUtils.readField(fieldsToSerialize.get(col), row, true);
-        dataCell.setCellValue(stringify(cellObject));
+        Object cellObject = read(columns.get(col), row);
+        if (isExactDouble(cellObject)) {
+          dataCell.setCellValue(((Number) cellObject).doubleValue());
+        } else {
+          dataCell.setCellValue(stringify(cellObject));
+        }
       }
     }
   }
 
+  /*
+   * Check whether the given object is a number that a double holds exactly. Excel holds every
+   * number as a double, so other numbers, e.g. longs above 2^53 or BigDecimals with more digits
+   * than a double keeps, are written as strings rather than silently rounded.
+   */
+  private static boolean isExactDouble(final Object obj) {
+    if (obj instanceof Integer || obj instanceof Short || obj instanceof Byte
+        || obj instanceof Float || obj instanceof Double) {
+      return true;
+    } else if (obj instanceof Long) {
+      long value = (Long) obj;
+      return value >= -MAX_EXACT_LONG && value <= MAX_EXACT_LONG;
+    } else if (obj instanceof BigInteger) {
+      return ((BigInteger) obj).bitLength() <= DOUBLE_MANTISSA_BITS;
+    } else if (obj instanceof BigDecimal) {
+      // Exact in the sense that the double reads back as the same decimal, as 0.1 does
+      BigDecimal decimal = (BigDecimal) obj;
+      double converted = decimal.doubleValue();
+      return !Double.isInfinite(converted)
+          && BigDecimal.valueOf(converted).compareTo(decimal) == 0;
+    }
+    return false;
+  }
+
+  @SneakyThrows
+  private static Object read(final Column column, final Object row) {
+    return (Object) column.accessor.invokeExact(row);
+  }
+
   /*
    * Get a useful string representation of the given object.
    */
@@ -161,13 +276,12 @@ public class XlsxSerializer {
     }
   }
 
-  private static byte[] writeSpreadsheetToBytes(final Workbook wb) throws IOException {
-    try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-      wb.write(baos);
-      return baos.toByteArray();
-    } catch (IOException e) {
-      log.error("Unable to write spreadsheet to bytes", e);
-      throw e;
-    }
+  @AllArgsConstructor
+  private static class Column {
+
+    private final String header;
+
+    /* (Object)Object */
+    private final MethodHandle accessor;
   }
 }
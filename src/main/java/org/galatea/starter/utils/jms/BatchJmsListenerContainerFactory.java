@@ -0,0 +1,38 @@
+package org.galatea.starter.utils.jms;
+
+import java.util.function.BiConsumer;
+import javax.jms.Message;
+import lombok.EqualsAndHashCode;
+import lombok.NonNull;
+import lombok.ToString;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+
+/**
+ * Creates {@link BatchMessageListenerContainer}s, for endpoints whose listener is a
+ * {@link BatchMessageListener}.
+ */
+@ToString(callSuper = true)
+@EqualsAndHashCode(callSuper = true)
+public class BatchJmsListenerContainerFactory extends FuseJmsListenerContainerFactory {
+
+  private final int maxBatchSize;
+
+  private final long maxWaitMillis;
+
+  /**
+   * Create a factory whose containers deliver up to maxBatchSize messages at a time, waiting at
+   * most maxWaitMillis after the first one for the rest.
+   */
+  public BatchJmsListenerContainerFactory(
+      @NonNull final BiConsumer<Message, Exception> failedMessageConsumer,
+      final int maxBatchSize, final long maxWaitMillis) {
+    super(failedMessageConsumer);
+    this.maxBatchSize = maxBatchSize;
+    this.maxWaitMillis = maxWaitMillis;
+  }
+
+  @Override
+  protected DefaultMessageListenerContainer createContainerInstance() {
+    return new BatchMessageListenerContainer(failedMessageConsumer, maxBatchSize, maxWaitMillis);
+  }
+}
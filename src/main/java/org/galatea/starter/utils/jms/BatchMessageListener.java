@@ -0,0 +1,28 @@
+package org.galatea.starter.utils.jms;
+
+import java.util.Collections;
+import java.util.List;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+/**
+ * A listener that handles the messages drained by a {@link BatchMessageListenerContainer} in one
+ * go. It fails the batch by throwing, in which case the container splits the batch to find the
+ * failing messages.
+ */
+@FunctionalInterface
+public interface BatchMessageListener extends MessageListener {
+
+  /**
+   * Handle a batch of messages, in the order they were received.
+   */
+  void onMessages(List<Message> messages);
+
+  /**
+   * Handle a single message as a batch of one.
+   */
+  @Override
+  default void onMessage(final Message message) {
+    onMessages(Collections.singletonList(message));
+  }
+}
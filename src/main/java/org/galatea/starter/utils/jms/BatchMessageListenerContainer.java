@@ -0,0 +1,122 @@
+package org.galatea.starter.utils.jms;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import lombok.EqualsAndHashCode;
+import lombok.NonNull;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.TransactionStatus;
+
+/**
+ * A listener container that hands its {@link BatchMessageListener} batches of messages instead of
+ * one message at a time. Each consumer waits for a first message as usual, then keeps receiving
+ * until it holds the maximum batch size or the maximum wait has passed, whichever comes first.
+ *
+ * <p>The batch is delivered in one call, and then acknowledged as a unit: with a transacted
+ * session, the whole batch is committed once it has been handled. If the listener fails, the batch
+ * is split in half and each half delivered again, down to single messages, so that one bad message
+ * doesn't fail the messages around it. Single messages that still fail go to the failed message
+ * consumer, as they would in a {@link FuseMessageListenerContainer}. A half that was handled is
+ * delivered again if the batch is then rolled back, so a listener whose work is committed outside
+ * the session, e.g. to a database, must recognise and skip messages it has already handled.
+ *
+ * <p>Listeners that aren't batch listeners get one message at a time.
+ */
+@Slf4j
+@ToString(callSuper = true)
+@EqualsAndHashCode(callSuper = true)
+public class BatchMessageListenerContainer extends FuseMessageListenerContainer {
+
+  private final int maxBatchSize;
+
+  private final long maxWaitNanos;
+
+  /**
+   * Create a container that delivers up to maxBatchSize messages at a time, waiting at most
+   * maxWaitMillis after the first one for the rest.
+   */
+  public BatchMessageListenerContainer(
+      @NonNull final BiConsumer<Message, Exception> failedMessageConsumer,
+      final int maxBatchSize, final long maxWaitMillis) {
+    super(failedMessageConsumer);
+    if (maxBatchSize < 1) {
+      throw new IllegalArgumentException("Batches need at least one message");
+    }
+    this.maxBatchSize = maxBatchSize;
+    this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+  }
+
+  @Override
+  protected boolean doReceiveAndExecute(final Object invoker, final Session session,
+      final MessageConsumer consumer, final TransactionStatus status) throws JMSException {
+    // Without a cached session and consumer, e.g. under an external transaction manager, fall
+    // back to one message at a time
+    if (session == null || consumer == null
+        || !(getMessageListener() instanceof BatchMessageListener)) {
+      return super.doReceiveAndExecute(invoker, session, consumer, status);
+    }
+
+    List<Message> batch = receiveBatch(consumer);
+    if (batch.isEmpty()) {
+      noMessageReceived(invoker, session);
+      return false;
+    }
+    messageReceived(invoker, session);
+    log.debug("Received a batch of {} messages", batch.size());
+
+    try {
+      deliver((BatchMessageListener) getMessageListener(), batch);
+    } catch (RuntimeException | Error err) {
+      // Only an Error, or a failed message consumer asking for redelivery, gets this far
+      rollbackOnExceptionIfNecessary(session, err);
+      throw err;
+    }
+    // Commits a transacted session, or acknowledges everything up to the last message
+    commitIfNecessary(session, batch.get(batch.size() - 1));
+    return true;
+  }
+
+  private List<Message> receiveBatch(final MessageConsumer consumer) throws JMSException {
+    List<Message> batch = new ArrayList<>();
+    Message message = receiveMessage(consumer);
+    if (message == null) {
+      return batch;
+    }
+    batch.add(message);
+
+    long deadline = System.nanoTime() + maxWaitNanos;
+    while (batch.size() < maxBatchSize) {
+      long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      // Once the wait is over, still take whatever has already arrived
+      message = remainingMillis > 0 ? consumer.receive(remainingMillis) : consumer.receiveNoWait();
+      if (message == null) {
+        break;
+      }
+      batch.add(message);
+    }
+    return batch;
+  }
+
+  private void deliver(final BatchMessageListener listener, final List<Message> messages) {
+    try {
+      listener.onMessages(messages);
+    } catch (RuntimeException err) {
+      if (messages.size() == 1) {
+        failedMessageConsumer.accept(messages.get(0), err);
+        return;
+      }
+      log.warn("A batch of {} messages failed, splitting it to isolate the failure: {}",
+          messages.size(), err.getMessage());
+      int half = messages.size() / 2;
+      deliver(listener, messages.subList(0, half));
+      deliver(listener, messages.subList(half, messages.size()));
+    }
+  }
+}
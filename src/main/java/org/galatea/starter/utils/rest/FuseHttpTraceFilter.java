@@ -3,12 +3,14 @@ package org.galatea.starter.utils.rest;
 import static org.galatea.starter.entrypoint.BaseRestController.EXTERNAL_REQUEST_ID;
 
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Random;
 import java.util.function.Predicate;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import lombok.EqualsAndHashCode;
@@ -43,17 +45,23 @@ public class FuseHttpTraceFilter extends HttpTraceFilter {
   @NonNull
   protected final Predicate<String> pathsToSkip;
 
+  @NonNull
+  protected final Predicate<String> contentTypesToStream;
+
   /**
    * Sadly we have to write our own constructor since lombok can't call super with args.
    *
    * @param repository the repository where we store our trace
    * @param pathsToSkip a predicate that will return try if we want to a skip a certain url
    *     path
+   * @param contentTypesToStream a predicate that will return true if a response with a certain
+   *     content type should be written straight through rather than buffered for the trace
    */
   public FuseHttpTraceFilter(final HttpTraceRepository repository, final HttpExchangeTracer tracer,
-      final Predicate<String> pathsToSkip) {
+      final Predicate<String> pathsToSkip, final Predicate<String> contentTypesToStream) {
     super(repository, tracer);
     this.pathsToSkip = pathsToSkip;
+    this.contentTypesToStream = contentTypesToStream;
   }
 
   @Override
@@ -79,20 +87,34 @@ public class FuseHttpTraceFilter extends HttpTraceFilter {
       return;
     }
 
-    boolean isFirstRequest = !isAsyncDispatch(request);
+    if (isAsyncDispatch(request)) {
+      // The exchange was traced when the request started. The async result is written to the
+      // caching wrapper the request started with, so it still has to be copied out of it
+      try {
+        filterChain.doFilter(request, response);
+      } finally {
+        if (!isAsyncStarted(request)) {
+          updateResponse(response);
+        }
+        MDC.clear();
+      }
+      return;
+    }
+
+    Instant requestReceivedTime = Instant.now();
     HttpServletRequest requestToUse = request;
     HttpServletResponse responseToUse = response;
 
     // We need to do this for the request and response since you can only read the stream that holds
     // the payload once
-    if (isFirstRequest && !(request instanceof ContentCachingRequestWrapper)) {
+    if (!(request instanceof ContentCachingRequestWrapper)) {
       requestToUse = new ContentCachingRequestWrapper(request);
     }
-    if (isFirstRequest && !(response instanceof ContentCachingRequestWrapper)) {
-      responseToUse = new ContentCachingResponseWrapper(response);
+    if (!(response instanceof ContentCachingRequestWrapper)) {
+      responseToUse = new TracedResponseWrapper(response, requestReceivedTime);
     }
 
-    doFilterInternalHelper(requestToUse, responseToUse, filterChain, Instant.now());
+    doFilterInternalHelper(requestToUse, responseToUse, filterChain, requestReceivedTime);
   }
 
   @SneakyThrows
@@ -104,12 +126,29 @@ public class FuseHttpTraceFilter extends HttpTraceFilter {
     try {
       super.doFilterInternal(request, response, filterChain);
     } finally {
-      addAuditHeaders(requestReceivedTime.toString(), response);
-      updateResponse(response);
+      // A streamed response had them added before its first byte, as they can't be added after
+      TracedResponseWrapper responseWrapper =
+          WebUtils.getNativeResponse(response, TracedResponseWrapper.class);
+      if (responseWrapper == null || !responseWrapper.streamed) {
+        addAuditHeaders(requestReceivedTime.toString(), response);
+      }
+      // An async handler's body is written on the async dispatch, and copied out then
+      if (!isAsyncStarted(request)) {
+        updateResponse(response);
+      }
       MDC.clear();
     }
   }
 
+  /**
+   * Async dispatches are filtered too, so that the body of an async handler, e.g. one returning a
+   * CompletableFuture, is copied to the response once it has been written.
+   */
+  @Override
+  protected boolean shouldNotFilterAsyncDispatch() {
+    return false;
+  }
+
   private void addAuditHeaders(final String requestReceivedTime,
       final HttpServletResponse response) {
     log.info("Attempting to add audit headers");
@@ -154,4 +193,51 @@ public class FuseHttpTraceFilter extends HttpTraceFilter {
         WebUtils.getNativeResponse(response, ContentCachingResponseWrapper.class);
     responseWrapper.copyBodyToResponse();
   }
+
+  /**
+   * Buffers the response body so that it can be traced, unless the response has one of the
+   * streamed content types, e.g. an export of any size. Those are written straight through to the
+   * response instead, and the audit headers are added before the first byte is written.
+   */
+  private class TracedResponseWrapper extends ContentCachingResponseWrapper {
+
+    private final Instant requestReceivedTime;
+
+    private boolean streamed;
+
+    TracedResponseWrapper(final HttpServletResponse response, final Instant requestReceivedTime) {
+      super(response);
+      this.requestReceivedTime = requestReceivedTime;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+      return streamBody() ? getResponse().getOutputStream() : super.getOutputStream();
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+      return streamBody() ? getResponse().getWriter() : super.getWriter();
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+      if (streamed) {
+        getResponse().flushBuffer();
+      } else {
+        super.flushBuffer();
+      }
+    }
+
+    /**
+     * Checked when the body is first written to, as the content type is set by then.
+     */
+    private boolean streamBody() {
+      if (!streamed && getContentType() != null && contentTypesToStream.test(getContentType())) {
+        addAuditHeaders(requestReceivedTime.toString(), this);
+        streamed = true;
+      }
+      return streamed;
+    }
+  }
 }
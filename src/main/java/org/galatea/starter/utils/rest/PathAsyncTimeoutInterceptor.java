@@ -0,0 +1,41 @@
+package org.galatea.starter.utils.rest;
+
+import java.util.concurrent.Callable;
+import java.util.function.Predicate;
+import javax.servlet.http.HttpServletRequest;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+
+/**
+ * Gives async requests to some paths a timeout of their own in place of the default, e.g. bulk
+ * uploads that are read for as long as the client keeps sending. A handler returning a
+ * StreamingResponseBody has no way to set its own timeout, unlike one returning a WebAsyncTask.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class PathAsyncTimeoutInterceptor implements CallableProcessingInterceptor {
+
+  @NonNull
+  protected final Predicate<String> paths;
+
+  protected final long timeoutMillis;
+
+  /**
+   * Set the timeout before the async request starts, which is when it is passed to the container.
+   */
+  @Override
+  public <T> void beforeConcurrentHandling(final NativeWebRequest request,
+      final Callable<T> task) {
+    HttpServletRequest servletRequest = request.getNativeRequest(HttpServletRequest.class);
+    if (request instanceof AsyncWebRequest && servletRequest != null
+        && paths.test(servletRequest.getRequestURI())) {
+      log.debug("Async request to {} times out after {}ms", servletRequest.getRequestURI(),
+          timeoutMillis);
+      ((AsyncWebRequest) request).setTimeout(timeoutMillis);
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package org.galatea.starter.utils.rest;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.galatea.starter.utils.VirtualThreads;
+
+/**
+ * A Jetty thread pool that runs every job, including each request, on a new virtual thread, so
+ * that requests blocked on JDBC or HTTP calls cost a small heap object each rather than a platform
+ * thread from a fixed pool. It is never low on threads.
+ */
+@Slf4j
+public class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+
+  private final ExecutorService executor;
+
+  /**
+   * Create the pool. Threads are named with the given prefix and a counter.
+   *
+   * @throws IllegalStateException if this JDK doesn't have virtual threads.
+   */
+  public VirtualThreadPool(final String namePrefix) {
+    this.executor = VirtualThreads.newThreadPerTaskExecutor(namePrefix);
+  }
+
+  @Override
+  public void execute(final Runnable job) {
+    if (!isRunning() && !isStarting()) {
+      // Jetty treats a rejection as the pool being full and closes the connection
+      throw new RejectedExecutionException("Pool is " + getState());
+    }
+    executor.execute(job);
+  }
+
+  @Override
+  public void join() throws InterruptedException {
+    while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+      log.debug("Waiting for virtual threads to finish");
+    }
+  }
+
+  /* Threads are created per job, so there is no count of them to report */
+  @Override
+  public int getThreads() {
+    return 0;
+  }
+
+  @Override
+  public int getIdleThreads() {
+    return 0;
+  }
+
+  @Override
+  public boolean isLowOnThreads() {
+    return false;
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    executor.shutdown();
+    super.doStop();
+  }
+}
@@ -0,0 +1,104 @@
+package org.galatea.starter.domain.rpsy;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import org.galatea.starter.domain.IexHistoricalPrice;
+import org.galatea.starter.domain.IexHistoricalPriceSummary;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+@RunWith(SpringRunner.class)
+@DataJpaTest
+// H2 commits DDL implicitly, so the tests clean up after themselves instead of rolling back
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class IexHistoricalPricesRpsyTest {
+
+  private static final LocalDate MONDAY = LocalDate.of(2021, 5, 10);
+
+  @Autowired
+  private IexHistoricalPricesRpsy historicalPricesRpsy;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @After
+  public void cleanup() {
+    historicalPricesRpsy.deleteAll();
+  }
+
+  @Test
+  public void testUpsertOverwritesExistingBars() {
+    historicalPricesRpsy.upsertAll(Arrays.asList(price("twtr", MONDAY, "51.81"),
+        price("TWTR", MONDAY.plusDays(1), "52.88")));
+    Long mondayId = historicalPricesRpsy.findBySymbolAndDate("TWTR", MONDAY).get(0).getId();
+
+    // Overlaps the first upsert by one day and corrects its close
+    historicalPricesRpsy.upsertAll(Arrays.asList(price("TWTR", MONDAY, "51.9"),
+        price("TWTR", MONDAY.plusDays(2), "50.7")));
+
+    List<IexHistoricalPrice> stored = historicalPricesRpsy.findBySymbolOrderByDate("TWTR");
+    assertEquals(3, stored.size());
+    assertEquals(mondayId, stored.get(0).getId());
+    assertEquals(0, new BigDecimal("51.9").compareTo(stored.get(0).getClose()));
+  }
+
+  @Test
+  public void testDeleteDuplicatesKeepsOldestRow() {
+    // The unique index is case sensitive, so these could be written before symbols were upper cased
+    insertRaw("twtr", MONDAY);
+    insertRaw("TWTR", MONDAY);
+    insertRaw("TWTR", MONDAY.plusDays(1));
+    Long oldestId = jdbcTemplate.queryForObject(
+        "SELECT MIN(id) FROM iex_historical_price WHERE date = ?", Long.class,
+        Date.valueOf(MONDAY));
+
+    int deleted = historicalPricesRpsy.deleteDuplicates();
+
+    List<IexHistoricalPrice> stored = historicalPricesRpsy.findBySymbolOrderByDate("TWTR");
+    assertEquals(1, deleted);
+    assertEquals(2, stored.size());
+    assertEquals(oldestId, stored.get(0).getId());
+  }
+
+  @Test
+  public void testSummarizeBySymbolCountsDaysUpToTheLast() {
+    historicalPricesRpsy.upsertAll(Arrays.asList(price("TWTR", MONDAY, "51.81"),
+        price("TWTR", MONDAY.plusDays(1), "52.88"), price("AAPL", MONDAY, "126.85"),
+        price("IBM", MONDAY, "145.57")));
+
+    List<IexHistoricalPriceSummary> summaries =
+        historicalPricesRpsy.summarizeBySymbolIn(Arrays.asList("TWTR", "AAPL", "MSFT"));
+
+    summaries.sort(Comparator.comparing(IexHistoricalPriceSummary::getSymbol));
+    assertEquals(Arrays.asList(new IexHistoricalPriceSummary("AAPL", 1L, MONDAY),
+        new IexHistoricalPriceSummary("TWTR", 2L, MONDAY.plusDays(1))), summaries);
+  }
+
+  private void insertRaw(final String symbol, final LocalDate date) {
+    jdbcTemplate.update("INSERT INTO iex_historical_price"
+        + " (id, symbol, date, open, high, low, close, volume)"
+        + " VALUES (NEXT VALUE FOR iex_historical_price_seq, ?, ?, 1, 1, 1, 1, 1)",
+        symbol, Date.valueOf(date));
+  }
+
+  private static IexHistoricalPrice price(final String symbol, final LocalDate date,
+      final String close) {
+    BigDecimal price = new BigDecimal(close);
+    return IexHistoricalPrice.builder().symbol(symbol).date(date)
+        .open(price).high(price).low(price).close(price).volume(BigInteger.TEN).build();
+  }
+}
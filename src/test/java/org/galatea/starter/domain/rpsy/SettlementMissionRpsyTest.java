@@ -0,0 +1,121 @@
+package org.galatea.starter.domain.rpsy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+import javax.persistence.EntityManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.domain.SettlementMission;
+import org.galatea.starter.domain.TradeAgreement;
+import org.galatea.starter.service.SettlementService;
+import org.galatea.starter.testutils.TestDataGenerator;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+@Slf4j
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@TestPropertySource(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+// The inserts have to be flushed to be counted, so each save commits instead of rolling back
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class SettlementMissionRpsyTest {
+
+  private static final int AGREEMENTS = 10_000;
+
+  /* hibernate.jdbc.batch_size in hibernate.properties */
+  private static final int BATCH_SIZE = 25;
+
+  /* fuse.id.allocation_size in hibernate.properties */
+  private static final int ALLOCATION_SIZE = 50;
+
+  @Autowired
+  private ISettlementMissionRpsy missionRpsy;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  private Statistics statistics;
+
+  @Before
+  public void setup() {
+    statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.clear();
+  }
+
+  @After
+  public void cleanup() {
+    jdbcTemplate.update("DELETE FROM settlement_mission");
+  }
+
+  @Test
+  public void testSpawnMissionsBatchesInserts() {
+    // Same transform as the agreementTransformer bean
+    SettlementService service = new SettlementService(missionRpsy,
+        agreement -> SettlementMission.builder().instrument(agreement.getInstrument())
+            .externalParty(agreement.getExternalParty()).depot("DTC").qty(agreement.getQty())
+            .direction("REC").version(0L).build());
+    List<TradeAgreement> agreements = Collections.nCopies(AGREEMENTS,
+        TestDataGenerator.defaultTradeAgreementData().build());
+
+    Set<Long> ids = service.spawnMissions(agreements);
+
+    long statements = statistics.getPrepareStatementCount();
+    log.info("Spawning {} missions prepared {} statements", AGREEMENTS, statements);
+    assertEquals(AGREEMENTS, ids.size());
+    assertEquals(AGREEMENTS, statistics.getEntityInsertCount());
+    // One statement per insert batch and one sequence call per block of ids, give or take a few
+    assertTrue(statements <= AGREEMENTS / BATCH_SIZE + AGREEMENTS / ALLOCATION_SIZE + 10);
+  }
+
+  @Test
+  public void testIdsComeFromTheSequenceInBlocks() {
+    missionRpsy.save(TestDataGenerator.defaultSettlementMissionData().id(null).build());
+    long statements = statistics.getPrepareStatementCount();
+
+    missionRpsy.save(TestDataGenerator.defaultSettlementMissionData().id(null).build());
+
+    // The second id comes from the block taken for the first, so only the insert goes out
+    assertEquals(statements + 1, statistics.getPrepareStatementCount());
+  }
+
+  @Test
+  public void testForEachByIdReadsAPageAtATime() {
+    List<SettlementMission> missions = new ArrayList<>();
+    for (int i = 0; i < 120; i++) {
+      missions.add(TestDataGenerator.defaultSettlementMissionData().id(null).build());
+    }
+    List<Long> ids = StreamSupport.stream(missionRpsy.saveAll(missions).spliterator(), false)
+        .map(SettlementMission::getId).sorted().collect(Collectors.toList());
+    List<Long> requested = new ArrayList<>(ids);
+    Collections.reverse(requested);
+    requested.add(-1L);
+    statistics.clear();
+
+    List<Long> read = new ArrayList<>();
+    missionRpsy.forEachById(requested, mission -> read.add(mission.getId()));
+
+    // In id order, without the missing id, in pages of settlement.export.page-size
+    assertEquals(ids, read);
+    assertEquals(3, statistics.getQueryExecutionCount());
+  }
+}
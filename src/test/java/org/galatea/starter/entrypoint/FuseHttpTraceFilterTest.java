@@ -18,6 +18,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.Marshaller;
 import junitparams.FileParameters;
@@ -263,8 +264,10 @@ public class FuseHttpTraceFilterTest extends ASpringTest {
         .id(2L).instrument("ABC").externalParty("EXT-1").depot("DEPOT-1").direction("REC")
         .qty(100.0).version(0L).build();
 
-    BDDMockito.given(this.mockSettlementService.findMissions(Arrays.asList(1L, 2L)))
-        .willReturn(Arrays.asList(mission1, mission2));
+    BDDMockito.given(this.mockSettlementService.missionsExist(Arrays.asList(1L, 2L)))
+        .willReturn(true);
+    BDDMockito.given(this.mockSettlementService.streamMissions(Arrays.asList(1L, 2L)))
+        .willReturn(Stream.of(mission1, mission2));
 
     Response response =
         RestAssured.given()
@@ -286,8 +289,10 @@ public class FuseHttpTraceFilterTest extends ASpringTest {
         .id(2L).instrument("ABC").externalParty("EXT-1").depot("DEPOT-1").direction("REC")
         .qty(100.0).version(0L).build();
 
-    BDDMockito.given(this.mockSettlementService.findMissions(Arrays.asList(1L, 2L)))
-        .willReturn(Arrays.asList(mission1, mission2));
+    BDDMockito.given(this.mockSettlementService.missionsExist(Arrays.asList(1L, 2L)))
+        .willReturn(true);
+    BDDMockito.given(this.mockSettlementService.streamMissions(Arrays.asList(1L, 2L)))
+        .willReturn(Stream.of(mission1, mission2));
 
     Response response =
         RestAssured.given()
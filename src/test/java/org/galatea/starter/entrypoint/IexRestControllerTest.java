@@ -1,25 +1,55 @@
 package org.galatea.starter.entrypoint;
 
+import static org.awaitility.Awaitility.await;
 import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.extension.responsetemplating.ResponseTemplateTransformer;
+import feign.FeignException;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.time.LocalDate;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import junitparams.JUnitParamsRunner;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.galatea.starter.ASpringTest;
+import org.galatea.starter.MvcConfig;
+import org.galatea.starter.domain.IexHistoricalPrice;
+import org.galatea.starter.domain.rpsy.IexHistoricalPricesRpsy;
+import org.galatea.starter.service.LastTradedPriceStream;
+import org.galatea.starter.service.TradingDayGapFinder;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.cloud.contract.wiremock.AutoConfigureWireMock;
+import org.springframework.cloud.contract.wiremock.WireMockConfigurationCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.web.util.NestedServletException;
 
 
 @RequiredArgsConstructor
@@ -41,6 +71,34 @@ public class IexRestControllerTest extends ASpringTest {
   @Autowired
   private MockMvc mvc;
 
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  @Autowired
+  private LastTradedPriceStream lastTradedPriceStream;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Autowired
+  private IexHistoricalPricesRpsy historicalPricesRpsy;
+
+  @Autowired
+  private WireMockServer wireMockServer;
+
+  /**
+   * Lets stubs like mapping-historicalPrices.json date their bars relative to today, so that they
+   * fall inside the requested range whenever the tests run.
+   */
+  @TestConfiguration
+  static class ResponseTemplateConfig {
+
+    @Bean
+    public WireMockConfigurationCustomizer responseTemplating() {
+      return options -> options.extensions(new ResponseTemplateTransformer(false));
+    }
+  }
+
   @Test
   public void testGetSymbolsEndpoint() throws Exception {
     MvcResult result = this.mvc.perform(
@@ -56,6 +114,53 @@ public class IexRestControllerTest extends ASpringTest {
         .andReturn();
   }
 
+  @Test
+  public void testGetSymbolsNotModified() throws Exception {
+    MvcResult result = this.mvc.perform(
+        org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get("/iex/symbols")
+            .accept(MediaType.APPLICATION_JSON_VALUE))
+        .andExpect(status().isOk())
+        .andExpect(header().exists(HttpHeaders.ETAG))
+        .andReturn();
+    String etag = result.getResponse().getHeader(HttpHeaders.ETAG);
+
+    this.mvc.perform(
+        org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get("/iex/symbols")
+            .header(HttpHeaders.IF_NONE_MATCH, etag)
+            .accept(MediaType.APPLICATION_JSON_VALUE))
+        .andExpect(status().isNotModified())
+        .andExpect(content().string(""));
+  }
+
+  @Test
+  public void testGetSymbol() throws Exception {
+    this.mvc.perform(
+        org.springframework.test.web.servlet.request.MockMvcRequestBuilders
+            // Looked up in the directory loaded from mapping-symbols.json
+            .get("/iex/symbol?symbol=aa")
+            .accept(MediaType.APPLICATION_JSON_VALUE))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.symbol", is("AA")))
+        .andExpect(jsonPath("$.name", is("Alcoa Corporation")));
+
+    this.mvc.perform(
+        org.springframework.test.web.servlet.request.MockMvcRequestBuilders
+            .get("/iex/symbol?symbol=UNKNOWN")
+            .accept(MediaType.APPLICATION_JSON_VALUE))
+        .andExpect(status().isNotFound());
+  }
+
+  @Test
+  public void testSearchSymbols() throws Exception {
+    this.mvc.perform(
+        org.springframework.test.web.servlet.request.MockMvcRequestBuilders
+            .get("/iex/symbols/search?prefix=perth")
+            .accept(MediaType.APPLICATION_JSON_VALUE))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$[0].symbol", is("AAAU")))
+        .andExpect(jsonPath("$.length()", is(1)));
+  }
+
   @Test
   public void testGetLastTradedPrice() throws Exception {
 
@@ -127,6 +232,139 @@ public class IexRestControllerTest extends ASpringTest {
 //        .andReturn();
 //  }
 
+  @Test
+  public void testGetHistoricalBatch() throws Exception {
+    MvcResult asyncResult = this.mvc.perform(
+        org.springframework.test.web.servlet.request.MockMvcRequestBuilders
+            // TWTR is stubbed in src/test/resources/wiremock/mappings/mapping-historicalPrices.json
+            // and UNKNOWN isn't, so its cloud call fails with a 404
+            .get("/iex/historicalPrices/batch?symbols=TWTR,UNKNOWN&range=1m"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+
+    MvcResult result = this.mvc.perform(asyncDispatch(asyncResult))
+        .andExpect(status().isOk())
+        .andExpect(content().contentType(MvcConfig.APPLICATION_NDJSON))
+        .andReturn();
+
+    // One line per symbol, in the order they completed
+    Map<String, JsonNode> lines = new HashMap<>();
+    for (String line : result.getResponse().getContentAsString().split("\n")) {
+      JsonNode node = objectMapper.readTree(line);
+      lines.put(node.get("symbol").asText(), node);
+    }
+    assertEquals(2, lines.size());
+    assertTrue(lines.get("TWTR").get("prices").isArray());
+    assertTrue(lines.get("UNKNOWN").has("error"));
+  }
+
+  @Test
+  public void testStreamHistoricalMatchesList() throws Exception {
+    MvcResult asyncResult = this.mvc.perform(
+        org.springframework.test.web.servlet.request.MockMvcRequestBuilders
+            .get("/iex/historicalPrices/stream?symbol=TWTR&range=1m"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    MvcResult streamed = this.mvc.perform(asyncDispatch(asyncResult))
+        .andExpect(status().isOk())
+        .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+        .andReturn();
+
+    // Asked second, so it is answered from the same stored prices as the stream
+    MvcResult listed = this.mvc.perform(
+        org.springframework.test.web.servlet.request.MockMvcRequestBuilders
+            .get("/iex/historicalPrices?symbol=TWTR&range=1m")
+            .accept(MediaType.APPLICATION_JSON_VALUE))
+        .andExpect(status().isOk())
+        .andReturn();
+
+    JsonNode streamedPrices = objectMapper.readTree(streamed.getResponse().getContentAsString());
+    assertTrue(streamedPrices.isArray());
+    assertEquals(objectMapper.readTree(listed.getResponse().getContentAsString()),
+        streamedPrices);
+  }
+
+  @Test
+  public void testGetIndicator() throws Exception {
+    this.mvc.perform(
+        org.springframework.test.web.servlet.request.MockMvcRequestBuilders
+            .get("/iex/indicator?symbol=TWTR&indicator=SMA&window=2&range=1m")
+            .accept(MediaType.APPLICATION_JSON_VALUE))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$").isArray());
+  }
+
+  @Test
+  public void testGetIndicatorRejectsWindowOfOne() throws Exception {
+    this.mvc.perform(
+        org.springframework.test.web.servlet.request.MockMvcRequestBuilders
+            .get("/iex/indicator?symbol=TWTR&indicator=SMA&window=1&range=1m")
+            .accept(MediaType.APPLICATION_JSON_VALUE))
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  public void testGetLastTradedPriceAsync() throws Exception {
+    MvcResult asyncResult = this.mvc.perform(
+        org.springframework.test.web.servlet.request.MockMvcRequestBuilders
+            // Same stub as testGetLastTradedPrice
+            .get("/iex/async/lastTradedPrice?symbols=AAPL")
+            .accept(MediaType.APPLICATION_JSON_VALUE))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    // Wait for the future to complete on the IEX executor before dispatching its result
+    asyncResult.getAsyncResult();
+
+    this.mvc.perform(asyncDispatch(asyncResult))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$[0].symbol", is("AAPL")))
+        .andExpect(jsonPath("$[0].price").value(new BigDecimal("186.3011")));
+  }
+
+  @Test
+  public void testGetHistoricalAsyncMatchesList() throws Exception {
+    MvcResult asyncResult = this.mvc.perform(
+        org.springframework.test.web.servlet.request.MockMvcRequestBuilders
+            .get("/iex/async/historicalPrices?symbol=TWTR&range=1m")
+            .accept(MediaType.APPLICATION_JSON_VALUE))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    asyncResult.getAsyncResult();
+    MvcResult answered = this.mvc.perform(asyncDispatch(asyncResult))
+        .andExpect(status().isOk())
+        .andReturn();
+
+    MvcResult listed = this.mvc.perform(
+        org.springframework.test.web.servlet.request.MockMvcRequestBuilders
+            .get("/iex/historicalPrices?symbol=TWTR&range=1m")
+            .accept(MediaType.APPLICATION_JSON_VALUE))
+        .andExpect(status().isOk())
+        .andReturn();
+
+    assertEquals(objectMapper.readTree(listed.getResponse().getContentAsString()),
+        objectMapper.readTree(answered.getResponse().getContentAsString()));
+  }
+
+  @Test
+  public void testStreamLastTradedPrice() throws Exception {
+    MvcResult result = this.mvc.perform(
+        org.springframework.test.web.servlet.request.MockMvcRequestBuilders
+            // Polled from the same stub as testGetLastTradedPrice
+            .get("/iex/lastTradedPrice/stream?symbols=AAPL")
+            .accept(MediaType.TEXT_EVENT_STREAM_VALUE))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+
+    // The first poll is due within a second
+    await().atMost(10, TimeUnit.SECONDS).until(
+        () -> result.getResponse().getContentAsString().contains("\"symbol\":\"AAPL\""));
+    assertTrue(result.getResponse().getContentAsString().startsWith("event:prices\n"));
+
+    // The client going away ends the subscription
+    result.getRequest().getAsyncContext().complete();
+    assertEquals(0, lastTradedPriceStream.getSubscriberCount());
+  }
+
   @Test
   public void testGetLastTradedPriceEmpty() throws Exception {
 
@@ -138,4 +376,36 @@ public class IexRestControllerTest extends ASpringTest {
         .andExpect(jsonPath("$", is(Collections.emptyList())))
         .andReturn();
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testEachClientHasItsOwnCircuit() {
+    // Registered by each client's IexFeignClientConfig
+    assertEquals(0, meterRegistry.get("iex.circuit.state").tag("client", "IEX").gauge().value(), 0);
+    assertEquals(0,
+        meterRegistry.get("iex.circuit.state").tag("client", "IEXCloud").gauge().value(), 0);
+  }
+
+  @Test
+  public void testCloudErrorsOtherThanOutagesAreNotServedStale() throws Exception {
+    // A stored day, so that there is something that could be served stale
+    LocalDate stored = LocalDate.now().minusDays(20);
+    while (!TradingDayGapFinder.isTradingDay(stored)) {
+      stored = stored.minusDays(1);
+    }
+    historicalPricesRpsy.upsertAll(Collections.singletonList(IexHistoricalPrice.builder()
+        .symbol("DELISTED").date(stored).open(BigDecimal.ONE).high(BigDecimal.ONE)
+        .low(BigDecimal.ONE).close(BigDecimal.ONE).volume(BigInteger.TEN).build()));
+    wireMockServer.stubFor(WireMock.get(WireMock.urlPathMatching("/stock/DELISTED/chart/.*"))
+        .willReturn(WireMock.notFound()));
+
+    try {
+      this.mvc.perform(
+          org.springframework.test.web.servlet.request.MockMvcRequestBuilders
+              .get("/iex/historicalPrices?symbol=DELISTED&range=1m&date=")
+              .accept(MediaType.APPLICATION_JSON_VALUE));
+      fail("Expected the 404 from the cloud to be thrown rather than served stale");
+    } catch (NestedServletException err) {
+      assertEquals(HttpStatus.NOT_FOUND.value(), ((FeignException) err.getCause()).status());
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package org.galatea.starter.entrypoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.BDDMockito.given;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Sets;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.ASpringTest;
+import org.galatea.starter.MvcConfig;
+import org.galatea.starter.entrypoint.messagecontracts.TradeAgreementMessage;
+import org.galatea.starter.service.SettlementService;
+import org.junit.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.TestPropertySource;
+
+@Slf4j
+// A real server, so that the upload is read off the socket as slowly as it is sent
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+@TestPropertySource(properties = {
+    "mvc.async-request-timeout-millis=200",
+    "settlement.bulk.timeout-millis=60000"})
+public class SettlementBulkUploadTest extends ASpringTest {
+
+  private static final int AGREEMENTS = 4;
+
+  private static final long PAUSE_MILLIS = 300;
+
+  @MockBean
+  private SettlementService mockSettlementService;
+
+  @LocalServerPort
+  private int port;
+
+  @Test
+  public void testSlowUploadOutlivesTheDefaultAsyncTimeout() throws Exception {
+    given(mockSettlementService.spawnMissions(anyList()))
+        .willReturn(Sets.newTreeSet(Arrays.asList(1L, 2L)));
+    String line = new ObjectMapper().writeValueAsString(TradeAgreementMessage.builder()
+        .instrument("IBM").internalParty("INT-1").externalParty("EXT-1").buySell("B").qty(100d)
+        .build()) + "\n";
+
+    HttpURLConnection connection = (HttpURLConnection) new URL(
+        "http://localhost:" + port + "/settlementEngine/bulk").openConnection();
+    connection.setRequestMethod("POST");
+    connection.setRequestProperty("Content-Type", MvcConfig.APPLICATION_NDJSON_VALUE);
+    connection.setDoOutput(true);
+    connection.setChunkedStreamingMode(0);
+    // Sent over about four times the default async timeout
+    try (OutputStream upload = connection.getOutputStream()) {
+      for (int i = 0; i < AGREEMENTS; i++) {
+        upload.write(line.getBytes(StandardCharsets.UTF_8));
+        upload.flush();
+        Thread.sleep(PAUSE_MILLIS);
+      }
+    }
+
+    assertEquals(HttpStatus.OK.value(), connection.getResponseCode());
+    try (BufferedReader response = new BufferedReader(
+        new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+      List<String> lines = response.lines().collect(Collectors.toList());
+      log.info("Slow upload settled as {}", lines);
+      // Settled in chunks of two, as set in the test application.properties
+      assertEquals(AGREEMENTS / 2, lines.size());
+    }
+  }
+}
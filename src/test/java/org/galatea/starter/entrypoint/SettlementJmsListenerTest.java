@@ -1,16 +1,24 @@
 package org.galatea.starter.entrypoint;
 
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mockingDetails;
 import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.jms.BytesMessage;
 import javax.jms.TextMessage;
 import lombok.EqualsAndHashCode;
 import lombok.RequiredArgsConstructor;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.activemq.command.ActiveMQTextMessage;
 import org.galatea.starter.ASpringTest;
 import org.galatea.starter.domain.TradeAgreement;
 import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.TradeAgreementProtoMessage;
@@ -35,6 +43,9 @@ public class SettlementJmsListenerTest extends ASpringTest {
   @Autowired
   protected JmsTemplate jmsTemplate;
 
+  @Autowired
+  protected SettlementJmsListener settlementJmsListener;
+
   @MockBean
   private SettlementService mockSettlementService;
 
@@ -89,4 +100,60 @@ public class SettlementJmsListenerTest extends ASpringTest {
 
     verify(mockSettlementService, timeout(10000)).spawnMissions(agreements);
   }
+
+  @Test
+  @DirtiesContext
+  public void testSettleOneAgreementJsonBytes() throws IOException {
+    String message = readData("Test_IBM_Agreement.json").replace("\n", "")
+        .replace("[", "").replace("]", "");
+    TradeAgreement agreement = TradeAgreement.builder().instrument("IBM").internalParty("INT-1")
+        .externalParty("EXT-1").buySell("B").qty(100d).build();
+
+    // Read by the configured message converter, so the JSON needn't come as text
+    jmsTemplate.send(jsonQueueName, s -> {
+      BytesMessage msg = s.createBytesMessage();
+      msg.writeBytes(message.getBytes(StandardCharsets.UTF_8));
+      return msg;
+    });
+
+    verify(mockSettlementService, timeout(10000))
+        .spawnMissions(Collections.singletonList(agreement));
+  }
+
+  @Test
+  @DirtiesContext
+  public void testRedeliveredMessageIsSettledOnce() throws Exception {
+    ActiveMQTextMessage message = new ActiveMQTextMessage();
+    message.setText(readData("Test_IBM_Agreement.json").replace("\n", "")
+        .replace("[", "").replace("]", ""));
+    message.setJMSMessageID("ID:redelivered-1");
+
+    settlementJmsListener.settleAgreementsJson(Collections.singletonList(message));
+    // As if the batch it was in had been rolled back after it was settled
+    message.setJMSRedelivered(true);
+    settlementJmsListener.settleAgreementsJson(Collections.singletonList(message));
+
+    verify(mockSettlementService, times(1)).spawnMissions(anyList());
+  }
+
+  @Test
+  @DirtiesContext
+  public void testBadMessageIsIsolatedFromItsBatch() throws IOException {
+    String message = readData("Test_IBM_Agreement.json").replace("\n", "")
+        .replace("[", "").replace("]", "");
+
+    jmsTemplate.send(jsonQueueName, s -> s.createTextMessage(message));
+    jmsTemplate.send(jsonQueueName, s -> s.createTextMessage("not an agreement"));
+    jmsTemplate.send(jsonQueueName, s -> s.createTextMessage(message));
+
+    // However the messages were batched, both good agreements are settled and the bad one isn't
+    await().atMost(10, TimeUnit.SECONDS).until(() -> settledAgreements() == 2);
+  }
+
+  private int settledAgreements() {
+    return mockingDetails(mockSettlementService).getInvocations().stream()
+        .filter(invocation -> invocation.getMethod().getName().equals("spawnMissions"))
+        .mapToInt(invocation -> invocation.<List<?>>getArgument(0).size())
+        .sum();
+  }
 }
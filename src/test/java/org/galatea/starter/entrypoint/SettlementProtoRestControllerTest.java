@@ -2,14 +2,27 @@ package org.galatea.starter.entrypoint;
 
 import static java.util.Collections.singletonList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import com.google.common.collect.Sets;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 import junitparams.JUnitParamsRunner;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -89,6 +102,71 @@ public class SettlementProtoRestControllerTest extends ASpringTest {
         .contains("/settlementEngine/mission/" + expectedId));
   }
 
+  @Test
+  public void testSettleAgreementsBulk() throws Exception {
+    TradeAgreement agreement = TestDataGenerator.defaultTradeAgreementData().build();
+    TradeAgreementProtoMessage message
+        = TestDataGenerator.defaultTradeAgreementProtoMessageData().build();
+    ByteArrayOutputStream upload = new ByteArrayOutputStream();
+    for (int i = 0; i < 3; i++) {
+      message.writeDelimitedTo(upload);
+    }
+
+    // Settled in chunks of two, as set in the test application.properties
+    given(this.mockSettlementService.spawnMissions(Arrays.asList(agreement, agreement)))
+        .willReturn(Sets.newTreeSet(Arrays.asList(1L, 2L)));
+    given(this.mockSettlementService.spawnMissions(singletonList(agreement)))
+        .willReturn(Sets.newTreeSet(singletonList(3L)));
+
+    MvcResult asyncResult = this.mvc.perform(
+        post("/settlementEngine/bulk?requestId=1234").contentType(APPLICATION_X_PROTOBUF)
+            .content(upload.toByteArray()))
+        .andExpect(request().asyncStarted()).andReturn();
+    MvcResult result = this.mvc.perform(asyncDispatch(asyncResult))
+        .andExpect(status().isOk()).andReturn();
+
+    InputStream received = new ByteArrayInputStream(result.getResponse().getContentAsByteArray());
+    assertEquals(Sets.newHashSet("/settlementEngine/mission/1", "/settlementEngine/mission/2"),
+        new HashSet<>(SettlementResponseProtoMessage.parseDelimitedFrom(received)
+            .getSpawnedMissionPathsList()));
+    assertEquals(singletonList("/settlementEngine/mission/3"),
+        SettlementResponseProtoMessage.parseDelimitedFrom(received).getSpawnedMissionPathsList());
+    assertNull(SettlementResponseProtoMessage.parseDelimitedFrom(received));
+  }
+
+  @Test
+  public void testSettleAgreementsBulkMalformedAfterFirstChunk() throws Exception {
+    TradeAgreement agreement = TestDataGenerator.defaultTradeAgreementData().build();
+    TradeAgreementProtoMessage message
+        = TestDataGenerator.defaultTradeAgreementProtoMessageData().build();
+    ByteArrayOutputStream upload = new ByteArrayOutputStream();
+    for (int i = 0; i < 2; i++) {
+      message.writeDelimitedTo(upload);
+    }
+    // A one byte message holding an invalid field tag of zero
+    upload.write(1);
+    upload.write(0);
+
+    given(this.mockSettlementService.spawnMissions(Arrays.asList(agreement, agreement)))
+        .willReturn(Sets.newTreeSet(Arrays.asList(1L, 2L)));
+
+    MvcResult asyncResult = this.mvc.perform(
+        post("/settlementEngine/bulk?requestId=1234").contentType(APPLICATION_X_PROTOBUF)
+            .content(upload.toByteArray()))
+        .andExpect(request().asyncStarted()).andReturn();
+    MvcResult result = this.mvc.perform(asyncDispatch(asyncResult))
+        .andExpect(status().isOk()).andReturn();
+
+    InputStream received = new ByteArrayInputStream(result.getResponse().getContentAsByteArray());
+    assertEquals(2, SettlementResponseProtoMessage.parseDelimitedFrom(received)
+        .getSpawnedMissionPathsCount());
+    SettlementResponseProtoMessage trailer =
+        SettlementResponseProtoMessage.parseDelimitedFrom(received);
+    assertTrue(!trailer.getError().isEmpty());
+    assertEquals(2, trailer.getSettled());
+    assertNull(SettlementResponseProtoMessage.parseDelimitedFrom(received));
+  }
+
   @Test
   public void testGetMission() throws Exception {
     SettlementMission mission = TestDataGenerator.defaultSettlementMissionData().build();
@@ -116,4 +194,41 @@ public class SettlementProtoRestControllerTest extends ASpringTest {
             .accept(APPLICATION_X_PROTOBUF))
         .andExpect(status().is4xxClientError());
   }
+
+  @Test
+  public void testGetMissions() throws Exception {
+    SettlementMission mission1 = TestDataGenerator.defaultSettlementMissionData().id(1L).build();
+    SettlementMission mission2 = TestDataGenerator.defaultSettlementMissionData().id(2L).build();
+    List<Long> ids = Arrays.asList(1L, 2L);
+
+    given(this.mockSettlementService.missionsExist(ids)).willReturn(true);
+    willAnswer(invocation -> {
+      Consumer<SettlementMission> consumer = invocation.getArgument(1);
+      consumer.accept(mission1);
+      consumer.accept(mission2);
+      return null;
+    }).given(this.mockSettlementService).forEachMission(eq(ids), any());
+
+    MvcResult asyncResult = this.mvc.perform(
+        get("/settlementEngine/missions?ids=1,2&requestId=1234").accept(APPLICATION_X_PROTOBUF))
+        .andExpect(request().asyncStarted()).andReturn();
+    MvcResult result = this.mvc.perform(asyncDispatch(asyncResult))
+        .andExpect(status().isOk()).andReturn();
+
+    InputStream received = new ByteArrayInputStream(result.getResponse().getContentAsByteArray());
+    assertEquals(settlementMissionTranslator.translate(mission1),
+        SettlementMissionProtoMessage.parseDelimitedFrom(received));
+    assertEquals(settlementMissionTranslator.translate(mission2),
+        SettlementMissionProtoMessage.parseDelimitedFrom(received));
+    assertNull(SettlementMissionProtoMessage.parseDelimitedFrom(received));
+  }
+
+  @Test
+  public void testGetMissionsNotFound() throws Exception {
+    given(this.mockSettlementService.missionsExist(Arrays.asList(1L, 2L))).willReturn(false);
+
+    this.mvc.perform(
+        get("/settlementEngine/missions?ids=1,2&requestId=1234").accept(APPLICATION_X_PROTOBUF))
+        .andExpect(status().isNotFound());
+  }
 }
@@ -3,13 +3,19 @@ package org.galatea.starter.entrypoint;
 import static io.restassured.module.mockmvc.RestAssuredMockMvc.given;
 import static java.util.Collections.singletonList;
 import static org.galatea.starter.MvcConfig.APPLICATION_EXCEL;
+import static org.galatea.starter.MvcConfig.APPLICATION_NDJSON;
 import static org.galatea.starter.MvcConfig.TEXT_CSV;
 import static org.hamcrest.Matchers.hasXPath;
 import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -20,10 +26,13 @@ import java.io.StringWriter;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.Marshaller;
 import junitparams.FileParameters;
@@ -64,9 +73,14 @@ import org.springframework.http.MediaType;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.http.converter.xml.Jaxb2RootElementHttpMessageConverter;
 import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.test.web.servlet.setup.StandaloneMockMvcBuilder;
 import org.springframework.web.accept.ContentNegotiationManager;
+import org.springframework.web.accept.HeaderContentNegotiationStrategy;
 import org.springframework.web.accept.ParameterContentNegotiationStrategy;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
 
 @Slf4j
 @Import({MessageTranslationConfig.class})
@@ -89,6 +103,9 @@ public class SettlementRestControllerTest
   @Value("${mvc.updateMissionPath}")
   private String updateMissionPath;
 
+  @Value("${mvc.settleMissionsBulkPath}")
+  private String settleMissionsBulkPath;
+
   @Autowired
   private ITranslator<TradeAgreementMessages, List<TradeAgreement>> tradeAgreementTranslator;
 
@@ -110,6 +127,8 @@ public class SettlementRestControllerTest
 
   private JacksonTester<List<Long>> missionIdJsonTester;
 
+  private MockMvc mvc;
+
   private static final Long MISSION_ID_1 = 1091L;
 
   @Before
@@ -126,22 +145,34 @@ public class SettlementRestControllerTest
     ParameterContentNegotiationStrategy parameterContentNegotiationStrategy =
         new ParameterContentNegotiationStrategy(mediaTypes);
 
-    ContentNegotiationManager manager =
-        new ContentNegotiationManager(parameterContentNegotiationStrategy);
+    // The format parameter takes precedence over the Accept header, as in MvcConfig
+    ContentNegotiationManager manager = new ContentNegotiationManager(
+        parameterContentNegotiationStrategy, new HeaderContentNegotiationStrategy());
 
-    RestAssuredMockMvc.standaloneSetup(
+    StandaloneMockMvcBuilder mvcBuilder =
         MockMvcBuilders.standaloneSetup(settlementRestController).
             addPlaceholderValue("mvc.settleMissionPath", settleMissionPath).
+            addPlaceholderValue("mvc.settleMissionsBulkPath", settleMissionsBulkPath).
             addPlaceholderValue("mvc.deleteMissionPath", deleteMissionPath).
             addPlaceholderValue("mvc.updateMissionPath", updateMissionPath).
             addPlaceholderValue("mvc.getMissionsPath", getMissionsPath).
             addPlaceholderValue("mvc.getMissionPath", getMissionPath).
             setContentNegotiationManager(manager).
+            // The default mapping negotiates on the Accept header alone, so ?format= would not
+            // pick between the handlers that share the missions path by what they produce
+            setCustomHandlerMapping(() -> {
+              RequestMappingHandlerMapping handlerMapping = new RequestMappingHandlerMapping();
+              handlerMapping.setContentNegotiationManager(manager);
+              return handlerMapping;
+            }).
             setMessageConverters(new MappingJackson2HttpMessageConverter(),
                 new Jaxb2RootElementHttpMessageConverter(),
                 new SettlementMissionCsvConverter(),
                 new SettlementMissionXlsxConverter()).
-            setControllerAdvice(new RestExceptionHandler()));
+            setControllerAdvice(new RestExceptionHandler());
+    // Built once, as building again for the same controller fails
+    mvc = mvcBuilder.build();
+    RestAssuredMockMvc.mockMvc(mvc);
   }
 
   @Test
@@ -216,6 +247,82 @@ public class SettlementRestControllerTest
         .statusCode(HttpStatus.OK.value());
   }
 
+  @Test
+  public void testSettleAgreementsBulk_NDJSON() throws Exception {
+    TradeAgreementMessage message = TradeAgreementMessage.builder().instrument("IBM")
+        .internalParty("INT-1").externalParty("EXT-1").buySell("B").qty(100d).build();
+    String line = objectMapper.writeValueAsString(message);
+    TradeAgreement agreement = TestDataGenerator.defaultTradeAgreementData().build();
+
+    // Settled in chunks of two, as set in the test application.properties
+    BDDMockito.given(this.mockSettlementService.spawnMissions(Arrays.asList(agreement, agreement)))
+        .willReturn(Sets.newTreeSet(Arrays.asList(1L, 2L)));
+    BDDMockito.given(this.mockSettlementService.spawnMissions(singletonList(agreement)))
+        .willReturn(Sets.newTreeSet(singletonList(3L)));
+
+    MvcResult asyncResult = mvc.perform(
+        post("/settlementEngine/bulk?requestId=1234").contentType(APPLICATION_NDJSON)
+            .content(line + "\n" + line + "\n" + line + "\n"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    MvcResult result = mvc.perform(asyncDispatch(asyncResult))
+        .andExpect(status().isOk())
+        .andReturn();
+
+    String[] lines = result.getResponse().getContentAsString().split("\n");
+    assertEquals(2, lines.length);
+    assertEquals(Sets.newHashSet(getMissionPath + 1, getMissionPath + 2),
+        spawnedMissions(lines[0]));
+    assertEquals(Collections.singleton(getMissionPath + 3), spawnedMissions(lines[1]));
+  }
+
+  @Test
+  public void testSettleAgreementsBulkMalformed_NDJSON() throws Exception {
+    MvcResult asyncResult = mvc.perform(
+        post("/settlementEngine/bulk?requestId=1234").contentType(APPLICATION_NDJSON)
+            .content("{\"instrument\": \n"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+
+    mvc.perform(asyncDispatch(asyncResult))
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  public void testSettleAgreementsBulkMalformedAfterFirstChunk_NDJSON() throws Exception {
+    TradeAgreementMessage message = TradeAgreementMessage.builder().instrument("IBM")
+        .internalParty("INT-1").externalParty("EXT-1").buySell("B").qty(100d).build();
+    String line = objectMapper.writeValueAsString(message);
+    TradeAgreement agreement = TestDataGenerator.defaultTradeAgreementData().build();
+
+    BDDMockito.given(this.mockSettlementService.spawnMissions(Arrays.asList(agreement, agreement)))
+        .willReturn(Sets.newTreeSet(Arrays.asList(1L, 2L)));
+
+    MvcResult asyncResult = mvc.perform(
+        post("/settlementEngine/bulk?requestId=1234").contentType(APPLICATION_NDJSON)
+            .content(line + "\n" + line + "\n" + "{\"instrument\": \n"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    MvcResult result = mvc.perform(asyncDispatch(asyncResult))
+        .andExpect(status().isOk())
+        .andReturn();
+
+    String[] lines = result.getResponse().getContentAsString().split("\n");
+    assertEquals(2, lines.length);
+    assertEquals(Sets.newHashSet(getMissionPath + 1, getMissionPath + 2),
+        spawnedMissions(lines[0]));
+    JsonNode error = objectMapper.readTree(lines[1]);
+    assertTrue(error.hasNonNull("error"));
+    assertEquals(2, error.get("settled").asLong());
+  }
+
+  private Set<String> spawnedMissions(final String line) throws Exception {
+    Set<String> missionPaths = new HashSet<>();
+    objectMapper.readTree(line).get("spawnedMissions")
+        .forEach(path -> missionPaths.add(path.asText()));
+    return missionPaths;
+  }
+
   private List<TradeAgreement> toTradeAgreements(TradeAgreementMessages messages) {
     return tradeAgreementTranslator.translate(messages);
   }
@@ -345,8 +452,10 @@ public class SettlementRestControllerTest
         .id(2L).instrument("ABC").externalParty("EXT-1").depot("DEPOT-1").direction("REC")
         .qty(100.0).version(0L).build();
 
-    BDDMockito.given(this.mockSettlementService.findMissions(Arrays.asList(1L, 2L)))
-        .willReturn(Arrays.asList(mission1, mission2));
+    BDDMockito.given(this.mockSettlementService.missionsExist(Arrays.asList(1L, 2L)))
+        .willReturn(true);
+    BDDMockito.given(this.mockSettlementService.streamMissions(Arrays.asList(1L, 2L)))
+        .willReturn(Stream.of(mission1, mission2));
 
     String expectedCsv = readData("SettlementMissions.csv");
 
@@ -370,8 +479,10 @@ public class SettlementRestControllerTest
         .id(2L).instrument("ABC").externalParty("EXT-1").depot("DEPOT-1").direction("REC")
         .qty(100.0).version(0L).build();
 
-    BDDMockito.given(this.mockSettlementService.findMissions(Arrays.asList(1L, 2L)))
-        .willReturn(Arrays.asList(mission1, mission2));
+    BDDMockito.given(this.mockSettlementService.missionsExist(Arrays.asList(1L, 2L)))
+        .willReturn(true);
+    BDDMockito.given(this.mockSettlementService.streamMissions(Arrays.asList(1L, 2L)))
+        .willReturn(Stream.of(mission1, mission2));
 
     byte[] expectedXlsx = readBytes("SettlementMissions.xlsx");
 
@@ -525,6 +636,11 @@ public class SettlementRestControllerTest
   @ConditionalOnNotWebApplication
   static class PropertyConfig {
 
+    @Bean
+    ObjectMapper objectMapper() {
+      return new ObjectMapper();
+    }
+
     @Bean
     PropertyPlaceholderConfigurer propertyPlaceholderConfigurer() {
       PropertyPlaceholderConfigurer propertyPlaceholderConfigurer =
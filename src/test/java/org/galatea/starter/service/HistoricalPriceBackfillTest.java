@@ -0,0 +1,141 @@
+package org.galatea.starter.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.galatea.starter.domain.IexHistoricalPrice;
+import org.galatea.starter.service.HistoricalPriceBackfill.BackfillStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HistoricalPriceBackfillTest {
+
+  private static final String ZONE = "America/New_York";
+
+  private IexService mockIexService;
+
+  private HistoricalPriceCache mockHistoricalPriceCache;
+
+  private MeterRegistry meterRegistry;
+
+  private HistoricalPriceBackfill backfill;
+
+  @Before
+  public void setup() {
+    mockIexService = mock(IexService.class);
+    mockHistoricalPriceCache = mock(HistoricalPriceCache.class);
+    meterRegistry = new SimpleMeterRegistry();
+    given(mockHistoricalPriceCache.getSeries("AAPL")).willReturn(series("AAPL", 0));
+    given(mockHistoricalPriceCache.getSeries("IBM")).willReturn(series("IBM", 7));
+    given(mockHistoricalPriceCache.getSeries("TWTR"))
+        .willReturn(HistoricalPriceSeries.of("TWTR", Collections.emptyList()));
+    // Schedules that won't come round during the test
+    backfill = new HistoricalPriceBackfill(mockIexService, mockHistoricalPriceCache,
+        new String[] {"aapl", " IBM", "TWTR", "AAPL", ""}, "1y", "0 0 0 1 1 *", "0 0 0 1 1 *",
+        ZONE, 2, 100, meterRegistry);
+  }
+
+  @After
+  public void tearDown() {
+    backfill.shutdown();
+  }
+
+  @Test
+  public void testOnlySymbolsMissingHistoryAreFetched() {
+    given(mockIexService.isHistoryStored("AAPL", "1y")).willReturn(true);
+
+    backfill.run("nightly");
+
+    verify(mockIexService, never()).getHistoricalPriceWindow("AAPL", "1y", null);
+    verify(mockIexService).getHistoricalPriceWindow("IBM", "1y", null);
+    verify(mockIexService).getHistoricalPriceWindow("TWTR", "1y", null);
+    assertEquals(2, meterRegistry.counter("iex.backfill.fetches", "result", "success").count(),
+        0);
+  }
+
+  @Test
+  public void testFailuresDontStopTheRun() {
+    willThrow(new IllegalStateException("IEX is down")).given(mockIexService)
+        .getHistoricalPriceWindow(eq("IBM"), eq("1y"), isNull());
+
+    backfill.run("pre-open");
+
+    BackfillStatus status = backfill.getStatus();
+    assertFalse(status.isRunning());
+    assertEquals("pre-open", status.getTrigger());
+    assertEquals(3, status.getSymbols());
+    assertEquals(0, status.getPending());
+    assertEquals(2, status.getCompleted());
+    assertEquals(1, status.getFailed());
+  }
+
+  @Test
+  public void testLagIsTradingDaysSinceNewestBar() {
+    backfill.run("nightly");
+    BackfillStatus status = backfill.getStatus();
+
+    assertEquals(0, (int) status.getLagDays().get("AAPL"));
+    assertEquals(tradingDays(today().minusDays(7), today().minusDays(1)),
+        (int) status.getLagDays().get("IBM"));
+    assertEquals(status.getLagDays().get("TWTR").intValue(), status.getMaxLagDays());
+  }
+
+  @Test
+  public void testLagIsReportedWithoutReadingTheStore() {
+    assertTrue(backfill.getStatus().getLagDays().isEmpty());
+
+    backfill.run("nightly");
+    backfill.getStatus();
+    meterRegistry.get("iex.backfill.max-lag-days").gauge().value();
+
+    // Once per symbol, by the run
+    verify(mockHistoricalPriceCache, times(1)).getSeries("IBM");
+  }
+
+  /*
+   * A series whose newest bar is the given number of days before yesterday.
+   */
+  private static HistoricalPriceSeries series(final String symbol, final int daysBehind) {
+    List<IexHistoricalPrice> prices = new ArrayList<>();
+    LocalDate newest = today().minusDays(1 + daysBehind);
+    for (LocalDate day = newest.minusDays(30); !day.isAfter(newest); day = day.plusDays(1)) {
+      prices.add(IexHistoricalPrice.builder().symbol(symbol).date(day).open(BigDecimal.ONE)
+          .high(BigDecimal.ONE).low(BigDecimal.ONE).close(BigDecimal.ONE)
+          .volume(BigInteger.ONE).build());
+    }
+    return HistoricalPriceSeries.of(symbol, prices);
+  }
+
+  private static LocalDate today() {
+    return LocalDate.now(ZoneId.of(ZONE));
+  }
+
+  private static int tradingDays(final LocalDate from, final LocalDate to) {
+    int days = 0;
+    for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+      if (TradingDayGapFinder.isTradingDay(day)) {
+        days++;
+      }
+    }
+    return days;
+  }
+}
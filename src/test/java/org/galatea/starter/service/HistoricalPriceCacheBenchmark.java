@@ -0,0 +1,110 @@
+package org.galatea.starter.service;
+
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.Application;
+import org.galatea.starter.domain.IexHistoricalPrice;
+import org.galatea.starter.domain.rpsy.IexHistoricalPricesRpsy;
+import org.galatea.starter.testutils.BenchmarkRunner;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.RunResult;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Compares a one year historical price lookup served by the repository range query with the same
+ * lookup sliced out of the cached series. Ten years of daily bars are stored for the symbol.
+ *
+ * <p>Run with: mvn test -Pbenchmark -Dtest=HistoricalPriceCacheBenchmark
+ */
+@Slf4j
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HistoricalPriceCacheBenchmark {
+
+  private static final String SYMBOL = "BENCH";
+
+  private ConfigurableApplicationContext context;
+
+  private IexHistoricalPricesRpsy historicalPricesRpsy;
+
+  private HistoricalPriceCache historicalPriceCache;
+
+  private LocalDate from;
+
+  private LocalDate to;
+
+  @Test
+  public void runBenchmarks() throws Exception {
+    Collection<RunResult> results = BenchmarkRunner.run(getClass());
+    double repositoryP99 = BenchmarkRunner.percentile(results, "repositoryRange", 99);
+    double cachedP99 = BenchmarkRunner.percentile(results, "cachedRange", 99);
+    log.info("Cached 1y range p99 is {}x lower than the repository query",
+        repositoryP99 / cachedP99);
+    assertTrue(cachedP99 < repositoryP99);
+  }
+
+  @Setup(Level.Trial)
+  public void setup() {
+    context = new SpringApplicationBuilder(Application.class)
+        .web(WebApplicationType.NONE)
+        .run("--server.port=0", "--wiremock.server.port=0");
+    historicalPricesRpsy = context.getBean(IexHistoricalPricesRpsy.class);
+    historicalPriceCache = context.getBean(HistoricalPriceCache.class);
+
+    to = LocalDate.now().minusDays(1);
+    from = to.minusYears(1);
+    List<IexHistoricalPrice> prices = new ArrayList<>();
+    for (LocalDate day = to.minusYears(10); !day.isAfter(to); day = day.plusDays(1)) {
+      if (TradingDayGapFinder.isTradingDay(day)) {
+        BigDecimal price = BigDecimal.valueOf(day.getDayOfYear(), 2);
+        prices.add(IexHistoricalPrice.builder().symbol(SYMBOL).date(day)
+            .open(price).high(price).low(price).close(price)
+            .volume(BigInteger.valueOf(day.toEpochDay())).build());
+      }
+    }
+    historicalPricesRpsy.saveAll(prices);
+    // Warm the cache so that the benchmark measures the steady state, not the first load
+    historicalPriceCache.getSeries(SYMBOL);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public List<IexHistoricalPrice> repositoryRange() {
+    return historicalPricesRpsy.findBySymbolAndDateBetweenOrderByDate(SYMBOL, from, to);
+  }
+
+  @Benchmark
+  public List<IexHistoricalPrice> cachedRange() {
+    return historicalPriceCache.getSeries(SYMBOL).getPrices(from, to);
+  }
+}
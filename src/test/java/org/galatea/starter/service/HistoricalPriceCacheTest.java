@@ -0,0 +1,163 @@
+package org.galatea.starter.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.galatea.starter.domain.IexHistoricalPrice;
+import org.galatea.starter.domain.rpsy.IexHistoricalPricesRpsy;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HistoricalPriceCacheTest {
+
+  private static final LocalDate MONDAY = LocalDate.of(2021, 5, 10);
+
+  private IexHistoricalPricesRpsy mockHistoricalPricesRpsy;
+
+  @Before
+  public void setup() {
+    mockHistoricalPricesRpsy = mock(IexHistoricalPricesRpsy.class);
+  }
+
+  @Test
+  public void testSeriesIsLoadedOnce() {
+    given(mockHistoricalPricesRpsy.findBySymbolOrderByDate("AAPL"))
+        .willReturn(prices("AAPL", MONDAY, 5));
+    HistoricalPriceCache cache = new HistoricalPriceCache(mockHistoricalPricesRpsy, 1 << 20);
+
+    HistoricalPriceSeries series = cache.getSeries("AAPL");
+
+    assertSame(series, cache.getSeries("AAPL"));
+    assertEquals(5, series.size());
+    verify(mockHistoricalPricesRpsy, times(1)).findBySymbolOrderByDate("AAPL");
+  }
+
+  @Test
+  public void testRangeIsSlicedByDate() {
+    List<IexHistoricalPrice> stored = prices("AAPL", MONDAY, 5);
+    HistoricalPriceSeries series = HistoricalPriceSeries.of("AAPL", stored);
+
+    assertEquals(stored.subList(1, 4), series.getPrices(MONDAY.plusDays(1), MONDAY.plusDays(3)));
+    assertEquals(stored, series.getPrices(MONDAY.minusDays(7), MONDAY.plusDays(7)));
+    assertTrue(series.getPrices(MONDAY.plusDays(5), MONDAY.plusDays(6)).isEmpty());
+  }
+
+  @Test
+  public void testFixedPointKeepsPrices() {
+    BigDecimal price = new BigDecimal("123.4567");
+
+    assertEquals(price, HistoricalPriceSeries.fromFixed(HistoricalPriceSeries.toFixed(price)));
+    assertEquals(new BigDecimal("50"),
+        HistoricalPriceSeries.fromFixed(HistoricalPriceSeries.toFixed(new BigDecimal("50.00"))));
+  }
+
+  @Test
+  public void testAddPricesMergesIntoCachedSeries() {
+    List<IexHistoricalPrice> stored = prices("AAPL", MONDAY, 3);
+    List<IexHistoricalPrice> added = prices("AAPL", MONDAY.plusDays(3), 2);
+    given(mockHistoricalPricesRpsy.findBySymbolOrderByDate("AAPL")).willReturn(stored);
+    HistoricalPriceCache cache = new HistoricalPriceCache(mockHistoricalPricesRpsy, 1 << 20);
+    cache.getSeries("AAPL");
+
+    cache.addPrices("AAPL", added);
+
+    List<IexHistoricalPrice> expected = new ArrayList<>(stored);
+    expected.addAll(added);
+    assertEquals(expected, cache.getSeries("AAPL").getPrices(MONDAY, MONDAY.plusDays(4)));
+  }
+
+  @Test
+  public void testMergeReplacesBarsOnTheSameDate() {
+    List<IexHistoricalPrice> stored = prices("AAPL", MONDAY, 3);
+    // Replaces the last stored bar with different prices and adds one after it
+    List<IexHistoricalPrice> added = prices("AAPL", MONDAY.plusDays(2), 2);
+    added.add(0, prices("AAPL", MONDAY.plusDays(1), 1).get(0));
+    HistoricalPriceSeries series = HistoricalPriceSeries.of("AAPL", stored);
+
+    HistoricalPriceSeries merged = series.merge(added);
+
+    List<IexHistoricalPrice> expected = new ArrayList<>(stored.subList(0, 1));
+    expected.add(added.get(0));
+    expected.addAll(added.subList(1, 3));
+    assertEquals(expected, merged.getPrices(MONDAY, MONDAY.plusDays(3)));
+    assertFalse(merged.sharesLineage(series));
+    assertTrue(series.merge(prices("AAPL", MONDAY.plusDays(3), 1)).sharesLineage(series));
+  }
+
+  @Test
+  public void testPricesAddedWhileLoadingAreNotLost() {
+    HistoricalPriceCache cache = new HistoricalPriceCache(mockHistoricalPricesRpsy, 1 << 20);
+    List<IexHistoricalPrice> added = prices("AAPL", MONDAY.plusDays(3), 2);
+    // The first load reads the database just before the new prices are stored and added
+    given(mockHistoricalPricesRpsy.findBySymbolOrderByDate("AAPL")).willAnswer(invocation -> {
+      cache.addPrices("AAPL", added);
+      return prices("AAPL", MONDAY, 3);
+    }).willReturn(prices("AAPL", MONDAY, 5));
+
+    HistoricalPriceSeries series = cache.getSeries("AAPL");
+
+    assertEquals(5, series.size());
+    assertSame(series, cache.getSeries("AAPL"));
+    verify(mockHistoricalPricesRpsy, times(2)).findBySymbolOrderByDate("AAPL");
+  }
+
+  @Test
+  public void testLeastRecentlyUsedSymbolIsEvicted() {
+    given(mockHistoricalPricesRpsy.findBySymbolOrderByDate("AAPL"))
+        .willReturn(prices("AAPL", MONDAY, 5));
+    given(mockHistoricalPricesRpsy.findBySymbolOrderByDate("IBM"))
+        .willReturn(prices("IBM", MONDAY, 5));
+    given(mockHistoricalPricesRpsy.findBySymbolOrderByDate("MSFT"))
+        .willReturn(prices("MSFT", MONDAY, 5));
+    // Room for two symbols with five bars each
+    long budget = 10 * HistoricalPriceSeries.BYTES_PER_BAR;
+    HistoricalPriceCache cache = new HistoricalPriceCache(mockHistoricalPricesRpsy, budget);
+
+    cache.getSeries("AAPL");
+    cache.getSeries("IBM");
+    cache.getSeries("AAPL");
+    cache.getSeries("MSFT");
+    cache.getSeries("AAPL");
+    cache.getSeries("IBM");
+
+    assertEquals(budget, cache.getCurrentBytes());
+    verify(mockHistoricalPricesRpsy, times(1)).findBySymbolOrderByDate("AAPL");
+    verify(mockHistoricalPricesRpsy, times(2)).findBySymbolOrderByDate("IBM");
+  }
+
+  @Test
+  public void testEmptySymbolIsCached() {
+    given(mockHistoricalPricesRpsy.findBySymbolOrderByDate("AAPL"))
+        .willReturn(Collections.emptyList());
+    HistoricalPriceCache cache = new HistoricalPriceCache(mockHistoricalPricesRpsy, 1 << 20);
+
+    assertEquals(0, cache.getSeries("AAPL").size());
+    cache.addPrices("AAPL", prices("AAPL", MONDAY, 1));
+
+    assertEquals(1, cache.getSeries("AAPL").size());
+  }
+
+  private static List<IexHistoricalPrice> prices(final String symbol, final LocalDate from,
+      final int days) {
+    List<IexHistoricalPrice> prices = new ArrayList<>();
+    for (int i = 0; i < days; i++) {
+      BigDecimal price = new BigDecimal("10.25").add(BigDecimal.valueOf(i));
+      prices.add(IexHistoricalPrice.builder().symbol(symbol).date(from.plusDays(i))
+          .open(price).high(price).low(price).close(price)
+          .volume(BigInteger.valueOf(1000 + i)).build());
+    }
+    return prices;
+  }
+}
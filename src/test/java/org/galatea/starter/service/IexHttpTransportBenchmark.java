@@ -0,0 +1,138 @@
+package org.galatea.starter.service;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.junit.Assert.assertTrue;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import feign.Client;
+import feign.Feign;
+import feign.Param;
+import feign.Request;
+import feign.RequestLine;
+import feign.httpclient.ApacheHttpClient;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.galatea.starter.FeignConfig;
+import org.galatea.starter.testutils.BenchmarkRunner;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.RunResult;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.io.ClassPathResource;
+
+/**
+ * Compares the throughput of last traded price calls against a local WireMock server through
+ * Feign's default HttpURLConnection client and through the pooled Apache client that FeignConfig
+ * builds, with the settings in application.yml. Both get FeignConfig's timeouts; the rate limiter
+ * and circuit breaker are left out, since they would cap the calls rather than the transport. The
+ * server adds a small fixed delay and the benchmark runs more threads than the JDK keeps alive
+ * connections per host, so connection churn shows up. Against the real IEX API the gap is larger
+ * still, since every new connection also costs a TLS handshake.
+ *
+ * <p>Run with: mvn test -Pbenchmark -Dtest=IexHttpTransportBenchmark
+ */
+@Slf4j
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class IexHttpTransportBenchmark {
+
+  private static final String LAST_TRADED_PRICE =
+      "[{\"symbol\":\"AAPL\",\"price\":186.3011,\"size\":100,\"time\":1565273330617}]";
+
+  private WireMockServer server;
+
+  private AnnotationConfigApplicationContext feignConfig;
+
+  private LastTradedPriceClient defaultClient;
+
+  private LastTradedPriceClient pooledClient;
+
+  /**
+   * Just the last traded price call, returning the raw body so that only the transport differs.
+   */
+  interface LastTradedPriceClient {
+
+    @RequestLine("GET /tops/last?symbols={symbols}")
+    String getLastTradedPrice(@Param("symbols") String symbols);
+  }
+
+  @Test
+  public void runBenchmarks() throws Exception {
+    Collection<RunResult> results = BenchmarkRunner.run(getClass());
+    double defaultOps = BenchmarkRunner.score(results, "defaultClient");
+    double pooledOps = BenchmarkRunner.score(results, "pooledClient");
+    log.info("Pooled client handled {}x the calls per second of the default client",
+        pooledOps / defaultOps);
+    assertTrue(pooledOps > defaultOps);
+  }
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    server = new WireMockServer(options().dynamicPort().containerThreads(64));
+    server.start();
+    server.stubFor(get(urlPathEqualTo("/tops/last")).willReturn(aResponse()
+        .withHeader("Content-Type", "application/json")
+        .withFixedDelay(1)
+        .withBody(LAST_TRADED_PRICE)));
+
+    feignConfig = new AnnotationConfigApplicationContext();
+    // Only the first document, the properties every profile shares
+    feignConfig.getEnvironment().getPropertySources().addFirst(new YamlPropertySourceLoader()
+        .load("application.yml", new ClassPathResource("application.yml")).get(0));
+    feignConfig.registerBean(MeterRegistry.class, SimpleMeterRegistry::new);
+    feignConfig.register(FeignConfig.class);
+    feignConfig.refresh();
+
+    defaultClient = target(new Client.Default(null, null));
+    pooledClient = target(new ApacheHttpClient(feignConfig.getBean(CloseableHttpClient.class)));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    feignConfig.close();
+    server.stop();
+  }
+
+  @Benchmark
+  public String defaultClient() {
+    return defaultClient.getLastTradedPrice("AAPL");
+  }
+
+  @Benchmark
+  public String pooledClient() {
+    return pooledClient.getLastTradedPrice("AAPL");
+  }
+
+  private LastTradedPriceClient target(final Client client) {
+    return Feign.builder()
+        .client(client)
+        .options(feignConfig.getBean(Request.Options.class))
+        .target(LastTradedPriceClient.class, "http://localhost:" + server.port());
+  }
+}
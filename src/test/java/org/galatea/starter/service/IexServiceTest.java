@@ -0,0 +1,508 @@
+package org.galatea.starter.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.domain.IexHistoricalPrice;
+import org.galatea.starter.domain.IexIndicatorValue;
+import org.galatea.starter.domain.IexLastTradedPrice;
+import org.galatea.starter.domain.rpsy.IexHistoricalPricesRpsy;
+import org.galatea.starter.utils.exception.CircuitOpenException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Besides checking the results, these tests count the repository queries and IEX Cloud calls a
+ * historical price request costs, and log them next to what the old day-by-day loop would have
+ * cost for the same store contents.
+ */
+@Slf4j
+@RunWith(JUnitParamsRunner.class)
+public class IexServiceTest {
+
+  private static final String SYMBOL = "TWTR";
+
+  private static final long CACHE_BYTES = 1 << 20;
+
+  private static final long BATCH_DEADLINE_MILLIS = 5000;
+
+  private static final long LTP_TTL_MILLIS = 60000;
+
+  private static final long RECHECK_MILLIS = 3_600_000;
+
+  private IexClient mockIexClient;
+
+  private IexCloudClient mockIexCloudClient;
+
+  private IexHistoricalPricesRpsy mockHistoricalPricesRpsy;
+
+  private ExecutorService iexExecutor;
+
+  private SymbolDirectory symbolDirectory;
+
+  private IexService service;
+
+  @Before
+  public void setup() {
+    mockIexClient = mock(IexClient.class);
+    mockIexCloudClient = mock(IexCloudClient.class);
+    mockHistoricalPricesRpsy = mock(IexHistoricalPricesRpsy.class);
+    iexExecutor = Executors.newFixedThreadPool(4);
+    symbolDirectory = new SymbolDirectory(mockIexClient, 3_600_000);
+    service = newService(BATCH_DEADLINE_MILLIS);
+  }
+
+  @After
+  public void tearDown() {
+    iexExecutor.shutdownNow();
+    symbolDirectory.shutdown();
+  }
+
+  @Test
+  @Parameters({"1m, 31", "1y, 365", "5y, 1825"})
+  public void testFullyStoredRangeMakesNoCloudCalls(final String range, final int amtDays)
+      throws Exception {
+    List<IexHistoricalPrice> stored = tradingDayPrices(LocalDate.now().minusDays(amtDays),
+        LocalDate.now().minusDays(1));
+    givenStored(stored);
+
+    List<IexHistoricalPrice> prices = service.getAllHistoricalPrices(SYMBOL, range, "");
+
+    assertEquals(stored.size(), prices.size());
+    verify(mockIexCloudClient, never()).getAllHistoricalPrices(anyString(), anyString(),
+        anyString());
+    logCounts(range, amtDays, stored.size());
+  }
+
+  @Test
+  @Parameters({"1m, 31", "1y, 365", "5y, 1825"})
+  public void testMissingRecentDaysUseOneNarrowCloudCall(final String range, final int amtDays)
+      throws Exception {
+    LocalDate from = LocalDate.now().minusDays(amtDays);
+    LocalDate to = LocalDate.now().minusDays(1);
+    // Nothing stored for the last two weeks
+    List<IexHistoricalPrice> stored = tradingDayPrices(from, to.minusDays(14));
+    givenStored(stored);
+    given(mockIexCloudClient.getAllHistoricalPrices(eq(SYMBOL), anyString(), anyString()))
+        .willReturn(tradingDayPrices(to.minusDays(27), to));
+
+    List<IexHistoricalPrice> prices = service.getAllHistoricalPrices(SYMBOL, range, "");
+
+    assertEquals(tradingDayPrices(from, to).size(), prices.size());
+    verify(mockIexCloudClient, times(1)).getAllHistoricalPrices(SYMBOL, "1m", "");
+    logCounts(range, amtDays, stored.size());
+  }
+
+  @Test
+  public void testEmptyStoreFetchesRequestedRange() throws Exception {
+    given(mockHistoricalPricesRpsy.findBySymbolOrderByDate(SYMBOL))
+        .willReturn(Collections.emptyList());
+    // A calendar month from IEX can start before the window
+    List<IexHistoricalPrice> cloudPrices =
+        tradingDayPrices(LocalDate.now().minusDays(40), LocalDate.now().minusDays(1));
+    given(mockIexCloudClient.getAllHistoricalPrices(SYMBOL, "1m", ""))
+        .willReturn(cloudPrices);
+
+    List<IexHistoricalPrice> prices = service.getAllHistoricalPrices(SYMBOL, "1m", "");
+
+    // Sliced to the same window as a request answered from the cache
+    assertEquals(tradingDayPrices(LocalDate.now().minusDays(31), LocalDate.now().minusDays(1)),
+        prices);
+    assertEquals(prices, service.getAllHistoricalPrices(SYMBOL, "1m", ""));
+    verify(mockHistoricalPricesRpsy).upsertAll(cloudPrices);
+  }
+
+  @Test
+  public void testMissingDateIsSentAsEmpty() {
+    given(mockHistoricalPricesRpsy.findBySymbolOrderByDate(SYMBOL))
+        .willReturn(Collections.emptyList());
+    given(mockIexCloudClient.getAllHistoricalPrices(SYMBOL, "1m", ""))
+        .willReturn(tradingDayPrices(LocalDate.now().minusDays(31), LocalDate.now().minusDays(1)));
+
+    service.getHistoricalPriceResult(SYMBOL, "1m", null);
+
+    verify(mockIexCloudClient).getAllHistoricalPrices(SYMBOL, "1m", "");
+  }
+
+  @Test
+  @Parameters({"1m, 31", "1y, 365", "5y, 1825"})
+  public void testHistoricalPriceWindowMatchesList(final String range, final int amtDays)
+      throws Exception {
+    LocalDate from = LocalDate.now().minusDays(amtDays);
+    LocalDate to = LocalDate.now().minusDays(1);
+    givenStored(tradingDayPrices(from, to.minusDays(14)));
+    given(mockIexCloudClient.getAllHistoricalPrices(eq(SYMBOL), anyString(), anyString()))
+        .willReturn(tradingDayPrices(to.minusDays(27), to));
+
+    HistoricalPriceSeries.Window window = service.getHistoricalPriceWindow("twtr", range, "");
+    List<IexHistoricalPrice> listed = service.getAllHistoricalPrices(SYMBOL, range, "");
+
+    assertEquals(SYMBOL, window.getSymbol());
+    assertEquals(tradingDayPrices(from, to).size(), window.size());
+    assertEquals(listed, window.toPrices());
+    // The window filled the gap, so the list was answered from the cache
+    verify(mockIexCloudClient, times(1)).getAllHistoricalPrices(SYMBOL, "1m", "");
+  }
+
+  @Test
+  public void testIndicatorLooksBackPastRangeStart() throws Exception {
+    LocalDate to = LocalDate.now().minusDays(1);
+    givenStored(tradingDayPrices(to.minusDays(90), to));
+
+    List<IexIndicatorValue> values = service.getIndicator("twtr", Indicator.SMA, 20, "1m");
+
+    // Every bar in the month has 20 stored bars behind it
+    assertEquals(tradingDayPrices(to.minusDays(30), to).size(), values.size());
+    assertEquals(1.0, values.get(0).getValue(), 1e-9);
+    verify(mockIexCloudClient, never()).getAllHistoricalPrices(anyString(), anyString(),
+        anyString());
+  }
+
+  @Test
+  public void testConcurrentMissesShareOneCloudCall() throws Exception {
+    List<IexHistoricalPrice> cloudPrices =
+        tradingDayPrices(LocalDate.now().minusDays(31), LocalDate.now().minusDays(1));
+    CountDownLatch cloudCalled = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    given(mockIexCloudClient.getAllHistoricalPrices(SYMBOL, "1m", "")).willAnswer(invocation -> {
+      cloudCalled.countDown();
+      release.await();
+      return cloudPrices;
+    });
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    try {
+      Future<List<IexHistoricalPrice>> first =
+          executor.submit(() -> service.getAllHistoricalPrices(SYMBOL, "1m", ""));
+      cloudCalled.await();
+      Future<List<IexHistoricalPrice>> second =
+          executor.submit(() -> service.getAllHistoricalPrices(SYMBOL, "1m", ""));
+      // Give the second request time to join the in-flight call before it completes
+      Thread.sleep(200);
+      release.countDown();
+
+      assertEquals(cloudPrices, first.get());
+      assertEquals(cloudPrices, second.get());
+    } finally {
+      executor.shutdownNow();
+    }
+    verify(mockIexCloudClient, times(1)).getAllHistoricalPrices(SYMBOL, "1m", "");
+    verify(mockHistoricalPricesRpsy, times(1)).upsertAll(anyList());
+  }
+
+  @Test
+  public void testBatchLoadsStoredSymbolsInOneQueryAndFetchesTheRest() {
+    LocalDate from = LocalDate.now().minusDays(31);
+    LocalDate to = LocalDate.now().minusDays(1);
+    given(mockHistoricalPricesRpsy.findBySymbolInOrderBySymbolAscDateAsc(anyCollection()))
+        .willReturn(tradingDayPrices("AAPL", from, to));
+    given(mockIexCloudClient.getAllHistoricalPrices("IBM", "1m", ""))
+        .willReturn(tradingDayPrices("IBM", from, to));
+    RecordingListener listener = new RecordingListener();
+
+    service.getAllHistoricalPrices(Arrays.asList("aapl", "IBM", "AAPL"), "1m", listener);
+
+    assertEquals(tradingDayPrices("AAPL", from, to), listener.prices.get("AAPL"));
+    assertEquals(tradingDayPrices("IBM", from, to), listener.prices.get("IBM"));
+    assertTrue(listener.failures.isEmpty());
+    assertTrue(listener.stale.isEmpty());
+    verify(mockHistoricalPricesRpsy, times(1))
+        .findBySymbolInOrderBySymbolAscDateAsc(Arrays.asList("AAPL", "IBM"));
+    verify(mockHistoricalPricesRpsy, never()).findBySymbolOrderByDate(anyString());
+    verify(mockIexCloudClient, never()).getAllHistoricalPrices(eq("AAPL"), anyString(),
+        anyString());
+  }
+
+  @Test
+  public void testBatchReportsSymbolsPastTheDeadline() throws Exception {
+    LocalDate from = LocalDate.now().minusDays(31);
+    LocalDate to = LocalDate.now().minusDays(1);
+    given(mockHistoricalPricesRpsy.findBySymbolInOrderBySymbolAscDateAsc(anyCollection()))
+        .willReturn(tradingDayPrices("AAPL", from, to));
+    CountDownLatch release = new CountDownLatch(1);
+    given(mockIexCloudClient.getAllHistoricalPrices("IBM", "1m", "")).willAnswer(invocation -> {
+      release.await();
+      return Collections.emptyList();
+    });
+    RecordingListener listener = new RecordingListener();
+
+    try {
+      newService(100).getAllHistoricalPrices(Arrays.asList("AAPL", "IBM"), "1m", listener);
+    } finally {
+      release.countDown();
+    }
+
+    assertEquals(Collections.singleton("AAPL"), listener.prices.keySet());
+    assertEquals(Collections.singleton("IBM"), listener.failures.keySet());
+  }
+
+  @Test
+  public void testLastTradedPricesOnlyFetchMissingSymbols() {
+    given(mockIexClient.getLastTradedPriceForSymbols(new String[]{"AAPL", "IBM"}))
+        .willReturn(Arrays.asList(lastTradedPrice("IBM"), lastTradedPrice("AAPL")));
+    given(mockIexClient.getLastTradedPriceForSymbols(new String[]{"MSFT"}))
+        .willReturn(Collections.singletonList(lastTradedPrice("MSFT")));
+
+    service.getLastTradedPriceForSymbols(Arrays.asList("AAPL", "IBM"));
+    List<IexLastTradedPrice> prices =
+        service.getLastTradedPriceForSymbols(Arrays.asList("msft", "IBM", "AAPL"));
+
+    assertEquals(Arrays.asList("MSFT", "IBM", "AAPL"), prices.stream()
+        .map(IexLastTradedPrice::getSymbol).collect(Collectors.toList()));
+    verify(mockIexClient, times(1)).getLastTradedPriceForSymbols(new String[]{"AAPL", "IBM"});
+    verify(mockIexClient, times(1)).getLastTradedPriceForSymbols(new String[]{"MSFT"});
+  }
+
+  @Test
+  public void testSymbolIsUpperCasedForLookups() {
+    givenStored(tradingDayPrices(LocalDate.now().minusDays(31), LocalDate.now().minusDays(1)));
+
+    List<IexHistoricalPrice> prices = service.getAllHistoricalPrices("twtr", "1m", "");
+
+    assertTrue(prices.size() > 0);
+    verify(mockHistoricalPricesRpsy).findBySymbolOrderByDate(SYMBOL);
+  }
+
+  @Test
+  public void testSecondRequestIsServedFromCache() {
+    givenStored(tradingDayPrices(LocalDate.now().minusDays(365), LocalDate.now().minusDays(1)));
+
+    List<IexHistoricalPrice> first = service.getAllHistoricalPrices(SYMBOL, "1y", "");
+    List<IexHistoricalPrice> second = service.getAllHistoricalPrices(SYMBOL, "1m", "");
+
+    assertEquals(tradingDayPrices(LocalDate.now().minusDays(31), LocalDate.now().minusDays(1)),
+        second);
+    assertTrue(first.size() > second.size());
+    verify(mockHistoricalPricesRpsy, times(1)).findBySymbolOrderByDate(SYMBOL);
+  }
+
+  @Test
+  public void testFetchedPricesAreAddedToCache() {
+    LocalDate to = LocalDate.now().minusDays(1);
+    givenStored(tradingDayPrices(to.minusDays(30), to.minusDays(14)));
+    given(mockIexCloudClient.getAllHistoricalPrices(eq(SYMBOL), anyString(), anyString()))
+        .willReturn(tradingDayPrices(to.minusDays(27), to));
+
+    service.getAllHistoricalPrices(SYMBOL, "1m", "");
+    List<IexHistoricalPrice> prices = service.getAllHistoricalPrices(SYMBOL, "1m", "");
+
+    assertEquals(tradingDayPrices(to.minusDays(30), to), prices);
+    verify(mockIexCloudClient, times(1)).getAllHistoricalPrices(eq(SYMBOL), anyString(),
+        anyString());
+  }
+
+  @Test
+  public void testStoredDaysAreServedStaleWhileCloudIsDown() {
+    LocalDate to = LocalDate.now().minusDays(1);
+    List<IexHistoricalPrice> stored = tradingDayPrices(to.minusDays(30), to.minusDays(14));
+    givenStored(stored);
+    given(mockIexCloudClient.getAllHistoricalPrices(eq(SYMBOL), anyString(), anyString()))
+        .willThrow(new CircuitOpenException("IEX is down"));
+
+    HistoricalPriceResult result = service.getHistoricalPriceResult(SYMBOL, "1m", "");
+    HistoricalPriceSeries.Window window = service.getHistoricalPriceWindow(SYMBOL, "1m", "");
+
+    assertEquals(stored, result.getPrices());
+    assertTrue(result.isStale());
+    assertEquals(stored.size(), window.size());
+    assertTrue(window.isStale());
+  }
+
+  @Test
+  public void testBatchFlagsSymbolsServedStale() {
+    LocalDate to = LocalDate.now().minusDays(1);
+    List<IexHistoricalPrice> stored = tradingDayPrices(to.minusDays(30), to.minusDays(14));
+    given(mockHistoricalPricesRpsy.findBySymbolInOrderBySymbolAscDateAsc(anyCollection()))
+        .willReturn(stored);
+    given(mockIexCloudClient.getAllHistoricalPrices(eq(SYMBOL), anyString(), anyString()))
+        .willThrow(new CircuitOpenException("IEX is down"));
+    RecordingListener listener = new RecordingListener();
+
+    service.getAllHistoricalPrices(Collections.singletonList(SYMBOL), "1m", listener);
+
+    assertEquals(stored, listener.prices.get(SYMBOL));
+    assertEquals(Collections.singleton(SYMBOL), listener.stale);
+  }
+
+  @Test
+  public void testStoredDaysAreNotStaleWhenNothingIsMissing() {
+    givenStored(tradingDayPrices(LocalDate.now().minusDays(31), LocalDate.now().minusDays(1)));
+
+    assertFalse(service.getHistoricalPriceResult(SYMBOL, "1m", "").isStale());
+    assertFalse(service.getHistoricalPriceWindow(SYMBOL, "1m", "").isStale());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testErrorsOtherThanCloudFailuresAreThrown() {
+    LocalDate to = LocalDate.now().minusDays(1);
+    givenStored(tradingDayPrices(to.minusDays(30), to.minusDays(14)));
+    given(mockIexCloudClient.getAllHistoricalPrices(eq(SYMBOL), anyString(), anyString()))
+        .willThrow(new IllegalStateException("Bad response"));
+
+    service.getAllHistoricalPrices(SYMBOL, "1m", "");
+  }
+
+  @Test
+  public void testMissingLastDayIsNotRefetchedUntilRecheck() {
+    LocalDate to = LocalDate.now().minusDays(1);
+    // Yesterday's bar isn't published yet, so the cloud comes back without it
+    List<IexHistoricalPrice> published = tradingDayPrices(to.minusDays(30), to.minusDays(1));
+    givenStored(published);
+    given(mockIexCloudClient.getAllHistoricalPrices(eq(SYMBOL), anyString(), anyString()))
+        .willReturn(published);
+
+    service.getAllHistoricalPrices(SYMBOL, "1m", "");
+    List<IexHistoricalPrice> prices = service.getAllHistoricalPrices(SYMBOL, "1m", "");
+    newService(BATCH_DEADLINE_MILLIS).getAllHistoricalPrices(SYMBOL, "1m", "");
+
+    assertEquals(published, prices);
+    // Only a service that hasn't checked yet goes back to the cloud
+    int expectedCalls = TradingDayGapFinder.isTradingDay(to) ? 2 : 0;
+    verify(mockIexCloudClient, times(expectedCalls)).getAllHistoricalPrices(eq(SYMBOL),
+        anyString(), anyString());
+  }
+
+  @Test
+  public void testTrailingGapIsToleratedOnceChecked() {
+    // Thanksgiving 2021 was Thursday the 25th, and the window ends on the Friday after it
+    LocalDate friday = LocalDate.of(2021, 11, 26);
+    List<TradingDayGapFinder.Gap> gaps = TradingDayGapFinder.findGaps(
+        Collections.singleton(friday.minusDays(2)), friday.minusDays(2), friday);
+
+    assertTrue(TradingDayGapFinder.needsFetch(gaps, friday));
+    assertTrue(TradingDayGapFinder.needsFetch(gaps, friday, friday.minusDays(1)));
+    assertFalse(TradingDayGapFinder.needsFetch(gaps, friday, friday));
+  }
+
+  @Test
+  public void testFindGapsSkipsWeekends() {
+    // Friday 2021-05-07 to Monday 2021-05-17, with only the first Friday stored
+    LocalDate friday = LocalDate.of(2021, 5, 7);
+    List<TradingDayGapFinder.Gap> gaps = TradingDayGapFinder.findGaps(
+        Collections.singleton(friday), friday, friday.plusDays(10));
+
+    assertEquals(1, gaps.size());
+    assertEquals(LocalDate.of(2021, 5, 10), gaps.get(0).getStart());
+    assertEquals(LocalDate.of(2021, 5, 17), gaps.get(0).getEnd());
+    assertEquals(6, gaps.get(0).getTradingDays());
+    assertTrue(TradingDayGapFinder.needsFetch(gaps, friday.plusDays(10)));
+  }
+
+  private IexService newService(final long batchDeadlineMillis) {
+    return new IexService(mockIexClient, mockIexCloudClient, mockHistoricalPricesRpsy,
+        new HistoricalPriceCache(mockHistoricalPricesRpsy, CACHE_BYTES),
+        symbolDirectory, new IndicatorEngine(100, new SimpleMeterRegistry()),
+        new LastTradedPriceCache(LTP_TTL_MILLIS, new SimpleMeterRegistry()),
+        new LastTradedPriceBatcher(mockIexClient, 0, 100, new SimpleMeterRegistry()),
+        new SimpleMeterRegistry(), iexExecutor, batchDeadlineMillis, RECHECK_MILLIS);
+  }
+
+  private void givenStored(final List<IexHistoricalPrice> stored) {
+    given(mockHistoricalPricesRpsy.findBySymbolOrderByDate(SYMBOL)).willReturn(stored);
+  }
+
+  /*
+   * Logs the queries and cloud calls this request cost, and what the day-by-day loop that used
+   * to be in IexService would have cost: two queries per stored day, one query and one cloud call
+   * per missing calendar day (weekends included), plus the up-front count and symbol lookup.
+   */
+  private void logCounts(final String range, final int amtDays, final int storedDays) {
+    long queries = mockingDetails(mockHistoricalPricesRpsy).getInvocations().stream()
+        .filter(invocation -> invocation.getMethod().getName().startsWith("find")
+            || invocation.getMethod().getName().startsWith("exists"))
+        .count();
+    long cloudCalls = mockingDetails(mockIexCloudClient).getInvocations().size();
+    int missingDays = amtDays - storedDays;
+    log.info("range={}: {} queries and {} cloud calls (day-by-day loop: {} queries and {} cloud"
+        + " calls)", range, queries, cloudCalls, 2 + (2 * storedDays) + missingDays, missingDays);
+    assertTrue(queries <= 2);
+    assertTrue(cloudCalls <= 1);
+    verify(mockHistoricalPricesRpsy, never()).findBySymbolAndDateBetweenOrderByDate(anyString(),
+        any(LocalDate.class), any(LocalDate.class));
+    if (cloudCalls == 0) {
+      verify(mockHistoricalPricesRpsy, never()).upsertAll(anyList());
+    }
+  }
+
+  private static IexLastTradedPrice lastTradedPrice(final String symbol) {
+    return IexLastTradedPrice.builder().symbol(symbol).price(BigDecimal.TEN).size(100)
+        .time(1565273330617L).build();
+  }
+
+  private static List<IexHistoricalPrice> tradingDayPrices(final LocalDate from,
+      final LocalDate to) {
+    return tradingDayPrices(SYMBOL, from, to);
+  }
+
+  private static List<IexHistoricalPrice> tradingDayPrices(final String symbol,
+      final LocalDate from, final LocalDate to) {
+    List<IexHistoricalPrice> prices = new ArrayList<>();
+    for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+      if (TradingDayGapFinder.isTradingDay(day)) {
+        prices.add(IexHistoricalPrice.builder().symbol(symbol).date(day)
+            .open(BigDecimal.ONE).high(BigDecimal.ONE).low(BigDecimal.ONE).close(BigDecimal.ONE)
+            .volume(BigInteger.TEN).build());
+      }
+    }
+    return prices;
+  }
+
+  /*
+   * Collects what a batch request hands to its listener.
+   */
+  private static class RecordingListener implements HistoricalPricesBatchListener {
+
+    private final Map<String, List<IexHistoricalPrice>> prices = new HashMap<>();
+
+    private final Set<String> stale = new HashSet<>();
+
+    private final Map<String, String> failures = new HashMap<>();
+
+    @Override
+    public void onPrices(final String symbol, final HistoricalPriceResult symbolPrices) {
+      prices.put(symbol, symbolPrices.getPrices());
+      if (symbolPrices.isStale()) {
+        stale.add(symbol);
+      }
+    }
+
+    @Override
+    public void onFailure(final String symbol, final String reason) {
+      failures.put(symbol, reason);
+    }
+  }
+}
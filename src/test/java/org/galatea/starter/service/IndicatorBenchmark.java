@@ -0,0 +1,116 @@
+package org.galatea.starter.service;
+
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.domain.IexHistoricalPrice;
+import org.galatea.starter.testutils.BenchmarkRunner;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.results.RunResult;
+
+/**
+ * Compares three ways of getting a 50 day moving average over ten years of daily bars:
+ * recomputing every window from the price entities, as clients of /iex/historicalPrices did; one
+ * pass over the series' columns; and carrying a cached result forward over the one bar added
+ * since. All four indicators are also computed together to show the cost of a full refresh.
+ *
+ * <p>Run with: mvn test -Pbenchmark -Dtest=IndicatorBenchmark
+ */
+@Slf4j
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndicatorBenchmark {
+
+  private static final int WINDOW = 50;
+
+  private List<IexHistoricalPrice> prices;
+
+  private HistoricalPriceSeries series;
+
+  private IndicatorSeries cachedBeforeLastBar;
+
+  @Test
+  public void runBenchmarks() throws Exception {
+    Collection<RunResult> results = BenchmarkRunner.run(getClass());
+    double perWindow = BenchmarkRunner.score(results, "perWindowFromEntities");
+    double singlePass = BenchmarkRunner.score(results, "singlePass");
+    double incremental = BenchmarkRunner.score(results, "extendByOneBar");
+    BenchmarkRunner.score(results, "singlePassAllIndicators");
+    log.info("Single pass is {}x faster than per window, extending a cached result {}x faster"
+        + " again", perWindow / singlePass, singlePass / incremental);
+    assertTrue(singlePass < perWindow);
+    assertTrue(incremental < singlePass);
+  }
+
+  @Setup(Level.Trial)
+  public void setup() {
+    LocalDate to = LocalDate.now().minusDays(1);
+    prices = new ArrayList<>();
+    for (LocalDate day = to.minusYears(10); !day.isAfter(to); day = day.plusDays(1)) {
+      if (TradingDayGapFinder.isTradingDay(day)) {
+        BigDecimal close = BigDecimal.valueOf(10_000 + (day.toEpochDay() * 37) % 997, 2);
+        prices.add(IexHistoricalPrice.builder().symbol("BENCH").date(day)
+            .open(close).high(close).low(close).close(close)
+            .volume(BigInteger.valueOf(1_000_000 + day.getDayOfYear())).build());
+      }
+    }
+    HistoricalPriceSeries beforeLastBar =
+        HistoricalPriceSeries.of("BENCH", prices.subList(0, prices.size() - 1));
+    series = beforeLastBar.merge(prices.subList(prices.size() - 1, prices.size()));
+    cachedBeforeLastBar = IndicatorSeries.compute(beforeLastBar, Indicator.SMA, WINDOW);
+  }
+
+  @Benchmark
+  public double[] perWindowFromEntities() {
+    double[] values = new double[prices.size()];
+    for (int i = WINDOW - 1; i < prices.size(); i++) {
+      BigDecimal sum = BigDecimal.ZERO;
+      for (int j = i - WINDOW + 1; j <= i; j++) {
+        sum = sum.add(prices.get(j).getClose());
+      }
+      values[i] = sum.divide(BigDecimal.valueOf(WINDOW), MathContext.DECIMAL64).doubleValue();
+    }
+    return values;
+  }
+
+  @Benchmark
+  public IndicatorSeries singlePass() {
+    return IndicatorSeries.compute(series, Indicator.SMA, WINDOW);
+  }
+
+  @Benchmark
+  public IndicatorSeries extendByOneBar() {
+    return cachedBeforeLastBar.extend(series);
+  }
+
+  @Benchmark
+  public void singlePassAllIndicators(final Blackhole blackhole) {
+    for (Indicator indicator : Indicator.values()) {
+      blackhole.consume(IndicatorSeries.compute(series, indicator, WINDOW));
+    }
+  }
+}
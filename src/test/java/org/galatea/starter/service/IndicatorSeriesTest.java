@@ -0,0 +1,202 @@
+package org.galatea.starter.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.galatea.starter.domain.IexHistoricalPrice;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(JUnitParamsRunner.class)
+public class IndicatorSeriesTest {
+
+  private static final LocalDate START = LocalDate.of(2021, 1, 1);
+
+  private static final int WINDOW = 5;
+
+  @Test
+  @Parameters({"SMA", "EMA", "VWAP", "VOLATILITY"})
+  public void testMatchesDirectComputation(final Indicator indicator) {
+    HistoricalPriceSeries series = series(40);
+
+    IndicatorSeries computed = IndicatorSeries.compute(series, indicator, WINDOW);
+
+    double[] expected = direct(series, indicator, WINDOW);
+    for (int i = 0; i < series.size(); i++) {
+      assertEquals(indicator + " at " + i, expected[i], computed.getValue(i), 1e-9);
+    }
+  }
+
+  @Test
+  @Parameters({"SMA", "EMA", "VWAP", "VOLATILITY"})
+  public void testExtendingMatchesComputingAfresh(final Indicator indicator) {
+    List<IexHistoricalPrice> prices = prices(40);
+    HistoricalPriceSeries shorter = HistoricalPriceSeries.of("AAPL", prices.subList(0, 25));
+    HistoricalPriceSeries longer = shorter.merge(prices.subList(20, 40));
+
+    IndicatorSeries extended =
+        IndicatorSeries.compute(shorter, indicator, WINDOW).extend(longer);
+
+    IndicatorSeries computed = IndicatorSeries.compute(longer, indicator, WINDOW);
+    assertEquals(computed.size(), extended.size());
+    for (int i = 0; i < longer.size(); i++) {
+      assertEquals(indicator + " at " + i, computed.getValue(i), extended.getValue(i), 1e-9);
+    }
+  }
+
+  @Test
+  public void testBarsAddedInTheMiddleCantBeExtended() {
+    List<IexHistoricalPrice> prices = prices(40);
+    List<IexHistoricalPrice> withGap = new ArrayList<>(prices);
+    withGap.remove(10);
+    HistoricalPriceSeries series = HistoricalPriceSeries.of("AAPL", withGap);
+    IndicatorSeries computed = IndicatorSeries.compute(series, Indicator.SMA, WINDOW);
+
+    assertNull(computed.extend(series.merge(prices)));
+  }
+
+  @Test
+  public void testBarChangedInTheMiddleIsNotServedFromCache() {
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    IndicatorEngine engine = new IndicatorEngine(10, meterRegistry);
+    List<IexHistoricalPrice> prices = prices(40);
+    HistoricalPriceSeries series = HistoricalPriceSeries.of("AAPL", prices);
+    IexHistoricalPrice old = prices.get(10);
+    IexHistoricalPrice corrected = IexHistoricalPrice.builder().symbol("AAPL").date(old.getDate())
+        .open(old.getOpen()).high(old.getHigh()).low(old.getLow())
+        .close(old.getClose().add(BigDecimal.TEN)).volume(old.getVolume()).build();
+    HistoricalPriceSeries upserted = series.merge(Collections.singletonList(corrected));
+
+    engine.get(series, Indicator.SMA, WINDOW);
+    engine.update(upserted);
+    IndicatorSeries updated = engine.get(upserted, Indicator.SMA, WINDOW);
+
+    assertEquals(IndicatorSeries.compute(upserted, Indicator.SMA, WINDOW).getValue(12),
+        updated.getValue(12), 1e-9);
+    assertEquals(2, meterRegistry.counter("iex.indicators.cache", "result", "miss").count(), 0);
+  }
+
+  @Test
+  public void testValuesSkipBarsBeforeTheFirstWindow() {
+    HistoricalPriceSeries series = series(10);
+
+    IndicatorSeries computed = IndicatorSeries.compute(series, Indicator.SMA, WINDOW);
+
+    assertEquals(6, computed.getValues(0, series.size()).size());
+    assertEquals(START.plusDays(4), computed.getValues(0, series.size()).get(0).getDate());
+  }
+
+  @Test
+  public void testEngineExtendsCachedIndicator() {
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    IndicatorEngine engine = new IndicatorEngine(10, meterRegistry);
+    List<IexHistoricalPrice> prices = prices(40);
+    HistoricalPriceSeries shorter = HistoricalPriceSeries.of("AAPL", prices.subList(0, 25));
+    HistoricalPriceSeries longer = shorter.merge(prices.subList(25, 40));
+
+    IndicatorSeries first = engine.get(shorter, Indicator.EMA, WINDOW);
+    assertSame(first, engine.get(shorter, Indicator.EMA, WINDOW));
+    engine.update(longer);
+    IndicatorSeries updated = engine.get(longer, Indicator.EMA, WINDOW);
+
+    assertTrue(updated.isFor(longer));
+    assertEquals(1, meterRegistry.counter("iex.indicators.cache", "result", "miss").count(), 0);
+    assertEquals(2, meterRegistry.counter("iex.indicators.cache", "result", "hit").count(), 0);
+    assertEquals(1, meterRegistry.counter("iex.indicators.cache", "result", "extend").count(), 0);
+  }
+
+  @Test
+  public void testEngineKeepsAtMostMaxEntries() {
+    IndicatorEngine engine = new IndicatorEngine(2, new SimpleMeterRegistry());
+    HistoricalPriceSeries series = series(10);
+
+    engine.get(series, Indicator.SMA, 2);
+    engine.get(series, Indicator.SMA, 3);
+    engine.get(series, Indicator.SMA, 4);
+
+    assertEquals(2, engine.size());
+  }
+
+  /*
+   * Each value computed from its own window, the slow way.
+   */
+  private static double[] direct(final HistoricalPriceSeries series, final Indicator indicator,
+      final int window) {
+    List<IexHistoricalPrice> prices = series.toPrices(0, series.size());
+    double[] values = new double[prices.size()];
+    double ema = Double.NaN;
+    for (int i = 0; i < prices.size(); i++) {
+      values[i] = Double.NaN;
+      if (indicator == Indicator.VOLATILITY) {
+        if (i >= window) {
+          double[] returns = new double[window];
+          double mean = 0;
+          for (int j = 0; j < window; j++) {
+            int bar = i - window + 1 + j;
+            returns[j] = Math.log(close(prices, bar) / close(prices, bar - 1));
+            mean += returns[j] / window;
+          }
+          double squares = 0;
+          for (double oneReturn : returns) {
+            squares += (oneReturn - mean) * (oneReturn - mean);
+          }
+          values[i] = Math.sqrt(squares / (window - 1) * 252);
+        }
+      } else if (i >= window - 1) {
+        double closes = 0;
+        double weighted = 0;
+        double volumes = 0;
+        for (int j = i - window + 1; j <= i; j++) {
+          IexHistoricalPrice price = prices.get(j);
+          double typical = (price.getHigh().doubleValue() + price.getLow().doubleValue()
+              + price.getClose().doubleValue()) / 3;
+          closes += close(prices, j);
+          weighted += typical * price.getVolume().doubleValue();
+          volumes += price.getVolume().doubleValue();
+        }
+        if (indicator == Indicator.SMA) {
+          values[i] = closes / window;
+        } else if (indicator == Indicator.VWAP) {
+          values[i] = weighted / volumes;
+        } else {
+          ema = i == window - 1 ? closes / window
+              : ema + 2.0 / (window + 1) * (close(prices, i) - ema);
+          values[i] = ema;
+        }
+      }
+    }
+    return values;
+  }
+
+  private static double close(final List<IexHistoricalPrice> prices, final int i) {
+    return prices.get(i).getClose().doubleValue();
+  }
+
+  private static HistoricalPriceSeries series(final int days) {
+    return HistoricalPriceSeries.of("AAPL", prices(days));
+  }
+
+  private static List<IexHistoricalPrice> prices(final int days) {
+    List<IexHistoricalPrice> prices = new ArrayList<>();
+    for (int i = 0; i < days; i++) {
+      // Wanders up and down so that the returns aren't all the same
+      BigDecimal close = BigDecimal.valueOf(100 + (i * 37) % 11 + i / 4.0);
+      prices.add(IexHistoricalPrice.builder().symbol("AAPL").date(START.plusDays(i))
+          .open(close).high(close.add(BigDecimal.ONE)).low(close.subtract(BigDecimal.ONE))
+          .close(close).volume(BigInteger.valueOf(1000 + (i * 53) % 17)).build());
+    }
+    return prices;
+  }
+}
@@ -0,0 +1,168 @@
+package org.galatea.starter.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.mock;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.galatea.starter.domain.IexLastTradedPrice;
+import org.galatea.starter.utils.TokenBucket.Priority;
+import org.galatea.starter.utils.http.RateLimitedClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LastTradedPriceBatcherTest {
+
+  private IexClient mockIexClient;
+
+  private List<List<String>> calls;
+
+  private List<Priority> callPriorities;
+
+  private ExecutorService callers;
+
+  @Before
+  public void setup() {
+    mockIexClient = mock(IexClient.class);
+    calls = new CopyOnWriteArrayList<>();
+    callPriorities = new CopyOnWriteArrayList<>();
+    callers = Executors.newFixedThreadPool(4);
+    // Answers in reverse order, like nothing guarantees it won't
+    given(mockIexClient.getLastTradedPriceForSymbols(any())).willAnswer(invocation -> {
+      List<String> symbols = Arrays.asList(invocation.<String[]>getArgument(0));
+      calls.add(symbols);
+      callPriorities.add(RateLimitedClient.currentPriority());
+      List<IexLastTradedPrice> prices =
+          symbols.stream().map(LastTradedPriceBatcherTest::price).collect(Collectors.toList());
+      Collections.reverse(prices);
+      return prices;
+    });
+  }
+
+  @After
+  public void tearDown() {
+    callers.shutdownNow();
+  }
+
+  @Test
+  public void testConcurrentCallersShareOneCall() throws Exception {
+    // A long window so that every caller arrives before it passes
+    LastTradedPriceBatcher batcher =
+        new LastTradedPriceBatcher(mockIexClient, 1000, 100, new SimpleMeterRegistry());
+    List<List<String>> requests = Arrays.asList(Arrays.asList("AAPL", "IBM"),
+        Arrays.asList("IBM", "MSFT"), Arrays.asList("TWTR"), Arrays.asList("MSFT", "AAPL"));
+    CountDownLatch start = new CountDownLatch(1);
+
+    List<Future<List<IexLastTradedPrice>>> results = new ArrayList<>();
+    for (List<String> request : requests) {
+      results.add(callers.submit(() -> {
+        start.await();
+        return batcher.fetch(request);
+      }));
+    }
+    start.countDown();
+
+    for (int i = 0; i < requests.size(); i++) {
+      assertEquals(requests.get(i), symbols(results.get(i).get()));
+    }
+    assertEquals(1, calls.size());
+    assertEquals(new HashSet<>(Arrays.asList("AAPL", "IBM", "MSFT", "TWTR")),
+        new HashSet<>(calls.get(0)));
+  }
+
+  @Test
+  public void testCallersOfDifferentPrioritiesAreBatchedApart() throws Exception {
+    LastTradedPriceBatcher batcher =
+        new LastTradedPriceBatcher(mockIexClient, 1000, 100, new SimpleMeterRegistry());
+    List<Priority> priorities = Arrays.asList(Priority.INTERACTIVE, Priority.BACKGROUND,
+        Priority.INTERACTIVE, Priority.BACKGROUND);
+    List<List<String>> requests = Arrays.asList(Arrays.asList("AAPL"), Arrays.asList("IBM"),
+        Arrays.asList("MSFT"), Arrays.asList("TWTR"));
+    CountDownLatch start = new CountDownLatch(1);
+
+    List<Future<List<IexLastTradedPrice>>> results = new ArrayList<>();
+    for (int i = 0; i < requests.size(); i++) {
+      List<String> request = requests.get(i);
+      Priority priority = priorities.get(i);
+      results.add(callers.submit(() -> {
+        start.await();
+        return RateLimitedClient.callAs(priority, () -> batcher.fetch(request));
+      }));
+    }
+    start.countDown();
+
+    for (int i = 0; i < requests.size(); i++) {
+      assertEquals(requests.get(i), symbols(results.get(i).get()));
+    }
+    // One call per priority, each made at the priority of the callers in it
+    assertEquals(2, calls.size());
+    for (int i = 0; i < calls.size(); i++) {
+      Set<String> expected = callPriorities.get(i) == Priority.INTERACTIVE
+          ? new HashSet<>(Arrays.asList("AAPL", "MSFT"))
+          : new HashSet<>(Arrays.asList("IBM", "TWTR"));
+      assertEquals(expected, new HashSet<>(calls.get(i)));
+    }
+    assertEquals(EnumSet.allOf(Priority.class), EnumSet.copyOf(callPriorities));
+  }
+
+  @Test
+  public void testFullBatchIsSentBeforeTheWindowPasses() {
+    LastTradedPriceBatcher batcher =
+        new LastTradedPriceBatcher(mockIexClient, 60000, 2, new SimpleMeterRegistry());
+
+    long start = System.nanoTime();
+    List<IexLastTradedPrice> prices = batcher.fetch(Arrays.asList("AAPL", "IBM"));
+
+    assertEquals(Arrays.asList("AAPL", "IBM"), symbols(prices));
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 10000);
+    assertEquals(1, calls.size());
+  }
+
+  @Test
+  public void testLoneCallerIsSentOnceTheWindowPasses() {
+    LastTradedPriceBatcher batcher =
+        new LastTradedPriceBatcher(mockIexClient, 2, 100, new SimpleMeterRegistry());
+
+    assertEquals(Arrays.asList("AAPL"), symbols(batcher.fetch(Arrays.asList("AAPL"))));
+    assertEquals(Arrays.asList("IBM"), symbols(batcher.fetch(Arrays.asList("IBM"))));
+    assertEquals(2, calls.size());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testCallFailureIsRethrown() {
+    willThrow(new IllegalStateException("IEX is down"))
+        .given(mockIexClient).getLastTradedPriceForSymbols(any());
+    LastTradedPriceBatcher batcher =
+        new LastTradedPriceBatcher(mockIexClient, 2, 100, new SimpleMeterRegistry());
+
+    batcher.fetch(Arrays.asList("AAPL"));
+  }
+
+  private static List<String> symbols(final List<IexLastTradedPrice> prices) {
+    return prices.stream().map(IexLastTradedPrice::getSymbol).collect(Collectors.toList());
+  }
+
+  private static IexLastTradedPrice price(final String symbol) {
+    return IexLastTradedPrice.builder().symbol(symbol).price(BigDecimal.TEN).size(100)
+        .time(1565273330617L).build();
+  }
+}
@@ -0,0 +1,131 @@
+package org.galatea.starter.service;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.junit.Assert.assertTrue;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.Application;
+import org.galatea.starter.domain.IexLastTradedPrice;
+import org.galatea.starter.testutils.BenchmarkRunner;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.RunResult;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Compares many concurrent callers asking for 1 to 5 last traded prices each, sent straight
+ * through to IEX one call per caller and combined into 2ms batches. IEX is a local WireMock server
+ * that takes a few milliseconds per call, and the calls go through the application's own IexClient
+ * and pooled HTTP client, so a batch pays for one round trip where pass-through pays for many.
+ *
+ * <p>Run with: mvn test -Pbenchmark -Dtest=LastTradedPriceBatchingBenchmark
+ */
+@Slf4j
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(64)
+@Fork(1)
+public class LastTradedPriceBatchingBenchmark {
+
+  private static final List<String> SYMBOLS = IntStream.range(0, 50)
+      .mapToObj(i -> "SYM" + i)
+      .collect(Collectors.toList());
+
+  private WireMockServer server;
+
+  private ConfigurableApplicationContext context;
+
+  private LastTradedPriceBatcher passThrough;
+
+  private LastTradedPriceBatcher batched;
+
+  @Test
+  public void runBenchmarks() throws Exception {
+    Collection<RunResult> results = BenchmarkRunner.run(getClass());
+    double passThroughOps = BenchmarkRunner.score(results, "passThrough");
+    double batchedOps = BenchmarkRunner.score(results, "batched");
+    log.info("Batched requests handled {}x the calls per second of pass-through",
+        batchedOps / passThroughOps);
+    assertTrue(batchedOps > 0 && passThroughOps > 0);
+  }
+
+  @Setup(Level.Trial)
+  public void setup() {
+    server = new WireMockServer(options().dynamicPort().containerThreads(128));
+    server.start();
+    // Every symbol in every response: callers only pick out their own
+    String body = SYMBOLS.stream()
+        .map(symbol -> "{\"symbol\":\"" + symbol + "\",\"price\":186.3011,\"size\":100,"
+            + "\"time\":1565273330617}")
+        .collect(Collectors.joining(",", "[", "]"));
+    server.stubFor(get(urlPathEqualTo("/tops/last")).willReturn(aResponse()
+        .withHeader("Content-Type", "application/json")
+        .withFixedDelay(5)
+        .withBody(body)));
+
+    context = new SpringApplicationBuilder(Application.class)
+        .web(WebApplicationType.NONE)
+        .run("--server.port=0", "--wiremock.server.port=" + server.port());
+    IexClient iexClient = context.getBean(IexClient.class);
+    passThrough = new LastTradedPriceBatcher(iexClient, 0, 100, new SimpleMeterRegistry());
+    batched = new LastTradedPriceBatcher(iexClient, 2, 100, new SimpleMeterRegistry());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+    server.stop();
+  }
+
+  @Benchmark
+  public List<IexLastTradedPrice> passThrough() {
+    return passThrough.fetch(randomSymbols());
+  }
+
+  @Benchmark
+  public List<IexLastTradedPrice> batched() {
+    return batched.fetch(randomSymbols());
+  }
+
+  private static List<String> randomSymbols() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int count = 1 + random.nextInt(5);
+    List<String> symbols = new ArrayList<>(count);
+    while (symbols.size() < count) {
+      String symbol = SYMBOLS.get(random.nextInt(SYMBOLS.size()));
+      if (!symbols.contains(symbol)) {
+        symbols.add(symbol);
+      }
+    }
+    return symbols;
+  }
+}
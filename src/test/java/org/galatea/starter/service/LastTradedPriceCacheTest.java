@@ -0,0 +1,184 @@
+package org.galatea.starter.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import feign.FeignException;
+import feign.Response;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.awaitility.Awaitility;
+import org.galatea.starter.domain.IexLastTradedPrice;
+import org.galatea.starter.utils.exception.CircuitOpenException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LastTradedPriceCacheTest {
+
+  private MeterRegistry meterRegistry;
+
+  private List<List<String>> loads;
+
+  private Function<List<String>, List<IexLastTradedPrice>> loader;
+
+  @Before
+  public void setup() {
+    meterRegistry = new SimpleMeterRegistry();
+    loads = new ArrayList<>();
+    // Answers in reverse order and never knows UNKNOWN, like the real endpoint may
+    loader = symbols -> {
+      loads.add(symbols);
+      List<IexLastTradedPrice> prices = symbols.stream()
+          .filter(symbol -> !symbol.equals("UNKNOWN"))
+          .map(LastTradedPriceCacheTest::price)
+          .collect(Collectors.toList());
+      Collections.reverse(prices);
+      return prices;
+    };
+  }
+
+  @Test
+  public void testOnlyMissingSymbolsAreLoaded() {
+    LastTradedPriceCache cache = new LastTradedPriceCache(60000, meterRegistry);
+
+    cache.getAll(Arrays.asList("AAPL", "IBM"), loader);
+    List<IexLastTradedPrice> prices = cache.getAll(Arrays.asList("msft", "IBM", "AAPL"), loader);
+
+    assertEquals(Arrays.asList("MSFT", "IBM", "AAPL"), symbols(prices));
+    assertEquals(Arrays.asList(Arrays.asList("AAPL", "IBM"), Arrays.asList("MSFT")), loads);
+    assertEquals(2, count("hit"), 0);
+    assertEquals(3, count("miss"), 0);
+  }
+
+  @Test
+  public void testSymbolsWithoutPriceAreLeftOut() {
+    LastTradedPriceCache cache = new LastTradedPriceCache(60000, meterRegistry);
+
+    List<IexLastTradedPrice> prices =
+        cache.getAll(Arrays.asList("AAPL", "UNKNOWN", "aapl", "IBM"), loader);
+
+    assertEquals(Arrays.asList("AAPL", "IBM"), symbols(prices));
+    assertEquals(Arrays.asList(Arrays.asList("AAPL", "UNKNOWN", "IBM")), loads);
+  }
+
+  @Test
+  public void testExpiredPricesAreLoadedAgain() {
+    LastTradedPriceCache cache = new LastTradedPriceCache(0, meterRegistry);
+
+    cache.getAll(Arrays.asList("AAPL"), loader);
+    cache.getAll(Arrays.asList("AAPL"), loader);
+
+    assertEquals(2, loads.size());
+    assertEquals(0, count("hit"), 0);
+  }
+
+  @Test
+  public void testNothingIsLoadedWhenAllCached() {
+    LastTradedPriceCache cache = new LastTradedPriceCache(60000, meterRegistry);
+
+    cache.getAll(Arrays.asList("AAPL", "IBM"), loader);
+    List<IexLastTradedPrice> prices = cache.getAll(Arrays.asList("IBM", "AAPL"), loader);
+
+    assertEquals(Arrays.asList("IBM", "AAPL"), symbols(prices));
+    assertEquals(1, loads.size());
+  }
+
+  @Test
+  public void testStalePricesAreServedWhenLoadFails() {
+    LastTradedPriceCache cache = new LastTradedPriceCache(0, meterRegistry);
+    cache.getAll(Arrays.asList("AAPL"), loader);
+
+    List<IexLastTradedPrice> prices = cache.getAll(Arrays.asList("AAPL", "IBM"), symbols -> {
+      throw new CircuitOpenException("IEX is down");
+    });
+
+    // IBM was never loaded, so has nothing to serve
+    assertEquals(Arrays.asList("AAPL"), symbols(prices));
+    assertTrue(prices.get(0).getStale());
+    assertEquals(1, meterRegistry.counter("iex.stale-serves", "data", "last-traded-price")
+        .count(), 0);
+    cache.shutdown();
+  }
+
+  @Test
+  public void testRevalidationRefreshesStalePrices() {
+    LastTradedPriceCache cache = new LastTradedPriceCache(0, meterRegistry);
+    cache.getAll(Arrays.asList("AAPL"), loader);
+    AtomicBoolean down = new AtomicBoolean(true);
+
+    // Fails for the caller, then succeeds for the background fetch
+    cache.getAll(Arrays.asList("AAPL"), symbols -> {
+      if (down.getAndSet(false)) {
+        throw new CircuitOpenException("IEX is down");
+      }
+      return loader.apply(symbols);
+    });
+
+    Awaitility.await().until(() -> loads.size() == 2);
+    assertNull(cache.getAll(Arrays.asList("AAPL"), loader).get(0).getStale());
+    cache.shutdown();
+  }
+
+  @Test(expected = CircuitOpenException.class)
+  public void testLoadFailureIsThrownWhenNothingIsCached() {
+    LastTradedPriceCache cache = new LastTradedPriceCache(60000, meterRegistry);
+
+    cache.getAll(Arrays.asList("AAPL"), symbols -> {
+      throw new CircuitOpenException("IEX is down");
+    });
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testOtherFailuresAreThrownEvenWhenCached() {
+    LastTradedPriceCache cache = new LastTradedPriceCache(0, meterRegistry);
+    cache.getAll(Arrays.asList("AAPL"), loader);
+
+    // Not an IEX outage, so serving stale prices would only hide it
+    cache.getAll(Arrays.asList("AAPL"), symbols -> {
+      throw new IllegalStateException("Bad response");
+    });
+  }
+
+  @Test
+  public void testClientErrorsAreThrownEvenWhenCached() {
+    LastTradedPriceCache cache = new LastTradedPriceCache(0, meterRegistry);
+    cache.getAll(Arrays.asList("AAPL"), loader);
+
+    // IEX answered, so the request is wrong rather than IEX being out
+    try {
+      cache.getAll(Arrays.asList("AAPL"), symbols -> {
+        throw FeignException.errorStatus("IexClient#getLastTradedPriceForSymbols(String[])",
+            Response.builder().status(401).headers(Collections.emptyMap()).build());
+      });
+      fail("Expected the 401 to be thrown");
+    } catch (FeignException err) {
+      assertEquals(401, err.status());
+    }
+    assertEquals(0, meterRegistry.counter("iex.stale-serves", "data", "last-traded-price")
+        .count(), 0);
+    cache.shutdown();
+  }
+
+  private double count(final String result) {
+    return meterRegistry.counter("iex.last-traded-price.cache", "result", result).count();
+  }
+
+  private static List<String> symbols(final List<IexLastTradedPrice> prices) {
+    return prices.stream().map(IexLastTradedPrice::getSymbol).collect(Collectors.toList());
+  }
+
+  private static IexLastTradedPrice price(final String symbol) {
+    return IexLastTradedPrice.builder().symbol(symbol).price(BigDecimal.TEN).size(100)
+        .time(1565273330617L).build();
+  }
+}
@@ -0,0 +1,272 @@
+package org.galatea.starter.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.galatea.starter.domain.IexLastTradedPrice;
+import org.galatea.starter.service.LastTradedPriceStream.Subscription;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LastTradedPriceStreamTest {
+
+  private IexService mockIexService;
+
+  private MeterRegistry meterRegistry;
+
+  private LastTradedPriceStream stream;
+
+  @Before
+  public void setup() {
+    mockIexService = mock(IexService.class);
+    meterRegistry = new SimpleMeterRegistry();
+    // A poll interval long enough that the tests poll by hand
+    stream = new LastTradedPriceStream(mockIexService, 3_600_000, 60_000, 16, 1000,
+        meterRegistry);
+  }
+
+  @After
+  public void tearDown() {
+    stream.shutdown();
+  }
+
+  @Test
+  public void testOnlyChangedPricesAreSent() throws Exception {
+    RecordingListener aaplAndIbm = new RecordingListener();
+    RecordingListener ibm = new RecordingListener();
+    stream.subscribe(Arrays.asList("aapl", "IBM"), aaplAndIbm);
+    stream.subscribe(Collections.singletonList("IBM"), ibm);
+
+    givenPrices(price("AAPL", "100"), price("IBM", "50"));
+    stream.poll();
+    assertEquals(Arrays.asList("AAPL", "IBM"), symbols(aaplAndIbm.next()));
+    assertEquals(Collections.singletonList("IBM"), symbols(ibm.next()));
+
+    givenPrices(price("AAPL", "101"), price("IBM", "50"));
+    stream.poll();
+    assertEquals(Collections.singletonList(price("AAPL", "101")), aaplAndIbm.next());
+
+    // IBM didn't change, so its subscriber hears nothing
+    assertEquals(null, ibm.updates.poll(100, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testNewSubscriberGetsLatestPrices() throws Exception {
+    stream.subscribe(Collections.singletonList("AAPL"), new RecordingListener());
+    givenPrices(price("AAPL", "100"));
+    stream.poll();
+
+    RecordingListener late = new RecordingListener();
+    stream.subscribe(Collections.singletonList("AAPL"), late);
+
+    assertEquals(Collections.singletonList(price("AAPL", "100")), late.next());
+  }
+
+  @Test
+  public void testSlowSubscriberOnlyGetsNewestPrice() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    BlockingQueue<List<IexLastTradedPrice>> updates = new LinkedBlockingQueue<>();
+    stream.subscribe(Collections.singletonList("AAPL"), prices -> {
+      updates.add(prices);
+      try {
+        release.await();
+      } catch (InterruptedException err) {
+        Thread.currentThread().interrupt();
+      }
+    });
+
+    givenPrices(price("AAPL", "100"));
+    stream.poll();
+    // The subscriber is now stuck sending the first update
+    assertEquals(Collections.singletonList(price("AAPL", "100")),
+        updates.poll(5, TimeUnit.SECONDS));
+
+    for (String price : Arrays.asList("101", "102", "103")) {
+      givenPrices(price("AAPL", price));
+      stream.poll();
+    }
+    release.countDown();
+
+    // Of the three updates made while it was stuck, only the newest is left to send
+    assertEquals(Collections.singletonList(price("AAPL", "103")),
+        updates.poll(5, TimeUnit.SECONDS));
+    assertEquals(2, meterRegistry.counter("iex.last-traded-price.stream.dropped").count(), 0);
+  }
+
+  @Test
+  public void testFailedSubscriberIsCancelled() throws Exception {
+    CountDownLatch failed = new CountDownLatch(1);
+    stream.subscribe(Collections.singletonList("AAPL"), prices -> {
+      failed.countDown();
+      throw new IOException("Client went away");
+    });
+    givenPrices(price("AAPL", "100"));
+    stream.poll();
+
+    failed.await(5, TimeUnit.SECONDS);
+    for (int i = 0; i < 50 && stream.getSubscriberCount() > 0; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, stream.getSubscriberCount());
+  }
+
+  @Test
+  public void testStuckSubscriberIsDroppedWithoutHoldingUpOthers() throws Exception {
+    stream.shutdown();
+    stream = new LastTradedPriceStream(mockIexService, 3_600_000, 100, 16, 1000, meterRegistry);
+    CountDownLatch interrupted = new CountDownLatch(1);
+    // Never accepts the update, like a client that stopped reading
+    stream.subscribe(Collections.singletonList("AAPL"), prices -> {
+      try {
+        new CountDownLatch(1).await();
+      } catch (InterruptedException err) {
+        interrupted.countDown();
+        throw new IOException("Write interrupted", err);
+      }
+    });
+    List<RecordingListener> others = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      others.add(new RecordingListener());
+      stream.subscribe(Collections.singletonList("AAPL"), others.get(i));
+    }
+
+    givenPrices(price("AAPL", "100"));
+    stream.poll();
+
+    for (RecordingListener other : others) {
+      assertEquals(Collections.singletonList(price("AAPL", "100")), other.next());
+    }
+    assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    assertEquals(others.size(), stream.getSubscriberCount());
+    assertEquals(1, meterRegistry.counter("iex.last-traded-price.stream.timeouts").count(), 0);
+  }
+
+  @Test
+  public void testStuckSubscriberTimesOutWhilePollIsBlocked() throws Exception {
+    stream.shutdown();
+    // Polls on its own schedule, and the second poll blocks on IEX for the rest of the test
+    CountDownLatch iexAnswers = new CountDownLatch(1);
+    CountDownLatch pollBlocked = new CountDownLatch(1);
+    AtomicInteger polls = new AtomicInteger();
+    given(mockIexService.getLastTradedPriceForSymbols(anyList())).willAnswer(invocation -> {
+      if (polls.incrementAndGet() > 1) {
+        pollBlocked.countDown();
+        iexAnswers.await();
+      }
+      return Collections.singletonList(price("AAPL", "100"));
+    });
+    stream = new LastTradedPriceStream(mockIexService, 10, 100, 16, 1000, meterRegistry);
+    CountDownLatch interrupted = new CountDownLatch(1);
+    stream.subscribe(Collections.singletonList("AAPL"), prices -> {
+      try {
+        new CountDownLatch(1).await();
+      } catch (InterruptedException err) {
+        interrupted.countDown();
+        throw new IOException("Write interrupted", err);
+      }
+    });
+
+    try {
+      assertTrue(pollBlocked.await(5, TimeUnit.SECONDS));
+      // The write is timed out although the poller is stuck
+      assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+      assertEquals(0, stream.getSubscriberCount());
+    } finally {
+      iexAnswers.countDown();
+    }
+  }
+
+  @Test
+  public void testSubscribersBeyondTheSenderQueueAreDropped() throws Exception {
+    stream.shutdown();
+    stream = new LastTradedPriceStream(mockIexService, 3_600_000, 60_000, 1, 1, meterRegistry);
+    CountDownLatch release = new CountDownLatch(1);
+    // Holds the only sender thread
+    stream.subscribe(Collections.singletonList("AAPL"), prices -> {
+      try {
+        release.await();
+      } catch (InterruptedException err) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    givenPrices(price("AAPL", "100"));
+    stream.poll();
+    RecordingListener queued = new RecordingListener();
+    RecordingListener dropped = new RecordingListener();
+    stream.subscribe(Collections.singletonList("AAPL"), queued);
+
+    stream.subscribe(Collections.singletonList("AAPL"), dropped);
+
+    assertTrue(dropped.dropped.await(5, TimeUnit.SECONDS));
+    assertEquals(2, stream.getSubscriberCount());
+    assertEquals(1, meterRegistry.counter("iex.last-traded-price.stream.rejected").count(), 0);
+    release.countDown();
+    assertEquals(Collections.singletonList(price("AAPL", "100")), queued.next());
+  }
+
+  @Test
+  public void testNothingIsPolledWithoutSubscribers() {
+    Subscription subscription =
+        stream.subscribe(Collections.singletonList("AAPL"), new RecordingListener());
+    subscription.cancel();
+
+    stream.poll();
+
+    verify(mockIexService, never()).getLastTradedPriceForSymbols(anyList());
+  }
+
+  private void givenPrices(final IexLastTradedPrice... prices) {
+    given(mockIexService.getLastTradedPriceForSymbols(anyList()))
+        .willReturn(Arrays.asList(prices));
+  }
+
+  private static List<String> symbols(final List<IexLastTradedPrice> prices) {
+    return prices.stream().map(IexLastTradedPrice::getSymbol).collect(Collectors.toList());
+  }
+
+  private static IexLastTradedPrice price(final String symbol, final String price) {
+    return IexLastTradedPrice.builder().symbol(symbol).price(new BigDecimal(price)).size(100)
+        .time(1565273330617L).build();
+  }
+
+  private static class RecordingListener implements LastTradedPriceListener {
+
+    private final BlockingQueue<List<IexLastTradedPrice>> updates = new LinkedBlockingQueue<>();
+
+    private final CountDownLatch dropped = new CountDownLatch(1);
+
+    @Override
+    public void onPrices(final List<IexLastTradedPrice> prices) {
+      updates.add(new ArrayList<>(prices));
+    }
+
+    @Override
+    public void onDropped() {
+      dropped.countDown();
+    }
+
+    List<IexLastTradedPrice> next() throws InterruptedException {
+      return updates.poll(5, TimeUnit.SECONDS);
+    }
+  }
+}
@@ -155,4 +155,20 @@ public class SettlementServiceTest extends ASpringTest {
     boolean missionExists = service.missionExists(35L);
     assertFalse(missionExists);
   }
+
+  @Test
+  public void testMissionsExistIgnoresDuplicateIds() {
+    List<Long> ids = Arrays.asList(35L, 36L, 35L);
+    given(this.mockSettlementMissionRpsy.countByIdIn(ids)).willReturn(2L);
+
+    assertTrue(service.missionsExist(ids));
+  }
+
+  @Test
+  public void testMissionsExistMissing() {
+    List<Long> ids = Arrays.asList(35L, 36L);
+    given(this.mockSettlementMissionRpsy.countByIdIn(ids)).willReturn(1L);
+
+    assertFalse(service.missionsExist(ids));
+  }
 }
@@ -0,0 +1,108 @@
+package org.galatea.starter.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.galatea.starter.domain.IexSymbol;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SymbolDirectoryTest {
+
+  private IexClient mockIexClient;
+
+  private SymbolDirectory directory;
+
+  @Before
+  public void setup() {
+    mockIexClient = mock(IexClient.class);
+    given(mockIexClient.getAllSymbols()).willReturn(Arrays.asList(
+        symbol("AAPL", "Apple Inc."),
+        symbol("A", "Agilent Technologies Inc."),
+        symbol("AMZN", "Amazon.com Inc."),
+        symbol("AA", "Alcoa Corporation"),
+        symbol("APLE", "Apple Hospitality REIT Inc."),
+        symbol("IBM", "International Business Machines Corporation")));
+    // Refreshed by hand in these tests
+    directory = new SymbolDirectory(mockIexClient, 3_600_000);
+  }
+
+  @After
+  public void tearDown() {
+    directory.shutdown();
+  }
+
+  @Test
+  public void testLoadedOnceOnFirstUse() {
+    List<IexSymbol> all = directory.getAll();
+
+    assertEquals(6, all.size());
+    assertEquals("AAPL", all.get(0).getSymbol());
+    directory.find("IBM");
+    directory.search("A", 10);
+    verify(mockIexClient, times(1)).getAllSymbols();
+  }
+
+  @Test
+  public void testFindIgnoresCase() {
+    assertEquals("Amazon.com Inc.", directory.find("amzn").get().getName());
+    assertFalse(directory.find("AM").isPresent());
+  }
+
+  @Test
+  public void testSearchListsSymbolMatchesBeforeNameMatches() {
+    // APLE matches by symbol, then both Apples by name
+    assertEquals(Arrays.asList("APLE", "AAPL"), symbols(directory.search("ap", 10)));
+    assertEquals(Collections.singletonList("AMZN"), symbols(directory.search("Amaz", 10)));
+  }
+
+  @Test
+  public void testSearchStopsAtLimit() {
+    assertEquals(Arrays.asList("A", "AA", "AAPL"), symbols(directory.search("a", 3)));
+    assertEquals(Collections.emptyList(), directory.search("ZZZ", 3));
+  }
+
+  @Test
+  public void testVersionChangesOnlyWithContents() {
+    String version = directory.getVersion();
+    List<IexSymbol> all = directory.getAll();
+
+    directory.refresh();
+    assertEquals(version, directory.getVersion());
+
+    given(mockIexClient.getAllSymbols())
+        .willReturn(Collections.singletonList(symbol("TWTR", "Twitter Inc.")));
+    directory.refresh();
+    assertNotEquals(version, directory.getVersion());
+    assertEquals(6, all.size());
+  }
+
+  @Test
+  public void testRepeatedStringsAreShared() {
+    IexSymbol apple = directory.find("AAPL").get();
+    IexSymbol amazon = directory.find("AMZN").get();
+
+    assertSame(apple.getType(), amazon.getType());
+  }
+
+  private static List<String> symbols(final List<IexSymbol> symbols) {
+    return symbols.stream().map(IexSymbol::getSymbol).collect(Collectors.toList());
+  }
+
+  private static IexSymbol symbol(final String symbol, final String name) {
+    // A new type string per symbol, like Jackson reads them
+    return IexSymbol.builder().symbol(symbol).name(name).isEnabled(true)
+        .type(new String("cs")).iexId(symbol.toLowerCase()).build();
+  }
+}
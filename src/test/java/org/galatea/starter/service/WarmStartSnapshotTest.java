@@ -0,0 +1,216 @@
+package org.galatea.starter.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.galatea.starter.domain.IexHistoricalPrice;
+import org.galatea.starter.domain.IexHistoricalPriceSummary;
+import org.galatea.starter.domain.IexSymbol;
+import org.galatea.starter.domain.rpsy.IexHistoricalPricesRpsy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.boot.actuate.health.Status;
+
+public class WarmStartSnapshotTest {
+
+  private static final long DAY_MILLIS = 86_400_000;
+
+  private static final LocalDate START = LocalDate.of(2019, 1, 1);
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private final List<SymbolDirectory> directories = new ArrayList<>();
+
+  private IexClient mockIexClient;
+
+  private IexHistoricalPricesRpsy mockHistoricalPricesRpsy;
+
+  @Before
+  public void setup() {
+    mockIexClient = mock(IexClient.class);
+    mockHistoricalPricesRpsy = mock(IexHistoricalPricesRpsy.class);
+    given(mockIexClient.getAllSymbols()).willReturn(Arrays.asList(
+        IexSymbol.builder().symbol("AAPL").name("Apple Inc.").date(new Date(1565222400000L))
+            .isEnabled(true).type("cs").iexId("11").build(),
+        // Nulls survive the round trip too
+        IexSymbol.builder().symbol("IBM").build()));
+  }
+
+  @After
+  public void tearDown() {
+    directories.forEach(SymbolDirectory::shutdown);
+  }
+
+  @Test
+  public void testRestoresWhatWasWritten() throws Exception {
+    SymbolDirectory directory = newDirectory();
+    directory.refresh();
+    HistoricalPriceCache cache = new HistoricalPriceCache(mockHistoricalPricesRpsy, 1 << 20);
+    cache.restore(HistoricalPriceSeries.of("TWTR", prices("TWTR", 30)));
+    cache.restore(HistoricalPriceSeries.of("AAPL", prices("AAPL", 250)));
+    newSnapshot(directory, cache, DAY_MILLIS).write();
+    givenStored(summary("TWTR", 30), summary("AAPL", 250));
+
+    SymbolDirectory restoredDirectory = newDirectory();
+    HistoricalPriceCache restoredCache =
+        new HistoricalPriceCache(mockHistoricalPricesRpsy, 1 << 20);
+    WarmStartSnapshot snapshot = newSnapshot(restoredDirectory, restoredCache, DAY_MILLIS);
+    assertEquals(Status.OUT_OF_SERVICE, snapshot.health().getStatus());
+    snapshot.load();
+
+    assertEquals(Status.UP, snapshot.health().getStatus());
+    assertTrue(restoredDirectory.isLoaded());
+    assertEquals(directory.getAll(), restoredDirectory.getAll());
+    assertEquals(Arrays.asList("TWTR", "AAPL"), restoredCache.getCachedSeries().stream()
+        .map(HistoricalPriceSeries::getSymbol).collect(Collectors.toList()));
+    assertEquals(prices("AAPL", 250), restoredCache.getSeries("AAPL")
+        .getPrices(START, START.plusDays(250)));
+    verify(mockHistoricalPricesRpsy, never()).findBySymbolOrderByDate("AAPL");
+  }
+
+  @Test
+  public void testHistoricalPricesAreNotRestoredIntoAnEmptyDatabase() throws Exception {
+    SymbolDirectory directory = newDirectory();
+    directory.refresh();
+    HistoricalPriceCache cache = new HistoricalPriceCache(mockHistoricalPricesRpsy, 1 << 20);
+    cache.restore(HistoricalPriceSeries.of("AAPL", prices("AAPL", 20)));
+    newSnapshot(directory, cache, DAY_MILLIS).write();
+
+    SymbolDirectory restoredDirectory = newDirectory();
+    HistoricalPriceCache restoredCache =
+        new HistoricalPriceCache(mockHistoricalPricesRpsy, 1 << 20);
+    WarmStartSnapshot snapshot = newSnapshot(restoredDirectory, restoredCache, DAY_MILLIS);
+    snapshot.load();
+
+    assertEquals(Status.UP, snapshot.health().getStatus());
+    assertTrue(restoredDirectory.isLoaded());
+    assertTrue(restoredCache.getCachedSeries().isEmpty());
+    // Kept for a later start against a database that has the prices
+    assertTrue(Files.exists(
+        folder.getRoot().toPath().resolve(WarmStartSnapshot.HISTORICAL_PRICES_FILE)));
+  }
+
+  @Test
+  public void testSeriesTheDatabaseDoesNotMatchAreNotRestored() throws Exception {
+    HistoricalPriceCache cache = new HistoricalPriceCache(mockHistoricalPricesRpsy, 1 << 20);
+    cache.restore(HistoricalPriceSeries.of("AAPL", prices("AAPL", 20)));
+    cache.restore(HistoricalPriceSeries.of("TWTR", prices("TWTR", 30)));
+    cache.restore(HistoricalPriceSeries.of("IBM", prices("IBM", 10)));
+    newSnapshot(newDirectory(), cache, DAY_MILLIS).write();
+    // A day was stored for TWTR after the snapshot, and IBM's prices are gone
+    givenStored(summary("AAPL", 20), summary("TWTR", 31));
+
+    HistoricalPriceCache restoredCache =
+        new HistoricalPriceCache(mockHistoricalPricesRpsy, 1 << 20);
+    WarmStartSnapshot snapshot = newSnapshot(newDirectory(), restoredCache, DAY_MILLIS);
+    snapshot.load();
+
+    assertEquals(Collections.singletonList("AAPL"), restoredCache.getCachedSeries().stream()
+        .map(HistoricalPriceSeries::getSymbol).collect(Collectors.toList()));
+    verify(mockHistoricalPricesRpsy, times(1)).summarizeBySymbolIn(anyCollection());
+  }
+
+  @Test
+  public void testCorruptSnapshotIsDiscarded() throws Exception {
+    HistoricalPriceCache cache = new HistoricalPriceCache(mockHistoricalPricesRpsy, 1 << 20);
+    cache.restore(HistoricalPriceSeries.of("AAPL", prices("AAPL", 20)));
+    newSnapshot(newDirectory(), cache, DAY_MILLIS).write();
+    Path file = folder.getRoot().toPath().resolve(WarmStartSnapshot.HISTORICAL_PRICES_FILE);
+    try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+      raf.seek(raf.length() - 1);
+      int last = raf.read();
+      raf.seek(raf.length() - 1);
+      raf.write(last ^ 1);
+    }
+
+    HistoricalPriceCache restoredCache =
+        new HistoricalPriceCache(mockHistoricalPricesRpsy, 1 << 20);
+    WarmStartSnapshot snapshot = newSnapshot(newDirectory(), restoredCache, DAY_MILLIS);
+    snapshot.load();
+
+    assertEquals(Status.UP, snapshot.health().getStatus());
+    assertTrue(restoredCache.getCachedSeries().isEmpty());
+    assertFalse(Files.exists(file));
+  }
+
+  @Test
+  public void testStaleSnapshotIsDiscarded() throws Exception {
+    SymbolDirectory directory = newDirectory();
+    directory.refresh();
+    newSnapshot(directory, new HistoricalPriceCache(mockHistoricalPricesRpsy, 1 << 20),
+        DAY_MILLIS).write();
+
+    SymbolDirectory restoredDirectory = newDirectory();
+    newSnapshot(restoredDirectory, new HistoricalPriceCache(mockHistoricalPricesRpsy, 1 << 20),
+        -1).load();
+
+    assertFalse(restoredDirectory.isLoaded());
+    assertFalse(Files.exists(folder.getRoot().toPath().resolve(WarmStartSnapshot.SYMBOLS_FILE)));
+  }
+
+  @Test
+  public void testNothingIsWrittenOnShutdownBeforeLoading() {
+    SymbolDirectory directory = newDirectory();
+    directory.refresh();
+    newSnapshot(directory, new HistoricalPriceCache(mockHistoricalPricesRpsy, 1 << 20),
+        DAY_MILLIS).shutdown();
+
+    assertFalse(Files.exists(folder.getRoot().toPath().resolve(WarmStartSnapshot.SYMBOLS_FILE)));
+  }
+
+  private SymbolDirectory newDirectory() {
+    SymbolDirectory directory = new SymbolDirectory(mockIexClient, 3_600_000);
+    directories.add(directory);
+    return directory;
+  }
+
+  private WarmStartSnapshot newSnapshot(final SymbolDirectory directory,
+      final HistoricalPriceCache cache, final long maxAgeMillis) {
+    return new WarmStartSnapshot(directory, cache, mockHistoricalPricesRpsy,
+        folder.getRoot().getPath(), 3_600_000, maxAgeMillis);
+  }
+
+  private void givenStored(final IexHistoricalPriceSummary... summaries) {
+    given(mockHistoricalPricesRpsy.summarizeBySymbolIn(anyCollection()))
+        .willReturn(Arrays.asList(summaries));
+  }
+
+  /* What the database holds for prices(symbol, days) */
+  private static IexHistoricalPriceSummary summary(final String symbol, final int days) {
+    return new IexHistoricalPriceSummary(symbol, (long) days, START.plusDays(days - 1));
+  }
+
+  private static List<IexHistoricalPrice> prices(final String symbol, final int days) {
+    List<IexHistoricalPrice> prices = new ArrayList<>();
+    for (int i = 0; i < days; i++) {
+      // No trailing zeros, the series strips them
+      BigDecimal price = BigDecimal.valueOf(1_000_001 + 10L * i, 4);
+      prices.add(IexHistoricalPrice.builder().symbol(symbol).date(START.plusDays(i))
+          .open(price).high(price).low(price).close(price).volume(BigInteger.valueOf(i)).build());
+    }
+    return prices;
+  }
+}
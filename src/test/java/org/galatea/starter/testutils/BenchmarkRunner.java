@@ -0,0 +1,87 @@
+package org.galatea.starter.testutils;
+
+import java.util.Collection;
+import lombok.extern.slf4j.Slf4j;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks in a class from a JUnit test, so that benchmarks can live next to the
+ * tests and be run with the benchmark maven profile.
+ */
+@Slf4j
+public final class BenchmarkRunner {
+
+  private BenchmarkRunner() {}
+
+  /**
+   * Run every benchmark method in the given class with the settings from its annotations.
+   */
+  public static Collection<RunResult> run(final Class<?> benchmarkClass) throws RunnerException {
+    return new Runner(new OptionsBuilder()
+        .include(benchmarkClass.getName() + "\\.")
+        .shouldFailOnError(true)
+        .build()).run();
+  }
+
+  /**
+   * Run every benchmark method in the given class with the GC profiler, which adds the memory
+   * allocated per operation to the results. See {@link #allocatedBytes}.
+   */
+  public static Collection<RunResult> runWithGcProfiler(final Class<?> benchmarkClass)
+      throws RunnerException {
+    return new Runner(new OptionsBuilder()
+        .include(benchmarkClass.getName() + "\\.")
+        .addProfiler(GCProfiler.class)
+        .shouldFailOnError(true)
+        .build()).run();
+  }
+
+  /**
+   * Get the primary score of one benchmark method, e.g. operations per second for a throughput
+   * benchmark.
+   */
+  public static double score(final Collection<RunResult> results, final String method) {
+    RunResult result = find(results, method);
+    log.info("{}: {} {}", method, result.getPrimaryResult().getScore(),
+        result.getPrimaryResult().getScoreUnit());
+    return result.getPrimaryResult().getScore();
+  }
+
+  /**
+   * Get a percentile of the sampled times of one benchmark method. Only meaningful for
+   * benchmarks run in sample time mode.
+   */
+  public static double percentile(final Collection<RunResult> results, final String method,
+      final double percentile) {
+    RunResult result = find(results, method);
+    double value = result.getPrimaryResult().getStatistics().getPercentile(percentile);
+    log.info("{} p{}: {} {}", method, percentile, value, result.getPrimaryResult().getScoreUnit());
+    return value;
+  }
+
+  /**
+   * Get the bytes allocated per operation of one benchmark method. Only available for benchmarks
+   * run with {@link #runWithGcProfiler}.
+   */
+  public static double allocatedBytes(final Collection<RunResult> results, final String method) {
+    Result<?> result = find(results, method).getSecondaryResults().entrySet().stream()
+        .filter(entry -> entry.getKey().endsWith("gc.alloc.rate.norm"))
+        .map(entry -> entry.getValue())
+        .findFirst()
+        .orElseThrow(() -> new IllegalArgumentException("No allocation results for " + method));
+    log.info("{} allocated: {} {}", method, result.getScore(), result.getScoreUnit());
+    return result.getScore();
+  }
+
+  private static RunResult find(final Collection<RunResult> results, final String method) {
+    return results.stream()
+        .filter(run -> run.getParams().getBenchmark().endsWith("." + method))
+        .findFirst()
+        .orElseThrow(() -> new IllegalArgumentException("No results for " + method));
+  }
+}
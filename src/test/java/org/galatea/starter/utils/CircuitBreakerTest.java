@@ -0,0 +1,103 @@
+package org.galatea.starter.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.galatea.starter.utils.CircuitBreaker.State;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  @Test
+  public void testOpensAfterConsecutiveFailures() {
+    CircuitBreaker breaker = new CircuitBreaker(meterRegistry, "test.circuit", 3, 60000);
+
+    fail(breaker);
+    fail(breaker);
+    // A success resets the run
+    assertTrue(breaker.tryAcquire());
+    breaker.onSuccess();
+    fail(breaker);
+    fail(breaker);
+    assertEquals(State.CLOSED, breaker.getState());
+    fail(breaker);
+
+    assertEquals(State.OPEN, breaker.getState());
+    assertFalse(breaker.tryAcquire());
+    assertEquals(1, transitions("open"), 0);
+    assertEquals(1, meterRegistry.get("test.circuit.state").gauge().value(), 0);
+  }
+
+  @Test
+  public void testOneTrialAfterOpenPeriodClosesOnSuccess() {
+    CircuitBreaker breaker = new CircuitBreaker(meterRegistry, "test.circuit", 1, 0);
+    fail(breaker);
+
+    assertTrue(breaker.tryAcquire());
+    assertEquals(State.HALF_OPEN, breaker.getState());
+    // Only the trial goes through
+    assertFalse(breaker.tryAcquire());
+    breaker.onSuccess();
+
+    assertEquals(State.CLOSED, breaker.getState());
+    assertTrue(breaker.tryAcquire());
+    assertEquals(1, transitions("half_open"), 0);
+    assertEquals(1, transitions("closed"), 0);
+  }
+
+  @Test
+  public void testFailedTrialOpensAgain() {
+    CircuitBreaker breaker = new CircuitBreaker(meterRegistry, "test.circuit", 1, 0);
+    fail(breaker);
+
+    fail(breaker);
+
+    assertEquals(State.OPEN, breaker.getState());
+    assertEquals(2, transitions("open"), 0);
+  }
+
+  @Test
+  public void testCancelledTrialLetsAnotherThrough() {
+    CircuitBreaker breaker = new CircuitBreaker(meterRegistry, "test.circuit", 1, 0);
+    fail(breaker);
+    assertTrue(breaker.tryAcquire());
+
+    breaker.onCancelled();
+
+    assertTrue(breaker.tryAcquire());
+    assertEquals(State.HALF_OPEN, breaker.getState());
+  }
+
+  @Test
+  public void testTaggedBreakersPublishApart() {
+    CircuitBreaker first = new CircuitBreaker(meterRegistry, "test.circuit",
+        Tags.of("client", "first"), 1, 60000);
+    CircuitBreaker second = new CircuitBreaker(meterRegistry, "test.circuit",
+        Tags.of("client", "second"), 1, 60000);
+
+    fail(first);
+
+    assertEquals(State.OPEN, first.getState());
+    assertEquals(State.CLOSED, second.getState());
+    assertEquals(1, meterRegistry.get("test.circuit.state").tag("client", "first").gauge().value(),
+        0);
+    assertEquals(0, meterRegistry.get("test.circuit.state").tag("client", "second").gauge().value(),
+        0);
+    assertEquals(1, meterRegistry.counter("test.circuit.transitions", "client", "first", "to",
+        "open").count(), 0);
+  }
+
+  private double transitions(final String to) {
+    return meterRegistry.counter("test.circuit.transitions", "to", to).count();
+  }
+
+  private static void fail(final CircuitBreaker breaker) {
+    assertTrue(breaker.tryAcquire());
+    breaker.onFailure();
+  }
+}
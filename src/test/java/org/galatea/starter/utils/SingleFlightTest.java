@@ -0,0 +1,100 @@
+package org.galatea.starter.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.awaitility.Awaitility;
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private final SingleFlight<String, Object> singleFlight =
+      new SingleFlight<>(meterRegistry, "test.calls");
+
+  @Test
+  public void testConcurrentCallsAreCoalesced() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+    Object result = new Object();
+    ExecutorService executor = Executors.newFixedThreadPool(5);
+
+    try {
+      List<Future<Object>> futures = new ArrayList<>();
+      for (int i = 0; i < 5; i++) {
+        futures.add(executor.submit(() -> singleFlight.execute("key", () -> {
+          calls.incrementAndGet();
+          awaitQuietly(release);
+          return result;
+        })));
+      }
+      Awaitility.await().atMost(5, TimeUnit.SECONDS)
+          .until(() -> singleFlight.getIssuedCount() + singleFlight.getCoalescedCount() == 5);
+      release.countDown();
+
+      for (Future<Object> future : futures) {
+        assertSame(result, future.get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(1, calls.get());
+    assertEquals(1, singleFlight.getIssuedCount());
+    assertEquals(4, singleFlight.getCoalescedCount());
+    assertEquals(4.0, meterRegistry.get("test.calls").tag("call", "coalesced").counter().count(),
+        0.0);
+  }
+
+  @Test
+  public void testCompletedCallIsNotCached() {
+    AtomicInteger calls = new AtomicInteger();
+
+    singleFlight.execute("key", calls::incrementAndGet);
+    singleFlight.execute("key", calls::incrementAndGet);
+
+    assertEquals(2, calls.get());
+    assertEquals(0, singleFlight.getCoalescedCount());
+  }
+
+  @Test
+  public void testDifferentKeysAreNotCoalesced() {
+    assertEquals("a", singleFlight.execute("a", () -> "a"));
+    assertEquals("b", singleFlight.execute("b", () -> "b"));
+
+    assertEquals(2, singleFlight.getIssuedCount());
+  }
+
+  @Test
+  public void testFailureIsRethrownAndNotKept() {
+    IllegalStateException failure = new IllegalStateException("boom");
+    try {
+      singleFlight.execute("key", () -> {
+        throw failure;
+      });
+      fail("Expected the call's exception");
+    } catch (IllegalStateException err) {
+      assertSame(failure, err);
+    }
+
+    assertEquals("ok", singleFlight.execute("key", () -> "ok"));
+  }
+
+  private static void awaitQuietly(final CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException err) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
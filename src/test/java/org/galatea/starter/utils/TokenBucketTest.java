@@ -0,0 +1,69 @@
+package org.galatea.starter.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.awaitility.Awaitility;
+import org.galatea.starter.utils.TokenBucket.Priority;
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  @Test
+  public void testBurstIsServedThenCallersAreRejected() throws Exception {
+    TokenBucket bucket = new TokenBucket(meterRegistry, "test.limit", 0.1, 3);
+
+    for (int i = 0; i < 3; i++) {
+      assertTrue(bucket.tryAcquire(Priority.INTERACTIVE, 0, TimeUnit.MILLISECONDS));
+    }
+    assertFalse(bucket.tryAcquire(Priority.INTERACTIVE, 10, TimeUnit.MILLISECONDS));
+
+    assertEquals(3, meterRegistry.counter("test.limit.permits", "priority", "interactive",
+        "result", "used").count(), 0);
+    assertEquals(1, meterRegistry.counter("test.limit.permits", "priority", "interactive",
+        "result", "rejected").count(), 0);
+  }
+
+  @Test
+  public void testQueuedCallerGetsNextPermit() throws Exception {
+    TokenBucket bucket = new TokenBucket(meterRegistry, "test.limit", 20, 1);
+    assertTrue(bucket.tryAcquire(Priority.INTERACTIVE, 0, TimeUnit.MILLISECONDS));
+
+    long start = System.nanoTime();
+    assertTrue(bucket.tryAcquire(Priority.INTERACTIVE, 1, TimeUnit.SECONDS));
+    long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    // One permit every 50ms
+    assertTrue("Waited " + waitedMillis + "ms", waitedMillis >= 40);
+  }
+
+  @Test
+  public void testBackgroundGivesWayToQueuedInteractive() throws Exception {
+    TokenBucket bucket = new TokenBucket(meterRegistry, "test.limit", 5, 1);
+    assertTrue(bucket.tryAcquire(Priority.BACKGROUND, 0, TimeUnit.MILLISECONDS));
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    try {
+      Future<Boolean> background = executor.submit(
+          () -> bucket.tryAcquire(Priority.BACKGROUND, 10, TimeUnit.SECONDS));
+      Awaitility.await().until(() -> bucket.getQueued(Priority.BACKGROUND) == 1);
+      Future<Boolean> interactive = executor.submit(
+          () -> bucket.tryAcquire(Priority.INTERACTIVE, 10, TimeUnit.SECONDS));
+
+      // The next permit, 200ms on, goes to the interactive caller even though it came second
+      assertTrue(interactive.get(5, TimeUnit.SECONDS));
+      assertFalse(background.isDone());
+      assertTrue(background.get(5, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package org.galatea.starter.utils.http;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.galatea.starter.utils.TokenBucket.Priority;
+import org.junit.After;
+import org.junit.Test;
+
+public class RateLimitedClientTest {
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testPriorityIsInteractiveByDefault() throws Exception {
+    assertEquals(Priority.INTERACTIVE,
+        executor.submit(RateLimitedClient::currentPriority).get());
+  }
+
+  @Test
+  public void testWrappedTaskRunsWithTheWrappingThreadsPriority() throws Exception {
+    Priority[] seen = new Priority[1];
+    Runnable task = RateLimitedClient.callAs(Priority.BACKGROUND,
+        () -> RateLimitedClient.withCurrentPriority(
+            () -> seen[0] = RateLimitedClient.currentPriority()));
+
+    Future<?> done = executor.submit(task);
+    done.get();
+
+    assertEquals(Priority.BACKGROUND, seen[0]);
+    // The executor's thread gets its own priority back for the next task
+    assertEquals(Priority.INTERACTIVE,
+        executor.submit(RateLimitedClient::currentPriority).get());
+  }
+}
@@ -4,6 +4,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -100,6 +102,17 @@ public class CsvSerializerTest {
     assertEquals(expected, actual);
   }
 
+  @Test
+  public void writeCsv_sameAsSerializeToCsv() throws Exception {
+    List<BasicClass> rows = Arrays.asList(new BasicClass("foo", "bar"), new BasicClass("baz", null));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    CsvSerializer.writeCsv(rows.iterator(), BasicClass.class, out);
+
+    assertEquals(CsvSerializer.serializeToCsv(rows, BasicClass.class),
+        out.toString(StandardCharsets.UTF_8.name()));
+  }
+
   @AllArgsConstructor
   @NoArgsConstructor
   @Getter
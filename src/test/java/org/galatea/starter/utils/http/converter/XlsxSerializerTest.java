@@ -1,11 +1,15 @@
 package org.galatea.starter.utils.http.converter;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -13,6 +17,8 @@ import lombok.AllArgsConstructor;
 import lombok.NoArgsConstructor;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
@@ -160,6 +166,68 @@ public class XlsxSerializerTest {
     assertTrue(XlsxComparator.equals(expected, actual));
   }
 
+  @Test
+  public void writeXlsx_rowsBeyondWindow() throws Exception {
+    List<BasicClass> rows = new ArrayList<>();
+    for (int i = 0; i < XlsxSerializer.ROW_WINDOW * 3; i++) {
+      rows.add(new BasicClass("row" + i, null));
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    XlsxSerializer.writeXlsx(rows.iterator(), BasicClass.class, out);
+
+    // Rows flushed out of the window are all there, in order
+    try (Workbook wb = new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()))) {
+      Sheet sheet = wb.getSheetAt(0);
+      assertEquals(rows.size(), sheet.getLastRowNum());
+      for (int i = 0; i < rows.size(); i++) {
+        assertEquals("row" + i, sheet.getRow(i + 1).getCell(0).getStringCellValue());
+      }
+      assertEquals("", sheet.getRow(rows.size()).getCell(1).getStringCellValue());
+    }
+  }
+
+  @Test
+  public void writeXlsx_numericCells() throws Exception {
+    List<ClassHoldingOtherClass> rows = new ArrayList<>();
+    for (int i = 0; i < XlsxSerializer.ROW_WINDOW * 3; i++) {
+      rows.add(new ClassHoldingOtherClass(i, null));
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    XlsxSerializer.writeXlsx(rows.iterator(), ClassHoldingOtherClass.class, out);
+
+    // Numbers aren't stringified, including in rows flushed out of the window
+    try (Workbook wb = new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()))) {
+      Sheet sheet = wb.getSheetAt(0);
+      assertEquals(rows.size(), sheet.getLastRowNum());
+      Cell last = sheet.getRow(rows.size()).getCell(0);
+      assertEquals(CellType.NUMERIC, last.getCellType());
+      assertEquals(rows.size() - 1, last.getNumericCellValue(), 0);
+      assertEquals("", sheet.getRow(rows.size()).getCell(1).getStringCellValue());
+    }
+  }
+
+  @Test
+  public void writeXlsx_inexactNumbersAsStrings() throws Exception {
+    List<ClassWithNumbers> rows = Arrays.asList(
+        new ClassWithNumbers(42L, new BigDecimal("123.45")),
+        new ClassWithNumbers(Long.MAX_VALUE, new BigDecimal("0.12345678901234567890")));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    XlsxSerializer.writeXlsx(rows.iterator(), ClassWithNumbers.class, out);
+
+    // Numbers a double can't hold are written as strings rather than rounded
+    try (Workbook wb = new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()))) {
+      Sheet sheet = wb.getSheetAt(0);
+      assertEquals(42, sheet.getRow(1).getCell(0).getNumericCellValue(), 0);
+      assertEquals(123.45, sheet.getRow(1).getCell(1).getNumericCellValue(), 0);
+      assertEquals(String.valueOf(Long.MAX_VALUE),
+          sheet.getRow(2).getCell(0).getStringCellValue());
+      assertEquals("0.12345678901234567890", sheet.getRow(2).getCell(1).getStringCellValue());
+    }
+  }
+
   private static byte[] writeSpreadsheetToBytes(final Workbook wb) throws IOException {
     try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
       wb.write(baos);
@@ -205,6 +273,13 @@ public class XlsxSerializerTest {
     private BasicClass field2;
   }
 
+  @AllArgsConstructor
+  private static class ClassWithNumbers {
+
+    private Long field1;
+    private BigDecimal field2;
+  }
+
   @AllArgsConstructor
   private static class CustomHeadersClass {
 
@@ -0,0 +1,261 @@
+package org.galatea.starter.utils.rest;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.okJson;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.Application;
+import org.galatea.starter.testutils.BenchmarkRunner;
+import org.galatea.starter.utils.VirtualThreads;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Load tests virtual thread mode (see VirtualThreadConfig) by sending 10,000 concurrent HTTP
+ * requests for last traded prices to the application in its embedded Jetty, once with
+ * virtual-threads.enabled off and once with it on. IEX is a local WireMock server that takes 50ms
+ * to answer every call, so each request spends most of its time blocked on IEX, as it would
+ * against the real API. Jetty's 200 platform threads serve 200 of the requests at a time and queue
+ * the rest; with virtual threads every request is served at once.
+ *
+ * <p>Each request asks for its own symbol and WireMock answers with no prices, so nothing is
+ * cached. The batch window is turned off, and the rate limit and connection pool are raised above
+ * the number of requests, so that every request makes its own call to IEX and the request threads
+ * are the only bound. Everything else is as configured in application.yml.
+ *
+ * <p>Throughput is requests per second over a round of 10,000. Memory is measured once per mode
+ * before the benchmarks, while a round is in flight: the peak growth of the heap in use (garbage
+ * included) and of the process' resident set, which counts platform thread stacks, and the peak
+ * number of live platform threads. Virtual threads need JDK 21 or later, so on the JDK 11 the
+ * project builds with the whole benchmark is skipped. The client and the server share a process,
+ * so it needs an open file limit (ulimit -n) of at least 25,000.
+ *
+ * <p>Run with: mvn test -Pbenchmark -Dtest=VirtualThreadPoolBenchmark
+ */
+@Slf4j
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VirtualThreadPoolBenchmark {
+
+  private static final int CONCURRENT_REQUESTS = 10_000;
+
+  private static final int IEX_DELAY_MILLIS = 50;
+
+  /* WireMock schedules its delayed responses rather than holding a thread per call */
+  private static final int IEX_RESPONSE_THREADS = 16;
+
+  private WireMockServer iex;
+
+  private ConfigurableApplicationContext application;
+
+  private HttpClient client;
+
+  private List<HttpRequest> requests;
+
+  @Test
+  public void runBenchmarks() throws Exception {
+    assumeTrue("Virtual threads need JDK 21 or later", VirtualThreads.isAvailable());
+    logFootprint("Platform threads", false);
+    logFootprint("Virtual threads", true);
+
+    Collection<RunResult> results = BenchmarkRunner.run(getClass());
+    double platformMillis = BenchmarkRunner.score(results, "platformThreads");
+    double virtualMillis = BenchmarkRunner.score(results, "virtualThreads");
+    log.info("10k concurrent requests: platform threads served {} requests/s, virtual threads {}"
+        + " requests/s", perSecond(platformMillis), perSecond(virtualMillis));
+    assertTrue(virtualMillis < platformMillis);
+  }
+
+  /**
+   * Start the application in the mode the benchmark method is named for.
+   */
+  @Setup(Level.Trial)
+  public void setup(final BenchmarkParams params) {
+    start(params.getBenchmark().endsWith(".virtualThreads"));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    stop();
+  }
+
+  @Benchmark
+  public void platformThreads() {
+    sendRound();
+  }
+
+  @Benchmark
+  public void virtualThreads() {
+    sendRound();
+  }
+
+  private void start(final boolean virtualThreads) {
+    iex = new WireMockServer(options().dynamicPort()
+        .asynchronousResponseEnabled(true)
+        .asynchronousResponseThreads(IEX_RESPONSE_THREADS));
+    iex.start();
+    iex.stubFor(get(urlPathEqualTo("/tops/last")).willReturn(aResponse()
+        .withHeader("Content-Type", "application/json")
+        .withFixedDelay(IEX_DELAY_MILLIS)
+        .withBody("[]")));
+    // Loaded into the symbol directory on start up
+    iex.stubFor(get(urlPathEqualTo("/ref-data/symbols")).willReturn(okJson("[]")));
+
+    // Command line arguments, as they take precedence over application.yml
+    application = new SpringApplicationBuilder(Application.class).run(
+        "--server.port=0",
+        "--wiremock.server.port=" + iex.port(),
+        "--virtual-threads.enabled=" + virtualThreads,
+        "--iex.last-traded-price.batch.window-millis=0",
+        "--iex.rate-limit.permits-per-second=" + CONCURRENT_REQUESTS * 10,
+        "--iex.rate-limit.burst=" + CONCURRENT_REQUESTS,
+        "--iex.http.max-connections=" + CONCURRENT_REQUESTS,
+        "--iex.http.max-connections-per-route=" + CONCURRENT_REQUESTS,
+        // Logged per request, which would hold up both modes alike
+        "--logging.level.org.galatea.starter.entrypoint=WARN",
+        "--logging.level.org.galatea.starter.service=WARN",
+        "--logging.level.org.galatea.starter.utils.FuseHttpTraceRepository=WARN",
+        "--logging.level.org.galatea.starter.utils.rest.FuseHttpTraceFilter=WARN");
+    int port = ((WebServerApplicationContext) application).getWebServer().getPort();
+
+    client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    requests = new ArrayList<>(CONCURRENT_REQUESTS);
+    for (int i = 0; i < CONCURRENT_REQUESTS; i++) {
+      requests.add(HttpRequest.newBuilder(URI.create(
+          "http://localhost:" + port + "/iex/lastTradedPrice?symbols=S" + i)).build());
+    }
+  }
+
+  private void stop() {
+    application.close();
+    iex.stop();
+  }
+
+  /*
+   * Send every request at once and wait for all of the responses.
+   */
+  private void sendRound() {
+    List<CompletableFuture<HttpResponse<Void>>> responses = new ArrayList<>(requests.size());
+    for (HttpRequest request : requests) {
+      responses.add(client.sendAsync(request, BodyHandlers.discarding()));
+    }
+    for (CompletableFuture<HttpResponse<Void>> response : responses) {
+      int status = response.join().statusCode();
+      if (status != 200) {
+        throw new IllegalStateException("Request failed with status " + status);
+      }
+    }
+  }
+
+  /*
+   * Start the application in one mode and log the peak growth of the heap, the resident set and
+   * the live platform threads while a round of requests is in flight.
+   */
+  private void logFootprint(final String name, final boolean virtualThreads) throws Exception {
+    start(virtualThreads);
+    try {
+      // Opens the connections and creates whatever is created lazily, so that only what the
+      // requests in flight hold is measured
+      sendRound();
+      long heapBefore = usedHeap();
+      long rssBefore = residentSetBytes();
+      int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+      AtomicLong peakHeap = new AtomicLong(heapBefore);
+      AtomicLong peakRss = new AtomicLong(rssBefore);
+      AtomicLong peakThreads = new AtomicLong(threadsBefore);
+
+      ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+      sampler.scheduleAtFixedRate(() -> {
+        peakHeap.accumulateAndGet(
+            ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed(), Math::max);
+        peakRss.accumulateAndGet(residentSetBytes(), Math::max);
+        peakThreads.accumulateAndGet(ManagementFactory.getThreadMXBean().getThreadCount(),
+            Math::max);
+      }, 0, 10, TimeUnit.MILLISECONDS);
+      long start = System.nanoTime();
+      try {
+        sendRound();
+      } finally {
+        sampler.shutdownNow();
+      }
+
+      log.info("{}: {} requests in {}ms, heap in use grew up to {}KB, resident set grew up to"
+          + " {}KB, live platform threads peaked at {} ({} before)", name, CONCURRENT_REQUESTS,
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+          (peakHeap.get() - heapBefore) / 1024, (peakRss.get() - rssBefore) / 1024,
+          peakThreads.get(), threadsBefore);
+    } finally {
+      stop();
+    }
+  }
+
+  private static long usedHeap() {
+    System.gc();
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+
+  /* VmRSS from /proc, which counts platform thread stacks; 0 where there is no /proc */
+  private static long residentSetBytes() {
+    Path status = Paths.get("/proc/self/status");
+    if (!Files.exists(status)) {
+      return 0;
+    }
+    try {
+      return Files.readAllLines(status).stream()
+          .filter(line -> line.startsWith("VmRSS:"))
+          .mapToLong(line -> Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024)
+          .findFirst()
+          .orElse(0);
+    } catch (IOException err) {
+      return 0;
+    }
+  }
+
+  private static long perSecond(final double millisPerRound) {
+    return Math.round(CONCURRENT_REQUESTS * 1000 / millisPerRound);
+  }
+}